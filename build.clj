@@ -22,6 +22,16 @@
             :javac-opts ["-source" "8" "-target" "8" "-Xlint:unchecked"
                          ]}))
 
+(defn jmh-compile
+  "Compile the jmh benchmark classes - the jmh annotation processor generates the
+  benchmark harness."
+  [_]
+  (b/delete {:path "jmh/classes"})
+  (b/javac {:src-dirs ["jmh/java"]
+            :class-dir "jmh/classes"
+            :basis (b/create-basis {:aliases [:jmh]})
+            :javac-opts ["-source" "8" "-target" "8"]}))
+
 (def pom-template
   [[:licenses
     [:license
@@ -6,7 +6,8 @@
             [ham-fisted.reduce :as hamf-rf]
             [clojure.pprint :as pp])
   (:import [java.util LongSummaryStatistics]
-           [java.util.function LongConsumer])
+           [java.util.function LongConsumer]
+           [ham_fisted MethodImplCache MethodImplCache$CallSite])
   (:gen-class))
 
 (set! *unchecked-math* :warn-on-boxed)
@@ -145,6 +146,50 @@
       (time (reduce-count (lznc/map identity (hamf/pmap #(hf % [] :x) l))))))
   :done)
 
+;;Dispatch through the inline cache vs. the shared lookup cache alone.  Mixed data is
+;;polymorphic with 3 classes - within the inline cache - and megamorphic data cycles through
+;;more classes than the inline cache holds.
+(def mixed-data (vec (take 100000 (cycle ["foo" 5678 3.14]))))
+(def megamorphic-data (vec (take 100000 (cycle ["foo" 5678 3.14 :k 'sym (float 1.0) (int 2) \c]))))
+
+(hamf-defproto/extend-protocol HFTestProto
+  clojure.lang.Keyword (hf [this a b] 1)
+  clojure.lang.Symbol (hf [this a b] 1)
+  Float (hf [this a b] 1)
+  Integer (hf [this a b] 1)
+  Character (hf [this a b] 1))
+
+(defn- lookup-count
+  ^long [find-fn data]
+  (hamf/lsum (lznc/map (fn ^long [v] (if (find-fn (class v)) 1 0)) data)))
+
+(defn dispatch-bench!
+  [n]
+  (println "========= Inline cache dispatch ========")
+  (let [^MethodImplCache cache @#'-hf-cache
+        site (MethodImplCache$CallSite. cache)
+        cache-find #(.findFnFor cache ^Class %)
+        site-find #(.findFnFor site ^Class %)]
+    (doseq [[data-name data] [["mixed" mixed-data] ["megamorphic" megamorphic-data]]]
+      (dotimes [_ n]
+        (println data-name "shared lookup cache")
+        (time (dotimes [_ 10] (lookup-count cache-find data)))
+        (println data-name "call site")
+        (time (dotimes [_ 10] (lookup-count site-find data)))
+        (println data-name "serial hf")
+        (time (dotimes [_ 10] (reduce-count (lznc/map #(hf % [] :x) data))))
+        (println data-name "pmap hf")
+        (time (dotimes [_ 10] (reduce-count (hamf/pmap #(hf % [] :x) data))))))
+    ;;Extending invalidates by version instead of clearing so callers repopulate lazily.
+    (dotimes [_ n]
+      (println "pmap hf with concurrent extends")
+      (let [extender (future (dotimes [_ 100]
+                               (hamf-defproto/extend Character HFTestProto {:hf (fn [this a b] 1)})
+                               (Thread/sleep 1)))]
+        (time (dotimes [_ 10] (reduce-count (hamf/pmap #(hf % [] :x) megamorphic-data))))
+        @extender)))
+  :done)
+
 (defn -main
   [& args]
   (println "Core protocols")
@@ -205,5 +250,6 @@
        (hamf/sum (lznc/map (fn ^double [s] (pargs s 100)) strs-and-doubles)))))
 
   (explore! 4)
+  (dispatch-bench! 4)
  
   :ok)
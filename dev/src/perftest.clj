@@ -164,6 +164,31 @@
        (spit-data "random-update")))
 
 
+(defn persistent-assoc-perftest
+  "Single-key persistent assoc/dissoc - this is where the array-copying hamf
+  PersistentHashMap is weakest and the trie map shares structure."
+  []
+  (->> (for [n-elems [10 100 1000 10000 100000]]
+         (do
+           (log/info (str "persistent assoc benchmark with n=" n-elems))
+           (let [data (long-map-data n-elems)
+                 ks (vec (lznc/repeatedly 100 #(long (rand-int 100000))))
+                 maps {:clj (into {} data)
+                       :hamf-hashmap (hamf/immut-map data)
+                       :hamf-trie (hamf/immut-trie-map data)}]
+             [(merge (hamf/mapmap (fn [kv]
+                                    [(key kv) (benchmark-us (reduce #(assoc %1 %2 %2) (val kv) ks))])
+                                  maps)
+                     {:n-elems n-elems :test :persistent-assoc})
+              (merge (hamf/mapmap (fn [kv]
+                                    [(key kv) (benchmark-us (reduce dissoc (val kv) ks))])
+                                  maps)
+                     {:n-elems n-elems :test :persistent-dissoc})])))
+       (lznc/apply-concat)
+       (vec)
+       (spit-data "persistent-assoc")))
+
+
 #_(defn union-overlapping
   []
   (->> (for [n-elems [4 10
@@ -403,6 +428,35 @@
    (spit-data "typed-reductions-intel")))
 
 
+(defn array-kernel-reductions
+  "Numeric reductions over dense arrays - ArrayKernels against the consumer based
+  pathways they replace."
+  []
+  (->>
+   (for [n-elems [100 10000 1000000]]
+     (do
+       (log/info (str "array kernel reduction benchmark with n=" n-elems))
+       (let [data (hamf/double-array (lznc/repeatedly n-elems rand))
+             ldata (hamf/long-array (lznc/repeatedly n-elems #(rand-int 1000)))
+             ;;Same data without the array backing
+             dseq (vec data)
+             lseq (vec ldata)]
+         {:sum-consumer (benchmark-us (hamf/sum dseq))
+          :sum-kernel (benchmark-us (hamf/sum data))
+          :sum-fast-consumer (benchmark-us (hamf/sum-fast dseq))
+          :sum-fast-kernel (benchmark-us (hamf/sum-fast data))
+          :dsummary-consumer (benchmark-us (hamf/dsummary dseq))
+          :dsummary-kernel (benchmark-us (hamf/dsummary data))
+          :lsum-consumer (benchmark-us (hamf/lsum lseq))
+          :lsum-kernel (benchmark-us (hamf/lsum ldata))
+          :dot-kernel (benchmark-us (ham_fisted.ArrayKernels/dot data 0 data 0 n-elems))
+          :n-elems n-elems
+          :numeric? true
+          :test :array-kernel-reductions})))
+   (vec)
+   (spit-data "array-kernel-reductions")))
+
+
 (defn typed-parallel-reductions
   []
   (->>
@@ -449,6 +503,7 @@
   {:clj vec
    :hamf hamf/immut-list
    :hamf-objary #(hamf/immut-list (hamf/object-array %))
+   :hamf-long hamf/immut-long-list
    :java #(doto (ArrayList.)
             (.addAll (hamf/->random-access %)))})
 
@@ -484,6 +539,24 @@
                                      (benchmark-us ((val kv) data))]))
                                 persistent-vector-constructors)
                    {:n-elems n-elems :numeric? true :test :from-double-array})
+            (merge (hamf/mapmap (fn [kv]
+                                  (let [data ((val kv) (range n-elems))]
+                                    [(key kv)
+                                     (benchmark-us (hamf/subvec data 1 (dec n-elems)))]))
+                                persistent-vector-constructors)
+                   {:n-elems n-elems :numeric? true :test :subvec})
+            (merge (hamf/mapmap (fn [kv]
+                                  (let [data ((val kv) (range n-elems))]
+                                    [(key kv)
+                                     (benchmark-us (hamf/concatv data data))]))
+                                persistent-vector-constructors)
+                   {:n-elems n-elems :numeric? true :test :concat})
+            (merge (hamf/mapmap (fn [kv]
+                                  (let [data ((val kv) (range n-elems))]
+                                    [(key kv)
+                                     (benchmark-us (hamf/splice data (quot n-elems 2) data))]))
+                                persistent-vector-constructors)
+                   {:n-elems n-elems :numeric? true :test :splice})
             ]))
        (lznc/apply-concat)
        (vec)
@@ -507,6 +580,7 @@
          {:clj (benchmark-us (sort-by :b data))
           :hamf (benchmark-us (hamf/sort-by :b data))
           :hamf-typed (benchmark-us (hamf/sort-by (hamf-fn/obj->long d (long (d :b))) data))
+          :hamf-typed-double (benchmark-us (hamf/sort-by (hamf-fn/obj->double d (double (d :b))) data))
           :n-elems n-elems
           :test :sort-by
           :numeric? true})))
@@ -514,6 +588,36 @@
    (spit-data "sort-by")))
 
 
+(defn primitive-sort-perftest
+  "Radix sort of typed containers against the comparison sorts they used to use."
+  []
+  (->>
+   (for [n-elems [100 1000 10000 100000 1000000]
+         dtype [:int64 :float64]]
+     (do
+       (log/info (str "primitive sort perftest with n= " n-elems " dtype " dtype))
+       (let [src (hamf/->random-access (repeatedly n-elems #(- (rand) 0.5)))
+             data (if (= dtype :int64)
+                    (hamf/long-array (lznc/map #(long (* (double %) Integer/MAX_VALUE)) src))
+                    (hamf/double-array src))]
+         {:java (benchmark-us (if (= dtype :int64)
+                                (java.util.Arrays/sort (aclone ^longs data))
+                                (java.util.Arrays/sort (aclone ^doubles data))))
+          :fastutil (benchmark-us (if (= dtype :int64)
+                                    (it.unimi.dsi.fastutil.longs.LongArrays/parallelQuickSort
+                                     (aclone ^longs data))
+                                    (it.unimi.dsi.fastutil.doubles.DoubleArrays/parallelQuickSort
+                                     (aclone ^doubles data))))
+          :hamf (benchmark-us (hamf/sort data))
+          :hamf-argsort (benchmark-us (hamf/argsort data))
+          :n-elems n-elems
+          :dtype dtype
+          :test :primitive-sort
+          :numeric? true})))
+   (vec)
+   (spit-data "primitive-sort")))
+
+
 (defn concatv-perftest
   []
   (->>
@@ -527,6 +631,8 @@
        (let [data (vec (repeat 10 (range n-elems)))]
          {:clj (benchmark-us (into [] cat data))
           :hamf (benchmark-us (hamf/apply-concatv data))
+          :hamf-tree (let [data (mapv hamf/immut-list data)]
+                       (benchmark-us (hamf/apply-concatv data)))
           :hamf-objarry (benchmark-us (apply hamf/concata data))
           :n-elems n-elems
           :test :concatv
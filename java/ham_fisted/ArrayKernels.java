@@ -0,0 +1,111 @@
+package ham_fisted;
+
+
+/**
+ * Reduction kernels over dense primitive array ranges.  Loops are unrolled into 4
+ * independent accumulators which breaks the loop carried dependency on a single
+ * accumulator and lets the JIT's superword pass emit packed instructions where the target
+ * supports them.  Results for double data may differ from a strictly sequential loop in
+ * the last bits due to the reordered additions.
+ */
+public class ArrayKernels {
+  private ArrayKernels(){}
+
+  public static double sum(double[] d, int sidx, int eidx) {
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = sidx;
+    for(final int ue = eidx - 3; i < ue; i += 4) {
+      s0 += d[i]; s1 += d[i+1]; s2 += d[i+2]; s3 += d[i+3];
+    }
+    for(; i < eidx; ++i) s0 += d[i];
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  public static long sum(long[] d, int sidx, int eidx) {
+    long s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = sidx;
+    for(final int ue = eidx - 3; i < ue; i += 4) {
+      s0 += d[i]; s1 += d[i+1]; s2 += d[i+2]; s3 += d[i+3];
+    }
+    for(; i < eidx; ++i) s0 += d[i];
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  public static double dot(double[] a, int aoff, double[] b, int boff, int len) {
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = 0;
+    for(final int ue = len - 3; i < ue; i += 4) {
+      s0 += a[aoff+i] * b[boff+i];
+      s1 += a[aoff+i+1] * b[boff+i+1];
+      s2 += a[aoff+i+2] * b[boff+i+2];
+      s3 += a[aoff+i+3] * b[boff+i+3];
+    }
+    for(; i < len; ++i) s0 += a[aoff+i] * b[boff+i];
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * Returns {min, max, sum} with the same min/max semantics as DoubleSummaryStatistics -
+   * NaN propagates and an empty range returns {Infinity, -Infinity, 0}.  The sum is
+   * compensated.
+   */
+  public static double[] summary(double[] d, int sidx, int eidx) {
+    double mn0 = Double.POSITIVE_INFINITY, mn1 = mn0;
+    double mx0 = Double.NEGATIVE_INFINITY, mx1 = mx0;
+    int i = sidx;
+    for(final int ue = eidx - 1; i < ue; i += 2) {
+      final double v0 = d[i], v1 = d[i+1];
+      mn0 = Math.min(mn0, v0); mx0 = Math.max(mx0, v0);
+      mn1 = Math.min(mn1, v1); mx1 = Math.max(mx1, v1);
+    }
+    for(; i < eidx; ++i) {
+      mn0 = Math.min(mn0, d[i]); mx0 = Math.max(mx0, d[i]);
+    }
+    final Sum s = new Sum();
+    s.acceptArray(d, sidx, eidx, false);
+    return new double[] { Math.min(mn0, mn1), Math.max(mx0, mx1), s.computeFinalSum() };
+  }
+
+  /**
+   * Returns {min, max, sum}.  An empty range returns {Long/MAX_VALUE, Long/MIN_VALUE, 0}
+   * matching LongSummaryStatistics.
+   */
+  public static long[] summary(long[] d, int sidx, int eidx) {
+    long mn0 = Long.MAX_VALUE, mn1 = mn0;
+    long mx0 = Long.MIN_VALUE, mx1 = mx0;
+    long s0 = 0, s1 = 0;
+    int i = sidx;
+    for(final int ue = eidx - 1; i < ue; i += 2) {
+      final long v0 = d[i], v1 = d[i+1];
+      mn0 = Math.min(mn0, v0); mx0 = Math.max(mx0, v0); s0 += v0;
+      mn1 = Math.min(mn1, v1); mx1 = Math.max(mx1, v1); s1 += v1;
+    }
+    for(; i < eidx; ++i) {
+      mn0 = Math.min(mn0, d[i]); mx0 = Math.max(mx0, d[i]); s0 += d[i];
+    }
+    return new long[] { Math.min(mn0, mn1), Math.max(mx0, mx1), s0 + s1 };
+  }
+
+  /**
+   * Returns {mean, variance} using the two pass algorithm.  Variance is the sample
+   * variance - divided by n-1.  An empty range returns NaN for both.
+   */
+  public static double[] meanVariance(double[] d, int sidx, int eidx) {
+    final int n = eidx - sidx;
+    if(n == 0) return new double[] { Double.NaN, Double.NaN };
+    final Sum s = new Sum();
+    s.acceptArray(d, sidx, eidx, false);
+    final double mean = s.computeFinalSum() / n;
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+    int i = sidx;
+    for(final int ue = eidx - 3; i < ue; i += 4) {
+      final double d0 = d[i] - mean, d1 = d[i+1] - mean, d2 = d[i+2] - mean, d3 = d[i+3] - mean;
+      s0 += d0 * d0; s1 += d1 * d1; s2 += d2 * d2; s3 += d3 * d3;
+    }
+    for(; i < eidx; ++i) {
+      final double dv = d[i] - mean;
+      s0 += dv * dv;
+    }
+    return new double[] { mean, n == 1 ? 0.0 : ((s0 + s1) + (s2 + s3)) / (n - 1) };
+  }
+}
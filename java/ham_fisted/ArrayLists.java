@@ -128,8 +128,9 @@ public class ArrayLists {
     }
     if(ll instanceof ArrayOwner) {
       final ArraySection as = ((ArrayOwner)ll).getArraySection();
-      final int sz = as.size();
-      if(dest.getClass().isAssignableFrom(as.array.getClass())) {
+      //Buffer backed lists have no array section
+      if(as != null && dest.getClass().isAssignableFrom(as.array.getClass())) {
+	final int sz = as.size();
 	System.arraycopy(as.array, as.sidx, dest, (int)(sidx+startidx), sz);
 	return true;
       }
@@ -934,8 +935,8 @@ public class ArrayLists {
       };
     }
     public void sort(Comparator<? super Object> c) {
-      if(c == null)
-	IntArrays.parallelQuickSort(data, sidx, eidx);
+      if(RadixSort.isNatural(c))
+	RadixSort.sort(data, sidx, eidx, RadixSort.defaultOptions);
       else {
 	IntArrays.parallelQuickSort(data, sidx, eidx, toIntComparator(c));
       }
@@ -965,14 +966,13 @@ public class ArrayLists {
 	return ILongArrayList.super.binarySearch(v, c);
     }
     public int[] sortIndirect(Comparator c) {
+      if(RadixSort.isNatural(c))
+	return RadixSort.argsort(data, sidx, eidx, RadixSort.defaultOptions);
       final int sz = size();
       int[] retval = iarange(0, sz, 1);
       if(sz < 2)
 	return retval;
-      if(c == null)
-	IntArrays.parallelQuickSortIndirect(retval, data, sidx, eidx);
-      else
-	IntArrays.parallelQuickSort(retval, indexComparator(c));
+      IntArrays.parallelQuickSort(retval, indexComparator(c));
       return retval;
     }
     public Object reduce(IFn rfn, Object init) {
@@ -1339,21 +1339,20 @@ public class ArrayLists {
       };
     }
     public void sort(Comparator<? super Object> c) {
-      if(c == null)
-	LongArrays.parallelQuickSort(data, sidx, eidx);
+      if(RadixSort.isNatural(c))
+	RadixSort.sort(data, sidx, eidx, RadixSort.defaultOptions);
       else {
 	LongArrays.parallelQuickSort(data, sidx, eidx, toLongComparator(c));
       }
     }
     public int[] sortIndirect(Comparator c) {
+      if(RadixSort.isNatural(c))
+	return RadixSort.argsort(data, sidx, eidx, RadixSort.defaultOptions);
       final int sz = size();
       int[] retval = iarange(0, sz, 1);
       if(sz < 2)
 	return retval;
-      if(c == null)
-	LongArrays.parallelQuickSortIndirect(retval, data, sidx, eidx);
-      else
-	IntArrays.parallelQuickSort(retval, indexComparator(c));
+      IntArrays.parallelQuickSort(retval, indexComparator(c));
       return retval;
     }
     public void shuffle(Random r) {
@@ -1701,8 +1700,8 @@ public class ArrayLists {
     }
     @SuppressWarnings("unchecked")
     public void sort(Comparator c) {
-      if(c == null) {
-	FloatArrays.parallelQuickSort(data, sidx, sidx+dlen);
+      if(RadixSort.isNatural(c)) {
+	RadixSort.sort(data, sidx, sidx+dlen, RadixSort.defaultOptions);
       } else {
 	FloatComparator fc = asFloatComparator(c);
 	if (fc != null)
@@ -1711,6 +1710,11 @@ public class ArrayLists {
 	  IDoubleArrayList.super.sort(c);
       }
     }
+    public int[] sortIndirect(Comparator c) {
+      if(RadixSort.isNatural(c))
+	return RadixSort.argsort(data, sidx, sidx+dlen, RadixSort.defaultOptions);
+      return IDoubleArrayList.super.sortIndirect(c);
+    }
     public void shuffle(Random r) {
       FloatArrays.shuffle(data, sidx, sidx+dlen, r);
     }
@@ -1886,8 +1890,8 @@ public class ArrayLists {
       return null;
     }
     public void sort(Comparator<? super Object> c) {
-      if(c == null)
-	DoubleArrays.parallelQuickSort(data, sidx, eidx);
+      if(RadixSort.isNatural(c))
+	RadixSort.sort(data, sidx, eidx, RadixSort.defaultOptions);
       else {
 	DoubleComparator dc = toDoubleComparator(c);
 	if (dc != null) {
@@ -1898,14 +1902,13 @@ public class ArrayLists {
       }
     }
     public int[] sortIndirect(Comparator c) {
+      if(RadixSort.isNatural(c))
+	return RadixSort.argsort(data, sidx, eidx, RadixSort.defaultOptions);
       final int sz = size();
       int[] retval = iarange(0, sz, 1);
       if(sz < 2)
 	return retval;
-      if(c == null)
-	DoubleArrays.parallelQuickSortIndirect(retval, data, sidx, eidx);
-      else
-	IntArrays.parallelQuickSort(retval, indexComparator(c));
+      IntArrays.parallelQuickSort(retval, indexComparator(c));
       return retval;
     }
     public void shuffle(Random r) {
@@ -0,0 +1,261 @@
+package ham_fisted;
+
+
+import java.util.Comparator;
+import clojure.lang.IFn;
+import clojure.lang.RT;
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.longs.LongBigArrays;
+import it.unimi.dsi.fastutil.longs.LongComparator;
+import it.unimi.dsi.fastutil.doubles.DoubleBigArrays;
+import it.unimi.dsi.fastutil.doubles.DoubleComparator;
+
+
+/**
+ * Growable long and double lists stored in fastutil big arrays - arrays of 2^27 element
+ * segments - so they may hold more than 2^31 elements.  Sublists are views that share
+ * the parent's segments and cannot grow.
+ */
+public class BigArrayLists {
+  static UnsupportedOperationException growError() {
+    return new UnsupportedOperationException("Sublists cannot grow");
+  }
+  @SuppressWarnings("unchecked")
+  static LongComparator toLongComparator(Comparator c) {
+    if(c == null || c instanceof LongComparator)
+      return (LongComparator)c;
+    return new LongComparator() {
+      public int compare(long l, long r) { return c.compare(l, r); }
+    };
+  }
+  @SuppressWarnings("unchecked")
+  static DoubleComparator toDoubleComparator(Comparator c) {
+    if(c == null || c instanceof DoubleComparator)
+      return (DoubleComparator)c;
+    return new DoubleComparator() {
+      public int compare(double l, double r) { return c.compare(l, r); }
+    };
+  }
+
+
+  public static class LongBigArrayList implements LongIndexedList {
+    long[][] data;
+    final long sidx;
+    long nElems;
+    final boolean growable;
+    LongBigArrayList(long[][] data, long sidx, long nElems, boolean growable) {
+      this.data = data;
+      this.sidx = sidx;
+      this.nElems = nElems;
+      this.growable = growable;
+    }
+    public LongBigArrayList(long[][] data, long nElems) {
+      this(data, 0, nElems, true);
+    }
+    public LongBigArrayList(long capacity) {
+      this(LongBigArrays.newBigArray(capacity), 0, 0, true);
+    }
+    public LongBigArrayList() {
+      this(16);
+    }
+    public String toString() { return Transformables.sequenceToString(this); }
+    public long lsize() { return nElems; }
+    public long capacity() { return BigArrays.length(data) - sidx; }
+    public Object get(long idx) { return getLong(idx); }
+    public long getLong(long idx) {
+      return BigArrays.get(data, LongIndexedList.checkIndex(idx, nElems) + sidx);
+    }
+    public double getDouble(long idx) { return getLong(idx); }
+    public void set(long idx, Object v) { setLong(idx, Casts.longCast(v)); }
+    public void setLong(long idx, long v) {
+      BigArrays.set(data, LongIndexedList.checkIndex(idx, nElems) + sidx, v);
+    }
+    public void setDouble(long idx, double v) { setLong(idx, Casts.longCast(v)); }
+    public void clear() {
+      if(!growable) throw growError();
+      nElems = 0;
+    }
+    public long[][] ensureCapacity(long len) {
+      if(!growable) throw growError();
+      if(len > BigArrays.length(data)) {
+	data = BigArrays.grow(data, len, nElems);
+      }
+      return data;
+    }
+    public void addLong(long v) {
+      final long ne = nElems;
+      BigArrays.set(ensureCapacity(ne + 1), ne, v);
+      nElems = ne + 1;
+    }
+    public void add(Object v) { addLong(Casts.longCast(v)); }
+    public boolean addAllReducible(Object c) {
+      final long sz = nElems;
+      Reductions.serialReduction(new IFnDef.OLO() {
+	  public Object invokePrim(Object acc, long v) {
+	    ((LongBigArrayList)acc).addLong(v);
+	    return acc;
+	  }
+	}, this, c);
+      return sz != nElems;
+    }
+    public LongIndexedList subList(long ssidx, long seidx) {
+      ChunkedList.checkIndexRange(0, nElems, ssidx, seidx);
+      return new LongBigArrayList(data, sidx + ssidx, seidx - ssidx, false);
+    }
+    public Object reduce(IFn rfn, Object init) {
+      return longReduction(Transformables.toLongReductionFn(rfn), init);
+    }
+    public Object longReduction(IFn.OLO rfn, Object init) {
+      final long[][] d = data;
+      final long e = sidx + nElems;
+      for(long i = sidx; i < e && !RT.isReduced(init);) {
+	final long[] seg = d[BigArrays.segment(i)];
+	final int ss = BigArrays.displacement(i);
+	final int ee = (int)Math.min(seg.length, ss + (e - i));
+	for(int idx = ss; idx < ee && !RT.isReduced(init); ++idx)
+	  init = rfn.invokePrim(init, seg[idx]);
+	i += ee - ss;
+      }
+      return Reductions.unreduce(init);
+    }
+    public void sort(Comparator c) {
+      final LongComparator lc = toLongComparator(c);
+      if(lc == null)
+	LongBigArrays.parallelQuickSort(data, sidx, sidx + nElems);
+      else
+	LongBigArrays.parallelQuickSort(data, sidx, sidx + nElems, lc);
+    }
+    public LongComparator indexComparator(Comparator c) {
+      final long[][] d = data;
+      final long ss = sidx;
+      final LongComparator lc = toLongComparator(c);
+      if(lc == null)
+	return new LongComparator() {
+	  public int compare(long l, long r) {
+	    return Long.compare(BigArrays.get(d, l + ss), BigArrays.get(d, r + ss));
+	  }
+	};
+      return new LongComparator() {
+	public int compare(long l, long r) {
+	  return lc.compare(BigArrays.get(d, l + ss), BigArrays.get(d, r + ss));
+	}
+      };
+    }
+    public long[] toLongArray() {
+      final long[] rv = new long[RT.intCast(nElems)];
+      BigArrays.copyFromBig(data, sidx, rv, 0, rv.length);
+      return rv;
+    }
+  }
+
+
+  public static class DoubleBigArrayList implements LongIndexedList {
+    double[][] data;
+    final long sidx;
+    long nElems;
+    final boolean growable;
+    DoubleBigArrayList(double[][] data, long sidx, long nElems, boolean growable) {
+      this.data = data;
+      this.sidx = sidx;
+      this.nElems = nElems;
+      this.growable = growable;
+    }
+    public DoubleBigArrayList(double[][] data, long nElems) {
+      this(data, 0, nElems, true);
+    }
+    public DoubleBigArrayList(long capacity) {
+      this(DoubleBigArrays.newBigArray(capacity), 0, 0, true);
+    }
+    public DoubleBigArrayList() {
+      this(16);
+    }
+    public String toString() { return Transformables.sequenceToString(this); }
+    public long lsize() { return nElems; }
+    public long capacity() { return BigArrays.length(data) - sidx; }
+    public Object get(long idx) { return getDouble(idx); }
+    public double getDouble(long idx) {
+      return BigArrays.get(data, LongIndexedList.checkIndex(idx, nElems) + sidx);
+    }
+    public long getLong(long idx) { return Casts.longCast(getDouble(idx)); }
+    public void set(long idx, Object v) { setDouble(idx, Casts.doubleCast(v)); }
+    public void setDouble(long idx, double v) {
+      BigArrays.set(data, LongIndexedList.checkIndex(idx, nElems) + sidx, v);
+    }
+    public void setLong(long idx, long v) { setDouble(idx, v); }
+    public void clear() {
+      if(!growable) throw growError();
+      nElems = 0;
+    }
+    public double[][] ensureCapacity(long len) {
+      if(!growable) throw growError();
+      if(len > BigArrays.length(data)) {
+	data = BigArrays.grow(data, len, nElems);
+      }
+      return data;
+    }
+    public void addDouble(double v) {
+      final long ne = nElems;
+      BigArrays.set(ensureCapacity(ne + 1), ne, v);
+      nElems = ne + 1;
+    }
+    public void add(Object v) { addDouble(Casts.doubleCast(v)); }
+    public boolean addAllReducible(Object c) {
+      final long sz = nElems;
+      Reductions.serialReduction(new IFnDef.ODO() {
+	  public Object invokePrim(Object acc, double v) {
+	    ((DoubleBigArrayList)acc).addDouble(v);
+	    return acc;
+	  }
+	}, this, c);
+      return sz != nElems;
+    }
+    public LongIndexedList subList(long ssidx, long seidx) {
+      ChunkedList.checkIndexRange(0, nElems, ssidx, seidx);
+      return new DoubleBigArrayList(data, sidx + ssidx, seidx - ssidx, false);
+    }
+    public Object reduce(IFn rfn, Object init) {
+      return doubleReduction(Transformables.toDoubleReductionFn(rfn), init);
+    }
+    public Object doubleReduction(IFn.ODO rfn, Object init) {
+      final double[][] d = data;
+      final long e = sidx + nElems;
+      for(long i = sidx; i < e && !RT.isReduced(init);) {
+	final double[] seg = d[BigArrays.segment(i)];
+	final int ss = BigArrays.displacement(i);
+	final int ee = (int)Math.min(seg.length, ss + (e - i));
+	for(int idx = ss; idx < ee && !RT.isReduced(init); ++idx)
+	  init = rfn.invokePrim(init, seg[idx]);
+	i += ee - ss;
+      }
+      return Reductions.unreduce(init);
+    }
+    public void sort(Comparator c) {
+      final DoubleComparator dc = toDoubleComparator(c);
+      if(dc == null)
+	DoubleBigArrays.parallelQuickSort(data, sidx, sidx + nElems);
+      else
+	DoubleBigArrays.parallelQuickSort(data, sidx, sidx + nElems, dc);
+    }
+    public LongComparator indexComparator(Comparator c) {
+      final double[][] d = data;
+      final long ss = sidx;
+      final DoubleComparator dc = toDoubleComparator(c);
+      if(dc == null)
+	return new LongComparator() {
+	  public int compare(long l, long r) {
+	    return Double.compare(BigArrays.get(d, l + ss), BigArrays.get(d, r + ss));
+	  }
+	};
+      return new LongComparator() {
+	public int compare(long l, long r) {
+	  return dc.compare(BigArrays.get(d, l + ss), BigArrays.get(d, r + ss));
+	}
+      };
+    }
+    public double[] toDoubleArray() {
+      final double[] rv = new double[RT.intCast(nElems)];
+      BigArrays.copyFromBig(data, sidx, rv, 0, rv.length);
+      return rv;
+    }
+  }
+}
@@ -36,12 +36,12 @@ import net.openhft.hashing.LongHashFunction;
  * each tiny Bloom filter. Each tiny Bloom filter is 32 bytes to take advantage of 32-byte SIMD
  * instruction.
  */
-public class BlockSplitBloomFilter {
+public class BlockSplitBloomFilter implements IBloomFilter {
   // Bytes in a tiny Bloom filter block.
-  private static final int BYTES_PER_BLOCK = 32;
+  static final int BYTES_PER_BLOCK = 32;
 
   // Bits in a tiny Bloom filter block.
-  private static final int BITS_PER_BLOCK = 256;
+  static final int BITS_PER_BLOCK = 256;
 
   // The lower bound of bloom filter size, set to the size of a tiny Bloom filter block.
   public static final int LOWER_BOUND_BYTES = 32;
@@ -50,7 +50,7 @@ public class BlockSplitBloomFilter {
   public static final int UPPER_BOUND_BYTES = 128 * 1024 * 1024;
 
   // The number of bits to set in a tiny Bloom filter
-  private static final int BITS_SET_PER_BLOCK = 8;
+  static final int BITS_SET_PER_BLOCK = 8;
 
   // The metadata in the header of a serialized Bloom filter is four four-byte values: the number of bytes,
   // the filter algorithm, the hash algorithm, and the compression.
@@ -68,9 +68,6 @@ public class BlockSplitBloomFilter {
   private int maximumBytes = UPPER_BOUND_BYTES;
   private int minimumBytes = LOWER_BOUND_BYTES;
 
-
-  private int[] mask = new int[BITS_SET_PER_BLOCK];
-
   // The block-based algorithm needs 8 odd SALT values to calculate eight indexes
   // of bits to set, one per 32-bit word.
   private static final int[] SALT = {
@@ -111,6 +108,11 @@ public class BlockSplitBloomFilter {
    *                 as default algorithm.
    */
   private void initBitset(int numBytes) {
+    this.bitset = new byte[roundNumBytes(numBytes, minimumBytes, maximumBytes)];
+    this.intBuffer = ByteBuffer.wrap(bitset).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+  }
+
+  static int roundNumBytes(int numBytes, int minimumBytes, int maximumBytes) {
     if (numBytes < minimumBytes) {
       numBytes = minimumBytes;
     }
@@ -121,55 +123,42 @@ public class BlockSplitBloomFilter {
     if (numBytes > maximumBytes || numBytes < 0) {
       numBytes = maximumBytes;
     }
-    this.bitset = new byte[numBytes];
-    this.intBuffer = ByteBuffer.wrap(bitset).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    return numBytes;
   }
 
-  private int[] setMask(int key) {
-    // The following three loops are written separately so that they could be
-    // optimized for vectorization.
-    for (int i = 0; i < BITS_SET_PER_BLOCK; ++i) {
-      mask[i] = key * SALT[i];
-    }
-
-    for (int i = 0; i < BITS_SET_PER_BLOCK; ++i) {
-      mask[i] = mask[i] >>> 27;
-    }
+  static int roundNumBytes(int numBytes) {
+    return roundNumBytes(numBytes, LOWER_BOUND_BYTES, UPPER_BOUND_BYTES);
+  }
 
-    for (int i = 0; i < BITS_SET_PER_BLOCK; ++i) {
-      mask[i] = 0x1 << mask[i];
-    }
+  // Index of the tiny Bloom filter block for hash.
+  static int blockIndex(long hash, long numBlocks) {
+    return (int) (((hash >>> 32) * numBlocks) >> 32);
+  }
 
-    return mask;
+  // Bit within 32-bit word i of the block to set for key.
+  static int maskBit(int key, int i) {
+    return (key * SALT[i]) >>> 27;
   }
 
+  // Bloom filter size in bytes for n distinct values and false positive probability p.
+  static int optimalNumOfBytes(long n, double p) {
+    return optimalNumOfBits(n, p) / 8;
+  }
 
   public void insertHash(long hash) {
-    long numBlocks = bitset.length / BYTES_PER_BLOCK;
-    long lowHash = hash >>> 32;
-    int blockIndex = (int) ((lowHash * numBlocks) >> 32);
-    int key = (int) hash;
-
-    // Calculate mask for bucket.
-    int[] mask = setMask(key);
+    final int base = blockIndex(hash, bitset.length / BYTES_PER_BLOCK) * (BYTES_PER_BLOCK / 4);
+    final int key = (int) hash;
     for (int i = 0; i < BITS_SET_PER_BLOCK; i++) {
-      int value = intBuffer.get(blockIndex * (BYTES_PER_BLOCK / 4) + i);
-      value |= mask[i];
-      intBuffer.put(blockIndex * (BYTES_PER_BLOCK / 4) + i, value);
+      intBuffer.put(base + i, intBuffer.get(base + i) | (1 << maskBit(key, i)));
     }
   }
 
 
   public boolean findHash(long hash) {
-    long numBlocks = bitset.length / BYTES_PER_BLOCK;
-    long lowHash = hash >>> 32;
-    int blockIndex = (int) ((lowHash * numBlocks) >> 32);
-    int key = (int) hash;
-
-    // Calculate mask for the tiny Bloom filter.
-    int[] mask = setMask(key);
+    final int base = blockIndex(hash, bitset.length / BYTES_PER_BLOCK) * (BYTES_PER_BLOCK / 4);
+    final int key = (int) hash;
     for (int i = 0; i < BITS_SET_PER_BLOCK; i++) {
-      if (0 == (intBuffer.get(blockIndex * (BYTES_PER_BLOCK / 4) + i) & mask[i])) {
+      if (0 == (intBuffer.get(base + i) & (1 << maskBit(key, i)))) {
         return false;
       }
     }
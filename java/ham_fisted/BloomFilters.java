@@ -0,0 +1,201 @@
+package ham_fisted;
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * Variants of BlockSplitBloomFilter that share its block layout and hashing - a thread
+ * safe filter, a filter that grows as values are added and a filter that supports
+ * removal.
+ */
+public class BloomFilters {
+  private BloomFilters(){}
+
+  static final int WORDS_PER_BLOCK = BlockSplitBloomFilter.BYTES_PER_BLOCK / 4;
+
+  /**
+   * Bloom filter whose bitset is an AtomicIntegerArray so inserts from multiple threads
+   * need no external locking.  This allows a single filter to be shared across a parallel
+   * reduction instead of building per-thread filters and merging them.
+   */
+  public static class ConcurrentBloomFilter implements IBloomFilter {
+    final AtomicIntegerArray words;
+    final long numBlocks;
+    public ConcurrentBloomFilter(int numBytes) {
+      final int nb = BlockSplitBloomFilter.roundNumBytes(numBytes);
+      words = new AtomicIntegerArray(nb / 4);
+      numBlocks = nb / BlockSplitBloomFilter.BYTES_PER_BLOCK;
+    }
+    public void insertHash(long hash) {
+      final int base = BlockSplitBloomFilter.blockIndex(hash, numBlocks) * WORDS_PER_BLOCK;
+      final int key = (int) hash;
+      for (int i = 0; i < BlockSplitBloomFilter.BITS_SET_PER_BLOCK; ++i) {
+	final int m = 1 << BlockSplitBloomFilter.maskBit(key, i);
+	final int widx = base + i;
+	int v;
+	while(((v = words.get(widx)) & m) == 0 && !words.compareAndSet(widx, v, v | m));
+      }
+    }
+    public boolean findHash(long hash) {
+      final int base = BlockSplitBloomFilter.blockIndex(hash, numBlocks) * WORDS_PER_BLOCK;
+      final int key = (int) hash;
+      for (int i = 0; i < BlockSplitBloomFilter.BITS_SET_PER_BLOCK; ++i) {
+	if ((words.get(base + i) & (1 << BlockSplitBloomFilter.maskBit(key, i))) == 0)
+	  return false;
+      }
+      return true;
+    }
+    public int getBitsetSize() { return words.length() * 4; }
+    /**
+     * Snapshot of the bitset in the same layout as BlockSplitBloomFilter.bitset.
+     */
+    public byte[] bitset() {
+      final int nw = words.length();
+      final ByteBuffer bb = ByteBuffer.allocate(nw * 4).order(ByteOrder.LITTLE_ENDIAN);
+      for(int idx = 0; idx < nw; ++idx)
+	bb.putInt(words.get(idx));
+      return bb.array();
+    }
+  }
+
+  /**
+   * Bloom filter that chains BlockSplitBloomFilters as values are added.  Each new filter
+   * holds growth times the values of the previous one at tightening times its false
+   * positive probability so the compound false positive rate stays below fpp regardless
+   * of how many values are added.  Like BlockSplitBloomFilter this is not thread safe.
+   */
+  public static class ScalableBloomFilter implements IBloomFilter {
+    final ArrayList<BlockSplitBloomFilter> filters = new ArrayList<BlockSplitBloomFilter>();
+    final double growth;
+    final double tightening;
+    long capacity;
+    double fpp;
+    long count;
+    BlockSplitBloomFilter current;
+    public ScalableBloomFilter(long capacity, double fpp, double growth, double tightening) {
+      if(!(growth >= 1.0))
+	throw new IllegalArgumentException("growth must be at least 1.0");
+      if(!(tightening > 0.0 && tightening < 1.0))
+	throw new IllegalArgumentException("tightening must be in range (0.0, 1.0)");
+      this.growth = growth;
+      this.tightening = tightening;
+      this.capacity = Math.max(1, capacity);
+      //Sum of fpp * tightening^i over all filters is bounded by the requested fpp.
+      this.fpp = fpp * (1.0 - tightening);
+      addFilter();
+    }
+    public ScalableBloomFilter(long capacity, double fpp) {
+      this(capacity, fpp, 2.0, 0.5);
+    }
+    void addFilter() {
+      current = new BlockSplitBloomFilter(BlockSplitBloomFilter.optimalNumOfBytes(capacity, fpp));
+      filters.add(current);
+      count = 0;
+    }
+    public void insertHash(long hash) {
+      //Only count values that are new so count approximates the distinct values held.
+      if(findHash(hash))
+	return;
+      if(count >= capacity) {
+	capacity = (long)Math.ceil(capacity * growth);
+	fpp *= tightening;
+	addFilter();
+      }
+      current.insertHash(hash);
+      ++count;
+    }
+    public boolean findHash(long hash) {
+      for(int idx = filters.size() - 1; idx >= 0; --idx)
+	if(filters.get(idx).findHash(hash))
+	  return true;
+      return false;
+    }
+    public int numFilters() { return filters.size(); }
+    public long getBitsetSize() {
+      long rv = 0;
+      for(BlockSplitBloomFilter f: filters)
+	rv += f.getBitsetSize();
+      return rv;
+    }
+  }
+
+  /**
+   * Bloom filter with a 4 bit counter in place of each bit so hashes can be removed.
+   * Counters saturate at 15 and saturated counters are never decremented so removal
+   * never introduces false negatives.  Uses 4 times the memory of an equivalent
+   * BlockSplitBloomFilter and is not thread safe.
+   */
+  public static class CountingBloomFilter implements IBloomFilter {
+    final byte[] counters;
+    final long numBlocks;
+    public CountingBloomFilter(int numBytes) {
+      final int nb = BlockSplitBloomFilter.roundNumBytes(numBytes);
+      numBlocks = nb / BlockSplitBloomFilter.BYTES_PER_BLOCK;
+      counters = new byte[nb * 4];
+    }
+    static int counterIndex(int block, int word, int bit) {
+      return block * BlockSplitBloomFilter.BITS_PER_BLOCK + word * 32 + bit;
+    }
+    int getCounter(int cidx) {
+      return (counters[cidx >>> 1] >>> ((cidx & 1) << 2)) & 0xF;
+    }
+    void setCounter(int cidx, int v) {
+      final int bidx = cidx >>> 1;
+      final int shift = (cidx & 1) << 2;
+      counters[bidx] = (byte)((counters[bidx] & ~(0xF << shift)) | (v << shift));
+    }
+    public void insertHash(long hash) {
+      final int block = BlockSplitBloomFilter.blockIndex(hash, numBlocks);
+      final int key = (int) hash;
+      for (int i = 0; i < BlockSplitBloomFilter.BITS_SET_PER_BLOCK; ++i) {
+	final int cidx = counterIndex(block, i, BlockSplitBloomFilter.maskBit(key, i));
+	final int v = getCounter(cidx);
+	if(v < 15)
+	  setCounter(cidx, v + 1);
+      }
+    }
+    public boolean findHash(long hash) {
+      final int block = BlockSplitBloomFilter.blockIndex(hash, numBlocks);
+      final int key = (int) hash;
+      for (int i = 0; i < BlockSplitBloomFilter.BITS_SET_PER_BLOCK; ++i) {
+	if(getCounter(counterIndex(block, i, BlockSplitBloomFilter.maskBit(key, i))) == 0)
+	  return false;
+      }
+      return true;
+    }
+    /**
+     * Remove a previously inserted hash.  Returns false if the hash was not present.
+     */
+    public boolean removeHash(long hash) {
+      if(!findHash(hash))
+	return false;
+      final int block = BlockSplitBloomFilter.blockIndex(hash, numBlocks);
+      final int key = (int) hash;
+      for (int i = 0; i < BlockSplitBloomFilter.BITS_SET_PER_BLOCK; ++i) {
+	final int cidx = counterIndex(block, i, BlockSplitBloomFilter.maskBit(key, i));
+	final int v = getCounter(cidx);
+	if(v < 15)
+	  setCounter(cidx, v - 1);
+      }
+      return true;
+    }
+    public int getBitsetSize() { return counters.length; }
+    /**
+     * Bitset with a bit set for every non-zero counter in the same layout as
+     * BlockSplitBloomFilter.bitset.
+     */
+    public byte[] bitset() {
+      final int nBits = counters.length * 2;
+      final byte[] rv = new byte[nBits / 8];
+      for(int cidx = 0; cidx < nBits; ++cidx) {
+	if(getCounter(cidx) != 0)
+	  rv[cidx >>> 3] |= (byte)(1 << (cidx & 7));
+      }
+      return rv;
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package ham_fisted;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import clojure.lang.IPersistentMap;
+
+
+/**
+ * Access ordered LinkedHashMap holding at most maxSize entries.  Reads and writes move an
+ * entry to the most recent end of the links and an insert past maxSize evicts the least
+ * recently used entry.
+ *
+ * With frequency admission the map keeps a small count-min sketch of how often each key
+ * has been read or written - TinyLFU.  An insert past maxSize then keeps the new entry only
+ * if its key has been seen more often than the least recently used entry's key, so a burst
+ * of one-off keys cannot flush frequently used entries.
+ *
+ * Not thread safe - intended for caches confined to a single thread.
+ */
+public class BoundedLinkedHashMap extends LinkedHashMap {
+  final int maxSize;
+  final FrequencySketch sketch;
+  final BiConsumer<Object,Object> evictionFn;
+
+  public BoundedLinkedHashMap(int maxSize, boolean frequencyAdmission,
+			      BiConsumer<Object,Object> evictionFn, IPersistentMap meta) {
+    super(meta);
+    if(maxSize < 1)
+      throw new IllegalArgumentException("Max size must be positive: " + String.valueOf(maxSize));
+    this.maxSize = maxSize;
+    this.sketch = frequencyAdmission ? new FrequencySketch(maxSize) : null;
+    this.evictionFn = evictionFn;
+  }
+  public BoundedLinkedHashMap(int maxSize) { this(maxSize, false, null, null); }
+
+  public int maxSize() { return maxSize; }
+
+  /**
+   * 4 bit count-min sketch with 4 counters per key.  Counters are halved once the number of
+   * increments reaches 10 times the table size so the estimate ages out old keys.
+   */
+  static final class FrequencySketch {
+    static final long[] seeds = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+				  0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    final long[] table;
+    final int mask;
+    final int sampleSize;
+    int nIncrements;
+    FrequencySketch(int maxSize) {
+      final int n = IntegerOps.nextPow2(Math.max(8, Math.min(maxSize, 1 << 26)));
+      table = new long[n];
+      mask = n - 1;
+      sampleSize = 10 * n;
+    }
+    int indexOf(int hc, int i) {
+      long h = (hc + seeds[i]) * seeds[i];
+      h += h >>> 32;
+      return (int)h & mask;
+    }
+    int frequency(int hc) {
+      final int start = (hc & 3) << 2;
+      int rv = 15;
+      for(int i = 0; i < 4; ++i) {
+	final int shift = (start + i) << 2;
+	rv = Math.min(rv, (int)((table[indexOf(hc, i)] >>> shift) & 0xF));
+      }
+      return rv;
+    }
+    void increment(int hc) {
+      final int start = (hc & 3) << 2;
+      boolean added = false;
+      for(int i = 0; i < 4; ++i) {
+	final int idx = indexOf(hc, i);
+	final int shift = (start + i) << 2;
+	if(((table[idx] >>> shift) & 0xF) != 0xF) {
+	  table[idx] += 1L << shift;
+	  added = true;
+	}
+      }
+      if(added && ++nIncrements == sampleSize) {
+	for(int idx = 0; idx < table.length; ++idx)
+	  table[idx] = (table[idx] >>> 1) & 0x7777777777777777L;
+	nIncrements /= 2;
+      }
+    }
+  }
+
+  void touch(LinkedHashNode hn) {
+    if(hn != firstLink) {
+      if(hn == lastLink)
+	lastLink = hn.nextLink;
+      removeLink(hn);
+      hn.nextLink = null;
+      hn.prevLink = firstLink;
+      firstLink.nextLink = hn;
+      firstLink = hn;
+    }
+  }
+  LinkedHashNode getNode(Object key, int hc) {
+    for(HashNode e = data[hc & mask]; e != null; e = e.nextNode) {
+      final Object k = e.k;
+      if(k == key || equals(k, key))
+	return (LinkedHashNode)e;
+    }
+    return null;
+  }
+  protected void modify(HashNode n) {
+    if(sketch != null) sketch.increment(n.hashcode);
+    touch((LinkedHashNode)n);
+  }
+  protected HashNode newNode(Object key, int hc, Object val) {
+    if(sketch != null) sketch.increment(hc);
+    return super.newNode(key, hc, val);
+  }
+  Object checkResize(Object rv) {
+    rv = super.checkResize(rv);
+    while(length > maxSize) {
+      LinkedHashNode victim = lastLink;
+      //New entries are at firstLink.  Admit them only when seen more often than the victim.
+      if(sketch != null && sketch.frequency(firstLink.hashcode) <= sketch.frequency(victim.hashcode))
+	victim = firstLink;
+      remove(victim.k);
+      if(evictionFn != null)
+	evictionFn.accept(victim.k, victim.v);
+    }
+    return rv;
+  }
+  public Object get(Object key) {
+    final int hc = hash(key);
+    final LinkedHashNode n = getNode(key, hc);
+    //A miss is counted by the insert that usually follows it.
+    if(n == null) return null;
+    modify(n);
+    return n.v;
+  }
+  public Object getOrDefault(Object key, Object dv) {
+    final Object rv = get(key);
+    return rv == null && !containsNodeKey(key) ? dv : rv;
+  }
+  public Object computeIfAbsent(Object key, Function afn) {
+    final LinkedHashNode n = getNode(key, hash(key));
+    if(n != null) {
+      modify(n);
+      return n.v;
+    }
+    return super.computeIfAbsent(key, afn);
+  }
+  public BoundedLinkedHashMap clone() {
+    final BoundedLinkedHashMap rv = new BoundedLinkedHashMap(maxSize, sketch != null, evictionFn, meta);
+    for(LinkedHashNode lf = lastLink; lf != null; lf = lf.nextLink)
+      rv.put(lf.k, lf.v);
+    return rv;
+  }
+}
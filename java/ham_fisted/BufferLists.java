@@ -0,0 +1,659 @@
+package ham_fisted;
+
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.RandomAccess;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IPersistentVector;
+import clojure.lang.IObj;
+import clojure.lang.IFn;
+import clojure.lang.RT;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.longs.LongComparator;
+import it.unimi.dsi.fastutil.doubles.DoubleComparator;
+
+
+/**
+ * Long and double array lists stored outside of the java heap in direct or memory
+ * mapped ByteBuffers.  Data is stored in chunks of at most 2^27 elements so a list
+ * is not limited by the 2GB size of a single ByteBuffer - a list may hold up to 2^31
+ * elements.  Values are stored in native byte order.
+ *
+ * These lists have no backing java array so getArraySection returns null.  Sublists
+ * share the buffers of their parent and cannot grow.
+ */
+public class BufferLists {
+  public static final int CHUNK_SHIFT = 27;
+  public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+  static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  static ByteBuffer allocate(int nElems, int elemSize) {
+    return ByteBuffer.allocateDirect(nElems * elemSize).order(ByteOrder.nativeOrder());
+  }
+  /**
+   * Map a file into chunk sized buffers.  If nElems is negative the element count is
+   * the size of the file divided by elemSize, else the file is extended to hold
+   * nElems elements.  The file is closed after mapping - the mappings remain valid
+   * until the buffers are garbage collected.
+   */
+  public static ByteBuffer[] mapFile(String path, boolean readOnly, long nElems,
+				     int elemSize) throws IOException {
+    try(RandomAccessFile f = new RandomAccessFile(path, readOnly ? "r" : "rw")) {
+      if(nElems < 0)
+	nElems = f.length() / elemSize;
+      if(nElems > Integer.MAX_VALUE)
+	throw new IllegalArgumentException("File has too many elements for a list: "
+					   + String.valueOf(nElems));
+      final FileChannel fc = f.getChannel();
+      final FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY
+	: FileChannel.MapMode.READ_WRITE;
+      final int nChunks = Math.max(1, (int)((nElems + CHUNK_SIZE - 1) >>> CHUNK_SHIFT));
+      final ByteBuffer[] rv = new ByteBuffer[nChunks];
+      long off = 0;
+      for(int idx = 0; idx < nChunks; ++idx) {
+	final long ne = Math.min(CHUNK_SIZE, nElems - off);
+	rv[idx] = fc.map(mode, off * elemSize, ne * elemSize).order(ByteOrder.nativeOrder());
+	off += ne;
+      }
+      return rv;
+    }
+  }
+  static int chunkCapacity(Buffer[] chunks) {
+    final int nc = chunks.length;
+    return nc == 1 ? chunks[0].capacity() : (int)Math.min(Integer.MAX_VALUE, (long)(nc - 1) * CHUNK_SIZE + chunks[nc-1].capacity());
+  }
+  static int chunkLen(int i, int e) {
+    return (int)Math.min(e - i, (long)CHUNK_SIZE - (i & CHUNK_MASK));
+  }
+  static UnsupportedOperationException growError(int len, int capacity) {
+    return new UnsupportedOperationException("Buffer list cannot grow to " + String.valueOf(len)
+					     + " - capacity " + String.valueOf(capacity));
+  }
+
+
+  public static class LongBufferList implements ArrayLists.ILongArrayList {
+    LongBuffer[] chunks;
+    final int sidx;
+    int nElems;
+    int capacity;
+    final boolean growable;
+    IPersistentMap meta;
+    public LongBufferList(LongBuffer[] chunks, int sidx, int nElems, int capacity,
+			  boolean growable, IPersistentMap meta) {
+      this.chunks = chunks;
+      this.sidx = sidx;
+      this.nElems = nElems;
+      this.capacity = capacity;
+      this.growable = growable;
+      this.meta = meta;
+    }
+    /** Growable list of off heap memory. */
+    public LongBufferList(int capacity) {
+      this(new LongBuffer[] { allocate(Math.max(4, Math.min(CHUNK_SIZE, capacity)), 8).asLongBuffer() },
+	   0, 0, 0, true, null);
+      this.capacity = chunkCapacity(chunks);
+      ensureCapacity(capacity);
+    }
+    public LongBufferList() {
+      this(16);
+    }
+    /** Fixed size list over chunk sized byte buffers such as those returned by mapFile. */
+    public static LongBufferList wrap(ByteBuffer[] bufs, IPersistentMap meta) {
+      final LongBuffer[] chunks = new LongBuffer[bufs.length];
+      for(int idx = 0; idx < bufs.length; ++idx)
+	chunks[idx] = bufs[idx].asLongBuffer();
+      final int ne = chunkCapacity(chunks);
+      return new LongBufferList(chunks, 0, ne, ne, false, meta);
+    }
+    public static LongBufferList mmap(String path, boolean readOnly, long nElems,
+				      IPersistentMap meta) throws IOException {
+      return wrap(mapFile(path, readOnly, nElems, 8), meta);
+    }
+    public String toString() { return Transformables.sequenceToString(this); }
+    public boolean equals(Object other) {
+      return equiv(other);
+    }
+    public int hashCode() { return hasheq(); }
+    public ArraySection getArraySection() { return null; }
+    public Class containedType() { return Long.TYPE; }
+    public IPersistentVector unsafeImmut() { return immut(); }
+    public IMutList cloneList() {
+      final LongBufferList rv = new LongBufferList(nElems);
+      rv.nElems = nElems;
+      rv.fillRangeReducible(0, this);
+      rv.meta = meta;
+      return rv;
+    }
+    public int size() { return nElems; }
+    public int capacity() { return capacity; }
+    public void clear() {
+      if(!growable) throw new UnsupportedOperationException("Fixed size buffer list");
+      nElems = 0;
+    }
+    public void setSize(int sz) {
+      ensureCapacity(sz);
+      nElems = sz;
+    }
+    public LongBuffer[] ensureCapacity(int len) {
+      if(len <= capacity) return chunks;
+      if(!growable) throw growError(len, capacity);
+      LongBuffer[] c = chunks;
+      final LongBuffer c0 = c[0];
+      if(c.length == 1 && c0.capacity() < CHUNK_SIZE) {
+	final int ncap = (int)Math.min(CHUNK_SIZE, Math.max(len, 2L * c0.capacity()));
+	final LongBuffer nc = allocate(ncap, 8).asLongBuffer();
+	final LongBuffer src = c0.duplicate();
+	((Buffer)src).clear();
+	nc.put(src);
+	c = new LongBuffer[] { nc };
+      }
+      while(chunkCapacity(c) < len) {
+	c = Arrays.copyOf(c, c.length + 1);
+	c[c.length-1] = allocate(CHUNK_SIZE, 8).asLongBuffer();
+      }
+      chunks = c;
+      capacity = chunkCapacity(c);
+      return c;
+    }
+    public long getLong(int idx) {
+      final int i = ArrayLists.checkIndex(idx, nElems) + sidx;
+      return chunks[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK);
+    }
+    public void setLong(int idx, long v) {
+      final int i = ArrayLists.checkIndex(idx, nElems) + sidx;
+      chunks[i >>> CHUNK_SHIFT].put(i & CHUNK_MASK, v);
+    }
+    public void addLong(long v) {
+      final int ne = nElems;
+      final LongBuffer[] c = ensureCapacity(ne + 1);
+      final int i = ne + sidx;
+      c[i >>> CHUNK_SHIFT].put(i & CHUNK_MASK, v);
+      nElems = ne + 1;
+    }
+    public void add(int idx, Object obj) {
+      if(idx == nElems) { add(obj); return; }
+      idx = ArrayLists.wrapCheckIndex(idx, nElems);
+      final long v = Casts.longCast(obj);
+      final int ne = nElems;
+      ensureCapacity(ne + 1);
+      nElems = ne + 1;
+      move(idx, idx + 1, ne - idx);
+      setLong(idx, v);
+    }
+    public boolean addAllReducible(Object c) {
+      final int sz = size();
+      if(c instanceof RandomAccess) {
+	final List cl = (List)c;
+	if(cl.isEmpty()) return false;
+	final int cs = cl.size();
+	ensureCapacity(cs + sz);
+	nElems += cs;
+	fillRangeReducible(sz, cl);
+      } else {
+	ArrayLists.ILongArrayList.super.addAllReducible(c);
+      }
+      return sz != size();
+    }
+    public Object remove(int idx) {
+      idx = ArrayLists.wrapCheckIndex(idx, nElems);
+      final long rv = getLong(idx);
+      removeRange(idx, idx+1);
+      return rv;
+    }
+    public void removeRange(int startidx, int endidx) {
+      ArrayLists.checkIndexRange(nElems, startidx, endidx);
+      if(!growable) throw new UnsupportedOperationException("Fixed size buffer list");
+      move(endidx, startidx, nElems - endidx);
+      nElems -= endidx - startidx;
+    }
+    public IMutList<Object> subList(int ssidx, int seidx) {
+      ChunkedList.sublistCheck(ssidx, seidx, size());
+      final int ne = seidx - ssidx;
+      return new LongBufferList(chunks, sidx + ssidx, ne, ne, false, meta);
+    }
+    public IPersistentMap meta() { return meta; }
+    public IObj withMeta(IPersistentMap m) {
+      meta = m;
+      return this;
+    }
+    public long[] toLongArray() { return (long[])copyOf(nElems); }
+    public Object[] toArray() {
+      final int ne = nElems;
+      final Object[] rv = new Object[ne];
+      for(int idx = 0; idx < ne; ++idx)
+	rv[idx] = getLong(idx);
+      return rv;
+    }
+    public Object longReduction(IFn.OLO rfn, Object init) {
+      final LongBuffer[] c = chunks;
+      final int e = sidx + nElems;
+      for(int i = sidx; i < e && !RT.isReduced(init);) {
+	final LongBuffer b = c[i >>> CHUNK_SHIFT];
+	final int ss = i & CHUNK_MASK;
+	final int ee = ss + chunkLen(i, e);
+	for(int idx = ss; idx < ee && !RT.isReduced(init); ++idx)
+	  init = rfn.invokePrim(init, b.get(idx));
+	i += ee - ss;
+      }
+      return Reductions.unreduce(init);
+    }
+    public void fillRangeReducible(long startidx, Object v) {
+      final int ne = nElems;
+      if(v instanceof RandomAccess) {
+	final int vs = ((List)v).size();
+	if(vs == 0) return;
+	ArrayLists.checkIndexRange(ne, startidx, startidx + vs);
+      }
+      if(v instanceof ArrayLists.ArrayOwner) {
+	final ArraySection as = ((ArrayLists.ArrayOwner)v).getArraySection();
+	if(as != null && as.array instanceof long[]) {
+	  final long[] d = (long[])as.array;
+	  int doff = as.sidx;
+	  final int e = sidx + (int)startidx + as.size();
+	  for(int i = sidx + (int)startidx; i < e; ) {
+	    final int n = chunkLen(i, e);
+	    final LongBuffer b = chunks[i >>> CHUNK_SHIFT].duplicate();
+	    ((Buffer)b).position(i & CHUNK_MASK);
+	    b.put(d, doff, n);
+	    doff += n;
+	    i += n;
+	  }
+	  return;
+	}
+      }
+      final int ss = (int)startidx;
+      Reductions.serialReduction(new Reductions.IndexedLongAccum(new IFnDef.OLLO() {
+	  public Object invokePrim(Object acc, long idx, long v) {
+	    ((IMutList)acc).setLong((int)idx+ss, v);
+	    return acc;
+	  }
+	}), this, v);
+    }
+    public void fillRange(long startidx, long endidx, Object v) {
+      ArrayLists.checkIndexRange(nElems, startidx, endidx);
+      fill((int)startidx, (int)endidx, v);
+    }
+    public void fill(int ssidx, int seidx, Object v) {
+      ArrayLists.checkIndexRange(nElems, ssidx, seidx);
+      final long l = Casts.longCast(v);
+      final LongBuffer[] c = chunks;
+      final int e = sidx + seidx;
+      for(int i = sidx + ssidx; i < e; ++i)
+	c[i >>> CHUNK_SHIFT].put(i & CHUNK_MASK, l);
+    }
+    public void move(int ssidx, int deidx, int count) {
+      ArrayLists.checkIndexRange(nElems, deidx, deidx + count);
+      final LongBuffer[] c = chunks;
+      final int s = sidx + ssidx;
+      final int d = sidx + deidx;
+      if(d > s) {
+	for(int idx = count - 1; idx >= 0; --idx) {
+	  final int si = s + idx, di = d + idx;
+	  c[di >>> CHUNK_SHIFT].put(di & CHUNK_MASK, c[si >>> CHUNK_SHIFT].get(si & CHUNK_MASK));
+	}
+      } else {
+	for(int idx = 0; idx < count; ++idx) {
+	  final int si = s + idx, di = d + idx;
+	  c[di >>> CHUNK_SHIFT].put(di & CHUNK_MASK, c[si >>> CHUNK_SHIFT].get(si & CHUNK_MASK));
+	}
+      }
+    }
+    public Object copyOfRange(int ssidx, int seidx) {
+      final long[] rv = new long[seidx - ssidx];
+      final int ee = sidx + Math.min(seidx, nElems);
+      int doff = 0;
+      for(int i = sidx + ssidx; i < ee; ) {
+	final int n = chunkLen(i, ee);
+	final LongBuffer b = chunks[i >>> CHUNK_SHIFT].duplicate();
+	((Buffer)b).position(i & CHUNK_MASK);
+	b.get(rv, doff, n);
+	doff += n;
+	i += n;
+      }
+      return rv;
+    }
+    public Object copyOf(int len) {
+      return copyOfRange(0, len);
+    }
+    public IntComparator indexComparator() {
+      return indexComparator(null);
+    }
+    @SuppressWarnings("unchecked")
+    public IntComparator indexComparator(Comparator c) {
+      final LongBuffer[] d = chunks;
+      final int ss = sidx;
+      if(c == null || c instanceof LongComparator) {
+	final LongComparator lc = c == null ? null : (LongComparator)c;
+	if(d.length == 1) {
+	  final LongBuffer b = d[0];
+	  return lc == null ? new IntComparator() {
+	      public int compare(int l, int r) {
+		return Long.compare(b.get(l+ss), b.get(r+ss));
+	      }
+	    } : new IntComparator() {
+	      public int compare(int l, int r) {
+		return lc.compare(b.get(l+ss), b.get(r+ss));
+	      }
+	    };
+	}
+	return lc == null ? new IntComparator() {
+	    public int compare(int l, int r) {
+	      return Long.compare(getLong(l), getLong(r));
+	    }
+	  } : new IntComparator() {
+	    public int compare(int l, int r) {
+	      return lc.compare(getLong(l), getLong(r));
+	    }
+	  };
+      }
+      return ArrayLists.ILongArrayList.super.indexComparator(c);
+    }
+    public int[] sortIndirect(Comparator c) {
+      final int sz = size();
+      final int[] rv = ArrayLists.iarange(0, sz, 1);
+      if(sz < 2)
+	return rv;
+      IntArrays.parallelQuickSort(rv, indexComparator(c));
+      return rv;
+    }
+  }
+
+
+  public static class DoubleBufferList implements ArrayLists.IDoubleArrayList {
+    DoubleBuffer[] chunks;
+    final int sidx;
+    int nElems;
+    int capacity;
+    final boolean growable;
+    IPersistentMap meta;
+    public DoubleBufferList(DoubleBuffer[] chunks, int sidx, int nElems, int capacity,
+			    boolean growable, IPersistentMap meta) {
+      this.chunks = chunks;
+      this.sidx = sidx;
+      this.nElems = nElems;
+      this.capacity = capacity;
+      this.growable = growable;
+      this.meta = meta;
+    }
+    /** Growable list of off heap memory. */
+    public DoubleBufferList(int capacity) {
+      this(new DoubleBuffer[] { allocate(Math.max(4, Math.min(CHUNK_SIZE, capacity)), 8).asDoubleBuffer() },
+	   0, 0, 0, true, null);
+      this.capacity = chunkCapacity(chunks);
+      ensureCapacity(capacity);
+    }
+    public DoubleBufferList() {
+      this(16);
+    }
+    /** Fixed size list over chunk sized byte buffers such as those returned by mapFile. */
+    public static DoubleBufferList wrap(ByteBuffer[] bufs, IPersistentMap meta) {
+      final DoubleBuffer[] chunks = new DoubleBuffer[bufs.length];
+      for(int idx = 0; idx < bufs.length; ++idx)
+	chunks[idx] = bufs[idx].asDoubleBuffer();
+      final int ne = chunkCapacity(chunks);
+      return new DoubleBufferList(chunks, 0, ne, ne, false, meta);
+    }
+    public static DoubleBufferList mmap(String path, boolean readOnly, long nElems,
+					IPersistentMap meta) throws IOException {
+      return wrap(mapFile(path, readOnly, nElems, 8), meta);
+    }
+    public String toString() { return Transformables.sequenceToString(this); }
+    public boolean equals(Object other) {
+      return equiv(other);
+    }
+    public int hashCode() { return hasheq(); }
+    public ArraySection getArraySection() { return null; }
+    public Class containedType() { return Double.TYPE; }
+    public IPersistentVector unsafeImmut() { return immut(); }
+    public IMutList cloneList() {
+      final DoubleBufferList rv = new DoubleBufferList(nElems);
+      rv.nElems = nElems;
+      rv.fillRangeReducible(0, this);
+      rv.meta = meta;
+      return rv;
+    }
+    public int size() { return nElems; }
+    public int capacity() { return capacity; }
+    public void clear() {
+      if(!growable) throw new UnsupportedOperationException("Fixed size buffer list");
+      nElems = 0;
+    }
+    public void setSize(int sz) {
+      ensureCapacity(sz);
+      nElems = sz;
+    }
+    public DoubleBuffer[] ensureCapacity(int len) {
+      if(len <= capacity) return chunks;
+      if(!growable) throw growError(len, capacity);
+      DoubleBuffer[] c = chunks;
+      final DoubleBuffer c0 = c[0];
+      if(c.length == 1 && c0.capacity() < CHUNK_SIZE) {
+	final int ncap = (int)Math.min(CHUNK_SIZE, Math.max(len, 2L * c0.capacity()));
+	final DoubleBuffer nc = allocate(ncap, 8).asDoubleBuffer();
+	final DoubleBuffer src = c0.duplicate();
+	((Buffer)src).clear();
+	nc.put(src);
+	c = new DoubleBuffer[] { nc };
+      }
+      while(chunkCapacity(c) < len) {
+	c = Arrays.copyOf(c, c.length + 1);
+	c[c.length-1] = allocate(CHUNK_SIZE, 8).asDoubleBuffer();
+      }
+      chunks = c;
+      capacity = chunkCapacity(c);
+      return c;
+    }
+    public double getDouble(int idx) {
+      final int i = ArrayLists.checkIndex(idx, nElems) + sidx;
+      return chunks[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK);
+    }
+    public void setDouble(int idx, double v) {
+      final int i = ArrayLists.checkIndex(idx, nElems) + sidx;
+      chunks[i >>> CHUNK_SHIFT].put(i & CHUNK_MASK, v);
+    }
+    public void addDouble(double v) {
+      final int ne = nElems;
+      final DoubleBuffer[] c = ensureCapacity(ne + 1);
+      final int i = ne + sidx;
+      c[i >>> CHUNK_SHIFT].put(i & CHUNK_MASK, v);
+      nElems = ne + 1;
+    }
+    public void add(int idx, Object obj) {
+      if(idx == nElems) { add(obj); return; }
+      idx = ArrayLists.wrapCheckIndex(idx, nElems);
+      final double v = Casts.doubleCast(obj);
+      final int ne = nElems;
+      ensureCapacity(ne + 1);
+      nElems = ne + 1;
+      move(idx, idx + 1, ne - idx);
+      setDouble(idx, v);
+    }
+    public boolean addAllReducible(Object c) {
+      final int sz = size();
+      if(c instanceof RandomAccess) {
+	final List cl = (List)c;
+	if(cl.isEmpty()) return false;
+	final int cs = cl.size();
+	ensureCapacity(cs + sz);
+	nElems += cs;
+	fillRangeReducible(sz, cl);
+      } else {
+	ArrayLists.IDoubleArrayList.super.addAllReducible(c);
+      }
+      return sz != size();
+    }
+    public Object remove(int idx) {
+      idx = ArrayLists.wrapCheckIndex(idx, nElems);
+      final double rv = getDouble(idx);
+      removeRange(idx, idx+1);
+      return rv;
+    }
+    public void removeRange(int startidx, int endidx) {
+      ArrayLists.checkIndexRange(nElems, startidx, endidx);
+      if(!growable) throw new UnsupportedOperationException("Fixed size buffer list");
+      move(endidx, startidx, nElems - endidx);
+      nElems -= endidx - startidx;
+    }
+    public IMutList<Object> subList(int ssidx, int seidx) {
+      ChunkedList.sublistCheck(ssidx, seidx, size());
+      final int ne = seidx - ssidx;
+      return new DoubleBufferList(chunks, sidx + ssidx, ne, ne, false, meta);
+    }
+    public IPersistentMap meta() { return meta; }
+    public IObj withMeta(IPersistentMap m) {
+      meta = m;
+      return this;
+    }
+    public double[] toDoubleArray() { return (double[])copyOf(nElems); }
+    public Object[] toArray() {
+      final int ne = nElems;
+      final Object[] rv = new Object[ne];
+      for(int idx = 0; idx < ne; ++idx)
+	rv[idx] = getDouble(idx);
+      return rv;
+    }
+    public Object doubleReduction(IFn.ODO rfn, Object init) {
+      final DoubleBuffer[] c = chunks;
+      final int e = sidx + nElems;
+      for(int i = sidx; i < e && !RT.isReduced(init);) {
+	final DoubleBuffer b = c[i >>> CHUNK_SHIFT];
+	final int ss = i & CHUNK_MASK;
+	final int ee = ss + chunkLen(i, e);
+	for(int idx = ss; idx < ee && !RT.isReduced(init); ++idx)
+	  init = rfn.invokePrim(init, b.get(idx));
+	i += ee - ss;
+      }
+      return Reductions.unreduce(init);
+    }
+    public void fillRangeReducible(long startidx, Object v) {
+      final int ne = nElems;
+      if(v instanceof RandomAccess) {
+	final int vs = ((List)v).size();
+	if(vs == 0) return;
+	ArrayLists.checkIndexRange(ne, startidx, startidx + vs);
+      }
+      if(v instanceof ArrayLists.ArrayOwner) {
+	final ArraySection as = ((ArrayLists.ArrayOwner)v).getArraySection();
+	if(as != null && as.array instanceof double[]) {
+	  final double[] d = (double[])as.array;
+	  int doff = as.sidx;
+	  final int e = sidx + (int)startidx + as.size();
+	  for(int i = sidx + (int)startidx; i < e; ) {
+	    final int n = chunkLen(i, e);
+	    final DoubleBuffer b = chunks[i >>> CHUNK_SHIFT].duplicate();
+	    ((Buffer)b).position(i & CHUNK_MASK);
+	    b.put(d, doff, n);
+	    doff += n;
+	    i += n;
+	  }
+	  return;
+	}
+      }
+      final int ss = (int)startidx;
+      Reductions.serialReduction(new Reductions.IndexedDoubleAccum(new IFnDef.OLDO() {
+	  public Object invokePrim(Object acc, long idx, double v) {
+	    ((IMutList)acc).setDouble((int)idx+ss, v);
+	    return acc;
+	  }
+	}), this, v);
+    }
+    public void fillRange(long startidx, long endidx, Object v) {
+      ArrayLists.checkIndexRange(nElems, startidx, endidx);
+      fill((int)startidx, (int)endidx, v);
+    }
+    public void fill(int ssidx, int seidx, Object v) {
+      ArrayLists.checkIndexRange(nElems, ssidx, seidx);
+      final double l = Casts.doubleCast(v);
+      final DoubleBuffer[] c = chunks;
+      final int e = sidx + seidx;
+      for(int i = sidx + ssidx; i < e; ++i)
+	c[i >>> CHUNK_SHIFT].put(i & CHUNK_MASK, l);
+    }
+    public void move(int ssidx, int deidx, int count) {
+      ArrayLists.checkIndexRange(nElems, deidx, deidx + count);
+      final DoubleBuffer[] c = chunks;
+      final int s = sidx + ssidx;
+      final int d = sidx + deidx;
+      if(d > s) {
+	for(int idx = count - 1; idx >= 0; --idx) {
+	  final int si = s + idx, di = d + idx;
+	  c[di >>> CHUNK_SHIFT].put(di & CHUNK_MASK, c[si >>> CHUNK_SHIFT].get(si & CHUNK_MASK));
+	}
+      } else {
+	for(int idx = 0; idx < count; ++idx) {
+	  final int si = s + idx, di = d + idx;
+	  c[di >>> CHUNK_SHIFT].put(di & CHUNK_MASK, c[si >>> CHUNK_SHIFT].get(si & CHUNK_MASK));
+	}
+      }
+    }
+    public Object copyOfRange(int ssidx, int seidx) {
+      final double[] rv = new double[seidx - ssidx];
+      final int ee = sidx + Math.min(seidx, nElems);
+      int doff = 0;
+      for(int i = sidx + ssidx; i < ee; ) {
+	final int n = chunkLen(i, ee);
+	final DoubleBuffer b = chunks[i >>> CHUNK_SHIFT].duplicate();
+	((Buffer)b).position(i & CHUNK_MASK);
+	b.get(rv, doff, n);
+	doff += n;
+	i += n;
+      }
+      return rv;
+    }
+    public Object copyOf(int len) {
+      return copyOfRange(0, len);
+    }
+    public IntComparator indexComparator() {
+      return indexComparator(null);
+    }
+    @SuppressWarnings("unchecked")
+    public IntComparator indexComparator(Comparator c) {
+      final DoubleBuffer[] d = chunks;
+      final int ss = sidx;
+      if(c == null || c instanceof DoubleComparator) {
+	final DoubleComparator dc = c == null ? null : (DoubleComparator)c;
+	if(d.length == 1) {
+	  final DoubleBuffer b = d[0];
+	  return dc == null ? new IntComparator() {
+	      public int compare(int l, int r) {
+		return Double.compare(b.get(l+ss), b.get(r+ss));
+	      }
+	    } : new IntComparator() {
+	      public int compare(int l, int r) {
+		return dc.compare(b.get(l+ss), b.get(r+ss));
+	      }
+	    };
+	}
+	return dc == null ? new IntComparator() {
+	    public int compare(int l, int r) {
+	      return Double.compare(getDouble(l), getDouble(r));
+	    }
+	  } : new IntComparator() {
+	    public int compare(int l, int r) {
+	      return dc.compare(getDouble(l), getDouble(r));
+	    }
+	  };
+      }
+      return ArrayLists.IDoubleArrayList.super.indexComparator(c);
+    }
+    public int[] sortIndirect(Comparator c) {
+      final int sz = size();
+      final int[] rv = ArrayLists.iarange(0, sz, 1);
+      if(sz < 2)
+	return rv;
+      IntArrays.parallelQuickSort(rv, indexComparator(c));
+      return rv;
+    }
+  }
+}
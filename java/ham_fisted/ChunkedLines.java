@@ -0,0 +1,359 @@
+package ham_fisted;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+import clojure.lang.IReduceInit;
+import clojure.lang.RT;
+
+
+/**
+ * Lines of a file or stream read in large byte blocks that always end on a newline.  Each
+ * block is decoded and split into lines independently so parallel reductions hand whole
+ * blocks to worker threads.  Files are split by byte range and reduced with the fork-join
+ * spliterator reduction, streams are read serially on the calling thread while their
+ * blocks are reduced in parallel.
+ *
+ * Lines end with \n or \r\n.  Charsets must encode \n as the single byte 10 - UTF-8, ASCII
+ * and the ISO-8859 family all do.  When charSequences is true lines are CharSequence views
+ * over the decoded block instead of Strings.
+ */
+public class ChunkedLines implements ITypedReduce, Iterable, AutoCloseable {
+  public static final int defaultBlockSize = 1 << 20;
+  final FileChannel channel;
+  final InputStream stream;
+  final Charset charset;
+  final int blockSize;
+  final boolean charSequences;
+
+  ChunkedLines(FileChannel channel, InputStream stream, Charset charset, int blockSize,
+	       boolean charSequences) {
+    this.channel = channel;
+    this.stream = stream;
+    this.charset = charset = charset == null ? StandardCharsets.UTF_8 : charset;
+    if(blockSize < 1)
+      throw new IllegalArgumentException("Block size must be positive: " + String.valueOf(blockSize));
+    this.blockSize = blockSize;
+    this.charSequences = charSequences;
+    final byte[] nl = "\n".getBytes(charset);
+    if(nl.length != 1 || nl[0] != '\n')
+      throw new IllegalArgumentException("Charset " + charset.name() + " does not encode newline as a single byte");
+  }
+  public ChunkedLines(FileChannel channel, Charset charset, int blockSize, boolean charSequences) {
+    this(channel, null, charset, blockSize, charSequences);
+  }
+  public ChunkedLines(InputStream stream, Charset charset, int blockSize, boolean charSequences) {
+    this(null, stream, charset, blockSize, charSequences);
+  }
+  public void close() throws IOException {
+    if(channel != null) channel.close();
+    if(stream != null) stream.close();
+  }
+
+  public static class Block {
+    public final byte[] data;
+    public final int n;
+    public Block(byte[] data, int n) { this.data = data; this.n = n; }
+  }
+  static int lastNewline(byte[] data, int n) {
+    for(int idx = n - 1; idx >= 0; --idx)
+      if(data[idx] == '\n') return idx;
+    return -1;
+  }
+
+  //Blocks of [pos, end) of the file.  The block buffer is reused between blocks.
+  class FileBlocks implements Iterator<Block> {
+    long pos;
+    final long end;
+    byte[] buf;
+    FileBlocks(long pos, long end) {
+      this.pos = pos;
+      this.end = end;
+      this.buf = new byte[(int)Math.max(1, Math.min(blockSize, end - pos))];
+    }
+    public boolean hasNext() { return pos < end; }
+    public Block next() {
+      if(pos >= end) throw new NoSuchElementException();
+      for(;;) {
+	final int want = (int)Math.min(buf.length, end - pos);
+	readFully(pos, buf, want);
+	int n = want;
+	if(pos + want < end) {
+	  final int nl = lastNewline(buf, want);
+	  //Line longer than the buffer.
+	  if(nl < 0) {
+	    buf = Arrays.copyOf(buf, buf.length + blockSize);
+	    continue;
+	  }
+	  n = nl + 1;
+	}
+	pos += n;
+	return new Block(buf, n);
+      }
+    }
+  }
+  void readFully(long pos, byte[] dst, int len) {
+    try {
+      int off = 0;
+      while(off < len) {
+	final int r = channel.read(ByteBuffer.wrap(dst, off, len - off), pos + off);
+	if(r < 0)
+	  throw new IOException("Unexpected end of file at " + String.valueOf(pos + off));
+	off += r;
+      }
+    } catch(IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+  long fileSize() {
+    try {
+      return channel.size();
+    } catch(IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+  /**
+   * First line start after pos or end if there is none.
+   */
+  long nextLineStart(long pos, long end) {
+    final byte[] buf = new byte[8192];
+    while(pos < end) {
+      final int want = (int)Math.min(buf.length, end - pos);
+      readFully(pos, buf, want);
+      for(int idx = 0; idx < want; ++idx)
+	if(buf[idx] == '\n') return pos + idx + 1;
+      pos += want;
+    }
+    return end;
+  }
+
+  //Blocks of the stream.  Each block is a new array as blocks are reduced on other threads.
+  class StreamBlocks implements Iterator<Block> {
+    byte[] leftover = new byte[0];
+    int nLeft = 0;
+    boolean eof = false;
+    Block nextBlock = null;
+    Block readBlock() {
+      try {
+	for(;;) {
+	  if(eof && nLeft == 0)
+	    return null;
+	  final byte[] buf = Arrays.copyOf(leftover, nLeft + blockSize);
+	  int n = nLeft;
+	  while(n < buf.length && !eof) {
+	    final int r = stream.read(buf, n, buf.length - n);
+	    if(r < 0) eof = true;
+	    else n += r;
+	  }
+	  if(eof) {
+	    nLeft = 0;
+	    if(n == 0) return null;
+	    return new Block(buf, n);
+	  }
+	  final int nl = lastNewline(buf, n);
+	  if(nl < 0) {
+	    leftover = buf;
+	    nLeft = n;
+	  } else {
+	    leftover = Arrays.copyOfRange(buf, nl + 1, n);
+	    nLeft = n - nl - 1;
+	    return new Block(buf, nl + 1);
+	  }
+	}
+      } catch(IOException e) {
+	throw new UncheckedIOException(e);
+      }
+    }
+    public boolean hasNext() {
+      if(nextBlock == null)
+	nextBlock = readBlock();
+      return nextBlock != null;
+    }
+    public Block next() {
+      if(!hasNext()) throw new NoSuchElementException();
+      final Block rv = nextBlock;
+      nextBlock = null;
+      return rv;
+    }
+  }
+  /**
+   * Iterator of newline terminated byte blocks.  Blocks from a file share one buffer.
+   */
+  public Iterator<Block> blockIterator() {
+    return channel != null ? new FileBlocks(0, fileSize()) : new StreamBlocks();
+  }
+
+  CharBuffer decode(Block b) {
+    try {
+      return charset.newDecoder()
+	.onMalformedInput(CodingErrorAction.REPLACE)
+	.onUnmappableCharacter(CodingErrorAction.REPLACE)
+	.decode(ByteBuffer.wrap(b.data, 0, b.n));
+    } catch(CharacterCodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+  Object line(char[] data, int sidx, int eidx) {
+    if(eidx > sidx && data[eidx-1] == '\r')
+      --eidx;
+    return charSequences ? CharBuffer.wrap(data, sidx, eidx - sidx) : new String(data, sidx, eidx - sidx);
+  }
+  /**
+   * Reduce the lines of one block.  Returns a reduced value if rfn terminated early.
+   */
+  public Object reduceBlock(IFn rfn, Object acc, Block b) {
+    final CharBuffer cb = decode(b);
+    final char[] data = cb.array();
+    final int sidx = cb.arrayOffset() + cb.position();
+    final int eidx = sidx + cb.remaining();
+    int lsidx = sidx;
+    for(int idx = sidx; idx < eidx; ++idx) {
+      if(data[idx] == '\n') {
+	acc = rfn.invoke(acc, line(data, lsidx, idx));
+	if(RT.isReduced(acc)) return acc;
+	lsidx = idx + 1;
+      }
+    }
+    if(lsidx < eidx)
+      acc = rfn.invoke(acc, line(data, lsidx, eidx));
+    return acc;
+  }
+  Object reduceBlocks(Iterator<Block> blocks, IFn rfn, Object acc) {
+    while(blocks.hasNext()) {
+      acc = reduceBlock(rfn, acc, blocks.next());
+      if(RT.isReduced(acc)) return acc;
+    }
+    return acc;
+  }
+  public Object reduce(IFn rfn, Object acc) {
+    return Reductions.unreduce(reduceBlocks(blockIterator(), rfn, acc));
+  }
+  @SuppressWarnings("unchecked")
+  public void forEach(Consumer c) {
+    ITypedReduce.super.forEach(c);
+  }
+
+  /**
+   * Lines of the byte range [start, end) of the file.  Splits at the first line start after
+   * the midpoint.
+   */
+  public class RangeSpliterator implements Spliterator, IReduceInit {
+    long start;
+    final long end;
+    Iterator lines;
+    public RangeSpliterator(long start, long end) {
+      this.start = start;
+      this.end = end;
+    }
+    public Spliterator trySplit() {
+      if(lines != null || end - start <= blockSize)
+	return null;
+      final long split = nextLineStart(start + (end - start) / 2, end);
+      if(split >= end)
+	return null;
+      final RangeSpliterator rv = new RangeSpliterator(start, split);
+      start = split;
+      return rv;
+    }
+    public long estimateSize() { return end - start; }
+    public int characteristics() { return Spliterator.ORDERED | Spliterator.NONNULL; }
+    @SuppressWarnings("unchecked")
+    public boolean tryAdvance(Consumer c) {
+      if(lines == null) {
+	lines = new LineIterator(new FileBlocks(start, end));
+	start = end;
+      }
+      if(!lines.hasNext())
+	return false;
+      c.accept(lines.next());
+      return true;
+    }
+    public Object reduce(IFn rfn, Object acc) {
+      if(lines != null) {
+	while(lines.hasNext()) {
+	  acc = rfn.invoke(acc, lines.next());
+	  if(RT.isReduced(acc)) return ((IDeref)acc).deref();
+	}
+	return acc;
+      }
+      final long s = start;
+      start = end;
+      return Reductions.unreduce(reduceBlocks(new FileBlocks(s, end), rfn, acc));
+    }
+    @SuppressWarnings("unchecked")
+    public void forEachRemaining(Consumer c) {
+      reduce(new IFnDef() {
+	  public Object invoke(Object acc, Object v) {
+	    c.accept(v);
+	    return acc;
+	  }
+	}, null);
+    }
+  }
+
+  public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				  ParallelOptions options) {
+    if(channel != null) {
+      final long size = fileSize();
+      if(size <= blockSize)
+	return Reductions.serialParallelReduction(initValFn, rfn, options, this);
+      return ForkJoinPatterns.parallelSpliteratorReduce(initValFn, rfn, mergeFn,
+							new RangeSpliterator(0, size), options);
+    }
+    final Iterator<Block> blocks = new StreamBlocks();
+    final Iterable<Block> blockIterable = new Iterable<Block>() {
+	public Iterator<Block> iterator() { return blocks; }
+      };
+    return Reductions.iterableMerge(options, mergeFn, ForkJoinPatterns.pmap(options, new IFnDef() {
+	public Object invoke(Object b) {
+	  return Reductions.unreduce(reduceBlock(rfn, initValFn.invoke(), (Block)b));
+	}
+      }, Collections.singletonList(blockIterable)));
+  }
+
+  class LineIterator implements Iterator {
+    final Iterator<Block> blocks;
+    char[] data;
+    int pos;
+    int eidx;
+    LineIterator(Iterator<Block> blocks) {
+      this.blocks = blocks;
+      advance();
+    }
+    void advance() {
+      while((data == null || pos >= eidx) && blocks.hasNext()) {
+	final CharBuffer cb = decode(blocks.next());
+	data = cb.array();
+	pos = cb.arrayOffset() + cb.position();
+	eidx = pos + cb.remaining();
+      }
+    }
+    public boolean hasNext() { return data != null && pos < eidx; }
+    public Object next() {
+      if(!hasNext()) throw new NoSuchElementException();
+      int idx = pos;
+      while(idx < eidx && data[idx] != '\n') ++idx;
+      final Object rv = line(data, pos, idx);
+      pos = idx + 1;
+      advance();
+      return rv;
+    }
+  }
+  public Iterator iterator() { return new LineIterator(blockIterator()); }
+}
@@ -0,0 +1,445 @@
+package ham_fisted;
+
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import clojure.lang.IFn;
+import clojure.lang.IReduceInit;
+
+
+/**
+ * Group by reduction over primitive columns.  Rows are assigned an integer group slot from
+ * an int or long key column - directly from the key when the key range is small or through
+ * a LongLongHashMap otherwise - and each aggregate accumulates into primitive arrays
+ * indexed by slot.  Slots are computed for a block of rows at a time so every aggregate runs
+ * a tight loop over its column.
+ *
+ * Parallel reductions use the fork-join spliterator reduction so row ranges that are not
+ * stolen accumulate into the same Groups and only stolen ranges are merged.  Results are
+ * ordered by ascending key.
+ */
+public class ColumnGroupBy {
+  private ColumnGroupBy(){}
+
+  //Largest key range that uses dense slots.
+  public static final long denseLimit = 1 << 20;
+  static final int blockSize = 1024;
+
+  public static abstract class AggState {
+    abstract void ensureCapacity(int cap);
+    /**
+     * Accumulate rows [row, row+n) which were assigned slots[0..n).  Rows are offsets
+     * into the key column.
+     */
+    abstract void consume(int[] slots, int n, int row);
+    abstract void mergeSlot(int dslot, AggState src, int sslot);
+    abstract IMutList result(int[] slots, long[] counts);
+  }
+
+  /**
+   * Aggregate over a value column.  Value columns must be the same length as the key column.
+   */
+  public static abstract class Agg {
+    //Column length or -1 for aggregates without a column.
+    public final int nRows;
+    public Agg(int nRows) { this.nRows = nRows; }
+    public abstract AggState newState(int capacity);
+  }
+
+  static double[] grow(double[] data, int cap, double fill) {
+    if(data.length >= cap) return data;
+    final int len = data.length;
+    final double[] rv = Arrays.copyOf(data, Math.max(cap, len * 2));
+    Arrays.fill(rv, len, rv.length, fill);
+    return rv;
+  }
+  static long[] grow(long[] data, int cap, long fill) {
+    if(data.length >= cap) return data;
+    final int len = data.length;
+    final long[] rv = Arrays.copyOf(data, Math.max(cap, len * 2));
+    Arrays.fill(rv, len, rv.length, fill);
+    return rv;
+  }
+
+  static final int SUM = 0;
+  static final int MIN = 1;
+  static final int MAX = 2;
+  static final int MEAN = 3;
+
+  //Kahan compensated sums matching Sum.
+  static class DoubleSumState extends AggState {
+    final double[] col;
+    final int off;
+    final boolean mean;
+    double[] d0;
+    double[] d1;
+    DoubleSumState(double[] col, int off, boolean mean, int cap) {
+      this.col = col; this.off = off; this.mean = mean;
+      d0 = new double[cap];
+      d1 = new double[cap];
+    }
+    void ensureCapacity(int cap) { d0 = grow(d0, cap, 0.0); d1 = grow(d1, cap, 0.0); }
+    void consume(int[] slots, int n, int row) {
+      final double[] c = col, s0 = d0, s1 = d1;
+      final int o = off + row;
+      for(int idx = 0; idx < n; ++idx) {
+	final int slot = slots[idx];
+	final double tmp = c[o + idx] - s1[slot];
+	final double sum = s0[slot];
+	final double velvel = sum + tmp;
+	s1[slot] = (velvel - sum) - tmp;
+	s0[slot] = velvel;
+      }
+    }
+    void mergeSlot(int dslot, AggState src, int sslot) {
+      final DoubleSumState s = (DoubleSumState)src;
+      //Same compensated step as consume for both words of the other sum.
+      for(int word = 0; word < 2; ++word) {
+	final double v = word == 0 ? s.d0[sslot] : -s.d1[sslot];
+	final double tmp = v - d1[dslot];
+	final double sum = d0[dslot];
+	final double velvel = sum + tmp;
+	d1[dslot] = (velvel - sum) - tmp;
+	d0[dslot] = velvel;
+      }
+    }
+    IMutList result(int[] slots, long[] counts) {
+      final double[] rv = new double[slots.length];
+      for(int idx = 0; idx < rv.length; ++idx) {
+	final int slot = slots[idx];
+	final double sum = d0[slot] - d1[slot];
+	rv[idx] = mean ? sum / counts[slot] : sum;
+      }
+      return ArrayLists.toList(rv);
+    }
+  }
+  static class DoubleMinMaxState extends AggState {
+    final double[] col;
+    final int off;
+    final boolean max;
+    double[] vals;
+    DoubleMinMaxState(double[] col, int off, boolean max, int cap) {
+      this.col = col; this.off = off; this.max = max;
+      vals = grow(new double[0], cap, fill());
+    }
+    double fill() { return max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY; }
+    void ensureCapacity(int cap) { vals = grow(vals, cap, fill()); }
+    void consume(int[] slots, int n, int row) {
+      final double[] c = col, v = vals;
+      final int o = off + row;
+      if(max) {
+	for(int idx = 0; idx < n; ++idx)
+	  v[slots[idx]] = Math.max(v[slots[idx]], c[o + idx]);
+      } else {
+	for(int idx = 0; idx < n; ++idx)
+	  v[slots[idx]] = Math.min(v[slots[idx]], c[o + idx]);
+      }
+    }
+    void mergeSlot(int dslot, AggState src, int sslot) {
+      final double o = ((DoubleMinMaxState)src).vals[sslot];
+      vals[dslot] = max ? Math.max(vals[dslot], o) : Math.min(vals[dslot], o);
+    }
+    IMutList result(int[] slots, long[] counts) {
+      final double[] rv = new double[slots.length];
+      for(int idx = 0; idx < rv.length; ++idx)
+	rv[idx] = vals[slots[idx]];
+      return ArrayLists.toList(rv);
+    }
+  }
+  static class LongState extends AggState {
+    final long[] col;
+    final int off;
+    final int op;
+    long[] vals;
+    LongState(long[] col, int off, int op, int cap) {
+      this.col = col; this.off = off; this.op = op;
+      vals = grow(new long[0], cap, fill());
+    }
+    long fill() { return op == MIN ? Long.MAX_VALUE : op == MAX ? Long.MIN_VALUE : 0; }
+    void ensureCapacity(int cap) { vals = grow(vals, cap, fill()); }
+    void consume(int[] slots, int n, int row) {
+      final long[] c = col, v = vals;
+      final int o = off + row;
+      switch(op) {
+      case MIN:
+	for(int idx = 0; idx < n; ++idx)
+	  v[slots[idx]] = Math.min(v[slots[idx]], c[o + idx]);
+	break;
+      case MAX:
+	for(int idx = 0; idx < n; ++idx)
+	  v[slots[idx]] = Math.max(v[slots[idx]], c[o + idx]);
+	break;
+      default:
+	for(int idx = 0; idx < n; ++idx)
+	  v[slots[idx]] += c[o + idx];
+      }
+    }
+    void mergeSlot(int dslot, AggState src, int sslot) {
+      final long o = ((LongState)src).vals[sslot];
+      vals[dslot] = op == MIN ? Math.min(vals[dslot], o)
+	: op == MAX ? Math.max(vals[dslot], o) : vals[dslot] + o;
+    }
+    IMutList result(int[] slots, long[] counts) {
+      if(op == MEAN) {
+	final double[] rv = new double[slots.length];
+	for(int idx = 0; idx < rv.length; ++idx)
+	  rv[idx] = vals[slots[idx]] / (double)counts[slots[idx]];
+	return ArrayLists.toList(rv);
+      }
+      final long[] rv = new long[slots.length];
+      for(int idx = 0; idx < rv.length; ++idx)
+	rv[idx] = vals[slots[idx]];
+      return ArrayLists.toList(rv);
+    }
+  }
+  static class CountState extends AggState {
+    void ensureCapacity(int cap) {}
+    void consume(int[] slots, int n, int row) {}
+    void mergeSlot(int dslot, AggState src, int sslot) {}
+    IMutList result(int[] slots, long[] counts) {
+      final long[] rv = new long[slots.length];
+      for(int idx = 0; idx < rv.length; ++idx)
+	rv[idx] = counts[slots[idx]];
+      return ArrayLists.toList(rv);
+    }
+  }
+
+  /**
+   * Aggregate named by op - "sum", "min", "max", "mean" or "count".  col is an
+   * ArraySection of a double or long array and is ignored for count.  Sums, mins and maxes
+   * of long columns are longs, all other results are doubles except count.
+   */
+  public static Agg agg(String op, ArraySection col) {
+    final int opc;
+    switch(op) {
+    case "count":
+      return new Agg(-1) {
+	public AggState newState(int cap) { return new CountState(); }
+      };
+    case "sum": opc = SUM; break;
+    case "min": opc = MIN; break;
+    case "max": opc = MAX; break;
+    case "mean": opc = MEAN; break;
+    default: throw new IllegalArgumentException("Unrecognized aggregate: " + op);
+    }
+    if(col == null)
+      throw new IllegalArgumentException("Aggregate " + op + " requires a column");
+    final Object ary = col.array;
+    final int off = col.sidx;
+    if(ary instanceof double[]) {
+      final double[] d = (double[])ary;
+      return new Agg(col.size()) {
+	public AggState newState(int cap) {
+	  return opc == SUM || opc == MEAN ? new DoubleSumState(d, off, opc == MEAN, cap)
+	    : new DoubleMinMaxState(d, off, opc == MAX, cap);
+	}
+      };
+    } else if(ary instanceof long[]) {
+      final long[] l = (long[])ary;
+      return new Agg(col.size()) {
+	public AggState newState(int cap) { return new LongState(l, off, opc, cap); }
+      };
+    }
+    throw new IllegalArgumentException("Value columns must be double or long arrays");
+  }
+
+  /**
+   * Group slots and aggregate states for a set of rows.
+   */
+  public static class Groups {
+    final Object keyCol;
+    final int keyOff;
+    final boolean dense;
+    final long minKey;
+    final Agg[] aggs;
+    final AggState[] states;
+    //Hashed slots only.
+    final LongLongHashMap index;
+    long[] keys;
+    long[] counts;
+    int nSlots;
+    final int[] slots = new int[blockSize];
+    Groups(Object keyCol, int keyOff, boolean dense, long minKey, int cap, Agg[] aggs) {
+      this.keyCol = keyCol;
+      this.keyOff = keyOff;
+      this.dense = dense;
+      this.minKey = minKey;
+      this.aggs = aggs;
+      this.states = new AggState[aggs.length];
+      for(int idx = 0; idx < aggs.length; ++idx)
+	states[idx] = aggs[idx].newState(cap);
+      this.counts = new long[cap];
+      if(dense) {
+	this.index = null;
+	this.nSlots = cap;
+      } else {
+	this.index = new LongLongHashMap();
+	this.keys = new long[cap];
+      }
+    }
+    int hashSlot(long k) {
+      final long s = index.getLong(k, -1);
+      if(s >= 0) return (int)s;
+      final int rv = nSlots++;
+      if(rv == keys.length) {
+	final int cap = rv * 2;
+	keys = Arrays.copyOf(keys, cap);
+	counts = Arrays.copyOf(counts, cap);
+	for(AggState st: states)
+	  st.ensureCapacity(cap);
+      }
+      keys[rv] = k;
+      index.putLong(k, rv);
+      return rv;
+    }
+    void computeSlots(int row, int n) {
+      final int[] s = slots;
+      final int o = keyOff + row;
+      if(keyCol instanceof int[]) {
+	final int[] k = (int[])keyCol;
+	if(dense)
+	  for(int idx = 0; idx < n; ++idx) s[idx] = (int)(k[o + idx] - minKey);
+	else
+	  for(int idx = 0; idx < n; ++idx) s[idx] = hashSlot(k[o + idx]);
+      } else {
+	final long[] k = (long[])keyCol;
+	if(dense)
+	  for(int idx = 0; idx < n; ++idx) s[idx] = (int)(k[o + idx] - minKey);
+	else
+	  for(int idx = 0; idx < n; ++idx) s[idx] = hashSlot(k[o + idx]);
+      }
+      //Hashing may have grown counts.
+      final long[] c = counts;
+      for(int idx = 0; idx < n; ++idx)
+	++c[s[idx]];
+    }
+    /**
+     * Accumulate rows [sidx, eidx) relative to the start of the key column.
+     */
+    public Groups consume(int sidx, int eidx) {
+      final AggState[] st = states;
+      for(int row = sidx; row < eidx; row += blockSize) {
+	final int n = Math.min(blockSize, eidx - row);
+	computeSlots(row, n);
+	for(int idx = 0; idx < st.length; ++idx)
+	  st[idx].consume(slots, n, row);
+      }
+      return this;
+    }
+    public Groups merge(Groups other) {
+      for(int sslot = 0; sslot < other.nSlots; ++sslot) {
+	final long cnt = other.counts[sslot];
+	if(cnt == 0) continue;
+	final int dslot = dense ? sslot : hashSlot(other.keys[sslot]);
+	counts[dslot] += cnt;
+	for(int idx = 0; idx < states.length; ++idx)
+	  states[idx].mergeSlot(dslot, other.states[idx], sslot);
+      }
+      return this;
+    }
+    /**
+     * Returns {keys, agg results...} ordered by ascending key.
+     */
+    public Object[] results() {
+      int[] order;
+      long[] sortedKeys;
+      if(dense) {
+	int n = 0;
+	for(int idx = 0; idx < nSlots; ++idx)
+	  if(counts[idx] != 0) ++n;
+	order = new int[n];
+	sortedKeys = new long[n];
+	n = 0;
+	for(int idx = 0; idx < nSlots; ++idx) {
+	  if(counts[idx] != 0) {
+	    order[n] = idx;
+	    sortedKeys[n++] = idx + minKey;
+	  }
+	}
+      } else {
+	sortedKeys = Arrays.copyOf(keys, nSlots);
+	Arrays.sort(sortedKeys);
+	order = new int[nSlots];
+	for(int idx = 0; idx < nSlots; ++idx)
+	  order[idx] = (int)index.getLong(sortedKeys[idx], -1);
+      }
+      final Object[] rv = new Object[states.length + 1];
+      rv[0] = ArrayLists.toList(sortedKeys);
+      for(int idx = 0; idx < states.length; ++idx)
+	rv[idx+1] = states[idx].result(order, counts);
+      return rv;
+    }
+  }
+
+  //Row range whose reduction accumulates directly into a Groups accumulator.
+  static class RowSpliterator implements Spliterator, IReduceInit {
+    int sidx;
+    final int eidx;
+    RowSpliterator(int sidx, int eidx) { this.sidx = sidx; this.eidx = eidx; }
+    public Spliterator trySplit() {
+      final int n = eidx - sidx;
+      if(n < 2 * blockSize) return null;
+      final int mid = sidx + n / 2;
+      final RowSpliterator rv = new RowSpliterator(sidx, mid);
+      sidx = mid;
+      return rv;
+    }
+    public long estimateSize() { return eidx - sidx; }
+    public int characteristics() {
+      return Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED;
+    }
+    public boolean tryAdvance(Consumer c) {
+      throw new UnsupportedOperationException("Row ranges only support reduction");
+    }
+    public Object reduce(IFn rfn, Object acc) {
+      final int s = sidx;
+      sidx = eidx;
+      return ((Groups)acc).consume(s, eidx);
+    }
+  }
+
+  /**
+   * Group the rows of keys - an ArraySection of an int or long array - and aggregate each
+   * group.  Returns {keys, agg results...} where keys is a long list in ascending order.
+   */
+  public static Object[] groupBy(ArraySection keys, Agg[] aggs, ParallelOptions options) {
+    final int n = keys.size();
+    final Object kcol = keys.array;
+    final int koff = keys.sidx;
+    if(!(kcol instanceof long[] || kcol instanceof int[]))
+      throw new IllegalArgumentException("Key column must be an int or long array");
+    for(Agg agg: aggs)
+      if(agg.nRows >= 0 && agg.nRows != n)
+	throw new IllegalArgumentException("Value column length " + String.valueOf(agg.nRows)
+					   + " does not match key column length " + String.valueOf(n));
+    long mn = Long.MAX_VALUE, mx = Long.MIN_VALUE;
+    if(kcol instanceof long[]) {
+      final long[] summary = ArrayKernels.summary((long[])kcol, koff, keys.eidx);
+      mn = summary[0]; mx = summary[1];
+    } else {
+      final int[] k = (int[])kcol;
+      for(int idx = koff; idx < keys.eidx; ++idx) {
+	mn = Math.min(mn, k[idx]);
+	mx = Math.max(mx, k[idx]);
+      }
+    }
+    //Overflow of the range reads as negative and selects hashing.
+    final long range = mx - mn + 1;
+    final boolean dense = n > 0 && range > 0 && range <= denseLimit;
+    final long minKey = dense ? mn : 0;
+    final int cap = dense ? (int)range : 16;
+    final IFn initFn = new IFnDef() {
+	public Object invoke() { return new Groups(kcol, koff, dense, minKey, cap, aggs); }
+      };
+    Groups rv;
+    if(n <= options.minN || options.parallelism < 2) {
+      rv = ((Groups)initFn.invoke()).consume(0, n);
+    } else {
+      rv = (Groups)ForkJoinPatterns.parallelSpliteratorReduce(initFn, null, new IFnDef() {
+	  public Object invoke(Object l, Object r) { return ((Groups)l).merge((Groups)r); }
+	}, new RowSpliterator(0, n), options);
+    }
+    return rv.results();
+  }
+}
@@ -0,0 +1,126 @@
+package ham_fisted;
+
+import java.util.Arrays;
+import clojure.lang.IPersistentVector;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IEditableCollection;
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+import clojure.lang.RT;
+
+
+/**
+ * Persistent vector of doubles.  Leaves and the tail are double arrays so getDouble, conj, assocN
+ * and primitive reductions never box.
+ */
+public class DoubleTreeList extends PrimTreeListBase
+  implements DoubleMutList, IPersistentVector, IEditableCollection {
+  final IPersistentMap meta;
+  int _hash = 0;
+  public DoubleTreeList(int count, int shift, Node root, double[] tail, IPersistentMap meta) {
+    super(count, shift, root, tail);
+    this.meta = meta;
+  }
+  public DoubleTreeList(IPersistentMap meta) {
+    this(0, shiftWidth, EMPTY_NODE, ArrayLists.doubleArray(0), meta);
+  }
+  public DoubleTreeList() { this(null); }
+  public static final DoubleTreeList EMPTY = new DoubleTreeList();
+
+  final Object copyLeaf(Object leaf, int len) { return Arrays.copyOf((double[])leaf, len); }
+  public double getDouble(int idx) {
+    TreeListBase.checkIndex(idx, count);
+    return ((double[])leafFor(idx))[idx & mask];
+  }
+  public void addDouble(double v) { throw new UnsupportedOperationException("Unimplemented"); }
+  public void setDouble(int idx, double v) { throw new UnsupportedOperationException("Unimplemented"); }
+  public DoubleTreeList consDouble(double v) {
+    final double[] t = (double[])tail;
+    final int tlen = count - tailoff();
+    if(tlen < branchWidth) {
+      final double[] newTail = Arrays.copyOf(t, tlen + 1);
+      newTail[tlen] = v;
+      return new DoubleTreeList(count + 1, shift, root, newTail, meta);
+    }
+    final DoubleTreeList rv = new DoubleTreeList(count, shift, root, t, meta);
+    rv.pushLeaf(null, t);
+    rv.tail = new double[] { v };
+    rv.count++;
+    return rv;
+  }
+  public DoubleTreeList cons(Object v) { return consDouble(Casts.doubleCast(v)); }
+  public DoubleTreeList assocDouble(int idx, double v) {
+    if(idx == count)
+      return consDouble(v);
+    TreeListBase.checkIndex(idx, count);
+    final DoubleTreeList rv = new DoubleTreeList(count, shift, root, (double[])tail, meta);
+    if(idx >= tailoff()) {
+      final double[] newTail = ((double[])tail).clone();
+      newTail[idx & mask] = v;
+      rv.tail = newTail;
+    } else {
+      ((double[])rv.editLeaf(null, idx))[idx & mask] = v;
+    }
+    return rv;
+  }
+  public DoubleTreeList assocN(int idx, Object v) { return assocDouble(idx, Casts.doubleCast(v)); }
+  public DoubleTreeList assoc(Object idx, Object v) { return assocN(RT.intCast(idx), v); }
+  public DoubleTreeList pop() {
+    if(count == 0)
+      throw new IllegalStateException("Can't pop empty vector");
+    if(count == 1)
+      return meta == null ? EMPTY : new DoubleTreeList(meta);
+    final double[] t = (double[])tail;
+    final int tlen = count - tailoff();
+    if(tlen > 1)
+      return new DoubleTreeList(count - 1, shift, root, Arrays.copyOf(t, tlen - 1), meta);
+    final DoubleTreeList rv = new DoubleTreeList(count, shift, root, t, meta);
+    rv.tail = rv.popLeaf(null);
+    rv.count--;
+    return rv;
+  }
+  public Object peek() {
+    return count == 0 ? null : getDouble(count - 1);
+  }
+  public DoubleTreeList empty() { return meta == null ? EMPTY : new DoubleTreeList(meta); }
+  public IPersistentMap meta() { return meta; }
+  public DoubleTreeList withMeta(IPersistentMap m) {
+    return new DoubleTreeList(count, shift, root, (double[])tail, m);
+  }
+  public MutDoubleTreeList asTransient() {
+    return new MutDoubleTreeList(count, shift, root, Arrays.copyOf((double[])tail, branchWidth), meta);
+  }
+  public IPersistentVector immut() { return this; }
+  public int hasheq() {
+    if(_hash == 0) _hash = CljHash.listHasheq(this);
+    return _hash;
+  }
+  public int hashCode() { return hasheq(); }
+  public boolean equals(Object o) { return equiv(o); }
+  public String toString() { return Transformables.sequenceToString(this); }
+  public double[] toDoubleArray() {
+    final double[] rv = new double[count];
+    copyRange(0, count, rv, 0);
+    return rv;
+  }
+  public Object doubleReduction(IFn.ODO rfn, Object acc) {
+    return doubleReduction(this, rfn, acc);
+  }
+  static Object doubleReduction(PrimTreeListBase l, IFn.ODO rfn, Object acc) {
+    final int n = l.count;
+    for(int sidx = 0; sidx < n; sidx += branchWidth) {
+      final double[] leaf = (double[])l.leafFor(sidx);
+      final int ne = Math.min(branchWidth, n - sidx);
+      for(int idx = 0; idx < ne; ++idx) {
+	acc = rfn.invokePrim(acc, leaf[idx]);
+	if(RT.isReduced(acc))
+	  return ((IDeref)acc).deref();
+      }
+    }
+    return acc;
+  }
+  public static DoubleTreeList create(double[] data, int sidx, int eidx, IPersistentMap meta) {
+    return new MutDoubleTreeList(meta).addDoubles(data, sidx, eidx).persistent();
+  }
+  public static DoubleTreeList create(double[] data) { return create(data, 0, data.length, null); }
+}
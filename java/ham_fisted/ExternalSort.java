@@ -0,0 +1,344 @@
+package ham_fisted;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import clojure.lang.IFn;
+import clojure.lang.Util;
+import it.unimi.dsi.fastutil.longs.LongComparator;
+import it.unimi.dsi.fastutil.doubles.DoubleComparator;
+
+
+/**
+ * Sort for data that may not fit in memory.  Input is gathered into runs of at most
+ * chunkSize elements, each run is sorted on the pool and spilled to a temp file, and the
+ * result streams the runs back through MergeIterator.  At most parallelism runs are
+ * sorted concurrently so peak memory is roughly (parallelism + 1) * chunkSize elements.
+ *
+ * Long and double runs are stored as raw 8 byte values, other data via java
+ * serialization.  Input that fits in a single run is sorted in memory and never spilled.
+ */
+public class ExternalSort {
+  public static final int OBJECT = 0;
+  public static final int INT64 = 1;
+  public static final int FLOAT64 = 2;
+  static final int BUFSIZE = 1 << 16;
+
+  final Comparator cmp;
+  final int dtype;
+  final int chunkSize;
+  final File tmpDir;
+  final ExecutorService pool;
+  final int parallelism;
+  final ArrayDeque<Future<Run>> pending = new ArrayDeque<Future<Run>>();
+  final ArrayList<Run> runs = new ArrayList<Run>();
+  IMutList current;
+
+  public ExternalSort(Comparator cmp, int dtype, int chunkSize, File tmpDir,
+		      ExecutorService pool, int parallelism) {
+    this.cmp = cmp;
+    this.dtype = dtype;
+    this.chunkSize = Math.max(1, chunkSize);
+    this.tmpDir = tmpDir;
+    this.pool = pool;
+    this.parallelism = Math.max(1, parallelism);
+    this.current = newRun();
+  }
+
+  IMutList newRun() {
+    final int cap = Math.min(chunkSize, 1024);
+    switch(dtype) {
+    case INT64: return new ArrayLists.LongArrayList(cap);
+    case FLOAT64: return new ArrayLists.DoubleArrayList(cap);
+    default: return new ArrayLists.ObjectArrayList(cap);
+    }
+  }
+
+  static RuntimeException wrap(Throwable e) {
+    return e instanceof RuntimeException ? (RuntimeException)e : new RuntimeException(e);
+  }
+
+  static class Run {
+    final File file;
+    final int nElems;
+    Run(File file, int nElems) { this.file = file; this.nElems = nElems; }
+  }
+
+  @SuppressWarnings("unchecked")
+  Run spill(IMutList data) throws IOException {
+    data.sort(cmp);
+    final int ne = data.size();
+    final File f = File.createTempFile("hamf-sort", ".run", tmpDir);
+    if(dtype == OBJECT) {
+      try(ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(f), BUFSIZE))) {
+	for(int idx = 0; idx < ne; ++idx) {
+	  os.writeObject(data.get(idx));
+	  //Drop back references so the stream does not hold the whole run.
+	  if((idx & 1023) == 1023)
+	    os.reset();
+	}
+      }
+    } else {
+      try(FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+	final ByteBuffer bb = ByteBuffer.allocateDirect(BUFSIZE).order(ByteOrder.nativeOrder());
+	for(int idx = 0; idx < ne; ++idx) {
+	  if(dtype == INT64)
+	    bb.putLong(data.getLong(idx));
+	  else
+	    bb.putDouble(data.getDouble(idx));
+	  if(!bb.hasRemaining())
+	    drain(fc, bb);
+	}
+	drain(fc, bb);
+      }
+    }
+    return new Run(f, ne);
+  }
+
+  static void drain(FileChannel fc, ByteBuffer bb) throws IOException {
+    ((Buffer)bb).flip();
+    while(bb.hasRemaining())
+      fc.write(bb);
+    ((Buffer)bb).clear();
+  }
+
+  void awaitOldest() {
+    try {
+      runs.add(pending.removeFirst().get());
+    } catch(InterruptedException e) {
+      throw wrap(e);
+    } catch(ExecutionException e) {
+      throw wrap(e.getCause());
+    }
+  }
+
+  void flush() {
+    final IMutList data = current;
+    current = newRun();
+    if(pending.size() >= parallelism)
+      awaitOldest();
+    pending.add(pool.submit(new Callable<Run>() {
+	public Run call() throws Exception { return spill(data); }
+      }));
+  }
+
+  @SuppressWarnings("unchecked")
+  public void add(Object v) {
+    current.add(v);
+    if(current.size() >= chunkSize)
+      flush();
+  }
+  public void addLong(long v) {
+    current.addLong(v);
+    if(current.size() >= chunkSize)
+      flush();
+  }
+  public void addDouble(double v) {
+    current.addDouble(v);
+    if(current.size() >= chunkSize)
+      flush();
+  }
+
+  @SuppressWarnings("unchecked")
+  public SortedRuns finish() {
+    if(runs.isEmpty() && pending.isEmpty()) {
+      current.sort(cmp);
+      return new SortedRuns(cmp, dtype, new ArrayList<Run>(), current);
+    }
+    if(!current.isEmpty())
+      flush();
+    while(!pending.isEmpty())
+      awaitOldest();
+    return new SortedRuns(cmp, dtype, new ArrayList<Run>(runs), null);
+  }
+
+  /**
+   * Delete any spilled runs - used when the input reduction fails.
+   */
+  public void abort() {
+    for(Future<Run> f: pending) {
+      try { runs.add(f.get()); } catch(Exception e) {}
+    }
+    pending.clear();
+    for(Run r: runs)
+      r.file.delete();
+    runs.clear();
+  }
+
+  public static SortedRuns sort(Comparator cmp, int dtype, int chunkSize, File tmpDir,
+				ParallelOptions options, Object data) {
+    final ExternalSort sorter = new ExternalSort(cmp, dtype, chunkSize, tmpDir,
+						 options.pool, options.parallelism);
+    final IFn rfn;
+    switch(dtype) {
+    case INT64: rfn = new IFnDef.OLO() {
+	public Object invokePrim(Object acc, long v) { ((ExternalSort)acc).addLong(v); return acc; }
+      };
+      break;
+    case FLOAT64: rfn = new IFnDef.ODO() {
+	public Object invokePrim(Object acc, double v) { ((ExternalSort)acc).addDouble(v); return acc; }
+      };
+      break;
+    default: rfn = new IFnDef.OOO() {
+	public Object invoke(Object acc, Object v) { ((ExternalSort)acc).add(v); return acc; }
+      };
+    }
+    try {
+      Reductions.serialReduction(rfn, sorter, data);
+      return sorter.finish();
+    } catch(RuntimeException e) {
+      sorter.abort();
+      throw e;
+    }
+  }
+
+  static class RunIterator implements Iterator, AutoCloseable {
+    final int dtype;
+    int remaining;
+    FileChannel fc;
+    ByteBuffer bb;
+    ObjectInputStream is;
+    RunIterator(Run r, int dtype) throws IOException {
+      this.dtype = dtype;
+      this.remaining = r.nElems;
+      if(dtype == OBJECT) {
+	is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(r.file), BUFSIZE));
+      } else {
+	fc = FileChannel.open(r.file.toPath(), StandardOpenOption.READ);
+	bb = ByteBuffer.allocateDirect(BUFSIZE).order(ByteOrder.nativeOrder());
+	((Buffer)bb).limit(0);
+      }
+    }
+    public boolean hasNext() { return remaining > 0; }
+    public Object next() {
+      if(remaining <= 0) throw new NoSuchElementException();
+      try {
+	final Object rv;
+	if(dtype == OBJECT) {
+	  rv = is.readObject();
+	} else {
+	  if(!bb.hasRemaining()) {
+	    ((Buffer)bb).clear();
+	    while(bb.position() < 8 && fc.read(bb) >= 0);
+	    ((Buffer)bb).flip();
+	  }
+	  rv = dtype == INT64 ? (Object)bb.getLong() : (Object)bb.getDouble();
+	}
+	if(--remaining == 0)
+	  close();
+	return rv;
+      } catch(Exception e) {
+	throw wrap(e);
+      }
+    }
+    public void close() {
+      try {
+	if(is != null) is.close();
+	if(fc != null) fc.close();
+      } catch(IOException e) {
+	throw wrap(e);
+      }
+    }
+  }
+
+  /**
+   * Iterable over the sorted result.  Each call to iterator opens a new merge over the
+   * spilled runs; close deletes the runs and closes any open readers.
+   */
+  public static class SortedRuns implements Iterable, AutoCloseable {
+    final Comparator cmp;
+    final int dtype;
+    final List<Run> runs;
+    final IMutList inMemory;
+    final ArrayList<RunIterator> open = new ArrayList<RunIterator>();
+    SortedRuns(Comparator cmp, int dtype, List<Run> runs, IMutList inMemory) {
+      this.cmp = cmp;
+      this.dtype = dtype;
+      this.runs = runs;
+      this.inMemory = inMemory;
+    }
+    public int nRuns() { return runs.size(); }
+    public long count() {
+      if(inMemory != null) return inMemory.size();
+      long rv = 0;
+      for(Run r: runs) rv += r.nElems;
+      return rv;
+    }
+    //Runs are read back boxed so typed comparators are unwrapped to keep NaN ordering.
+    Comparator mergeComparator() {
+      if(cmp == null && dtype == OBJECT)
+	return new Comparator() {
+	  public int compare(Object l, Object r) { return Util.compare(l, r); }
+	};
+      if(dtype == FLOAT64 && (cmp == null || cmp instanceof DoubleComparator)) {
+	final DoubleComparator dc = cmp == null ? new DoubleComparator() {
+	    public int compare(double l, double r) { return Double.compare(l, r); }
+	  } : (DoubleComparator)cmp;
+	return new Comparator() {
+	  public int compare(Object l, Object r) {
+	    return dc.compare(((Double)l).doubleValue(), ((Double)r).doubleValue());
+	  }
+	};
+      }
+      if(dtype == INT64 && (cmp == null || cmp instanceof LongComparator)) {
+	final LongComparator lc = cmp == null ? new LongComparator() {
+	    public int compare(long l, long r) { return Long.compare(l, r); }
+	  } : (LongComparator)cmp;
+	return new Comparator() {
+	  public int compare(Object l, Object r) {
+	    return lc.compare(((Long)l).longValue(), ((Long)r).longValue());
+	  }
+	};
+      }
+      return cmp;
+    }
+    @SuppressWarnings("unchecked")
+    public Iterator iterator() {
+      if(inMemory != null)
+	return inMemory.iterator();
+      final ArrayList<Iterator> iters = new ArrayList<Iterator>(runs.size());
+      try {
+	synchronized(open) {
+	  for(Run r: runs) {
+	    final RunIterator iter = new RunIterator(r, dtype);
+	    open.add(iter);
+	    iters.add(iter);
+	  }
+	}
+      } catch(IOException e) {
+	throw wrap(e);
+      }
+      return MergeIterator.createMergeIterator(iters, mergeComparator());
+    }
+    public void close() {
+      synchronized(open) {
+	for(RunIterator iter: open)
+	  iter.close();
+	open.clear();
+      }
+      for(Run r: runs)
+	r.file.delete();
+    }
+  }
+}
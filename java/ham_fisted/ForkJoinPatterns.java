@@ -3,8 +3,13 @@ package ham_fisted;
 import clojure.lang.IFn;
 import clojure.lang.Delay;
 import clojure.lang.IDeref;
+import clojure.lang.IReduceInit;
+import clojure.lang.RT;
 import clojure.java.api.Clojure;
 import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 
 public class ForkJoinPatterns {
@@ -40,4 +45,83 @@ public class ForkJoinPatterns {
 						 Spliterator s, ParallelOptions options) {
     return ((IFn)spliteratorPtr.deref()).invoke(initValFn, rfn, mergeFn, s, options);
   }
+
+  /**
+   * Fork-join reduction of a spliterator.  Spliterators are split until their estimated
+   * size drops below a threshold derived from the total size and the pool parallelism -
+   * or, when the size is unknown, to a fixed depth.  Each split forks its suffix and
+   * reduces its prefix in the current task.  If the suffix was not stolen by the time the
+   * prefix is done it is reduced into the same accumulator so only splits that actually ran
+   * on other threads create accumulators and are merged, and merges form a tree.
+   */
+  public static class SpliteratorReduceTask extends RecursiveTask<Object> {
+    final IFn initValFn;
+    final IFn rfn;
+    final IFn mergeFn;
+    final Spliterator s;
+    final long threshold;
+    final int depth;
+    public SpliteratorReduceTask(IFn initValFn, IFn rfn, IFn mergeFn, Spliterator s,
+				 long threshold, int depth) {
+      this.initValFn = initValFn;
+      this.rfn = rfn;
+      this.mergeFn = mergeFn;
+      this.s = s;
+      this.threshold = threshold;
+      this.depth = depth;
+    }
+    boolean shouldSplit(Spliterator sp, int d) {
+      return d > 0 && sp.estimateSize() > threshold;
+    }
+    @SuppressWarnings("unchecked")
+    Object consume(Object acc, Spliterator sp) {
+      if(sp instanceof IReduceInit)
+	return ((IReduceInit)sp).reduce(rfn, acc);
+      final Reductions.ReduceConsumer c = Reductions.ReduceConsumer.create(acc, rfn);
+      sp.forEachRemaining(c);
+      return c.deref();
+    }
+    Object reduceInto(Object acc, Spliterator sp, int d) {
+      if(RT.isReduced(acc)) return acc;
+      //With ORDERED spliterators trySplit returns the prefix and sp keeps the suffix.
+      final Spliterator prefix = shouldSplit(sp, d) ? sp.trySplit() : null;
+      if(prefix == null)
+	return consume(acc, sp);
+      final SpliteratorReduceTask suffix =
+	new SpliteratorReduceTask(initValFn, rfn, mergeFn, sp, threshold, d - 1);
+      suffix.fork();
+      acc = reduceInto(acc, prefix, d - 1);
+      if(suffix.tryUnfork())
+	return reduceInto(acc, sp, d - 1);
+      return mergeFn.invoke(acc, suffix.join());
+    }
+    protected Object compute() {
+      return reduceInto(initValFn.invoke(), s, depth);
+    }
+  }
+
+  static int log2Ceil(long v) {
+    return 64 - Long.numberOfLeadingZeros(Math.max(1, v - 1));
+  }
+
+  /**
+   * Reduce a spliterator on options.pool which must be a ForkJoinPool.  When called from
+   * within a fork-join task the reduction runs in the current pool.
+   */
+  public static Object spliteratorReduce(IFn initValFn, IFn rfn, IFn mergeFn,
+					 Spliterator s, ParallelOptions options) {
+    final long es = s.estimateSize();
+    final long parallelism = Math.max(1, options.parallelism);
+    final boolean sized = es != Long.MAX_VALUE;
+    final long threshold = sized
+      ? Math.max(1, Math.min(options.maxBatchSize, es / (4 * parallelism)))
+      : 0;
+    //Without a size estimate split to enough pieces for decent granularity as compared to
+    //the parallelism of the pool.
+    final SpliteratorReduceTask task =
+      new SpliteratorReduceTask(initValFn, rfn, mergeFn, s, threshold,
+				sized ? 64 : log2Ceil(4 * parallelism));
+    return ForkJoinTask.inForkJoinPool() ? task.invoke()
+      : ((ForkJoinPool)options.pool).invoke(task);
+  }
 }
@@ -0,0 +1,104 @@
+package ham_fisted;
+
+
+import java.util.ArrayList;
+import clojure.lang.IFn;
+
+
+/**
+ * A chain of single input map and filter stages - MapIterable, SingleMapList and
+ * FilterIterable - collapsed into one reducer over the innermost source.  Reducing the chain
+ * stage by stage re-enters the reduction, and for parallel reductions the preduce protocol,
+ * once per stage.  The fused pipeline walks the chain once, composes adjacent map fns with
+ * MapFn and adjacent predicates with PredFn and wraps the reduction fn with the typed map
+ * and filter reducers directly so the source runs a single loop with primitive values
+ * passed unboxed between IFn$LL, IFn$DD, IFn$LO, LongPredicate... stages.
+ *
+ * Parallel reductions hand the fused reducer to the source so each partition runs the same
+ * single loop.
+ */
+public final class FusedPipeline {
+  public final Object src;
+  //Stage fns in application order and whether each is a filter.
+  final IFn[] fns;
+  final boolean[] filters;
+
+  FusedPipeline(Object src, IFn[] fns, boolean[] filters) {
+    this.src = src;
+    this.fns = fns;
+    this.filters = filters;
+  }
+
+  public int nStages() { return fns.length; }
+
+  /**
+   * Pipeline for coll or null if coll is not a chain of at least two map or filter stages.
+   */
+  public static FusedPipeline create(Object coll) {
+    final ArrayList<IFn> fns = new ArrayList<IFn>();
+    final ArrayList<Boolean> filters = new ArrayList<Boolean>();
+    for(;;) {
+      if(coll instanceof Transformables.MapIterable
+	 && ((Transformables.MapIterable)coll).iterables.length == 1) {
+	final Transformables.MapIterable m = (Transformables.MapIterable)coll;
+	fns.add(m.fn);
+	filters.add(Boolean.FALSE);
+	coll = m.iterables[0];
+      } else if(coll instanceof Transformables.SingleMapList) {
+	final Transformables.SingleMapList m = (Transformables.SingleMapList)coll;
+	fns.add(m.fn);
+	filters.add(Boolean.FALSE);
+	coll = m.list;
+      } else if(coll instanceof Transformables.FilterIterable) {
+	final Transformables.FilterIterable f = (Transformables.FilterIterable)coll;
+	fns.add(f.pred);
+	filters.add(Boolean.TRUE);
+	coll = f.src;
+      } else {
+	break;
+      }
+    }
+    final int n = fns.size();
+    if(n < 2)
+      return null;
+    //fns are outermost first - compose them innermost first into stages.
+    final ArrayList<IFn> stages = new ArrayList<IFn>(n);
+    final ArrayList<Boolean> stageFilters = new ArrayList<Boolean>(n);
+    for(int idx = n - 1; idx >= 0; --idx) {
+      final IFn f = fns.get(idx);
+      final boolean filter = filters.get(idx);
+      final int ns = stages.size();
+      if(ns != 0 && stageFilters.get(ns - 1) == filter) {
+	final IFn prev = stages.get(ns - 1);
+	stages.set(ns - 1, filter ? Transformables.PredFn.create(prev, f) : MapFn.create(prev, f));
+      } else {
+	stages.add(f);
+	stageFilters.add(filter);
+      }
+    }
+    final int ns = stages.size();
+    final boolean[] fa = new boolean[ns];
+    for(int idx = 0; idx < ns; ++idx)
+      fa[idx] = stageFilters.get(idx);
+    return new FusedPipeline(coll, stages.toArray(new IFn[ns]), fa);
+  }
+
+  /**
+   * Reducer running every stage and then rfn.
+   */
+  public IFn reducer(IFn rfn) {
+    for(int idx = fns.length - 1; idx >= 0; --idx)
+      rfn = filters[idx] ? Transformables.FilterIterable.typedReducer(rfn, fns[idx])
+	: Transformables.typedMapReducer(rfn, fns[idx]);
+    return rfn;
+  }
+
+  public Object reduce(IFn rfn, Object init) {
+    return Reductions.serialReduction(reducer(rfn), init, src);
+  }
+
+  public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				  ParallelOptions options) {
+    return Reductions.parallelReduction(initValFn, reducer(rfn), mergeFn, src, options);
+  }
+}
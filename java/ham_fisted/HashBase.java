@@ -159,6 +159,55 @@ public class HashBase implements IMeta {
       return fn.apply(rv);
     }
   }
+  /**
+   * Non-empty bucket counts per block of buckets.  Shared by all splits of a table
+   * spliterator so splits balance by element count instead of by bucket range - tables
+   * with clustered or skewed hashes otherwise produce very uneven splits.
+   */
+  static final class BucketBlocks {
+    static final int SHIFT = 6;
+    static final int BLOCK = 1 << SHIFT;
+    //prefix[b] - number of non-empty buckets in blocks [0, b)
+    final int[] prefix;
+    BucketBlocks(Object[] d) {
+      final int nb = (d.length + BLOCK - 1) >>> SHIFT;
+      prefix = new int[nb + 1];
+      int c = 0;
+      for(int b = 0; b < nb; ++b) {
+	final int e = Math.min(d.length, (b + 1) << SHIFT);
+	for(int idx = b << SHIFT; idx < e; ++idx)
+	  if(d[idx] != null) ++c;
+	prefix[b+1] = c;
+      }
+    }
+    int count(int sidx, int eidx) {
+      return prefix[(eidx + BLOCK - 1) >>> SHIFT] - prefix[sidx >>> SHIFT];
+    }
+    /**
+     * Block aligned bucket index that splits [sidx, eidx) into halves by non-empty bucket
+     * count or -1 if the range spans fewer than 2 blocks.
+     */
+    int split(int sidx, int eidx) {
+      final int sb = sidx >>> SHIFT;
+      final int eb = (eidx + BLOCK - 1) >>> SHIFT;
+      if(eb - sb < 2) return -1;
+      final int target = prefix[sb] + (prefix[eb] - prefix[sb]) / 2;
+      int lo = sb + 1, hi = eb - 1;
+      while(lo < hi) {
+	final int mid = (lo + hi) >>> 1;
+	if(prefix[mid] >= target) hi = mid;
+	else lo = mid + 1;
+      }
+      return lo << SHIFT;
+    }
+    /**
+     * Portion of estimate belonging to [sidx, mid) of [sidx, eidx).
+     */
+    int lhsEstimate(int sidx, int mid, int eidx, int estimate) {
+      final long total = count(sidx, eidx);
+      return total == 0 ? estimate / 2 : (int)(estimate * (long)count(sidx, mid) / total);
+    }
+  }
   static class HTSpliterator implements Spliterator, ITypedReduce {
     final HashNode[] d;
     final Function<Map.Entry,Object> fn;
@@ -166,6 +215,7 @@ public class HashBase implements IMeta {
     int eidx;
     int estimateSize;
     HashNode l;
+    BucketBlocks blocks;
     public HTSpliterator(HashNode[] d, int len, Function<Map.Entry,Object> fn) {
       this.d = d;
       this.fn = fn;
@@ -175,23 +225,29 @@ public class HashBase implements IMeta {
       this.l = null;
     }
     public HTSpliterator(HashNode[] d, int sidx, int eidx, int es, Function<Map.Entry,Object> fn) {
+      this(d, sidx, eidx, es, fn, null);
+    }
+    HTSpliterator(HashNode[] d, int sidx, int eidx, int es, Function<Map.Entry,Object> fn,
+		  BucketBlocks blocks) {
       this.d = d;
       this.fn = fn;
       this.sidx = sidx;
       this.eidx = eidx;
       this.estimateSize = es;
       this.l = null;
+      this.blocks = blocks;
     }
     public HTSpliterator trySplit() {
-      final int nIdxs = this.eidx - this.sidx;
-      if(nIdxs > 4) {
-	final int idxLen = nIdxs/2;
-	final int oldIdx = this.eidx;
-	this.eidx = this.sidx + idxLen;
-	this.estimateSize = this.estimateSize / 2;
-	return new HTSpliterator(d, this.eidx, oldIdx, this.estimateSize, this.fn);
-      }
-      return null;
+      if(blocks == null)
+	blocks = new BucketBlocks(d);
+      final int mid = blocks.split(this.sidx, this.eidx);
+      if(mid < 0)
+	return null;
+      final int oldIdx = this.eidx;
+      final int oldEstimate = this.estimateSize;
+      this.estimateSize = blocks.lhsEstimate(this.sidx, mid, oldIdx, oldEstimate);
+      this.eidx = mid;
+      return new HTSpliterator(d, mid, oldIdx, oldEstimate - this.estimateSize, this.fn, blocks);
     }
     public int characteristics() { return Spliterator.DISTINCT | Spliterator.IMMUTABLE | Spliterator.SIZED; }
     public long estimateSize() { return estimateSize; }
@@ -206,6 +262,7 @@ public class HashBase implements IMeta {
       for(; sidx < eidx; ++sidx) {
 	final HashNode ll = this.d[sidx];
 	if(ll != null) {
+	  ++sidx;
 	  c.accept(this.fn.apply(ll));
 	  this.l = ll.nextNode;
 	  return true;
@@ -427,6 +427,140 @@ public class HashMap extends HashBase implements IMap, MapSetOps, UpdateValues {
   public HashMap union(Map o, BiFunction bfn) {
     return union(this, o, bfn);
   }
+
+  /**
+   * Merge the entries of m whose hash falls in partition p directly into the table rvd.
+   * Only buckets of partition p are touched so partitions may run concurrently.  Returns
+   * the number of new keys.
+   */
+  @SuppressWarnings("unchecked")
+  static long unionPartition(HashMap rv, HashNode[] rvd, HashBase m, int p, int nParts,
+			     BiFunction bfn) {
+    final HashNode[] md = m.data;
+    final int ml = md.length;
+    final int pmask = nParts - 1;
+    final int mask = rvd.length - 1;
+    //Buckets of tables at least nParts long hold only keys of one partition.
+    final boolean wholeBuckets = ml >= nParts;
+    long nNew = 0;
+    for(int idx = wholeBuckets ? p : 0; idx < ml; idx += wholeBuckets ? nParts : 1) {
+      for(HashNode lf = md[idx]; lf != null; lf = lf.nextNode) {
+	final int hashcode = lf.hashcode;
+	if(!wholeBuckets && (hashcode & pmask) != p)
+	  continue;
+	final Object k = lf.k;
+	final int rvidx = hashcode & mask;
+	HashNode e = rvd[rvidx];
+	for(;e != null && !(e.k==k || rv.equals(e.k, k)); e = e.nextNode);
+	if(e != null) {
+	  e.v = bfn.apply(e.v, lf.v);
+	} else {
+	  //Cloning constructor does not count the node against rv.
+	  final HashNode nn = new HashNode(rv, lf);
+	  nn.nextNode = rvd[rvidx];
+	  rvd[rvidx] = nn;
+	  ++nNew;
+	}
+      }
+    }
+    return nNew;
+  }
+  /**
+   * Move the nodes of partition p of rvd into newd.  Both tables are at least nParts long
+   * so a node keeps the low bits of its bucket index and partitions may run concurrently.
+   */
+  static void rehashPartition(HashNode[] rvd, HashNode[] newd, int p, int nParts) {
+    final int mask = newd.length - 1;
+    final int l = rvd.length;
+    for(int idx = p; idx < l; idx += nParts) {
+      HashNode lf = rvd[idx];
+      while(lf != null) {
+	final HashNode next = lf.nextNode;
+	final int nidx = lf.hashcode & mask;
+	lf.nextNode = newd[nidx];
+	newd[nidx] = lf;
+	lf = next;
+      }
+    }
+  }
+  static void forEachPartition(int nParts, ParallelOptions options, IFn.LO partFn) {
+    //Realize the groups so every partition is complete.
+    for(Object o: ForkJoinPatterns.parallelIndexGroups(nParts, new IFnDef.LLO() {
+	public Object invokePrim(long sidx, long eidx) {
+	  for(long p = sidx; p < eidx; ++p)
+	    partFn.invokePrim(p);
+	  return null;
+	}
+      }, options.minN(1)));
+  }
+  /**
+   * Union of maps into the empty map rv using the fork join pool of options.  Keys are
+   * partitioned by the low bits of their hash - the bits bucket indexes are taken from - so
+   * each task merges its partition of the inputs into a disjoint set of rv's buckets with no
+   * locking.  The table starts at the capacity of the largest input and maps are merged in
+   * batches whose combined size fits under the load threshold.  When the new key count of a
+   * batch passes the threshold the table is doubled until it fits and rehashed with the same
+   * partitioning so the result is sized as a serial union would size it.
+   *
+   * Values of keys present in several maps are combined with bfn in the order of maps.
+   */
+  public static HashMap parallelUnion(HashMap rv, HashBase[] maps, BiFunction bfn,
+				      ParallelOptions options) {
+    if(rv.length != 0)
+      throw new RuntimeException("Parallel union target must be empty");
+    final int nParts = IntegerOps.nextPow2(Math.max(2, Math.min(options.parallelism * 4, 1 << 12)));
+    int cap = nParts;
+    for(HashBase m: maps)
+      cap = Math.max(cap, m.data.length);
+    final long[] counts = new long[nParts];
+    final HashNode[][] table = new HashNode[][] { new HashNode[cap] };
+    long total = 0;
+    final int nMaps = maps.length;
+    for(int sidx = 0; sidx < nMaps;) {
+      //Worst case every key of the batch is new.
+      final long threshold = (long)(cap * rv.loadFactor);
+      long batchSize = maps[sidx].length;
+      int eidx = sidx + 1;
+      for(; eidx < nMaps && total + batchSize + maps[eidx].length <= threshold; ++eidx)
+	batchSize += maps[eidx].length;
+      final int bs = sidx, be = eidx;
+      final HashNode[] rvd = table[0];
+      forEachPartition(nParts, options, new IFnDef.LO() {
+	  public Object invokePrim(long lp) {
+	    final int p = (int)lp;
+	    long nNew = 0;
+	    for(int midx = bs; midx < be; ++midx)
+	      nNew += unionPartition(rv, rvd, maps[midx], p, nParts, bfn);
+	    counts[p] += nNew;
+	    return null;
+	  }
+	});
+      total = 0;
+      for(long c: counts)
+	total += c;
+      if(total > threshold && cap < (1 << 30)) {
+	int newCap = cap;
+	while(newCap < (1 << 30) && (long)(newCap * rv.loadFactor) < total)
+	  newCap <<= 1;
+	final HashNode[] newd = new HashNode[newCap];
+	forEachPartition(nParts, options, new IFnDef.LO() {
+	    public Object invokePrim(long p) {
+	      rehashPartition(rvd, newd, (int)p, nParts);
+	      return null;
+	    }
+	  });
+	table[0] = newd;
+	cap = newCap;
+      }
+      sidx = eidx;
+    }
+    rv.capacity = cap;
+    rv.mask = cap - 1;
+    rv.threshold = (int)(cap * rv.loadFactor);
+    rv.data = table[0];
+    rv.length = RT.intCast(total);
+    return rv;
+  }
   @SuppressWarnings("unchecked")
   static HashMap intersection(HashMap rv, Map o, BiFunction bfn) {
     final HashNode[] rvd = rv.data;
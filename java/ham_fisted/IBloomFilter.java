@@ -0,0 +1,11 @@
+package ham_fisted;
+
+
+/**
+ * Hash based bloom filter interface shared by BlockSplitBloomFilter and the variants in
+ * BloomFilters.
+ */
+public interface IBloomFilter {
+  void insertHash(long hash);
+  boolean findHash(long hash);
+}
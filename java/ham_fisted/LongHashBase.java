@@ -159,6 +159,7 @@ public class LongHashBase implements IMeta {
     int eidx;
     int estimateSize;
     LongHashNode l;
+    HashBase.BucketBlocks blocks;
     public HTSpliterator(LongHashNode[] d, int len, Function<Map.Entry,Object> fn) {
       this.d = d;
       this.fn = fn;
@@ -168,23 +169,29 @@ public class LongHashBase implements IMeta {
       this.l = null;
     }
     public HTSpliterator(LongHashNode[] d, int sidx, int eidx, int es, Function<Map.Entry,Object> fn) {
+      this(d, sidx, eidx, es, fn, null);
+    }
+    HTSpliterator(LongHashNode[] d, int sidx, int eidx, int es, Function<Map.Entry,Object> fn,
+		  HashBase.BucketBlocks blocks) {
       this.d = d;
       this.fn = fn;
       this.sidx = sidx;
       this.eidx = eidx;
       this.estimateSize = es;
       this.l = null;
+      this.blocks = blocks;
     }
     public HTSpliterator trySplit() {
-      final int nIdxs = this.eidx - this.sidx;
-      if(nIdxs > 4) {
-	final int idxLen = nIdxs/2;
-	final int oldIdx = this.eidx;
-	this.eidx = this.sidx + idxLen;
-	this.estimateSize = this.estimateSize / 2;
-	return new HTSpliterator(d, this.eidx, oldIdx, this.estimateSize, this.fn);
-      }
-      return null;
+      if(blocks == null)
+	blocks = new HashBase.BucketBlocks(d);
+      final int mid = blocks.split(this.sidx, this.eidx);
+      if(mid < 0)
+	return null;
+      final int oldIdx = this.eidx;
+      final int oldEstimate = this.estimateSize;
+      this.estimateSize = blocks.lhsEstimate(this.sidx, mid, oldIdx, oldEstimate);
+      this.eidx = mid;
+      return new HTSpliterator(d, mid, oldIdx, oldEstimate - this.estimateSize, this.fn, blocks);
     }
     public int characteristics() { return Spliterator.DISTINCT | Spliterator.IMMUTABLE | Spliterator.SIZED; }
     public long estimateSize() { return estimateSize; }
@@ -199,6 +206,7 @@ public class LongHashBase implements IMeta {
       for(; sidx < eidx; ++sidx) {
 	final LongHashNode ll = this.d[sidx];
 	if(ll != null) {
+	  ++sidx;
 	  c.accept(this.fn.apply(ll));
 	  this.l = ll.nextNode;
 	  return true;
@@ -0,0 +1,130 @@
+package ham_fisted;
+
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import clojure.lang.IFn;
+import clojure.lang.RT;
+import clojure.lang.Util;
+import clojure.lang.Sequential;
+import it.unimi.dsi.fastutil.BigArrays;
+import it.unimi.dsi.fastutil.longs.LongBigArrays;
+import it.unimi.dsi.fastutil.longs.LongComparator;
+import it.unimi.dsi.fastutil.doubles.DoubleComparator;
+
+
+/**
+ * Random access container indexed by longs so it may hold more than 2^31 elements.
+ * java.util.List is int indexed so this is a separate abstraction - lsize and
+ * get(long) replace size and get(int).  Parallel reductions split the long index space
+ * with Reductions.parallelIndexGroupReduce and reduce each group through subList.
+ */
+public interface LongIndexedList extends ITypedReduce<Object>, Iterable<Object>, Sequential {
+  long lsize();
+  Object get(long idx);
+  default long getLong(long idx) { return Casts.longCast(get(idx)); }
+  default double getDouble(long idx) { return Casts.doubleCast(get(idx)); }
+  default void set(long idx, Object v) { throw new UnsupportedOperationException("Unimplemented"); }
+  default void setLong(long idx, long v) { set(idx, v); }
+  default void setDouble(long idx, double v) { set(idx, v); }
+
+  static long checkIndex(long idx, long nElems) {
+    if(idx >= 0 && idx < nElems) return idx;
+    throw new IndexOutOfBoundsException("Index " + String.valueOf(idx) + " out of range 0-"
+					+ String.valueOf(nElems));
+  }
+
+  static class SubList implements LongIndexedList {
+    final LongIndexedList list;
+    final long sidx;
+    final long nElems;
+    public SubList(LongIndexedList list, long sidx, long eidx) {
+      this.list = list;
+      this.sidx = sidx;
+      this.nElems = eidx - sidx;
+    }
+    public long lsize() { return nElems; }
+    public Object get(long idx) { return list.get(checkIndex(idx, nElems) + sidx); }
+    public long getLong(long idx) { return list.getLong(checkIndex(idx, nElems) + sidx); }
+    public double getDouble(long idx) { return list.getDouble(checkIndex(idx, nElems) + sidx); }
+    public void set(long idx, Object v) { list.set(checkIndex(idx, nElems) + sidx, v); }
+    public void setLong(long idx, long v) { list.setLong(checkIndex(idx, nElems) + sidx, v); }
+    public void setDouble(long idx, double v) { list.setDouble(checkIndex(idx, nElems) + sidx, v); }
+    public LongIndexedList subList(long ssidx, long seidx) {
+      ChunkedList.checkIndexRange(0, nElems, ssidx, seidx);
+      return list.subList(ssidx + sidx, seidx + sidx);
+    }
+  }
+  default LongIndexedList subList(long sidx, long eidx) {
+    ChunkedList.checkIndexRange(0, lsize(), sidx, eidx);
+    return new SubList(this, sidx, eidx);
+  }
+  default Object reduce(IFn rfn, Object init) {
+    final long sz = lsize();
+    for(long idx = 0; idx < sz && !RT.isReduced(init); ++idx)
+      init = rfn.invoke(init, get(idx));
+    return Reductions.unreduce(init);
+  }
+  default Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				   ParallelOptions options) {
+    return Reductions.parallelLongIndexedReduction(initValFn, rfn, mergeFn, this, options);
+  }
+  @SuppressWarnings("unchecked")
+  default void forEach(Consumer<? super Object> c) {
+    ITypedReduce.super.forEach(c);
+  }
+  default Iterator<Object> iterator() {
+    final long sz = lsize();
+    return new Iterator<Object>() {
+      long idx = 0;
+      public boolean hasNext() { return idx < sz; }
+      public Object next() {
+	if(idx >= sz) throw new NoSuchElementException();
+	return get(idx++);
+      }
+    };
+  }
+  @SuppressWarnings("unchecked")
+  default LongComparator indexComparator(Comparator c) {
+    if(c == null) {
+      return new LongComparator() {
+	public int compare(long l, long r) {
+	  return Util.compare(get(l), get(r));
+	}
+      };
+    } else if(c instanceof LongComparator) {
+      final LongComparator lc = (LongComparator)c;
+      return new LongComparator() {
+	public int compare(long l, long r) {
+	  return lc.compare(getLong(l), getLong(r));
+	}
+      };
+    } else if(c instanceof DoubleComparator) {
+      final DoubleComparator dc = (DoubleComparator)c;
+      return new LongComparator() {
+	public int compare(long l, long r) {
+	  return dc.compare(getDouble(l), getDouble(r));
+	}
+      };
+    } else {
+      return new LongComparator() {
+	public int compare(long l, long r) {
+	  return c.compare(get(l), get(r));
+	}
+      };
+    }
+  }
+  /**
+   * Return a long indexed list of the indexes that read this list in sorted order.
+   */
+  default LongIndexedList sortIndirect(Comparator c) {
+    final long sz = lsize();
+    final long[][] indexes = LongBigArrays.newBigArray(sz);
+    for(long idx = 0; idx < sz; ++idx)
+      BigArrays.set(indexes, idx, idx);
+    LongBigArrays.parallelQuickSort(indexes, 0, sz, indexComparator(c));
+    return new BigArrayLists.LongBigArrayList(indexes, sz);
+  }
+}
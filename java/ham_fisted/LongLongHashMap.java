@@ -0,0 +1,302 @@
+package ham_fisted;
+
+
+import java.util.Map;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.function.BiFunction;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IFn;
+import clojure.lang.IDeref;
+import clojure.lang.IMapEntry;
+import clojure.lang.MapEntry;
+import clojure.lang.RT;
+
+
+/**
+ * Open addressing long->long hash map storing keys and values in flat primitive arrays.
+ * Use getLong, putLong and accPlusLong to avoid boxing - the java.util.Map interface
+ * is supported but boxes keys and values.  kvreduce with an IFn$OLLO reduces over the
+ * primitive key-value pairs directly.
+ */
+public class LongLongHashMap
+  extends LongOpenHashBase
+  implements IMap, MutableMap, IATransientMap, UpdateValues {
+  long[] vals;
+  public LongLongHashMap() {
+    this(null);
+  }
+  public LongLongHashMap(IPersistentMap meta) {
+    super(0.75f, 0, meta);
+    this.vals = new long[capacity + 1];
+  }
+  public LongLongHashMap(IPersistentMap meta, int capacity) {
+    super(0.75f, IntegerOps.nextPow2((int)(capacity/0.75f)), meta);
+    this.vals = new long[this.capacity + 1];
+  }
+  Object swapValues(int n) {
+    final long[] rv = vals;
+    vals = new long[n];
+    return rv;
+  }
+  void moveValue(Object src, int sidx, int didx) {
+    final long[] s = src == null ? vals : (long[])src;
+    vals[didx] = s[sidx];
+  }
+  Map.Entry slotEntry(int idx) {
+    return FMapEntry.create(keys[idx], vals[idx]);
+  }
+  public int hashCode() {
+    return hasheq();
+  }
+  public int hasheq() {
+    return CljHash.mapHashcode(this);
+  }
+  public boolean equals(Object o) {
+    return equiv(o);
+  }
+  public boolean equiv(Object o) {
+    return CljHash.mapEquiv(this, o);
+  }
+  public boolean isEmpty() { return this.length == 0; }
+  public String toString() {
+    final StringBuilder b =
+      (StringBuilder) kvreduce(new IFnDef() {
+	  public Object invoke(Object acc, Object k, Object v) {
+	    final StringBuilder b = (StringBuilder)acc;
+	    if(b.length() > 2)
+	      b.append(",");
+	    return b.append(k)
+	      .append(" ")
+	      .append(v);
+	  }
+	}, new StringBuilder().append("{"));
+    return b.append("}").toString();
+  }
+  public long getLong(long k, long defVal) {
+    final int idx = indexOf(k);
+    return idx >= 0 ? vals[idx] : defVal;
+  }
+  public long getLong(long k) {
+    return getLong(k, 0);
+  }
+  public void putLong(long k, long v) {
+    int idx = indexOf(k);
+    if(idx < 0)
+      idx = insert(k, idx);
+    vals[idx] = v;
+  }
+  /**
+   * Add v to the value stored at k inserting v if k is not present.  Returns the new value.
+   */
+  public long accPlusLong(long k, long v) {
+    int idx = indexOf(k);
+    if(idx < 0) {
+      idx = insert(k, idx);
+      vals[idx] = v;
+      return v;
+    }
+    return vals[idx] += v;
+  }
+  /**
+   * Add every value in other into this map returning this map.
+   */
+  public LongLongHashMap accPlusLong(LongLongHashMap other) {
+    if(other == this) {
+      final long[] v = vals;
+      final int l = v.length;
+      for(int idx = 0; idx < l; ++idx)
+	v[idx] += v[idx];
+      return this;
+    }
+    final long[] ks = other.keys;
+    final long[] vs = other.vals;
+    for(int idx = other.nextIndex(0); idx != -1; idx = other.nextIndex(idx + 1))
+      accPlusLong(ks[idx], vs[idx]);
+    return this;
+  }
+  public boolean removeLong(long k) {
+    final int idx = indexOf(k);
+    if(idx < 0) return false;
+    removeIndex(idx);
+    return true;
+  }
+  public Object get(Object k) {
+    if(k instanceof Number) {
+      final int idx = indexOf(Casts.longCast(k));
+      if(idx >= 0) return vals[idx];
+    }
+    return null;
+  }
+  public Object getOrDefault(Object k, Object dv) {
+    if(k instanceof Number) {
+      final int idx = indexOf(Casts.longCast(k));
+      if(idx >= 0) return vals[idx];
+    }
+    return dv;
+  }
+  public IMapEntry entryAt(Object k) {
+    if(k instanceof Number) {
+      final int idx = indexOf(Casts.longCast(k));
+      if(idx >= 0) return MapEntry.create(keys[idx], vals[idx]);
+    }
+    return null;
+  }
+  public boolean containsKey(Object k) {
+    return k instanceof Number && indexOf(Casts.longCast(k)) >= 0;
+  }
+  public Object put(Object k, Object v) {
+    final long kk = Casts.longCast(k);
+    int idx = indexOf(kk);
+    Object rv = null;
+    if(idx < 0)
+      idx = insert(kk, idx);
+    else
+      rv = vals[idx];
+    vals[idx] = Casts.longCast(v);
+    return rv;
+  }
+  public Object remove(Object k) {
+    if(k instanceof Number) {
+      final int idx = indexOf(Casts.longCast(k));
+      if(idx >= 0) {
+	final Object rv = vals[idx];
+	removeIndex(idx);
+	return rv;
+      }
+    }
+    return null;
+  }
+  @SuppressWarnings("unchecked")
+  public Object compute(Object k, BiFunction bfn) {
+    final long kk = Casts.longCast(k);
+    int idx = indexOf(kk);
+    final Object newv = bfn.apply(k, idx >= 0 ? vals[idx] : null);
+    if(newv == null) {
+      if(idx >= 0) removeIndex(idx);
+    } else {
+      if(idx < 0) idx = insert(kk, idx);
+      vals[idx] = Casts.longCast(newv);
+    }
+    return newv;
+  }
+  @SuppressWarnings("unchecked")
+  public Object computeIfAbsent(Object k, Function fn) {
+    final long kk = Casts.longCast(k);
+    int idx = indexOf(kk);
+    if(idx >= 0) return vals[idx];
+    final Object newv = fn.apply(k);
+    if(newv != null) {
+      idx = insert(kk, idx);
+      vals[idx] = Casts.longCast(newv);
+    }
+    return newv;
+  }
+  @SuppressWarnings("unchecked")
+  public Object merge(Object k, Object v, BiFunction bfn) {
+    final long kk = Casts.longCast(k);
+    int idx = indexOf(kk);
+    if(idx < 0) {
+      idx = insert(kk, idx);
+      vals[idx] = Casts.longCast(v);
+      return v;
+    }
+    final Object newv = bfn.apply(vals[idx], v);
+    if(newv == null)
+      removeIndex(idx);
+    else
+      vals[idx] = Casts.longCast(newv);
+    return newv;
+  }
+  public Object reduce(IFn rfn, Object acc) {
+    final long[] ks = keys;
+    final long[] vs = vals;
+    for(int idx = nextIndex(0); idx != -1; idx = nextIndex(idx + 1)) {
+      acc = rfn.invoke(acc, FMapEntry.create(ks[idx], vs[idx]));
+      if(RT.isReduced(acc))
+	return ((IDeref)acc).deref();
+    }
+    return acc;
+  }
+  public Object kvreduce(IFn rfn, Object acc) {
+    final long[] ks = keys;
+    final long[] vs = vals;
+    if(rfn instanceof IFn.OLLO) {
+      final IFn.OLLO rf = (IFn.OLLO)rfn;
+      for(int idx = nextIndex(0); idx != -1; idx = nextIndex(idx + 1)) {
+	acc = rf.invokePrim(acc, ks[idx], vs[idx]);
+	if(RT.isReduced(acc))
+	  return ((IDeref)acc).deref();
+      }
+    } else {
+      for(int idx = nextIndex(0); idx != -1; idx = nextIndex(idx + 1)) {
+	acc = rfn.invoke(acc, ks[idx], vs[idx]);
+	if(RT.isReduced(acc))
+	  return ((IDeref)acc).deref();
+      }
+    }
+    return acc;
+  }
+  public Iterator iterator(Function<Map.Entry,Object> fn) {
+    return new SlotIter(this, fn);
+  }
+  @SuppressWarnings("unchecked")
+  public Spliterator spliterator(Function<Map.Entry,Object> fn) {
+    return Spliterators.spliterator(iterator(fn), length, Spliterator.DISTINCT | Spliterator.SIZED);
+  }
+  @SuppressWarnings("unchecked")
+  public LongLongHashMap updateValues(BiFunction valueMap) {
+    final long[] ks = keys;
+    final long[] vs = vals;
+    long[] removed = null;
+    int nRemoved = 0;
+    for(int idx = nextIndex(0); idx != -1; idx = nextIndex(idx + 1)) {
+      final Object newv = valueMap.apply(ks[idx], vs[idx]);
+      if(newv == null) {
+	if(removed == null) removed = new long[4];
+	else if(nRemoved == removed.length) removed = Arrays.copyOf(removed, nRemoved * 2);
+	removed[nRemoved++] = ks[idx];
+      } else {
+	vs[idx] = Casts.longCast(newv);
+      }
+    }
+    for(int idx = 0; idx < nRemoved; ++idx)
+      removeLong(removed[idx]);
+    return this;
+  }
+  @SuppressWarnings("unchecked")
+  public LongLongHashMap updateValue(Object k, Function fn) {
+    final long kk = Casts.longCast(k);
+    int idx = indexOf(kk);
+    final Object newv = fn.apply(idx >= 0 ? vals[idx] : null);
+    if(newv == null) {
+      if(idx >= 0) removeIndex(idx);
+    } else {
+      if(idx < 0) idx = insert(kk, idx);
+      vals[idx] = Casts.longCast(newv);
+    }
+    return this;
+  }
+  public LongLongHashMap assoc(Object k, Object v) {
+    put(k, v);
+    return this;
+  }
+  public LongLongHashMap without(Object k) {
+    remove(k);
+    return this;
+  }
+  /**
+   * Copies into a PersistentLongHashMap - values are boxed.
+   */
+  public PersistentLongHashMap persistent() {
+    final UnsharedLongHashMap rv = new UnsharedLongHashMap(meta, length);
+    final long[] ks = keys;
+    final long[] vs = vals;
+    for(int idx = nextIndex(0); idx != -1; idx = nextIndex(idx + 1))
+      rv.put(ks[idx], vs[idx]);
+    return rv.persistent();
+  }
+}
@@ -0,0 +1,163 @@
+package ham_fisted;
+
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IMeta;
+
+
+/**
+ * Open addressing, linear probing table of long keys.  Keys are stored in a flat long
+ * array with 0 marking an empty slot - the 0 key itself lives in the extra slot at
+ * index capacity.  Subclasses store values in a parallel primitive array and move
+ * them when the key table is rehashed or compacted after a removal.
+ */
+abstract class LongOpenHashBase implements IMeta {
+  final float loadFactor;
+  int capacity;
+  int mask;
+  int length;
+  int threshold;
+  long[] keys;
+  boolean hasZero;
+  IPersistentMap meta;
+
+  LongOpenHashBase(float loadFactor, int initialCapacity, IPersistentMap meta) {
+    this.loadFactor = loadFactor;
+    this.capacity = IntegerOps.nextPow2(Math.max(4, initialCapacity));
+    this.mask = this.capacity - 1;
+    this.length = 0;
+    this.threshold = (int)(capacity * loadFactor);
+    this.keys = new long[this.capacity + 1];
+    this.hasZero = false;
+    this.meta = meta;
+  }
+  public int size() { return length; }
+  public int count() { return length; }
+  public int capacity() { return capacity; }
+  public IPersistentMap meta() { return meta; }
+
+  /** Replace the value array with one of size n returning the old array. */
+  abstract Object swapValues(int n);
+  /** Copy the value at sidx in src to didx in the current value array. */
+  abstract void moveValue(Object src, int sidx, int didx);
+  abstract Map.Entry slotEntry(int idx);
+
+  /**
+   * Index of k if present else -(insertion point + 1).
+   */
+  final int indexOf(long k) {
+    if(k == 0) return hasZero ? capacity : -(capacity + 1);
+    final long[] ks = keys;
+    final int m = mask;
+    int idx = LongHashBase.hash(k) & m;
+    long kk;
+    while((kk = ks[idx]) != 0) {
+      if(kk == k) return idx;
+      idx = (idx + 1) & m;
+    }
+    return -(idx + 1);
+  }
+  /**
+   * Claim the insertion point returned by indexOf.  This may resize the table so
+   * callers must use the returned index to store the value.
+   */
+  final int insert(long k, int negIdx) {
+    final int idx = -negIdx - 1;
+    if(k == 0)
+      hasZero = true;
+    else
+      keys[idx] = k;
+    if(++length > threshold) {
+      rehash(capacity * 2);
+      return indexOf(k);
+    }
+    return idx;
+  }
+  final void rehash(int newCap) {
+    final long[] oks = keys;
+    final int ocap = capacity;
+    final Object ovals = swapValues(newCap + 1);
+    final long[] ks = new long[newCap + 1];
+    final int m = newCap - 1;
+    for(int idx = 0; idx < ocap; ++idx) {
+      final long k = oks[idx];
+      if(k != 0) {
+	int ni = LongHashBase.hash(k) & m;
+	while(ks[ni] != 0) ni = (ni + 1) & m;
+	ks[ni] = k;
+	moveValue(ovals, idx, ni);
+      }
+    }
+    moveValue(ovals, ocap, newCap);
+    this.keys = ks;
+    this.capacity = newCap;
+    this.mask = m;
+    this.threshold = (int)(newCap * loadFactor);
+  }
+  /**
+   * Remove the entry at idx shifting later members of its probe sequence back so
+   * no tombstones are required.
+   */
+  final void removeIndex(int idx) {
+    --length;
+    if(idx == capacity) {
+      hasZero = false;
+      return;
+    }
+    final long[] ks = keys;
+    final int m = mask;
+    int gap = idx;
+    int cur = (idx + 1) & m;
+    long k;
+    while((k = ks[cur]) != 0) {
+      final int home = LongHashBase.hash(k) & m;
+      //Move the entry into the gap if the gap lies between its home and its position.
+      if(((cur - home) & m) >= ((cur - gap) & m)) {
+	ks[gap] = k;
+	moveValue(null, cur, gap);
+	gap = cur;
+      }
+      cur = (cur + 1) & m;
+    }
+    ks[gap] = 0;
+  }
+  /** Next occupied slot at or after idx or -1. */
+  final int nextIndex(int idx) {
+    final long[] ks = keys;
+    final int cap = capacity;
+    for(; idx < cap; ++idx)
+      if(ks[idx] != 0) return idx;
+    return (idx == cap && hasZero) ? cap : -1;
+  }
+  public void clear() {
+    Arrays.fill(keys, 0);
+    hasZero = false;
+    length = 0;
+  }
+  public boolean containsLong(long k) {
+    return indexOf(k) >= 0;
+  }
+
+  static class SlotIter implements Iterator {
+    final LongOpenHashBase hb;
+    final Function<Map.Entry,Object> fn;
+    int idx;
+    SlotIter(LongOpenHashBase hb, Function<Map.Entry,Object> fn) {
+      this.hb = hb;
+      this.fn = fn;
+      this.idx = hb.nextIndex(0);
+    }
+    public boolean hasNext() { return idx != -1; }
+    public Object next() {
+      final int i = idx;
+      if(i == -1) throw new NoSuchElementException();
+      idx = hb.nextIndex(i + 1);
+      return fn.apply(hb.slotEntry(i));
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package ham_fisted;
+
+import java.util.Arrays;
+import clojure.lang.IPersistentVector;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IEditableCollection;
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+import clojure.lang.RT;
+
+
+/**
+ * Persistent vector of longs.  Leaves and the tail are long arrays so getLong, conj, assocN
+ * and primitive reductions never box.
+ */
+public class LongTreeList extends PrimTreeListBase
+  implements LongMutList, IPersistentVector, IEditableCollection {
+  final IPersistentMap meta;
+  int _hash = 0;
+  public LongTreeList(int count, int shift, Node root, long[] tail, IPersistentMap meta) {
+    super(count, shift, root, tail);
+    this.meta = meta;
+  }
+  public LongTreeList(IPersistentMap meta) {
+    this(0, shiftWidth, EMPTY_NODE, ArrayLists.longArray(0), meta);
+  }
+  public LongTreeList() { this(null); }
+  public static final LongTreeList EMPTY = new LongTreeList();
+
+  final Object copyLeaf(Object leaf, int len) { return Arrays.copyOf((long[])leaf, len); }
+  public long getLong(int idx) {
+    TreeListBase.checkIndex(idx, count);
+    return ((long[])leafFor(idx))[idx & mask];
+  }
+  public void addLong(long v) { throw new UnsupportedOperationException("Unimplemented"); }
+  public void setLong(int idx, long v) { throw new UnsupportedOperationException("Unimplemented"); }
+  public LongTreeList consLong(long v) {
+    final long[] t = (long[])tail;
+    final int tlen = count - tailoff();
+    if(tlen < branchWidth) {
+      final long[] newTail = Arrays.copyOf(t, tlen + 1);
+      newTail[tlen] = v;
+      return new LongTreeList(count + 1, shift, root, newTail, meta);
+    }
+    final LongTreeList rv = new LongTreeList(count, shift, root, t, meta);
+    rv.pushLeaf(null, t);
+    rv.tail = new long[] { v };
+    rv.count++;
+    return rv;
+  }
+  public LongTreeList cons(Object v) { return consLong(Casts.longCast(v)); }
+  public LongTreeList assocLong(int idx, long v) {
+    if(idx == count)
+      return consLong(v);
+    TreeListBase.checkIndex(idx, count);
+    final LongTreeList rv = new LongTreeList(count, shift, root, (long[])tail, meta);
+    if(idx >= tailoff()) {
+      final long[] newTail = ((long[])tail).clone();
+      newTail[idx & mask] = v;
+      rv.tail = newTail;
+    } else {
+      ((long[])rv.editLeaf(null, idx))[idx & mask] = v;
+    }
+    return rv;
+  }
+  public LongTreeList assocN(int idx, Object v) { return assocLong(idx, Casts.longCast(v)); }
+  public LongTreeList assoc(Object idx, Object v) { return assocN(RT.intCast(idx), v); }
+  public LongTreeList pop() {
+    if(count == 0)
+      throw new IllegalStateException("Can't pop empty vector");
+    if(count == 1)
+      return meta == null ? EMPTY : new LongTreeList(meta);
+    final long[] t = (long[])tail;
+    final int tlen = count - tailoff();
+    if(tlen > 1)
+      return new LongTreeList(count - 1, shift, root, Arrays.copyOf(t, tlen - 1), meta);
+    final LongTreeList rv = new LongTreeList(count, shift, root, t, meta);
+    rv.tail = rv.popLeaf(null);
+    rv.count--;
+    return rv;
+  }
+  public Object peek() {
+    return count == 0 ? null : getLong(count - 1);
+  }
+  public LongTreeList empty() { return meta == null ? EMPTY : new LongTreeList(meta); }
+  public IPersistentMap meta() { return meta; }
+  public LongTreeList withMeta(IPersistentMap m) {
+    return new LongTreeList(count, shift, root, (long[])tail, m);
+  }
+  public MutLongTreeList asTransient() {
+    return new MutLongTreeList(count, shift, root, Arrays.copyOf((long[])tail, branchWidth), meta);
+  }
+  public IPersistentVector immut() { return this; }
+  public int hasheq() {
+    if(_hash == 0) _hash = CljHash.listHasheq(this);
+    return _hash;
+  }
+  public int hashCode() { return hasheq(); }
+  public boolean equals(Object o) { return equiv(o); }
+  public String toString() { return Transformables.sequenceToString(this); }
+  public long[] toLongArray() {
+    final long[] rv = new long[count];
+    copyRange(0, count, rv, 0);
+    return rv;
+  }
+  public Object longReduction(IFn.OLO rfn, Object acc) {
+    return longReduction(this, rfn, acc);
+  }
+  static Object longReduction(PrimTreeListBase l, IFn.OLO rfn, Object acc) {
+    final int n = l.count;
+    for(int sidx = 0; sidx < n; sidx += branchWidth) {
+      final long[] leaf = (long[])l.leafFor(sidx);
+      final int ne = Math.min(branchWidth, n - sidx);
+      for(int idx = 0; idx < ne; ++idx) {
+	acc = rfn.invokePrim(acc, leaf[idx]);
+	if(RT.isReduced(acc))
+	  return ((IDeref)acc).deref();
+      }
+    }
+    return acc;
+  }
+  public static LongTreeList create(long[] data, int sidx, int eidx, IPersistentMap meta) {
+    return new MutLongTreeList(meta).addLongs(data, sidx, eidx).persistent();
+  }
+  public static LongTreeList create(long[] data) { return create(data, 0, data.length, null); }
+}
@@ -58,6 +58,163 @@ public class MapFn implements IFnDef {
 	}
       };
     }
+    else if (src instanceof IFn.LL && dst instanceof IFn.LD) {
+      final IFn.LL ss = (IFn.LL)src;
+      final IFn.LD dd = (IFn.LD)dst;
+      return new IFnDef.LD() {
+	public double invokePrim(long v) {
+	  return dd.invokePrim(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.LL && dst instanceof IFn.LO) {
+      final IFn.LL ss = (IFn.LL)src;
+      final IFn.LO dd = (IFn.LO)dst;
+      return new IFnDef.LO() {
+	public Object invokePrim(long v) {
+	  return dd.invokePrim(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.LD && dst instanceof IFn.DL) {
+      final IFn.LD ss = (IFn.LD)src;
+      final IFn.DL dd = (IFn.DL)dst;
+      return new IFnDef.LL() {
+	public long invokePrim(long v) {
+	  return dd.invokePrim(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.LD && dst instanceof IFn.DO) {
+      final IFn.LD ss = (IFn.LD)src;
+      final IFn.DO dd = (IFn.DO)dst;
+      return new IFnDef.LO() {
+	public Object invokePrim(long v) {
+	  return dd.invokePrim(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.DL && dst instanceof IFn.LD) {
+      final IFn.DL ss = (IFn.DL)src;
+      final IFn.LD dd = (IFn.LD)dst;
+      return new IFnDef.DD() {
+	public double invokePrim(double v) {
+	  return dd.invokePrim(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.DL && dst instanceof IFn.LO) {
+      final IFn.DL ss = (IFn.DL)src;
+      final IFn.LO dd = (IFn.LO)dst;
+      return new IFnDef.DO() {
+	public Object invokePrim(double v) {
+	  return dd.invokePrim(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.DD && dst instanceof IFn.DL) {
+      final IFn.DD ss = (IFn.DD)src;
+      final IFn.DL dd = (IFn.DL)dst;
+      return new IFnDef.DL() {
+	public long invokePrim(double v) {
+	  return dd.invokePrim(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.DD && dst instanceof IFn.DO) {
+      final IFn.DD ss = (IFn.DD)src;
+      final IFn.DO dd = (IFn.DO)dst;
+      return new IFnDef.DO() {
+	public Object invokePrim(double v) {
+	  return dd.invokePrim(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.OL && dst instanceof IFn.LD) {
+      final IFn.OL ss = (IFn.OL)src;
+      final IFn.LD dd = (IFn.LD)dst;
+      return new IFnDef.OD() {
+	public double invokePrim(Object v) {
+	  return dd.invokePrim(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.OL && dst instanceof IFn.LO) {
+      final IFn.OL ss = (IFn.OL)src;
+      final IFn.LO dd = (IFn.LO)dst;
+      return new IFnDef() {
+	public Object invoke(Object v) {
+	  return dd.invokePrim(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.OD && dst instanceof IFn.DL) {
+      final IFn.OD ss = (IFn.OD)src;
+      final IFn.DL dd = (IFn.DL)dst;
+      return new IFnDef.OL() {
+	public long invokePrim(Object v) {
+	  return dd.invokePrim(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.OD && dst instanceof IFn.DO) {
+      final IFn.OD ss = (IFn.OD)src;
+      final IFn.DO dd = (IFn.DO)dst;
+      return new IFnDef() {
+	public Object invoke(Object v) {
+	  return dd.invokePrim(ss.invokePrim(v));
+	}
+      };
+    }
+    //Keep the primitive input of src when dst takes objects.
+    if (src instanceof IFn.LL) {
+      final IFn.LL ss = (IFn.LL)src;
+      return new IFnDef.LO() {
+	public Object invokePrim(long v) {
+	  return dst.invoke(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.LD) {
+      final IFn.LD ss = (IFn.LD)src;
+      return new IFnDef.LO() {
+	public Object invokePrim(long v) {
+	  return dst.invoke(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.LO) {
+      final IFn.LO ss = (IFn.LO)src;
+      return new IFnDef.LO() {
+	public Object invokePrim(long v) {
+	  return dst.invoke(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.DL) {
+      final IFn.DL ss = (IFn.DL)src;
+      return new IFnDef.DO() {
+	public Object invokePrim(double v) {
+	  return dst.invoke(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.DD) {
+      final IFn.DD ss = (IFn.DD)src;
+      return new IFnDef.DO() {
+	public Object invokePrim(double v) {
+	  return dst.invoke(ss.invokePrim(v));
+	}
+      };
+    }
+    else if (src instanceof IFn.DO) {
+      final IFn.DO ss = (IFn.DO)src;
+      return new IFnDef.DO() {
+	public Object invokePrim(double v) {
+	  return dst.invoke(ss.invokePrim(v));
+	}
+      };
+    }
     //Fallthrough, no special treatment
     return new MapFn(src, dst);
   }
@@ -13,7 +13,9 @@
 
 package ham_fisted;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.ConcurrentHashMap;
@@ -22,18 +24,27 @@ import clojure.lang.Keyword;
 
 public final class MethodImplCache {
   final ReentrantLock extLock = new ReentrantLock();
-  
-  //Sparse table of class to ifn.
-  //a lock-protected hashmap as we need to perform potentially many lookups
-  //in rapid succession.
-  final HashMap<Class,Object> extensions = new HashMap<Class,Object>();
+
+  //Sparse table of class to ifn.  Copy on write - extend publishes a new map so lookups
+  //walk the class hierarchy without taking extLock.
+  volatile HashMap<Class,Object> extensions;
   volatile Object nullExtension = null;
-  
+  //Incremented by every extend.  Cached lookups made under an older version are stale.
+  volatile int version = 0;
+
+  static final class Entry {
+    final int version;
+    final Object fn;
+    Entry(int version, Object fn) {
+      this.version = version;
+      this.fn = fn;
+    }
+  }
   //Potentially dense table of resolved lookups.
-  final ConcurrentHashMap<Class,Object> lookupCache = new ConcurrentHashMap<Class,Object>();
+  final ConcurrentHashMap<Class,Entry> lookupCache = new ConcurrentHashMap<Class,Entry>();
 
   public static final Object DEFAULT = new Object();
-  
+
   public final Keyword methodk;
   public final Keyword ns_methodk;
   public final Class iface;
@@ -45,7 +56,9 @@ public final class MethodImplCache {
     this.ns_methodk = ns_methodk;
     this.iface = iface;
     this.ifaceFn = ifaceFn;
-    extensions.put(iface, ifaceFn);
+    final HashMap<Class,Object> ext = new HashMap<Class,Object>();
+    ext.put(iface, ifaceFn);
+    extensions = ext;
   }
 
   public void extend(Class c, Object fn) {
@@ -54,21 +67,27 @@ public final class MethodImplCache {
       if(c == null)
 	nullExtension = fn;
       else {
+	final HashMap<Class,Object> ext = new HashMap<Class,Object>(extensions);
 	if(fn == null)
-	  extensions.remove(c);
+	  ext.remove(c);
 	else
-	  extensions.put(c, fn);
+	  ext.put(c, fn);
+	extensions = ext;
       }
+      //Publish the new extensions before invalidating so a lookup that sees the new
+      //version also sees the new extensions.
+      version = version + 1;
     } finally {
       extLock.unlock();
     }
-    lookupCache.clear();
   }
 
+  public int version() { return version; }
+
   public Set registeredClasses() { return extensions.keySet(); }
-  
+
   @SuppressWarnings("unchecked")
-  public Object recurCheckInterface(Set consideredSet, Class[] ifaces) {
+  static Object recurCheckInterface(Map<Class,Object> extensions, Set consideredSet, Class[] ifaces) {
     final Object defVal = DEFAULT;
     Object rv = defVal;
     int ni = ifaces.length;
@@ -82,42 +101,108 @@ public final class MethodImplCache {
     if(rv == defVal) {
       for(int idx = 0; idx < ni && rv == defVal; ++idx) {
 	Class iface = ifaces[idx];
-	rv = recurCheckInterface(consideredSet, iface.getInterfaces());
+	rv = recurCheckInterface(extensions, consideredSet, iface.getInterfaces());
       }
     }
     return rv;
   }
+  public Object recurCheckInterface(Set consideredSet, Class[] ifaces) {
+    return recurCheckInterface(extensions, consideredSet, ifaces);
+  }
   static final Class objAryCls = Object[].class;
 
   @SuppressWarnings("unchecked")
+  Object resolve(Class c, Map<Class,Object> ext) {
+    final Object defVal = DEFAULT;
+    if(iface.isAssignableFrom(c))
+      return ifaceFn;
+    Object rv = defVal;
+    HashSet considered = new HashSet();
+    for(Class cc = c; cc != null && rv == defVal; cc = cc.getSuperclass()) {
+      rv = ext.getOrDefault(cc, defVal);
+      if(rv == defVal && cc == c && objAryCls.isAssignableFrom(cc))
+	rv = ext.getOrDefault(objAryCls, defVal);
+      if(rv == defVal)
+	rv = recurCheckInterface(ext, considered, cc.getInterfaces());
+    }
+    return rv == defVal ? null : rv;
+  }
+
   public Object findFnFor(Class c) {
     if(c == null) return nullExtension;
-    final Object defVal = DEFAULT;
-    Object rv = lookupCache.getOrDefault(c, defVal);
+    //Read the version before the extensions so a concurrent extend can only make the
+    //entry we store stale, never wrong under its version.
+    final int v = version;
+    final Entry e = lookupCache.get(c);
+    if(e != null && e.version == v) return e.fn;
+    final Object rv = resolve(c, extensions);
     //Include caching when lookup fails.
-    if(rv != defVal) return rv;
-    //rv is the default value at this point
-    if(iface.isAssignableFrom(c)) {
-      lookupCache.put(c, ifaceFn);
-      return ifaceFn;
+    lookupCache.put(c, new Entry(v, rv));
+    return rv;
+  }
+
+  /**
+   * Polymorphic inline cache for a single call site of a protocol method.  Holds up to
+   * maxEntries class to fn pairs in an immutable snapshot so the common monomorphic case is
+   * one volatile read and one identity comparison.  A site that sees more classes than that
+   * is megamorphic - it stops scanning and goes straight to the method's shared lookup
+   * cache.  Entries and the megamorphic state are dropped when the version of the method
+   * cache changes.
+   */
+  public static final class CallSite {
+    public static final int maxEntries = 4;
+    static final Class[] noClasses = new Class[0];
+    static final Object[] noFns = new Object[0];
+    static final class Entries {
+      final int version;
+      final Class[] classes;
+      final Object[] fns;
+      final boolean megamorphic;
+      Entries(int version, Class[] classes, Object[] fns, boolean megamorphic) {
+	this.version = version;
+	this.classes = classes;
+	this.fns = fns;
+	this.megamorphic = megamorphic;
+      }
     }
-    extLock.lock();
-    try {
-      HashSet considered = new HashSet();
-      for(Class cc = c; cc != null && rv == defVal; cc = cc.getSuperclass()) {
-	rv = extensions.getOrDefault(cc, defVal);
-	if(rv == defVal && cc == c && objAryCls.isAssignableFrom(cc))
-	  rv = extensions.getOrDefault(objAryCls, defVal);
-	if(rv == defVal)
-	  rv = recurCheckInterface(considered, cc.getInterfaces());
+    public final MethodImplCache cache;
+    volatile Entries entries;
+    public CallSite(MethodImplCache cache) {
+      this.cache = cache;
+      this.entries = new Entries(-1, noClasses, noFns, false);
+    }
+    public boolean isMegamorphic() { return entries.megamorphic; }
+    public Object findFnFor(Class c) {
+      final Entries e = entries;
+      if(e.version == cache.version) {
+	if(e.megamorphic)
+	  return cache.findFnFor(c);
+	final Class[] cs = e.classes;
+	final int nc = cs.length;
+	for(int idx = 0; idx < nc; ++idx)
+	  if(cs[idx] == c) return e.fns[idx];
       }
-    } finally {
-      extLock.unlock();
+      return miss(e, c);
+    }
+    Object miss(Entries e, Class c) {
+      final int v = cache.version;
+      final Object rv = cache.findFnFor(c);
+      if(c == null || rv == null)
+	return rv;
+      if(e.version != v)
+	entries = new Entries(v, new Class[] { c }, new Object[] { rv }, false);
+      else if(e.classes.length == maxEntries)
+	entries = new Entries(v, noClasses, noFns, true);
+      else {
+	//Racing misses may drop each other's additions - the next call simply misses again.
+	final int nc = e.classes.length;
+	final Class[] cs = Arrays.copyOf(e.classes, nc + 1);
+	final Object[] fns = Arrays.copyOf(e.fns, nc + 1);
+	cs[nc] = c;
+	fns[nc] = rv;
+	entries = new Entries(v, cs, fns, false);
+      }
+      return rv;
     }
-    if(rv != defVal)
-      lookupCache.put(c, rv);
-
-    return rv == defVal ? null : rv;
   }
-
 }
@@ -0,0 +1,102 @@
+package ham_fisted;
+
+import java.util.Arrays;
+import clojure.lang.IFn;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IPersistentVector;
+import clojure.lang.ITransientVector;
+import clojure.lang.RT;
+
+
+/**
+ * Transient DoubleTreeList.  Nodes created by this list are updated in place until persistent
+ * is called after which further writes copy as a persistent list would.
+ */
+public class MutDoubleTreeList extends PrimTreeListBase implements DoubleMutList, ITransientVector {
+  final IPersistentMap meta;
+  Object owner = new Object();
+  boolean persistent = false;
+  public MutDoubleTreeList(int count, int shift, Node root, double[] tail, IPersistentMap meta) {
+    super(count, shift, root, tail);
+    this.meta = meta;
+  }
+  public MutDoubleTreeList(IPersistentMap meta) {
+    this(0, shiftWidth, EMPTY_NODE, new double[branchWidth], meta);
+  }
+  public MutDoubleTreeList() { this(null); }
+
+  final Object copyLeaf(Object leaf, int len) { return Arrays.copyOf((double[])leaf, len); }
+  public IPersistentMap meta() { return meta; }
+  public double getDouble(int idx) {
+    TreeListBase.checkIndex(idx, count);
+    return ((double[])leafFor(idx))[idx & mask];
+  }
+  public void addDouble(double v) {
+    int tidx = count - tailoff();
+    if(tidx == branchWidth) {
+      pushLeaf(owner, tail);
+      tail = new double[branchWidth];
+      tidx = 0;
+    }
+    ((double[])tail)[tidx] = v;
+    ++count;
+  }
+  /**
+   * Append data[sidx, eidx) copying a leaf at a time.
+   */
+  public MutDoubleTreeList addDoubles(double[] data, int sidx, int eidx) {
+    TreeListBase.sublistCheck(sidx, eidx, data.length);
+    while(sidx < eidx) {
+      int tidx = count - tailoff();
+      if(tidx == branchWidth) {
+	pushLeaf(owner, tail);
+	tail = new double[branchWidth];
+	tidx = 0;
+      }
+      final int n = Math.min(branchWidth - tidx, eidx - sidx);
+      System.arraycopy(data, sidx, tail, tidx, n);
+      sidx += n;
+      count += n;
+    }
+    return this;
+  }
+  public void setDouble(int idx, double v) {
+    TreeListBase.checkIndex(idx, count);
+    final double[] leaf = (double[])(idx >= tailoff() ? tail : editLeaf(owner, idx));
+    leaf[idx & mask] = v;
+  }
+  public MutDoubleTreeList assocN(int idx, Object v) {
+    if(idx == count)
+      addDouble(Casts.doubleCast(v));
+    else
+      setDouble(idx, Casts.doubleCast(v));
+    return this;
+  }
+  public MutDoubleTreeList assoc(Object idx, Object v) { return assocN(RT.intCast(idx), v); }
+  public MutDoubleTreeList conj(Object v) { addDouble(Casts.doubleCast(v)); return this; }
+  public MutDoubleTreeList pop() {
+    if(count == 0)
+      throw new IllegalStateException("Can't pop empty vector");
+    if(count > branchWidth && count - tailoff() == 1)
+      tail = copyLeaf(popLeaf(owner), branchWidth);
+    --count;
+    return this;
+  }
+  public DoubleTreeList persistent() {
+    if(persistent)
+      throw new RuntimeException("Persistent called twice on transient vector");
+    persistent = true;
+    //Nodes are now shared with the persistent list.
+    owner = new Object();
+    return new DoubleTreeList(count, shift, root, Arrays.copyOf((double[])tail, count - tailoff()), meta);
+  }
+  public IPersistentVector immut() { return persistent(); }
+  public double[] toDoubleArray() {
+    final double[] rv = new double[count];
+    copyRange(0, count, rv, 0);
+    return rv;
+  }
+  public Object doubleReduction(IFn.ODO rfn, Object acc) {
+    return DoubleTreeList.doubleReduction(this, rfn, acc);
+  }
+}
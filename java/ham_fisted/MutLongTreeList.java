@@ -0,0 +1,102 @@
+package ham_fisted;
+
+import java.util.Arrays;
+import clojure.lang.IFn;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IPersistentVector;
+import clojure.lang.ITransientVector;
+import clojure.lang.RT;
+
+
+/**
+ * Transient LongTreeList.  Nodes created by this list are updated in place until persistent
+ * is called after which further writes copy as a persistent list would.
+ */
+public class MutLongTreeList extends PrimTreeListBase implements LongMutList, ITransientVector {
+  final IPersistentMap meta;
+  Object owner = new Object();
+  boolean persistent = false;
+  public MutLongTreeList(int count, int shift, Node root, long[] tail, IPersistentMap meta) {
+    super(count, shift, root, tail);
+    this.meta = meta;
+  }
+  public MutLongTreeList(IPersistentMap meta) {
+    this(0, shiftWidth, EMPTY_NODE, new long[branchWidth], meta);
+  }
+  public MutLongTreeList() { this(null); }
+
+  final Object copyLeaf(Object leaf, int len) { return Arrays.copyOf((long[])leaf, len); }
+  public IPersistentMap meta() { return meta; }
+  public long getLong(int idx) {
+    TreeListBase.checkIndex(idx, count);
+    return ((long[])leafFor(idx))[idx & mask];
+  }
+  public void addLong(long v) {
+    int tidx = count - tailoff();
+    if(tidx == branchWidth) {
+      pushLeaf(owner, tail);
+      tail = new long[branchWidth];
+      tidx = 0;
+    }
+    ((long[])tail)[tidx] = v;
+    ++count;
+  }
+  /**
+   * Append data[sidx, eidx) copying a leaf at a time.
+   */
+  public MutLongTreeList addLongs(long[] data, int sidx, int eidx) {
+    TreeListBase.sublistCheck(sidx, eidx, data.length);
+    while(sidx < eidx) {
+      int tidx = count - tailoff();
+      if(tidx == branchWidth) {
+	pushLeaf(owner, tail);
+	tail = new long[branchWidth];
+	tidx = 0;
+      }
+      final int n = Math.min(branchWidth - tidx, eidx - sidx);
+      System.arraycopy(data, sidx, tail, tidx, n);
+      sidx += n;
+      count += n;
+    }
+    return this;
+  }
+  public void setLong(int idx, long v) {
+    TreeListBase.checkIndex(idx, count);
+    final long[] leaf = (long[])(idx >= tailoff() ? tail : editLeaf(owner, idx));
+    leaf[idx & mask] = v;
+  }
+  public MutLongTreeList assocN(int idx, Object v) {
+    if(idx == count)
+      addLong(Casts.longCast(v));
+    else
+      setLong(idx, Casts.longCast(v));
+    return this;
+  }
+  public MutLongTreeList assoc(Object idx, Object v) { return assocN(RT.intCast(idx), v); }
+  public MutLongTreeList conj(Object v) { addLong(Casts.longCast(v)); return this; }
+  public MutLongTreeList pop() {
+    if(count == 0)
+      throw new IllegalStateException("Can't pop empty vector");
+    if(count > branchWidth && count - tailoff() == 1)
+      tail = copyLeaf(popLeaf(owner), branchWidth);
+    --count;
+    return this;
+  }
+  public LongTreeList persistent() {
+    if(persistent)
+      throw new RuntimeException("Persistent called twice on transient vector");
+    persistent = true;
+    //Nodes are now shared with the persistent list.
+    owner = new Object();
+    return new LongTreeList(count, shift, root, Arrays.copyOf((long[])tail, count - tailoff()), meta);
+  }
+  public IPersistentVector immut() { return persistent(); }
+  public long[] toLongArray() {
+    final long[] rv = new long[count];
+    copyRange(0, count, rv, 0);
+    return rv;
+  }
+  public Object longReduction(IFn.OLO rfn, Object acc) {
+    return LongTreeList.longReduction(this, rfn, acc);
+  }
+}
@@ -32,6 +32,12 @@ public class MutTreeList extends TreeListBase implements ITransientVector {
     this.tail = Arrays.copyOf(this.tail, tailWidth);
   }
   void consTail(Object[] tail) {
+    if(root instanceof RRBNode) {
+      final RRBNode rv = concatNodes(root, shift + 1, tail, 0);
+      root = rv;
+      shift = rv.height - 1;
+      return;
+    }
     Object rv = shift == 0 ? ((Leaf)root).add(sentinel, tail) : ((Branch)root).add(sentinel, shift, tail);
     if(rv instanceof Object[]) {
       shift = shift+1;
@@ -55,9 +61,13 @@ public class MutTreeList extends TreeListBase implements ITransientVector {
   public Object set(int idx, Object obj) {
     checkIndex(idx, count);
     int cutoff = count - nTail();
-    if(idx < cutoff) {
+    if(idx < cutoff && root instanceof RRBNode) {
+      final Object rv = nodeGet(root, shift + 1, idx);
+      root = nodeAssoc(root, shift + 1, idx, obj);
+      return rv;
+    } else if(idx < cutoff) {
       Box b = new Box(null);
-      Object newRoot = shift == 1 ? ((Leaf)root).assocN(sentinel, idx, obj, b) :
+      Object newRoot = shift == 0 ? ((Leaf)root).assocN(sentinel, idx, obj, b) :
 	((Branch)root).assocN(sentinel, shift, idx, obj, b);
       root = newRoot;
       return b.val;
@@ -71,8 +81,10 @@ public class MutTreeList extends TreeListBase implements ITransientVector {
   public void setObject(int idx, Object obj) {
     checkIndex(idx, count);
     int cutoff = count - nTail();
-    if(idx < cutoff) {
-      Object newRoot = shift == 1 ? ((Leaf)root).assocN(sentinel, idx, obj, null) :
+    if(idx < cutoff && root instanceof RRBNode) {
+      root = nodeAssoc(root, shift + 1, idx, obj);
+    } else if(idx < cutoff) {
+      Object newRoot = shift == 0 ? ((Leaf)root).assocN(sentinel, idx, obj, null) :
 	((Branch)root).assocN(sentinel, shift, idx, obj, null);
       root = newRoot;
     } else {
@@ -89,15 +101,26 @@ public class MutTreeList extends TreeListBase implements ITransientVector {
     if(count == 0) throw new IllegalStateException("Can't pop empty vector");
     if(nTail > 0) {
       nTail--;
-    } else {
-      Object popResult = shift == 1 ? ((Leaf)root).pop(sentinel) : ((Branch)root).pop(sentinel, shift);
-      if(popResult instanceof SublistResult) {
-	SublistResult r = (SublistResult)popResult;
-	this.root = r.node;
-	nTail = tailWidth-1;
-	System.arraycopy(tail, 0, r.tail, 0, nTail);
+    } else if(root instanceof RRBNode) {
+      final Object[] chunk = lastChunk(root, shift + 1);
+      final Object[] tree = sliceTree(0, count - chunk.length);
+      nTail = chunk.length - 1;
+      System.arraycopy(chunk, 0, tail, 0, nTail);
+      if(tree == null) {
+	root = new Leaf(null, new Object[0][]);
+	shift = 0;
       } else {
-	this.root = popResult;
+	root = tree[0];
+	shift = (Integer)tree[1] - 1;
+      }
+    } else {
+      SublistResult r = shift == 0 ? ((Leaf)root).pop(sentinel) : ((Branch)root).pop(sentinel, shift);
+      this.root = r.node;
+      nTail = tailWidth-1;
+      System.arraycopy(r.tail, 0, tail, 0, nTail);
+      while(shift > 0 && ((Branch)root).data.length == 1) {
+	root = ((Branch)root).data[0];
+	shift--;
       }
     }
     count--;
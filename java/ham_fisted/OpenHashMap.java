@@ -0,0 +1,588 @@
+package ham_fisted;
+
+
+import java.util.Map;
+import java.util.Set;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Collection;
+import java.util.Spliterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IFn;
+import clojure.lang.IDeref;
+import clojure.lang.IMapEntry;
+import clojure.lang.IReduceInit;
+import clojure.lang.MapEntry;
+import clojure.lang.RT;
+
+
+/**
+ * Open addressing, linear probing hash map with object keys.  Hashes, keys and values live
+ * in three parallel arrays so lookups touch no per-entry objects - a probe compares the
+ * stored hash before calling equals.  Map entries are only created when entries are asked
+ * for; kvreduce and key or value reductions read the arrays directly.  Hashing and equality
+ * come from a HashProvider and default to the same semantics as HashMap.
+ *
+ * Removal shifts later members of the probe sequence back so no tombstones are required.
+ * This map is not thread safe.
+ */
+public class OpenHashMap
+  implements IMap, MutableMap, IATransientMap, MapSetOps, UpdateValues {
+  //Marks the null key - a null entry in keys marks an empty slot.
+  static final Object NULL_KEY = new Object();
+  static final int ENTRIES = 0;
+  static final int KEYS = 1;
+  static final int VALS = 2;
+
+  final HashProvider hp;
+  final float loadFactor;
+  int capacity;
+  int mask;
+  int length;
+  int threshold;
+  int[] hashes;
+  Object[] keys;
+  Object[] vals;
+  IPersistentMap meta;
+
+  public OpenHashMap(HashProvider hp, IPersistentMap meta, int initialCapacity) {
+    this.hp = hp == null ? HashProviders.defaultHashProvider : hp;
+    this.loadFactor = 0.5f;
+    this.capacity = IntegerOps.nextPow2(Math.max(4, (int)(initialCapacity / loadFactor) + 1));
+    this.mask = capacity - 1;
+    this.threshold = (int)(capacity * loadFactor);
+    this.hashes = new int[capacity];
+    this.keys = new Object[capacity];
+    this.vals = new Object[capacity];
+    this.meta = meta;
+  }
+  public OpenHashMap(IPersistentMap meta) {
+    this(null, meta, 0);
+  }
+  public OpenHashMap() {
+    this(null, null, 0);
+  }
+
+  static Object maskNull(Object k) { return k == null ? NULL_KEY : k; }
+  static Object unmaskNull(Object k) { return k == NULL_KEY ? null : k; }
+  final int hash(Object k) { return hp.hash(k); }
+  static int slot(int h, int m) { return (h ^ (h >>> 16)) & m; }
+
+  /**
+   * Index of k if present else -(insertion point + 1).
+   */
+  final int indexOf(Object k, int h) {
+    final Object mk = maskNull(k);
+    final int[] hs = hashes;
+    final Object[] ks = keys;
+    final int m = mask;
+    int idx = slot(h, m);
+    Object kk;
+    while((kk = ks[idx]) != null) {
+      if(hs[idx] == h && (kk == mk || (k != null && kk != NULL_KEY && hp.equals(kk, k))))
+	return idx;
+      idx = (idx + 1) & m;
+    }
+    return -(idx + 1);
+  }
+  final int indexOf(Object k) { return indexOf(k, hash(k)); }
+  /**
+   * Store a new key at the insertion point returned by indexOf.  May resize so callers
+   * must use the returned index.
+   */
+  final int insert(Object k, int h, int negIdx, Object v) {
+    int idx = -negIdx - 1;
+    hashes[idx] = h;
+    keys[idx] = maskNull(k);
+    vals[idx] = v;
+    if(++length > threshold) {
+      rehash(capacity * 2);
+      idx = indexOf(k, h);
+    }
+    return idx;
+  }
+  final void rehash(int newCap) {
+    final int[] ohs = hashes;
+    final Object[] oks = keys;
+    final Object[] ovs = vals;
+    final int[] hs = new int[newCap];
+    final Object[] ks = new Object[newCap];
+    final Object[] vs = new Object[newCap];
+    final int m = newCap - 1;
+    for(int idx = 0; idx < ohs.length; ++idx) {
+      final Object k = oks[idx];
+      if(k != null) {
+	final int h = ohs[idx];
+	int ni = slot(h, m);
+	while(ks[ni] != null) ni = (ni + 1) & m;
+	hs[ni] = h;
+	ks[ni] = k;
+	vs[ni] = ovs[idx];
+      }
+    }
+    this.hashes = hs;
+    this.keys = ks;
+    this.vals = vs;
+    this.capacity = newCap;
+    this.mask = m;
+    this.threshold = (int)(newCap * loadFactor);
+  }
+  /**
+   * Remove the entry at idx shifting later members of its probe sequence back.
+   */
+  final void removeIndex(int idx) {
+    --length;
+    final int[] hs = hashes;
+    final Object[] ks = keys;
+    final Object[] vs = vals;
+    final int m = mask;
+    int gap = idx;
+    int cur = (idx + 1) & m;
+    Object k;
+    while((k = ks[cur]) != null) {
+      final int home = slot(hs[cur], m);
+      //Move the entry into the gap if the gap lies between its home and its position.
+      if(((cur - home) & m) >= ((cur - gap) & m)) {
+	hs[gap] = hs[cur];
+	ks[gap] = k;
+	vs[gap] = vs[cur];
+	gap = cur;
+      }
+      cur = (cur + 1) & m;
+    }
+    ks[gap] = null;
+    vs[gap] = null;
+  }
+  /** Next occupied slot at or after idx or -1. */
+  final int nextIndex(int idx) {
+    final Object[] ks = keys;
+    final int cap = capacity;
+    for(; idx < cap; ++idx)
+      if(ks[idx] != null) return idx;
+    return -1;
+  }
+  final Object slotKey(int idx) { return unmaskNull(keys[idx]); }
+  final Object slotValue(int idx, int mode) {
+    switch(mode) {
+    case KEYS: return unmaskNull(keys[idx]);
+    case VALS: return vals[idx];
+    default: return FMapEntry.create(unmaskNull(keys[idx]), vals[idx]);
+    }
+  }
+
+  public int size() { return length; }
+  public int count() { return length; }
+  public int capacity() { return capacity; }
+  public boolean isEmpty() { return length == 0; }
+  public IPersistentMap meta() { return meta; }
+  public HashProvider hashProvider() { return hp; }
+  public int hashCode() { return hasheq(); }
+  public int hasheq() { return CljHash.mapHashcode(this); }
+  public boolean equals(Object o) { return equiv(o); }
+  public boolean equiv(Object o) { return CljHash.mapEquiv(this, o); }
+  public String toString() {
+    final StringBuilder b =
+      (StringBuilder) kvreduce(new IFnDef() {
+	  public Object invoke(Object acc, Object k, Object v) {
+	    final StringBuilder b = (StringBuilder)acc;
+	    if(b.length() > 2)
+	      b.append(",");
+	    return b.append(k)
+	      .append(" ")
+	      .append(v);
+	  }
+	}, new StringBuilder().append("{"));
+    return b.append("}").toString();
+  }
+  public OpenHashMap clone() {
+    final OpenHashMap rv = new OpenHashMap(hp, meta, 0);
+    rv.capacity = capacity;
+    rv.mask = mask;
+    rv.length = length;
+    rv.threshold = threshold;
+    rv.hashes = hashes.clone();
+    rv.keys = keys.clone();
+    rv.vals = vals.clone();
+    return rv;
+  }
+  public void clear() {
+    Arrays.fill(keys, null);
+    Arrays.fill(vals, null);
+    length = 0;
+  }
+  public Object get(Object k) {
+    final int idx = indexOf(k);
+    return idx >= 0 ? vals[idx] : null;
+  }
+  public Object getOrDefault(Object k, Object dv) {
+    final int idx = indexOf(k);
+    return idx >= 0 ? vals[idx] : dv;
+  }
+  public IMapEntry entryAt(Object k) {
+    final int idx = indexOf(k);
+    return idx >= 0 ? MapEntry.create(slotKey(idx), vals[idx]) : null;
+  }
+  public boolean containsKey(Object k) {
+    return indexOf(k) >= 0;
+  }
+  public Object put(Object k, Object v) {
+    final int h = hash(k);
+    final int idx = indexOf(k, h);
+    if(idx < 0) {
+      insert(k, h, idx, v);
+      return null;
+    }
+    final Object rv = vals[idx];
+    vals[idx] = v;
+    return rv;
+  }
+  public Object remove(Object k) {
+    final int idx = indexOf(k);
+    if(idx < 0) return null;
+    final Object rv = vals[idx];
+    removeIndex(idx);
+    return rv;
+  }
+  @SuppressWarnings("unchecked")
+  public Object compute(Object k, BiFunction bfn) {
+    final int h = hash(k);
+    final int idx = indexOf(k, h);
+    final Object newv = bfn.apply(k, idx >= 0 ? vals[idx] : null);
+    if(newv == null) {
+      if(idx >= 0) removeIndex(idx);
+    } else if(idx >= 0) {
+      vals[idx] = newv;
+    } else {
+      insert(k, h, idx, newv);
+    }
+    return newv;
+  }
+  @SuppressWarnings("unchecked")
+  public Object computeIfAbsent(Object k, Function fn) {
+    final int h = hash(k);
+    final int idx = indexOf(k, h);
+    if(idx >= 0) return vals[idx];
+    final Object newv = fn.apply(k);
+    //fn may have modified the map
+    if(newv != null)
+      put(k, newv);
+    return newv;
+  }
+  @SuppressWarnings("unchecked")
+  public Object computeIfPresent(Object k, BiFunction bfn) {
+    final int idx = indexOf(k);
+    if(idx < 0) return null;
+    final Object newv = bfn.apply(k, vals[idx]);
+    if(newv == null)
+      removeIndex(idx);
+    else
+      vals[idx] = newv;
+    return newv;
+  }
+  @SuppressWarnings("unchecked")
+  public Object merge(Object k, Object v, BiFunction bfn) {
+    final int h = hash(k);
+    final int idx = indexOf(k, h);
+    if(idx < 0) {
+      insert(k, h, idx, v);
+      return v;
+    }
+    final Object newv = bfn.apply(vals[idx], v);
+    if(newv == null)
+      removeIndex(idx);
+    else
+      vals[idx] = newv;
+    return newv;
+  }
+  @SuppressWarnings("unchecked")
+  public void replaceAll(BiFunction bfn) {
+    updateValues(bfn);
+  }
+  public Object reduce(IFn rfn, Object acc) {
+    return reduceSlots(0, capacity, ENTRIES, rfn, acc);
+  }
+  Object reduceSlots(int sidx, int eidx, int mode, IFn rfn, Object acc) {
+    final Object[] ks = keys;
+    final Object[] vs = vals;
+    for(int idx = sidx; idx < eidx; ++idx) {
+      final Object k = ks[idx];
+      if(k != null) {
+	switch(mode) {
+	case KEYS: acc = rfn.invoke(acc, unmaskNull(k)); break;
+	case VALS: acc = rfn.invoke(acc, vs[idx]); break;
+	default: acc = rfn.invoke(acc, FMapEntry.create(unmaskNull(k), vs[idx]));
+	}
+	if(RT.isReduced(acc))
+	  return ((IDeref)acc).deref();
+      }
+    }
+    return acc;
+  }
+  public Object kvreduce(IFn rfn, Object acc) {
+    final Object[] ks = keys;
+    final Object[] vs = vals;
+    final int cap = capacity;
+    for(int idx = 0; idx < cap; ++idx) {
+      final Object k = ks[idx];
+      if(k != null) {
+	acc = rfn.invoke(acc, unmaskNull(k), vs[idx]);
+	if(RT.isReduced(acc))
+	  return ((IDeref)acc).deref();
+      }
+    }
+    return acc;
+  }
+  public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				  ParallelOptions options) {
+    return Reductions.parallelCollectionReduction(initValFn, rfn, mergeFn, entrySet(), options);
+  }
+
+  static class SlotIter implements Iterator {
+    final OpenHashMap hm;
+    final Function<Map.Entry,Object> fn;
+    final int mode;
+    int idx;
+    SlotIter(OpenHashMap hm, Function<Map.Entry,Object> fn, int mode) {
+      this.hm = hm;
+      this.fn = fn;
+      this.mode = mode;
+      this.idx = hm.nextIndex(0);
+    }
+    public boolean hasNext() { return idx != -1; }
+    @SuppressWarnings("unchecked")
+    public Object next() {
+      final int i = idx;
+      if(i == -1) throw new NoSuchElementException();
+      idx = hm.nextIndex(i + 1);
+      return fn == null ? hm.slotValue(i, mode) : fn.apply((Map.Entry)hm.slotValue(i, ENTRIES));
+    }
+  }
+  /**
+   * Spliterator over a range of slots.  Splits balance by the number of occupied slots
+   * counted per block of slots so clustered hashes still split evenly.  With fn every
+   * entry is passed through fn, including in split halves.
+   */
+  static class SlotSpliterator implements Spliterator, IReduceInit {
+    final OpenHashMap hm;
+    final int mode;
+    final Function<Map.Entry,Object> fn;
+    int sidx;
+    int eidx;
+    int estimate;
+    HashBase.BucketBlocks blocks;
+    SlotSpliterator(OpenHashMap hm, int mode, Function<Map.Entry,Object> fn, int sidx, int eidx,
+		    int estimate, HashBase.BucketBlocks blocks) {
+      this.hm = hm;
+      this.mode = fn == null ? mode : ENTRIES;
+      this.fn = fn;
+      this.sidx = sidx;
+      this.eidx = eidx;
+      this.estimate = estimate;
+      this.blocks = blocks;
+    }
+    public SlotSpliterator trySplit() {
+      if(blocks == null)
+	blocks = new HashBase.BucketBlocks(hm.keys);
+      final int mid = blocks.split(sidx, eidx);
+      if(mid < 0) return null;
+      final int oldEidx = eidx;
+      final int oldEstimate = estimate;
+      estimate = blocks.lhsEstimate(sidx, mid, oldEidx, oldEstimate);
+      eidx = mid;
+      return new SlotSpliterator(hm, mode, fn, mid, oldEidx, oldEstimate - estimate, blocks);
+    }
+    public int characteristics() { return Spliterator.DISTINCT | Spliterator.IMMUTABLE; }
+    public long estimateSize() { return estimate; }
+    @SuppressWarnings("unchecked")
+    public boolean tryAdvance(Consumer c) {
+      final Object[] ks = hm.keys;
+      for(; sidx < eidx; ++sidx) {
+	if(ks[sidx] != null) {
+	  final Object v = hm.slotValue(sidx++, mode);
+	  c.accept(fn == null ? v : fn.apply((Map.Entry)v));
+	  return true;
+	}
+      }
+      return false;
+    }
+    public Object reduce(IFn rfn, Object acc) {
+      final int s = sidx;
+      sidx = eidx;
+      if(fn != null) {
+	final IFn srfn = rfn;
+	rfn = new IFnDef() {
+	    @SuppressWarnings("unchecked")
+	    public Object invoke(Object acc, Object e) {
+	      return srfn.invoke(acc, fn.apply((Map.Entry)e));
+	    }
+	  };
+      }
+      return hm.reduceSlots(s, eidx, mode, rfn, acc);
+    }
+  }
+  public Iterator iterator(Function<Map.Entry,Object> fn) {
+    return new SlotIter(this, fn, ENTRIES);
+  }
+  public Iterator keyIterator() { return new SlotIter(this, null, KEYS); }
+  public Iterator valIterator() { return new SlotIter(this, null, VALS); }
+  public Iterator entryIterator() { return new SlotIter(this, null, ENTRIES); }
+  public Spliterator spliterator(Function<Map.Entry,Object> fn) {
+    return new SlotSpliterator(this, ENTRIES, fn, 0, capacity, length, null);
+  }
+  public Spliterator spliterator(int mode) {
+    return new SlotSpliterator(this, mode, null, 0, capacity, length, null);
+  }
+
+  public static class KeySet extends MapKeySet implements SetOps {
+    public KeySet(OpenHashMap hm) { super(hm); }
+    public Iterator iterator() { return ((OpenHashMap)data).keyIterator(); }
+    public Spliterator spliterator() { return ((OpenHashMap)data).spliterator(KEYS); }
+    public Object reduce(IFn rfn, Object acc) {
+      final OpenHashMap hm = (OpenHashMap)data;
+      return hm.reduceSlots(0, hm.capacity, KEYS, rfn, acc);
+    }
+    public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				    ParallelOptions options) {
+      return Reductions.parallelCollectionReduction(initValFn, rfn, mergeFn, this, options);
+    }
+    public PersistentHashSet union(Collection c) {
+      final HashSet rv = new HashSet();
+      rv.addAll(this);
+      return new PersistentHashSet(rv.union(c));
+    }
+    public PersistentHashSet intersection(Set c) {
+      final HashSet rv = new HashSet();
+      rv.addAll(this);
+      return new PersistentHashSet(rv.intersection(c));
+    }
+    public PersistentHashSet difference(Set c) {
+      final HashSet rv = new HashSet();
+      rv.addAll(this);
+      return new PersistentHashSet(rv.difference(c));
+    }
+  }
+  public static class Values extends ValueCollection {
+    public Values(OpenHashMap hm) { super(hm); }
+    public Object reduce(IFn rfn, Object acc) {
+      final OpenHashMap hm = (OpenHashMap)data;
+      return hm.reduceSlots(0, hm.capacity, VALS, rfn, acc);
+    }
+    public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				    ParallelOptions options) {
+      return Reductions.parallelCollectionReduction(initValFn, rfn, mergeFn, this, options);
+    }
+  }
+  public Set keySet() { return new KeySet(this); }
+  public Collection values() { return new Values(this); }
+
+  //MapSetOps - these modify this map in place like HashMap's implementations.
+  @SuppressWarnings("unchecked")
+  public OpenHashMap union(Map o, BiFunction bfn) {
+    if(o instanceof OpenHashMap) {
+      final OpenHashMap om = (OpenHashMap)o;
+      final Object[] ks = om.keys;
+      final Object[] vs = om.vals;
+      for(int idx = om.nextIndex(0); idx != -1; idx = om.nextIndex(idx + 1))
+	merge(unmaskNull(ks[idx]), vs[idx], bfn);
+    } else {
+      for(Object e: o.entrySet()) {
+	final Map.Entry lf = (Map.Entry)e;
+	merge(lf.getKey(), lf.getValue(), bfn);
+      }
+    }
+    return this;
+  }
+  /**
+   * Remove the slots for which keep returns false after visiting every slot - removing
+   * while scanning could shift unvisited entries behind the scan.
+   */
+  OpenHashMap retainSlots(BiFunction<Object,Object,Object> valFn) {
+    final Object[] ks = keys;
+    final Object[] vs = vals;
+    Object[] removed = null;
+    int nRemoved = 0;
+    for(int idx = nextIndex(0); idx != -1; idx = nextIndex(idx + 1)) {
+      final Object k = unmaskNull(ks[idx]);
+      final Object newv = valFn.apply(k, vs[idx]);
+      if(newv == null) {
+	if(removed == null) removed = new Object[4];
+	else if(nRemoved == removed.length) removed = Arrays.copyOf(removed, nRemoved * 2);
+	removed[nRemoved++] = k;
+      } else {
+	vs[idx] = newv;
+      }
+    }
+    for(int idx = 0; idx < nRemoved; ++idx)
+      remove(removed[idx]);
+    return this;
+  }
+  @SuppressWarnings("unchecked")
+  public OpenHashMap intersection(Map o, BiFunction bfn) {
+    return retainSlots(new BiFunction<Object,Object,Object>() {
+	public Object apply(Object k, Object v) {
+	  final Object ov = o.get(k);
+	  return ov == null ? null : bfn.apply(v, ov);
+	}
+      });
+  }
+  public OpenHashMap intersection(Set o) {
+    return retainSlots(new BiFunction<Object,Object,Object>() {
+	public Object apply(Object k, Object v) {
+	  //Values may be null so return a marker for retained slots.
+	  return o.contains(k) ? (v == null ? NULL_KEY : v) : null;
+	}
+      }).fixNullValues();
+  }
+  OpenHashMap fixNullValues() {
+    final Object[] vs = vals;
+    for(int idx = 0; idx < vs.length; ++idx)
+      if(vs[idx] == NULL_KEY) vs[idx] = null;
+    return this;
+  }
+  public OpenHashMap difference(Collection o) {
+    for(Object k: o)
+      remove(k);
+    return this;
+  }
+  @SuppressWarnings("unchecked")
+  public OpenHashMap updateValues(BiFunction valueMap) {
+    return retainSlots(valueMap);
+  }
+  @SuppressWarnings("unchecked")
+  public OpenHashMap updateValue(Object k, Function fn) {
+    final int h = hash(k);
+    final int idx = indexOf(k, h);
+    final Object newv = fn.apply(idx >= 0 ? vals[idx] : null);
+    if(newv == null) {
+      if(idx >= 0) removeIndex(idx);
+    } else if(idx >= 0) {
+      vals[idx] = newv;
+    } else {
+      insert(k, h, idx, newv);
+    }
+    return this;
+  }
+  public OpenHashMap assoc(Object k, Object v) {
+    put(k, v);
+    return this;
+  }
+  public OpenHashMap without(Object k) {
+    remove(k);
+    return this;
+  }
+  /**
+   * Copies into a PersistentHashMap.
+   */
+  public PersistentHashMap persistent() {
+    final UnsharedHashMap rv = new UnsharedHashMap(meta, length);
+    final Object[] ks = keys;
+    final Object[] vs = vals;
+    for(int idx = nextIndex(0); idx != -1; idx = nextIndex(idx + 1))
+      rv.put(unmaskNull(ks[idx]), vs[idx]);
+    return rv.persistent();
+  }
+}
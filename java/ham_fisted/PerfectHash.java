@@ -0,0 +1,123 @@
+package ham_fisted;
+
+
+/**
+ * Minimal perfect hashing via hash and displace.  Keys are first hashed to 64 bits and
+ * split into buckets by the high bits.  Buckets are placed largest first - each bucket
+ * searches for a displacement seed that moves all of its keys into free slots while single
+ * key buckets take the remaining free slots directly.  A lookup is one bucket read and at
+ * most one remix of the hash.
+ *
+ * The displacement table holds 0 for an empty bucket, a positive seed, or -(slot+1) for a
+ * single key bucket.  Input hashes must be distinct - build throws an
+ * IllegalArgumentException for duplicates.
+ */
+public final class PerfectHash {
+  private PerfectHash(){}
+
+  static final long SEED_MUL = 0x9E3779B97F4A7C15L;
+
+  /** Murmur3 64 bit finalizer - a bijection so distinct inputs stay distinct. */
+  public static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+  static int range(long h, int n) {
+    return (int)(((h & 0xFFFFFFFFL) * n) >>> 32);
+  }
+  static int bucket(long h, int nBuckets) {
+    return range(h >>> 32, nBuckets);
+  }
+  static int seedSlot(long h, int seed, int n) {
+    return range(mix(h + seed * SEED_MUL), n);
+  }
+  /**
+   * Slot of a 64 bit hash or -1 if the hash lands in an empty bucket.  A non-negative
+   * result still requires a key comparison to reject keys that were not in the build set.
+   */
+  public static int slot(int[] disp, long h, int n) {
+    final int d = disp[bucket(h, disp.length)];
+    if(d == 0) return -1;
+    return d < 0 ? -d - 1 : seedSlot(h, d, n);
+  }
+  /**
+   * Build the displacement table for a set of distinct 64 bit hashes.  The result maps
+   * each hash to a unique slot in [0, hashes.length) via slot.
+   */
+  public static int[] build(long[] hashes) {
+    final int n = hashes.length;
+    final int nb = Math.max(1, n);
+    final int[] disp = new int[nb];
+    if(n == 0) return disp;
+    //Bucket members in compressed row form.
+    final int[] starts = new int[nb + 1];
+    for(int idx = 0; idx < n; ++idx)
+      ++starts[bucket(hashes[idx], nb) + 1];
+    int maxSize = 0;
+    for(int idx = 0; idx < nb; ++idx) {
+      maxSize = Math.max(maxSize, starts[idx+1]);
+      starts[idx+1] += starts[idx];
+    }
+    final int[] members = new int[n];
+    final int[] fill = new int[nb];
+    for(int idx = 0; idx < n; ++idx) {
+      final int b = bucket(hashes[idx], nb);
+      members[starts[b] + fill[b]++] = idx;
+    }
+    //Counting sort of buckets by descending size.
+    final int[] sizeStarts = new int[maxSize + 2];
+    for(int b = 0; b < nb; ++b)
+      ++sizeStarts[maxSize - (starts[b+1] - starts[b]) + 1];
+    for(int idx = 0; idx <= maxSize; ++idx)
+      sizeStarts[idx+1] += sizeStarts[idx];
+    final int[] order = new int[nb];
+    for(int b = 0; b < nb; ++b)
+      order[sizeStarts[maxSize - (starts[b+1] - starts[b])]++] = b;
+
+    final boolean[] taken = new boolean[n];
+    final int[] slots = new int[maxSize];
+    int freeSlot = 0;
+    for(int oidx = 0; oidx < nb; ++oidx) {
+      final int b = order[oidx];
+      final int s = starts[b];
+      final int size = starts[b+1] - s;
+      if(size == 0) break;
+      if(size == 1) {
+	while(taken[freeSlot]) ++freeSlot;
+	taken[freeSlot] = true;
+	disp[b] = -freeSlot - 1;
+	continue;
+      }
+      //Equal hashes land in the same slot for every seed.
+      for(int midx = 1; midx < size; ++midx) {
+	final long h = hashes[members[s + midx]];
+	for(int cidx = 0; cidx < midx; ++cidx)
+	  if(hashes[members[s + cidx]] == h)
+	    throw new IllegalArgumentException("Duplicate hash - perfect hash input must be distinct");
+      }
+      int seed = 1;
+      for(;; ++seed) {
+	if(seed == Integer.MAX_VALUE)
+	  throw new IllegalStateException("Failed to find perfect hash displacement");
+	int midx = 0;
+	for(; midx < size; ++midx) {
+	  final int sl = seedSlot(hashes[members[s + midx]], seed, n);
+	  if(taken[sl]) break;
+	  int cidx = 0;
+	  while(cidx < midx && slots[cidx] != sl) ++cidx;
+	  if(cidx != midx) break;
+	  slots[midx] = sl;
+	}
+	if(midx == size) break;
+      }
+      for(int midx = 0; midx < size; ++midx)
+	taken[slots[midx]] = true;
+      disp[b] = seed;
+    }
+    return disp;
+  }
+}
@@ -0,0 +1,256 @@
+package ham_fisted;
+
+
+import java.util.Map;
+import java.util.Set;
+import java.util.Iterator;
+import java.util.Collection;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.BiFunction;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ITransientMap;
+import clojure.lang.IMapEntry;
+import clojure.lang.IObj;
+import clojure.lang.IFn;
+import clojure.lang.IDeref;
+import clojure.lang.MapEntry;
+import clojure.lang.RT;
+
+
+/**
+ * Read only map backed by a minimal perfect hash of the key hashes.  Intended for maps
+ * built once and read many times - a lookup is one hash, one displacement lookup and one
+ * key comparison with no bucket chains.  Keys and values are stored densely so reductions
+ * are linear scans of two arrays.
+ *
+ * Distinct keys with identical hashes from the HashProvider cannot be separated by the
+ * perfect hash - the extra keys are stored after the perfect hash slots and chained from
+ * their slot.  Persistent modification copies into a PersistentHashMap.
+ */
+public class PerfectHashMap implements IMap, IAPersistentMap, IObj {
+  final HashProvider hp;
+  final int[] disp;
+  //Number of perfect hash slots - keys past this index share a hash with an earlier key.
+  final int nSlots;
+  final int[] hashes;
+  final Object[] keys;
+  final Object[] vals;
+  //Collision chains or null if every key has a distinct hash.
+  final int[] next;
+  final IPersistentMap meta;
+  int _hasheq = 0;
+
+  PerfectHashMap(PerfectHashMap other, IPersistentMap meta) {
+    this.hp = other.hp;
+    this.disp = other.disp;
+    this.nSlots = other.nSlots;
+    this.hashes = other.hashes;
+    this.keys = other.keys;
+    this.vals = other.vals;
+    this.next = other.next;
+    this.meta = meta;
+  }
+  public PerfectHashMap(HashProvider hp, Map data, IPersistentMap meta) {
+    this.hp = hp = hp == null ? HashProviders.defaultHashProvider : hp;
+    this.meta = meta;
+    final int n = data.size();
+    final Object[] ks = new Object[n];
+    final Object[] vs = new Object[n];
+    final int[] hs = new int[n];
+    int idx = 0;
+    for(Object e: data.entrySet()) {
+      final Map.Entry me = (Map.Entry)e;
+      ks[idx] = me.getKey();
+      vs[idx] = me.getValue();
+      hs[idx] = hp.hash(ks[idx]);
+      ++idx;
+    }
+    //First index of each hash and a chain of later indexes with the same hash.
+    final LongLongHashMap first = new LongLongHashMap(null, n);
+    final int[] dupNext = new int[n];
+    final int[] dupLast = new int[n];
+    final int[] reps = new int[n];
+    int nReps = 0;
+    for(idx = 0; idx < n; ++idx) {
+      dupNext[idx] = -1;
+      final long f = first.getLong(hs[idx], -1);
+      if(f < 0) {
+	first.putLong(hs[idx], idx);
+	dupLast[idx] = idx;
+	reps[nReps++] = idx;
+      } else {
+	dupNext[dupLast[(int)f]] = idx;
+	dupLast[(int)f] = idx;
+      }
+    }
+    final long[] h64 = new long[nReps];
+    for(idx = 0; idx < nReps; ++idx)
+      h64[idx] = PerfectHash.mix(hs[reps[idx]]);
+    this.disp = PerfectHash.build(h64);
+    this.nSlots = nReps;
+    this.hashes = new int[n];
+    this.keys = new Object[n];
+    this.vals = new Object[n];
+    this.next = nReps == n ? null : new int[n];
+    int overflow = nReps;
+    for(idx = 0; idx < nReps; ++idx) {
+      final int src = reps[idx];
+      final int sl = PerfectHash.slot(disp, h64[idx], nReps);
+      int dst = sl;
+      for(int s = src; s != -1; s = dupNext[s]) {
+	hashes[dst] = hs[s];
+	keys[dst] = ks[s];
+	vals[dst] = vs[s];
+	if(next != null) {
+	  final int nextDst = dupNext[s] == -1 ? -1 : overflow++;
+	  next[dst] = nextDst;
+	  dst = nextDst;
+	}
+      }
+    }
+  }
+  public PerfectHashMap(Map data) { this(null, data, null); }
+
+  public final int indexOf(Object k) {
+    final int h = hp.hash(k);
+    int idx = PerfectHash.slot(disp, PerfectHash.mix(h), nSlots);
+    if(idx < 0) return -1;
+    do {
+      final Object kk = keys[idx];
+      if(kk == k || (hashes[idx] == h && kk != null && k != null && hp.equals(kk, k)))
+	return idx;
+      idx = next == null ? -1 : next[idx];
+    } while(idx != -1);
+    return -1;
+  }
+  public int size() { return keys.length; }
+  public int count() { return keys.length; }
+  public IPersistentMap meta() { return meta; }
+  public PerfectHashMap withMeta(IPersistentMap m) { return new PerfectHashMap(this, m); }
+  public HashProvider hashProvider() { return hp; }
+  public int hashCode() { return hasheq(); }
+  public int hasheq() {
+    if(_hasheq == 0)
+      _hasheq = CljHash.mapHashcode(this);
+    return _hasheq;
+  }
+  public boolean equals(Object o) { return equiv(o); }
+  public boolean equiv(Object o) { return CljHash.mapEquiv(this, o); }
+  public String toString() { return RT.printString(this); }
+  public Object get(Object k) {
+    final int idx = indexOf(k);
+    return idx >= 0 ? vals[idx] : null;
+  }
+  public Object getOrDefault(Object k, Object dv) {
+    final int idx = indexOf(k);
+    return idx >= 0 ? vals[idx] : dv;
+  }
+  public boolean containsKey(Object k) { return indexOf(k) >= 0; }
+  public IMapEntry entryAt(Object k) {
+    final int idx = indexOf(k);
+    return idx >= 0 ? MapEntry.create(keys[idx], vals[idx]) : null;
+  }
+  public Object put(Object k, Object v) { throw new UnsupportedOperationException(); }
+  public void putAll(Map m) { throw new UnsupportedOperationException(); }
+  public Object remove(Object k) { throw new UnsupportedOperationException(); }
+  public void clear() { throw new UnsupportedOperationException(); }
+  public Object compute(Object k, BiFunction bfn) { throw new UnsupportedOperationException(); }
+  public Object computeIfAbsent(Object k, Function fn) { throw new UnsupportedOperationException(); }
+  public Object computeIfPresent(Object k, BiFunction bfn) { throw new UnsupportedOperationException(); }
+  public Object merge(Object k, Object v, BiFunction bfn) { throw new UnsupportedOperationException(); }
+  public void replaceAll(BiFunction bfn) { throw new UnsupportedOperationException(); }
+
+  public ITransientMap asTransient() {
+    final UnsharedHashMap rv = new UnsharedHashMap(meta, keys.length);
+    for(int idx = 0; idx < keys.length; ++idx)
+      rv.put(keys[idx], vals[idx]);
+    return rv;
+  }
+  public PersistentHashMap empty() { return PersistentHashMap.EMPTY; }
+
+  static final int ENTRIES = 0;
+  static final int KEYS = 1;
+  static final int VALS = 2;
+  Object reduceRange(int sidx, int eidx, int mode, IFn rfn, Object acc) {
+    final Object[] ks = keys;
+    final Object[] vs = vals;
+    for(int idx = sidx; idx < eidx; ++idx) {
+      switch(mode) {
+      case KEYS: acc = rfn.invoke(acc, ks[idx]); break;
+      case VALS: acc = rfn.invoke(acc, vs[idx]); break;
+      default: acc = rfn.invoke(acc, FMapEntry.create(ks[idx], vs[idx]));
+      }
+      if(RT.isReduced(acc))
+	return ((IDeref)acc).deref();
+    }
+    return acc;
+  }
+  Object parallelRangeReduction(int mode, IFn initValFn, IFn rfn, IFn mergeFn,
+				ParallelOptions options) {
+    return Reductions.parallelIndexGroupReduce(new IFnDef.LLO() {
+	public Object invokePrim(long sidx, long eidx) {
+	  return reduceRange((int)sidx, (int)eidx, mode, rfn, initValFn.invoke());
+	}
+      }, keys.length, mergeFn, options);
+  }
+  public Object reduce(IFn rfn, Object acc) {
+    return reduceRange(0, keys.length, ENTRIES, rfn, acc);
+  }
+  public Object kvreduce(IFn rfn, Object acc) {
+    final Object[] ks = keys;
+    final Object[] vs = vals;
+    for(int idx = 0; idx < ks.length; ++idx) {
+      acc = rfn.invoke(acc, ks[idx], vs[idx]);
+      if(RT.isReduced(acc))
+	return ((IDeref)acc).deref();
+    }
+    return acc;
+  }
+  public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				  ParallelOptions options) {
+    return parallelRangeReduction(ENTRIES, initValFn, rfn, mergeFn, options);
+  }
+  public Iterator iterator(Function<Map.Entry,Object> fn) {
+    return new Iterator() {
+      int idx = 0;
+      public boolean hasNext() { return idx < keys.length; }
+      public Object next() {
+	if(idx >= keys.length) throw new NoSuchElementException();
+	final int i = idx++;
+	return fn.apply(FMapEntry.create(keys[i], vals[i]));
+      }
+    };
+  }
+  public Iterator keyIterator() { return ArrayLists.toList(keys).iterator(); }
+  public Iterator valIterator() { return ArrayLists.toList(vals).iterator(); }
+  @SuppressWarnings("unchecked")
+  public Spliterator spliterator(Function<Map.Entry,Object> fn) {
+    return Spliterators.spliterator(iterator(fn), keys.length,
+				    Spliterator.DISTINCT|Spliterator.SIZED|Spliterator.IMMUTABLE);
+  }
+  public Set keySet() {
+    return new MapKeySet(this) {
+      public Object reduce(IFn rfn, Object acc) {
+	return reduceRange(0, keys.length, KEYS, rfn, acc);
+      }
+      public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				      ParallelOptions options) {
+	return parallelRangeReduction(KEYS, initValFn, rfn, mergeFn, options);
+      }
+    };
+  }
+  public Collection values() {
+    return new ValueCollection(this) {
+      public Object reduce(IFn rfn, Object acc) {
+	return reduceRange(0, keys.length, VALS, rfn, acc);
+      }
+      public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				      ParallelOptions options) {
+	return parallelRangeReduction(VALS, initValFn, rfn, mergeFn, options);
+      }
+    };
+  }
+}
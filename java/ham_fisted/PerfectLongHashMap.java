@@ -0,0 +1,325 @@
+package ham_fisted;
+
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.Iterator;
+import java.util.Collection;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.BiFunction;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ITransientMap;
+import clojure.lang.IMapEntry;
+import clojure.lang.IObj;
+import clojure.lang.IFn;
+import clojure.lang.IDeref;
+import clojure.lang.MapEntry;
+import clojure.lang.RT;
+
+
+/**
+ * Read only long keyed map backed by a minimal perfect hash - the primitive complement of
+ * PerfectHashMap.  Long keys hash through a bijective mix so every key gets its own slot
+ * and a lookup is one displacement lookup and one long comparison.
+ *
+ * Maps with numeric values have a compact little endian serialized form - a header, the
+ * displacement table, the keys and the values as longs or doubles.  readFrom accepts a
+ * memory mapped buffer and bulk copies the arrays so loading skips rebuilding the hash.
+ */
+public class PerfectLongHashMap implements IMap, IAPersistentMap, IObj {
+  public static final long MAGIC = 0x314d4c5046484d41L; //"AMHFPLM1"
+  public static final int LONG_VALUES = 0;
+  public static final int DOUBLE_VALUES = 1;
+  static final int HEADER_BYTES = 24;
+
+  final int[] disp;
+  final long[] keys;
+  final Object[] vals;
+  final IPersistentMap meta;
+  int _hasheq = 0;
+
+  PerfectLongHashMap(int[] disp, long[] keys, Object[] vals, IPersistentMap meta) {
+    this.disp = disp;
+    this.keys = keys;
+    this.vals = vals;
+    this.meta = meta;
+  }
+  public PerfectLongHashMap(Map data, IPersistentMap meta) {
+    final int n = data.size();
+    final long[] ks = new long[n];
+    final Object[] vs = new Object[n];
+    final long[] h64 = new long[n];
+    int idx = 0;
+    for(Object e: data.entrySet()) {
+      final Map.Entry me = (Map.Entry)e;
+      ks[idx] = Casts.longCast(me.getKey());
+      vs[idx] = me.getValue();
+      h64[idx] = PerfectHash.mix(ks[idx]);
+      ++idx;
+    }
+    //Distinct keys such as 1 and 1.5 may convert to the same long.
+    final long[] sorted = ks.clone();
+    Arrays.sort(sorted);
+    for(idx = 1; idx < n; ++idx)
+      if(sorted[idx] == sorted[idx-1])
+	throw new IllegalArgumentException("Duplicate key after conversion to long: " + String.valueOf(sorted[idx]));
+    this.disp = PerfectHash.build(h64);
+    this.keys = new long[n];
+    this.vals = new Object[n];
+    this.meta = meta;
+    for(idx = 0; idx < n; ++idx) {
+      final int sl = PerfectHash.slot(disp, h64[idx], n);
+      keys[sl] = ks[idx];
+      vals[sl] = vs[idx];
+    }
+  }
+  public PerfectLongHashMap(Map data) { this(data, null); }
+
+  public final int indexOf(long k) {
+    final int idx = PerfectHash.slot(disp, PerfectHash.mix(k), keys.length);
+    return idx >= 0 && keys[idx] == k ? idx : -1;
+  }
+  public int size() { return keys.length; }
+  public int count() { return keys.length; }
+  public IPersistentMap meta() { return meta; }
+  public PerfectLongHashMap withMeta(IPersistentMap m) {
+    return new PerfectLongHashMap(disp, keys, vals, m);
+  }
+  public int hashCode() { return hasheq(); }
+  public int hasheq() {
+    if(_hasheq == 0)
+      _hasheq = CljHash.mapHashcode(this);
+    return _hasheq;
+  }
+  public boolean equals(Object o) { return equiv(o); }
+  public boolean equiv(Object o) { return CljHash.mapEquiv(this, o); }
+  public String toString() { return RT.printString(this); }
+  public Object get(long k) {
+    final int idx = indexOf(k);
+    return idx >= 0 ? vals[idx] : null;
+  }
+  public Object getOrDefault(long k, Object dv) {
+    final int idx = indexOf(k);
+    return idx >= 0 ? vals[idx] : dv;
+  }
+  public boolean containsKey(long k) { return indexOf(k) >= 0; }
+  public Object get(Object k) {
+    return k instanceof Number ? get(Casts.longCast(k)) : null;
+  }
+  public Object getOrDefault(Object k, Object dv) {
+    return k instanceof Number ? getOrDefault(Casts.longCast(k), dv) : dv;
+  }
+  public boolean containsKey(Object k) {
+    return k instanceof Number && indexOf(Casts.longCast(k)) >= 0;
+  }
+  public IMapEntry entryAt(Object k) {
+    if(!(k instanceof Number)) return null;
+    final int idx = indexOf(Casts.longCast(k));
+    return idx >= 0 ? MapEntry.create(keys[idx], vals[idx]) : null;
+  }
+  public Object put(Object k, Object v) { throw new UnsupportedOperationException(); }
+  public void putAll(Map m) { throw new UnsupportedOperationException(); }
+  public Object remove(Object k) { throw new UnsupportedOperationException(); }
+  public void clear() { throw new UnsupportedOperationException(); }
+  public Object compute(Object k, BiFunction bfn) { throw new UnsupportedOperationException(); }
+  public Object computeIfAbsent(Object k, Function fn) { throw new UnsupportedOperationException(); }
+  public Object computeIfPresent(Object k, BiFunction bfn) { throw new UnsupportedOperationException(); }
+  public Object merge(Object k, Object v, BiFunction bfn) { throw new UnsupportedOperationException(); }
+  public void replaceAll(BiFunction bfn) { throw new UnsupportedOperationException(); }
+
+  public ITransientMap asTransient() {
+    final UnsharedLongHashMap rv = new UnsharedLongHashMap(meta, keys.length);
+    for(int idx = 0; idx < keys.length; ++idx)
+      rv.put(keys[idx], vals[idx]);
+    return rv;
+  }
+  public PersistentLongHashMap empty() { return PersistentLongHashMap.EMPTY; }
+
+  static final int ENTRIES = 0;
+  static final int KEYS = 1;
+  static final int VALS = 2;
+  Object reduceRange(int sidx, int eidx, int mode, IFn rfn, Object acc) {
+    final long[] ks = keys;
+    final Object[] vs = vals;
+    for(int idx = sidx; idx < eidx; ++idx) {
+      switch(mode) {
+      case KEYS: acc = rfn.invoke(acc, ks[idx]); break;
+      case VALS: acc = rfn.invoke(acc, vs[idx]); break;
+      default: acc = rfn.invoke(acc, FMapEntry.create(ks[idx], vs[idx]));
+      }
+      if(RT.isReduced(acc))
+	return ((IDeref)acc).deref();
+    }
+    return acc;
+  }
+  Object parallelRangeReduction(int mode, IFn initValFn, IFn rfn, IFn mergeFn,
+				ParallelOptions options) {
+    return Reductions.parallelIndexGroupReduce(new IFnDef.LLO() {
+	public Object invokePrim(long sidx, long eidx) {
+	  return reduceRange((int)sidx, (int)eidx, mode, rfn, initValFn.invoke());
+	}
+      }, keys.length, mergeFn, options);
+  }
+  public Object reduce(IFn rfn, Object acc) {
+    return reduceRange(0, keys.length, ENTRIES, rfn, acc);
+  }
+  public Object kvreduce(IFn rfn, Object acc) {
+    final long[] ks = keys;
+    final Object[] vs = vals;
+    if(rfn instanceof IFn.OLOO) {
+      final IFn.OLOO rf = (IFn.OLOO)rfn;
+      for(int idx = 0; idx < ks.length; ++idx) {
+	acc = rf.invokePrim(acc, ks[idx], vs[idx]);
+	if(RT.isReduced(acc))
+	  return ((IDeref)acc).deref();
+      }
+    } else {
+      for(int idx = 0; idx < ks.length; ++idx) {
+	acc = rfn.invoke(acc, ks[idx], vs[idx]);
+	if(RT.isReduced(acc))
+	  return ((IDeref)acc).deref();
+      }
+    }
+    return acc;
+  }
+  public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				  ParallelOptions options) {
+    return parallelRangeReduction(ENTRIES, initValFn, rfn, mergeFn, options);
+  }
+  public Iterator iterator(Function<Map.Entry,Object> fn) {
+    return new Iterator() {
+      int idx = 0;
+      public boolean hasNext() { return idx < keys.length; }
+      public Object next() {
+	if(idx >= keys.length) throw new NoSuchElementException();
+	final int i = idx++;
+	return fn.apply(FMapEntry.create(keys[i], vals[i]));
+      }
+    };
+  }
+  public Iterator keyIterator() { return ArrayLists.toList(keys).iterator(); }
+  public Iterator valIterator() { return ArrayLists.toList(vals).iterator(); }
+  @SuppressWarnings("unchecked")
+  public Spliterator spliterator(Function<Map.Entry,Object> fn) {
+    return Spliterators.spliterator(iterator(fn), keys.length,
+				    Spliterator.DISTINCT|Spliterator.SIZED|Spliterator.IMMUTABLE);
+  }
+  public Set keySet() {
+    return new MapKeySet(this) {
+      public boolean contains(Object k) { return containsKey(k); }
+      public Object reduce(IFn rfn, Object acc) {
+	return reduceRange(0, keys.length, KEYS, rfn, acc);
+      }
+      public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				      ParallelOptions options) {
+	return parallelRangeReduction(KEYS, initValFn, rfn, mergeFn, options);
+      }
+    };
+  }
+  public Collection values() {
+    return new ValueCollection(this) {
+      public Object reduce(IFn rfn, Object acc) {
+	return reduceRange(0, keys.length, VALS, rfn, acc);
+      }
+      public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				      ParallelOptions options) {
+	return parallelRangeReduction(VALS, initValFn, rfn, mergeFn, options);
+      }
+    };
+  }
+
+  /**
+   * Size in bytes of the serialized form.
+   */
+  public long serializedSize() {
+    return HEADER_BYTES + 4L * (disp.length + (disp.length & 1)) + 16L * keys.length;
+  }
+  /**
+   * Write the serialized form to buf at its position.  Values must all be numbers - if
+   * every value is an integer type they are stored as longs else as doubles.
+   */
+  public ByteBuffer writeTo(ByteBuffer buf) {
+    int valueType = LONG_VALUES;
+    for(Object v: vals) {
+      if(!(v instanceof Number))
+	throw new IllegalArgumentException("Serialized form requires numeric values - found: "
+					   + String.valueOf(v));
+      if(v instanceof Double || v instanceof Float)
+	valueType = DOUBLE_VALUES;
+    }
+    buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+    buf.putLong(MAGIC);
+    buf.putInt(keys.length);
+    buf.putInt(disp.length);
+    buf.putInt(valueType);
+    buf.putInt(0);
+    buf.asIntBuffer().put(disp);
+    buf.position(buf.position() + 4 * (disp.length + (disp.length & 1)));
+    buf.asLongBuffer().put(keys);
+    buf.position(buf.position() + 8 * keys.length);
+    for(Object v: vals) {
+      if(valueType == LONG_VALUES)
+	buf.putLong(Casts.longCast(v));
+      else
+	buf.putDouble(Casts.doubleCast(v));
+    }
+    return buf;
+  }
+  public void writeTo(String path) throws IOException {
+    final long sz = serializedSize();
+    if(sz > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Map too large to serialize: " + String.valueOf(sz));
+    try(RandomAccessFile f = new RandomAccessFile(path, "rw")) {
+      f.setLength(0);
+      final ByteBuffer buf = ByteBuffer.allocate((int)sz);
+      writeTo(buf);
+      buf.flip();
+      final FileChannel fc = f.getChannel();
+      while(buf.hasRemaining())
+	fc.write(buf);
+    }
+  }
+  /**
+   * Read a map from buf at its position - the buffer's position is advanced past the map.
+   */
+  public static PerfectLongHashMap readFrom(ByteBuffer buf, IPersistentMap meta) {
+    buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+    if(buf.getLong() != MAGIC)
+      throw new IllegalArgumentException("Buffer does not contain a serialized perfect long map");
+    final int n = buf.getInt();
+    final int nDisp = buf.getInt();
+    final int valueType = buf.getInt();
+    buf.getInt();
+    final int[] disp = new int[nDisp];
+    buf.asIntBuffer().get(disp);
+    buf.position(buf.position() + 4 * (nDisp + (nDisp & 1)));
+    final long[] keys = new long[n];
+    buf.asLongBuffer().get(keys);
+    buf.position(buf.position() + 8 * n);
+    final Object[] vals = new Object[n];
+    if(valueType == LONG_VALUES) {
+      for(int idx = 0; idx < n; ++idx) vals[idx] = buf.getLong();
+    } else {
+      for(int idx = 0; idx < n; ++idx) vals[idx] = buf.getDouble();
+    }
+    return new PerfectLongHashMap(disp, keys, vals, meta);
+  }
+  /**
+   * Memory map a file written by writeTo and read the map from it.
+   */
+  public static PerfectLongHashMap mmap(String path, IPersistentMap meta) throws IOException {
+    try(RandomAccessFile f = new RandomAccessFile(path, "r")) {
+      final FileChannel fc = f.getChannel();
+      return readFrom(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()), meta);
+    }
+  }
+}
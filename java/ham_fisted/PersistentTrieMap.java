@@ -0,0 +1,78 @@
+package ham_fisted;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.Collection;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ITransientMap;
+import clojure.lang.IObj;
+
+
+/**
+ * Persistent hash array mapped trie map.  Unlike PersistentHashMap which copies its
+ * table on each assoc this copies only the path from the root to the edited leaf
+ * so single-key assoc and dissoc are O(log32 N) in both time and space.
+ */
+public class PersistentTrieMap
+  extends TrieMap
+  implements IAPersistentMap, IObj {
+  public static final PersistentTrieMap EMPTY = new PersistentTrieMap((IPersistentMap)null);
+  int _hasheq = 0;
+
+  PersistentTrieMap(IPersistentMap meta) {
+    super(meta);
+  }
+  PersistentTrieMap(TrieBase data, IPersistentMap meta) {
+    super(data, meta);
+  }
+
+  public int count() { return length; }
+  public int hasheq() {
+    if (_hasheq == 0)
+      _hasheq = super.hasheq();
+    return _hasheq;
+  }
+  public PersistentTrieMap assoc(Object key, Object val) {
+    final PersistentTrieMap rv = new PersistentTrieMap(this, meta);
+    final TrieNode nr = root.assoc(rv, 0, key, hash(key), val);
+    if(nr == root) return this;
+    rv.root = nr;
+    return rv;
+  }
+  public PersistentTrieMap without(Object key) {
+    final PersistentTrieMap rv = new PersistentTrieMap(this, meta);
+    final TrieNode nr = (TrieNode)root.dissoc(rv, 0, key, hash(key));
+    if(nr == root) return this;
+    rv.root = nr;
+    return rv;
+  }
+  public ITransientMap asTransient() {
+    return new TransientTrieMap(this);
+  }
+  public PersistentTrieMap withMeta(IPersistentMap m) {
+    return new PersistentTrieMap(this, m);
+  }
+  public PersistentTrieMap empty() {
+    return meta == null ? EMPTY : new PersistentTrieMap(meta);
+  }
+  public PersistentTrieMap union(Map o, BiFunction bfn) {
+    return (PersistentTrieMap)super.union(o, bfn);
+  }
+  public PersistentTrieMap intersection(Map o, BiFunction bfn) {
+    return (PersistentTrieMap)super.intersection(o, bfn);
+  }
+  public PersistentTrieMap intersection(Set o) {
+    return (PersistentTrieMap)super.intersection(o);
+  }
+  public PersistentTrieMap difference(Collection o) {
+    return (PersistentTrieMap)super.difference(o);
+  }
+  public PersistentTrieMap updateValues(BiFunction valueMap) {
+    return (PersistentTrieMap)super.updateValues(valueMap);
+  }
+  public PersistentTrieMap updateValue(Object k, Function fn) {
+    return (PersistentTrieMap)super.updateValue(k, fn);
+  }
+}
@@ -0,0 +1,49 @@
+package ham_fisted;
+
+
+import java.util.Set;
+import java.util.Collection;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ITransientSet;
+import clojure.lang.IObj;
+
+
+/**
+ * Persistent hash array mapped trie set - conj and disj copy only the path to the
+ * edited leaf.
+ */
+public class PersistentTrieSet extends TrieSet implements IAPersistentSet, IObj {
+  public static final PersistentTrieSet EMPTY = new PersistentTrieSet((IPersistentMap)null);
+  PersistentTrieSet(IPersistentMap meta) { super(meta); }
+  PersistentTrieSet(TrieBase hb, IPersistentMap meta) { super(hb, meta); }
+  public PersistentTrieSet cons(Object k) {
+    final PersistentTrieSet rv = new PersistentTrieSet(this, meta);
+    final TrieNode nr = root.assoc(rv, 0, k, hash(k), HashSet.VALUE);
+    if(nr == root) return this;
+    rv.root = nr;
+    return rv;
+  }
+  public PersistentTrieSet disjoin(Object k) {
+    final PersistentTrieSet rv = new PersistentTrieSet(this, meta);
+    final TrieNode nr = (TrieNode)root.dissoc(rv, 0, k, hash(k));
+    if(nr == root) return this;
+    rv.root = nr;
+    return rv;
+  }
+  public PersistentTrieSet withMeta(IPersistentMap m) {
+    return new PersistentTrieSet(this, m);
+  }
+  public ITransientSet asTransient() { return new TransientTrieSet(this); }
+  public PersistentTrieSet empty() {
+    return meta == null ? EMPTY : new PersistentTrieSet(meta);
+  }
+  public PersistentTrieSet union(Collection rhs) {
+    return (PersistentTrieSet)super.union(rhs);
+  }
+  public PersistentTrieSet intersection(Set rhs) {
+    return (PersistentTrieSet)super.intersection(rhs);
+  }
+  public PersistentTrieSet difference(Set rhs) {
+    return (PersistentTrieSet)super.difference(rhs);
+  }
+}
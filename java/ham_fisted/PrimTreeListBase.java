@@ -0,0 +1,165 @@
+package ham_fisted;
+
+
+/**
+ * Radix tree shared by the primitive persistent vectors.  The layout matches TreeListBase -
+ * 32 wide branches over full leaves with a separate tail - but leaves and the tail are
+ * primitive arrays so elements are never boxed.  Nodes record the transient that owns
+ * them; operations passed that owner update owned nodes in place and copy the rest while
+ * a null owner copies every node along the path.
+ *
+ * The tail holds the elements past tailoff().  Persistent lists keep an exactly sized tail
+ * while transient lists keep a full width tail and write into it.
+ */
+public abstract class PrimTreeListBase {
+  public static final int branchWidth = TreeListBase.branchWidth;
+  public static final int shiftWidth = TreeListBase.shiftWidth;
+  static final int mask = branchWidth - 1;
+
+  public static final class Node {
+    final Object owner;
+    //Object[] of child nodes for branches, primitive array for leaves.
+    final Object arr;
+    public Node(Object owner, Object arr) { this.owner = owner; this.arr = arr; }
+  }
+  static final Node EMPTY_NODE = new Node(null, new Object[branchWidth]);
+
+  int count;
+  int shift;
+  Node root;
+  Object tail;
+
+  PrimTreeListBase(int count, int shift, Node root, Object tail) {
+    this.count = count;
+    this.shift = shift;
+    this.root = root;
+    this.tail = tail;
+  }
+  abstract Object copyLeaf(Object leaf, int len);
+
+  public int size() { return count; }
+  public int length() { return count; }
+  final int tailoff() {
+    return count < branchWidth ? 0 : ((count - 1) >>> shiftWidth) << shiftWidth;
+  }
+  /**
+   * Array holding idx - elements are at idx & 31 for both leaves and the tail.
+   */
+  final Object leafFor(int idx) {
+    if(idx >= tailoff())
+      return tail;
+    Node node = root;
+    for(int level = shift; level > 0; level -= shiftWidth)
+      node = (Node)((Object[])node.arr)[(idx >>> level) & mask];
+    return node.arr;
+  }
+  /**
+   * Copy [sidx, eidx) into the primitive array dst starting at off.
+   */
+  final void copyRange(int sidx, int eidx, Object dst, int off) {
+    while(sidx < eidx) {
+      final int local = sidx & mask;
+      final int n = Math.min(branchWidth - local, eidx - sidx);
+      System.arraycopy(leafFor(sidx), local, dst, off, n);
+      sidx += n;
+      off += n;
+    }
+  }
+  final Node editable(Node node, Object owner) {
+    if(owner != null && node.owner == owner)
+      return node;
+    return new Node(owner, node.arr instanceof Object[]
+		    ? ((Object[])node.arr).clone()
+		    : copyLeaf(node.arr, branchWidth));
+  }
+  static Node newPath(Object owner, int level, Node node) {
+    if(level == 0)
+      return node;
+    final Object[] ary = new Object[branchWidth];
+    ary[0] = newPath(owner, level - shiftWidth, node);
+    return new Node(owner, ary);
+  }
+  Node pushTail(Object owner, int level, Node parent, Node tailNode) {
+    final int subidx = ((count - 1) >>> level) & mask;
+    final Node rv = editable(parent, owner);
+    final Object[] ary = (Object[])rv.arr;
+    if(level == shiftWidth) {
+      ary[subidx] = tailNode;
+    } else {
+      final Node child = (Node)ary[subidx];
+      ary[subidx] = child != null
+	? pushTail(owner, level - shiftWidth, child, tailNode)
+	: newPath(owner, level - shiftWidth, tailNode);
+    }
+    return rv;
+  }
+  /**
+   * Move a full leaf into the tree.  Count must include the leaf's elements - the leaf
+   * holds [tailoff(), count).
+   */
+  final void pushLeaf(Object owner, Object leaf) {
+    final Node tailNode = new Node(owner, leaf);
+    if((count >>> shiftWidth) > (1 << shift)) {
+      final Object[] ary = new Object[branchWidth];
+      ary[0] = root;
+      ary[1] = newPath(owner, shift, tailNode);
+      root = new Node(owner, ary);
+      shift += shiftWidth;
+    } else {
+      root = pushTail(owner, shift, root, tailNode);
+    }
+  }
+  Node popTail(Object owner, int level, Node node, int last) {
+    final int subidx = (last >>> level) & mask;
+    if(level > shiftWidth) {
+      final Node child = popTail(owner, level - shiftWidth,
+				 (Node)((Object[])node.arr)[subidx], last);
+      if(child == null && subidx == 0)
+	return null;
+      final Node rv = editable(node, owner);
+      ((Object[])rv.arr)[subidx] = child;
+      return rv;
+    } else if(subidx == 0) {
+      return null;
+    } else {
+      final Node rv = editable(node, owner);
+      ((Object[])rv.arr)[subidx] = null;
+      return rv;
+    }
+  }
+  /**
+   * Remove the last leaf from the tree returning its array which callers must not write
+   * to.  Only valid when the tail holds one element and tailoff() is nonzero; count is
+   * unchanged.
+   */
+  final Object popLeaf(Object owner) {
+    final int last = tailoff() - 1;
+    final Object rv = leafFor(last);
+    Node newRoot = popTail(owner, shift, root, last);
+    if(newRoot == null)
+      newRoot = EMPTY_NODE;
+    if(shift > shiftWidth && ((Object[])newRoot.arr)[1] == null) {
+      newRoot = (Node)((Object[])newRoot.arr)[0];
+      shift -= shiftWidth;
+    }
+    root = newRoot;
+    return rv;
+  }
+  Node editPath(Object owner, int level, Node node, int idx) {
+    final Node rv = editable(node, owner);
+    if(level > 0) {
+      final Object[] ary = (Object[])rv.arr;
+      final int subidx = (idx >>> level) & mask;
+      ary[subidx] = editPath(owner, level - shiftWidth, (Node)ary[subidx], idx);
+    }
+    return rv;
+  }
+  /**
+   * Writable leaf array holding the tree index idx.  Nodes along the path not owned by owner
+   * are copied into the tree first.
+   */
+  final Object editLeaf(Object owner, int idx) {
+    root = editPath(owner, shift, root, idx);
+    return leafFor(idx);
+  }
+}
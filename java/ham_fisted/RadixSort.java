@@ -0,0 +1,403 @@
+package ham_fisted;
+
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+
+/**
+ * LSD radix sort for int, long, float and double data with an indirect variant that
+ * returns int indexes.  Floating point values are ordered as Double.compare orders them -
+ * -0.0 before 0.0 and NaN last - which matches comp-nan-last.  The indirect sort is stable.
+ *
+ * When the range is at least options.minN and options.parallelism is greater than 1 the
+ * data is first partitioned on its most significant non-constant byte and the buckets are
+ * then sorted independently on options.pool.
+ */
+public class RadixSort {
+  private RadixSort(){}
+
+  /**
+   * Marker for comparators whose primitive ordering is natural ordering with NaN last.
+   * Typed lists sort data with these comparators via radix sort.
+   */
+  public interface NaturalOrder {}
+
+  public static boolean isNatural(Comparator c) {
+    return c == null || c instanceof NaturalOrder;
+  }
+
+  public static final ParallelOptions defaultOptions = new ParallelOptions(100000, 64000, true);
+
+  //Below this direct sorts use Arrays.sort and indirect sorts use insertion sort.
+  static final int SMALL_N = 64;
+
+  static long doubleKey(double v) {
+    final long bits = Double.doubleToLongBits(v);
+    return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+  }
+  static double keyDouble(long k) {
+    return Double.longBitsToDouble(k < 0 ? k ^ Long.MIN_VALUE : ~k);
+  }
+  static int floatKey(float v) {
+    final int bits = Float.floatToIntBits(v);
+    return bits < 0 ? ~bits : bits ^ Integer.MIN_VALUE;
+  }
+  static float keyFloat(int k) {
+    return Float.intBitsToFloat(k < 0 ? k ^ Integer.MIN_VALUE : ~k);
+  }
+
+  static boolean parallel(int len, ParallelOptions options) {
+    return options != null && options.parallelism > 1 && len >= options.minN;
+  }
+
+  static void awaitAll(ArrayList<Future<Object>> futures) {
+    try {
+      for(Future<Object> f: futures)
+	f.get();
+    } catch(InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch(ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  //Keys are compared as unsigned values.  When idx is non-null it is permuted along
+  //with the keys.
+
+  static int[][] longHistograms(long[] keys, int off, int len) {
+    final int[][] counts = new int[8][256];
+    final int end = off + len;
+    for(int i = off; i < end; ++i) {
+      final long k = keys[i];
+      for(int p = 0; p < 8; ++p)
+	++counts[p][(int)(k >>> (p * 8)) & 0xFF];
+    }
+    return counts;
+  }
+
+  static void insertionSort(long[] keys, int[] idx, int off, int len) {
+    final int end = off + len;
+    for(int i = off + 1; i < end; ++i) {
+      final long k = keys[i];
+      final int ix = idx[i];
+      int j = i - 1;
+      for(; j >= off && Long.compareUnsigned(keys[j], k) > 0; --j) {
+	keys[j+1] = keys[j];
+	idx[j+1] = idx[j];
+      }
+      keys[j+1] = k;
+      idx[j+1] = ix;
+    }
+  }
+
+  /**
+   * Sort keys[off,off+len) on the digits below nDigits using ks/is as scratch.  The
+   * result is always left in keys/idx.
+   */
+  static void lsd(long[] keys, int[] idx, long[] ks, int[] is, int off, int len,
+		  int nDigits) {
+    if(idx != null && len < SMALL_N) {
+      insertionSort(keys, idx, off, len);
+      return;
+    }
+    final int[][] counts = longHistograms(keys, off, len);
+    long[] src = keys, dst = ks;
+    int[] isrc = idx, idst = is;
+    final int end = off + len;
+    for(int p = 0; p < nDigits; ++p) {
+      final int shift = p * 8;
+      final int[] c = counts[p];
+      if(c[(int)(src[off] >>> shift) & 0xFF] == len)
+	continue;
+      final int[] pos = new int[256];
+      int sum = off;
+      for(int d = 0; d < 256; ++d) {
+	pos[d] = sum;
+	sum += c[d];
+      }
+      if(isrc == null) {
+	for(int i = off; i < end; ++i) {
+	  final long k = src[i];
+	  dst[pos[(int)(k >>> shift) & 0xFF]++] = k;
+	}
+      } else {
+	for(int i = off; i < end; ++i) {
+	  final long k = src[i];
+	  final int dp = pos[(int)(k >>> shift) & 0xFF]++;
+	  dst[dp] = k;
+	  idst[dp] = isrc[i];
+	}
+      }
+      long[] t = src; src = dst; dst = t;
+      int[] it = isrc; isrc = idst; idst = it;
+    }
+    if(src != keys) {
+      System.arraycopy(src, off, keys, off, len);
+      if(idx != null)
+	System.arraycopy(isrc, off, idx, off, len);
+    }
+  }
+
+  static void sortKeys(long[] keys, int[] idx, int off, int len, ParallelOptions options) {
+    if(len < 2) return;
+    final long[] ks = new long[keys.length];
+    final int[] is = idx != null ? new int[idx.length] : null;
+    if(!parallel(len, options)) {
+      lsd(keys, idx, ks, is, off, len, 8);
+      return;
+    }
+    final int[][] counts = longHistograms(keys, off, len);
+    int p = 7;
+    for(; p >= 0 && counts[p][(int)(keys[off] >>> (p * 8)) & 0xFF] == len; --p);
+    if(p < 0) return;
+    final int shift = p * 8;
+    final int[] c = counts[p];
+    final int[] pos = new int[257];
+    for(int d = 0; d < 256; ++d)
+      pos[d+1] = pos[d] + c[d];
+    final int[] wpos = Arrays.copyOf(pos, 256);
+    final int end = off + len;
+    for(int i = off; i < end; ++i) {
+      final long k = keys[i];
+      final int dp = off + wpos[(int)(k >>> shift) & 0xFF]++;
+      ks[dp] = k;
+      if(idx != null) is[dp] = idx[i];
+    }
+    final int nDigits = p;
+    final int groupSize = Math.max(SMALL_N, len / (options.parallelism * 4));
+    final ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+    int d = 0;
+    while(d < 256) {
+      final int sd = d;
+      for(; d < 256 && (pos[d+1] - pos[sd]) < groupSize; ++d);
+      final int ed = Math.min(256, d + 1);
+      d = ed;
+      futures.add(options.pool.submit(new Callable<Object>() {
+	  public Object call() {
+	    for(int bd = sd; bd < ed; ++bd) {
+	      final int bs = off + pos[bd];
+	      final int bl = pos[bd+1] - pos[bd];
+	      if(bl == 0) continue;
+	      //Data lives in the scratch arrays so sort there and copy the bucket back.
+	      lsd(ks, is, keys, idx, bs, bl, nDigits);
+	      System.arraycopy(ks, bs, keys, bs, bl);
+	      if(idx != null)
+		System.arraycopy(is, bs, idx, bs, bl);
+	    }
+	    return null;
+	  }
+	}));
+    }
+    awaitAll(futures);
+  }
+
+  static int[][] intHistograms(int[] keys, int off, int len) {
+    final int[][] counts = new int[4][256];
+    final int end = off + len;
+    for(int i = off; i < end; ++i) {
+      final int k = keys[i];
+      ++counts[0][k & 0xFF];
+      ++counts[1][(k >>> 8) & 0xFF];
+      ++counts[2][(k >>> 16) & 0xFF];
+      ++counts[3][k >>> 24];
+    }
+    return counts;
+  }
+
+  static void insertionSort(int[] keys, int[] idx, int off, int len) {
+    final int end = off + len;
+    for(int i = off + 1; i < end; ++i) {
+      final int k = keys[i];
+      final int ix = idx[i];
+      int j = i - 1;
+      for(; j >= off && Integer.compareUnsigned(keys[j], k) > 0; --j) {
+	keys[j+1] = keys[j];
+	idx[j+1] = idx[j];
+      }
+      keys[j+1] = k;
+      idx[j+1] = ix;
+    }
+  }
+
+  static void lsd(int[] keys, int[] idx, int[] ks, int[] is, int off, int len,
+		  int nDigits) {
+    if(idx != null && len < SMALL_N) {
+      insertionSort(keys, idx, off, len);
+      return;
+    }
+    final int[][] counts = intHistograms(keys, off, len);
+    int[] src = keys, dst = ks;
+    int[] isrc = idx, idst = is;
+    final int end = off + len;
+    for(int p = 0; p < nDigits; ++p) {
+      final int shift = p * 8;
+      final int[] c = counts[p];
+      if(c[(src[off] >>> shift) & 0xFF] == len)
+	continue;
+      final int[] pos = new int[256];
+      int sum = off;
+      for(int d = 0; d < 256; ++d) {
+	pos[d] = sum;
+	sum += c[d];
+      }
+      if(isrc == null) {
+	for(int i = off; i < end; ++i) {
+	  final int k = src[i];
+	  dst[pos[(k >>> shift) & 0xFF]++] = k;
+	}
+      } else {
+	for(int i = off; i < end; ++i) {
+	  final int k = src[i];
+	  final int dp = pos[(k >>> shift) & 0xFF]++;
+	  dst[dp] = k;
+	  idst[dp] = isrc[i];
+	}
+      }
+      int[] t = src; src = dst; dst = t;
+      int[] it = isrc; isrc = idst; idst = it;
+    }
+    if(src != keys) {
+      System.arraycopy(src, off, keys, off, len);
+      if(idx != null)
+	System.arraycopy(isrc, off, idx, off, len);
+    }
+  }
+
+  static void sortKeys(int[] keys, int[] idx, int off, int len, ParallelOptions options) {
+    if(len < 2) return;
+    final int[] ks = new int[keys.length];
+    final int[] is = idx != null ? new int[idx.length] : null;
+    if(!parallel(len, options)) {
+      lsd(keys, idx, ks, is, off, len, 4);
+      return;
+    }
+    final int[][] counts = intHistograms(keys, off, len);
+    int p = 3;
+    for(; p >= 0 && counts[p][(keys[off] >>> (p * 8)) & 0xFF] == len; --p);
+    if(p < 0) return;
+    final int shift = p * 8;
+    final int[] c = counts[p];
+    final int[] pos = new int[257];
+    for(int d = 0; d < 256; ++d)
+      pos[d+1] = pos[d] + c[d];
+    final int[] wpos = Arrays.copyOf(pos, 256);
+    final int end = off + len;
+    for(int i = off; i < end; ++i) {
+      final int k = keys[i];
+      final int dp = off + wpos[(k >>> shift) & 0xFF]++;
+      ks[dp] = k;
+      if(idx != null) is[dp] = idx[i];
+    }
+    final int nDigits = p;
+    final int groupSize = Math.max(SMALL_N, len / (options.parallelism * 4));
+    final ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+    int d = 0;
+    while(d < 256) {
+      final int sd = d;
+      for(; d < 256 && (pos[d+1] - pos[sd]) < groupSize; ++d);
+      final int ed = Math.min(256, d + 1);
+      d = ed;
+      futures.add(options.pool.submit(new Callable<Object>() {
+	  public Object call() {
+	    for(int bd = sd; bd < ed; ++bd) {
+	      final int bs = off + pos[bd];
+	      final int bl = pos[bd+1] - pos[bd];
+	      if(bl == 0) continue;
+	      lsd(ks, is, keys, idx, bs, bl, nDigits);
+	      System.arraycopy(ks, bs, keys, bs, bl);
+	      if(idx != null)
+		System.arraycopy(is, bs, idx, bs, bl);
+	    }
+	    return null;
+	  }
+	}));
+    }
+    awaitAll(futures);
+  }
+
+  public static void sort(int[] data, int sidx, int eidx, ParallelOptions options) {
+    final int len = eidx - sidx;
+    if(len < SMALL_N) {
+      Arrays.sort(data, sidx, eidx);
+      return;
+    }
+    final int[] keys = new int[len];
+    for(int i = 0; i < len; ++i) keys[i] = data[i+sidx] ^ Integer.MIN_VALUE;
+    sortKeys(keys, null, 0, len, options);
+    for(int i = 0; i < len; ++i) data[i+sidx] = keys[i] ^ Integer.MIN_VALUE;
+  }
+  public static void sort(long[] data, int sidx, int eidx, ParallelOptions options) {
+    final int len = eidx - sidx;
+    if(len < SMALL_N) {
+      Arrays.sort(data, sidx, eidx);
+      return;
+    }
+    final long[] keys = new long[len];
+    for(int i = 0; i < len; ++i) keys[i] = data[i+sidx] ^ Long.MIN_VALUE;
+    sortKeys(keys, null, 0, len, options);
+    for(int i = 0; i < len; ++i) data[i+sidx] = keys[i] ^ Long.MIN_VALUE;
+  }
+  public static void sort(float[] data, int sidx, int eidx, ParallelOptions options) {
+    final int len = eidx - sidx;
+    if(len < SMALL_N) {
+      Arrays.sort(data, sidx, eidx);
+      return;
+    }
+    final int[] keys = new int[len];
+    for(int i = 0; i < len; ++i) keys[i] = floatKey(data[i+sidx]);
+    sortKeys(keys, null, 0, len, options);
+    for(int i = 0; i < len; ++i) data[i+sidx] = keyFloat(keys[i]);
+  }
+  public static void sort(double[] data, int sidx, int eidx, ParallelOptions options) {
+    final int len = eidx - sidx;
+    if(len < SMALL_N) {
+      Arrays.sort(data, sidx, eidx);
+      return;
+    }
+    final long[] keys = new long[len];
+    for(int i = 0; i < len; ++i) keys[i] = doubleKey(data[i+sidx]);
+    sortKeys(keys, null, 0, len, options);
+    for(int i = 0; i < len; ++i) data[i+sidx] = keyDouble(keys[i]);
+  }
+
+  /**
+   * Return the indexes, relative to sidx, that read data[sidx,eidx) in sorted order.
+   */
+  public static int[] argsort(int[] data, int sidx, int eidx, ParallelOptions options) {
+    final int len = eidx - sidx;
+    final int[] keys = new int[len];
+    for(int i = 0; i < len; ++i) keys[i] = data[i+sidx] ^ Integer.MIN_VALUE;
+    final int[] idx = ArrayLists.iarange(0, len, 1);
+    sortKeys(keys, idx, 0, len, options);
+    return idx;
+  }
+  public static int[] argsort(long[] data, int sidx, int eidx, ParallelOptions options) {
+    final int len = eidx - sidx;
+    final long[] keys = new long[len];
+    for(int i = 0; i < len; ++i) keys[i] = data[i+sidx] ^ Long.MIN_VALUE;
+    final int[] idx = ArrayLists.iarange(0, len, 1);
+    sortKeys(keys, idx, 0, len, options);
+    return idx;
+  }
+  public static int[] argsort(float[] data, int sidx, int eidx, ParallelOptions options) {
+    final int len = eidx - sidx;
+    final int[] keys = new int[len];
+    for(int i = 0; i < len; ++i) keys[i] = floatKey(data[i+sidx]);
+    final int[] idx = ArrayLists.iarange(0, len, 1);
+    sortKeys(keys, idx, 0, len, options);
+    return idx;
+  }
+  public static int[] argsort(double[] data, int sidx, int eidx, ParallelOptions options) {
+    final int len = eidx - sidx;
+    final long[] keys = new long[len];
+    for(int i = 0; i < len; ++i) keys[i] = doubleKey(data[i+sidx]);
+    final int[] idx = ArrayLists.iarange(0, len, 1);
+    sortKeys(keys, idx, 0, len, options);
+    return idx;
+  }
+}
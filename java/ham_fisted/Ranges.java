@@ -27,7 +27,10 @@ public class Ranges {
       start = s;
       end = e;
       step = _step;
-      nElems = (e - s)/_step;
+      //Round away from start so a partial last step is included - written so e - s is
+      //never extended past its own magnitude.
+      nElems = _step > 0 ? (e > s ? (e - s - 1)/_step + 1 : (e - s)/_step)
+	: (e < s ? (e - s + 1)/_step + 1 : (e - s)/_step);
       if (nElems < 0)
 	throw new RuntimeException("Invalid Range - start: " + String.valueOf(s)
 				   + " end: " + String.valueOf(e) + " step: " +
@@ -136,6 +136,15 @@ public class Reductions {
       }, l.size(), mergeFn, options);
   }
 
+  public static Object parallelLongIndexedReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+						    LongIndexedList l, ParallelOptions options) {
+    return parallelIndexGroupReduce( new IFnDef.LLO() {
+	public Object invokePrim(long sidx, long eidx) {
+	  return serialReduction(rfn, initValFn.invoke(), l.subList(sidx, eidx));
+	}
+      }, l.lsize(), mergeFn, options);
+  }
+
   public static class ReduceConsumer implements Consumer, IDeref {
     Object init;
     public final IFn rfn;
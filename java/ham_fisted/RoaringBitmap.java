@@ -0,0 +1,933 @@
+package ham_fisted;
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+import clojure.lang.RT;
+
+
+/**
+ * Compressed set of unsigned 32 bit integers.  Values are split into a 16 bit key and a 16
+ * bit low word; each key present in the set owns a container of low words which is a sorted
+ * char array when sparse, a 65536 bit bitmap when dense or a list of runs when the values
+ * are clustered - whichever is smallest.
+ *
+ * Set operations work a container at a time and containers present in only one input are
+ * shared with the result, so a union or intersection costs time proportional to the
+ * containers involved instead of the range of the values.  As with the tree lists
+ * containers record the bitmap that owns them; mutation through addLong and the in place
+ * operations copies containers not owned by this bitmap.  Sharing a bitmap's containers
+ * hands it a new owner so none of its containers are updated in place afterwards.
+ */
+public class RoaringBitmap extends AbstractSet<Object> implements ITypedReduce<Object> {
+  static final int arrayMax = 4096;
+  static final int nWords = 1024;
+  static final int chunkSize = 1 << 16;
+  public static final long maxValue = 0xFFFFFFFFL;
+
+  static abstract class Container {
+    final Object owner;
+    Container(Object owner) { this.owner = owner; }
+    abstract int cardinality();
+    abstract boolean contains(int v);
+    /**
+     * Container including v - this container if it is owned by owner and can hold v.
+     */
+    abstract Container add(Object owner, int v);
+    abstract Container remove(Object owner, int v);
+    abstract int min();
+    abstract int max();
+    //Smallest value >= v or -1.
+    abstract int next(int v);
+    //[s,e) with s < e <= chunkSize.
+    abstract boolean containsRange(int s, int e);
+    abstract boolean intersectsRange(int s, int e);
+    abstract void orInto(long[] words);
+    abstract Object reduce(IFn.OLO rfn, long high, Object acc);
+    abstract int serializedSize();
+    abstract void serialize(ByteBuffer bb);
+    Container orInPlace(Object owner, Container other) { return or(owner, this, other); }
+    long[] toWords() {
+      final long[] rv = new long[nWords];
+      orInto(rv);
+      return rv;
+    }
+    boolean isFull() { return cardinality() == chunkSize; }
+  }
+
+  static final class ArrayContainer extends Container {
+    char[] data;
+    int n;
+    ArrayContainer(Object owner, char[] data, int n) {
+      super(owner);
+      this.data = data;
+      this.n = n;
+    }
+    int cardinality() { return n; }
+    int indexOf(int v) { return Arrays.binarySearch(data, 0, n, (char)v); }
+    boolean contains(int v) { return indexOf(v) >= 0; }
+    ArrayContainer editable(Object owner, int cap) {
+      if(owner != null && owner == this.owner) {
+	if(data.length < cap)
+	  data = Arrays.copyOf(data, Math.min(arrayMax, Math.max(cap, data.length * 2)));
+	return this;
+      }
+      return new ArrayContainer(owner, Arrays.copyOf(data, Math.max(cap, n)), n);
+    }
+    Container add(Object owner, int v) {
+      final int idx = indexOf(v);
+      if(idx >= 0) return this;
+      if(n == arrayMax) {
+	final long[] words = toWords();
+	words[v >>> 6] |= 1L << v;
+	return new BitmapContainer(owner, words, n + 1);
+      }
+      final int ins = -idx - 1;
+      final ArrayContainer c = editable(owner, n + 1);
+      System.arraycopy(c.data, ins, c.data, ins + 1, c.n - ins);
+      c.data[ins] = (char)v;
+      c.n++;
+      return c;
+    }
+    Container remove(Object owner, int v) {
+      final int idx = indexOf(v);
+      if(idx < 0) return this;
+      final ArrayContainer c = editable(owner, n);
+      System.arraycopy(c.data, idx + 1, c.data, idx, c.n - idx - 1);
+      c.n--;
+      return c;
+    }
+    int min() { return data[0]; }
+    int max() { return data[n-1]; }
+    int next(int v) {
+      final int idx = indexOf(v);
+      if(idx >= 0) return v;
+      final int ins = -idx - 1;
+      return ins < n ? data[ins] : -1;
+    }
+    boolean containsRange(int s, int e) {
+      final int idx = indexOf(s);
+      final int last = idx + (e - s - 1);
+      return idx >= 0 && last < n && data[last] == e - 1;
+    }
+    boolean intersectsRange(int s, int e) {
+      final int v = next(s);
+      return v >= 0 && v < e;
+    }
+    void orInto(long[] words) {
+      for(int idx = 0; idx < n; ++idx) {
+	final int v = data[idx];
+	words[v >>> 6] |= 1L << v;
+      }
+    }
+    Object reduce(IFn.OLO rfn, long high, Object acc) {
+      for(int idx = 0; idx < n; ++idx) {
+	acc = rfn.invokePrim(acc, high | data[idx]);
+	if(RT.isReduced(acc)) return acc;
+      }
+      return acc;
+    }
+    int serializedSize() { return 2 + 2 * n; }
+    void serialize(ByteBuffer bb) {
+      bb.putChar((char)(n - 1));
+      for(int idx = 0; idx < n; ++idx)
+	bb.putChar(data[idx]);
+    }
+  }
+
+  static final class BitmapContainer extends Container {
+    final long[] words;
+    int card;
+    BitmapContainer(Object owner, long[] words, int card) {
+      super(owner);
+      this.words = words;
+      this.card = card;
+    }
+    int cardinality() { return card; }
+    boolean contains(int v) { return (words[v >>> 6] & (1L << v)) != 0; }
+    BitmapContainer editable(Object owner) {
+      return owner != null && owner == this.owner ? this
+	: new BitmapContainer(owner, words.clone(), card);
+    }
+    Container add(Object owner, int v) {
+      if(contains(v)) return this;
+      final BitmapContainer c = editable(owner);
+      c.words[v >>> 6] |= 1L << v;
+      c.card++;
+      return c;
+    }
+    Container remove(Object owner, int v) {
+      if(!contains(v)) return this;
+      if(card - 1 <= arrayMax) {
+	final long[] w = words.clone();
+	w[v >>> 6] &= ~(1L << v);
+	return arrayFromWords(owner, w, card - 1);
+      }
+      final BitmapContainer c = editable(owner);
+      c.words[v >>> 6] &= ~(1L << v);
+      c.card--;
+      return c;
+    }
+    int min() { return next(0); }
+    int max() {
+      for(int idx = nWords - 1; idx >= 0; --idx)
+	if(words[idx] != 0)
+	  return idx * 64 + 63 - Long.numberOfLeadingZeros(words[idx]);
+      return -1;
+    }
+    int next(int v) { return nextSetBit(words, v); }
+    boolean containsRange(int s, int e) { return wordsContainRange(words, s, e); }
+    boolean intersectsRange(int s, int e) {
+      final int v = next(s);
+      return v >= 0 && v < e;
+    }
+    void orInto(long[] w) {
+      final long[] d = words;
+      for(int idx = 0; idx < nWords; ++idx)
+	w[idx] |= d[idx];
+    }
+    Container orInPlace(Object owner, Container other) {
+      if(owner == null || owner != this.owner)
+	return or(owner, this, other);
+      other.orInto(words);
+      card = RoaringBitmap.cardinality(words);
+      return this;
+    }
+    Object reduce(IFn.OLO rfn, long high, Object acc) {
+      for(int idx = 0; idx < nWords; ++idx) {
+	long w = words[idx];
+	while(w != 0) {
+	  acc = rfn.invokePrim(acc, high | (idx * 64 + Long.numberOfTrailingZeros(w)));
+	  if(RT.isReduced(acc)) return acc;
+	  w &= w - 1;
+	}
+      }
+      return acc;
+    }
+    int serializedSize() { return 8 * nWords; }
+    void serialize(ByteBuffer bb) {
+      for(int idx = 0; idx < nWords; ++idx)
+	bb.putLong(words[idx]);
+    }
+  }
+
+  //Runs are (start, length - 1) pairs in ascending order separated by at least one value.
+  static final class RunContainer extends Container {
+    char[] runs;
+    int nRuns;
+    int card;
+    RunContainer(Object owner, char[] runs, int nRuns, int card) {
+      super(owner);
+      this.runs = runs;
+      this.nRuns = nRuns;
+      this.card = card;
+    }
+    static RunContainer range(Object owner, int s, int e) {
+      return new RunContainer(owner, new char[] {(char)s, (char)(e - s - 1)}, 1, e - s);
+    }
+    int cardinality() { return card; }
+    int start(int idx) { return runs[2*idx]; }
+    int end(int idx) { return runs[2*idx] + runs[2*idx+1]; }
+    int lastStartLE(int v) {
+      int lo = 0, hi = nRuns - 1, rv = -1;
+      while(lo <= hi) {
+	final int mid = (lo + hi) >>> 1;
+	if(runs[2*mid] <= v) {
+	  rv = mid;
+	  lo = mid + 1;
+	} else {
+	  hi = mid - 1;
+	}
+      }
+      return rv;
+    }
+    boolean contains(int v) {
+      final int idx = lastStartLE(v);
+      return idx >= 0 && v <= end(idx);
+    }
+    RunContainer editable(Object owner, int cap) {
+      if(owner != null && owner == this.owner) {
+	if(runs.length < 2 * cap)
+	  runs = Arrays.copyOf(runs, Math.max(2 * cap, runs.length * 2));
+	return this;
+      }
+      return new RunContainer(owner, Arrays.copyOf(runs, 2 * Math.max(cap, nRuns)), nRuns, card);
+    }
+    Container add(Object owner, int v) {
+      final int idx = lastStartLE(v);
+      if(idx >= 0 && v <= end(idx)) return this;
+      final RunContainer c = editable(owner, nRuns + 1);
+      final char[] r = c.runs;
+      final int nxt = idx + 1;
+      final boolean joinPrev = idx >= 0 && c.end(idx) + 1 == v;
+      final boolean joinNext = nxt < c.nRuns && c.start(nxt) == v + 1;
+      if(joinPrev && joinNext) {
+	r[2*idx+1] = (char)(c.end(nxt) - c.start(idx));
+	System.arraycopy(r, 2*(nxt+1), r, 2*nxt, 2*(c.nRuns - nxt - 1));
+	c.nRuns--;
+      } else if(joinPrev) {
+	r[2*idx+1]++;
+      } else if(joinNext) {
+	r[2*nxt] = (char)v;
+	r[2*nxt+1]++;
+      } else {
+	System.arraycopy(r, 2*nxt, r, 2*(nxt+1), 2*(c.nRuns - nxt));
+	r[2*nxt] = (char)v;
+	r[2*nxt+1] = 0;
+	c.nRuns++;
+      }
+      c.card++;
+      //Scattered adds fragment runs - switch to the array or bitmap once they are smaller.
+      if(4 * c.nRuns >= Math.min(2 * c.card, 8 * nWords)) {
+	final long[] w = c.toWords();
+	return c.card <= arrayMax ? arrayFromWords(owner, w, c.card)
+	  : new BitmapContainer(owner, w, c.card);
+      }
+      return c;
+    }
+    Container remove(Object owner, int v) {
+      if(!contains(v)) return this;
+      final long[] w = toWords();
+      w[v >>> 6] &= ~(1L << v);
+      return fromWords(owner, w);
+    }
+    int min() { return start(0); }
+    int max() { return end(nRuns - 1); }
+    int next(int v) {
+      final int idx = lastStartLE(v);
+      if(idx >= 0 && v <= end(idx)) return v;
+      return idx + 1 < nRuns ? start(idx + 1) : -1;
+    }
+    boolean containsRange(int s, int e) {
+      final int idx = lastStartLE(s);
+      return idx >= 0 && e - 1 <= end(idx);
+    }
+    boolean intersectsRange(int s, int e) {
+      final int idx = lastStartLE(e - 1);
+      return idx >= 0 && end(idx) >= s;
+    }
+    void orInto(long[] words) {
+      for(int idx = 0; idx < nRuns; ++idx)
+	setRange(words, start(idx), end(idx) + 1);
+    }
+    Object reduce(IFn.OLO rfn, long high, Object acc) {
+      for(int idx = 0; idx < nRuns; ++idx) {
+	final int e = end(idx);
+	for(int v = start(idx); v <= e; ++v) {
+	  acc = rfn.invokePrim(acc, high | v);
+	  if(RT.isReduced(acc)) return acc;
+	}
+      }
+      return acc;
+    }
+    int serializedSize() { return 2 + 4 * nRuns; }
+    void serialize(ByteBuffer bb) {
+      bb.putChar((char)(nRuns - 1));
+      for(int idx = 0; idx < 2 * nRuns; ++idx)
+	bb.putChar(runs[idx]);
+    }
+  }
+
+  static int cardinality(long[] words) {
+    int rv = 0;
+    for(int idx = 0; idx < nWords; ++idx)
+      rv += Long.bitCount(words[idx]);
+    return rv;
+  }
+  static int nextSetBit(long[] words, int v) {
+    int widx = v >>> 6;
+    if(widx >= nWords) return -1;
+    long w = words[widx] & (-1L << v);
+    while(true) {
+      if(w != 0) return widx * 64 + Long.numberOfTrailingZeros(w);
+      if(++widx == nWords) return -1;
+      w = words[widx];
+    }
+  }
+  //Set bits [s,e)
+  static void setRange(long[] words, int s, int e) {
+    if(s >= e) return;
+    final int sw = s >>> 6, ew = (e - 1) >>> 6;
+    final long smask = -1L << s, emask = -1L >>> -e;
+    if(sw == ew) {
+      words[sw] |= smask & emask;
+    } else {
+      words[sw] |= smask;
+      for(int idx = sw + 1; idx < ew; ++idx)
+	words[idx] = -1L;
+      words[ew] |= emask;
+    }
+  }
+  static boolean wordsContainRange(long[] words, int s, int e) {
+    final int sw = s >>> 6, ew = (e - 1) >>> 6;
+    final long smask = -1L << s, emask = -1L >>> -e;
+    if(sw == ew)
+      return (words[sw] & smask & emask) == (smask & emask);
+    if((words[sw] & smask) != smask || (words[ew] & emask) != emask)
+      return false;
+    for(int idx = sw + 1; idx < ew; ++idx)
+      if(words[idx] != -1L) return false;
+    return true;
+  }
+  static int countRuns(long[] words) {
+    int rv = 0;
+    long carry = 0;
+    for(int idx = 0; idx < nWords; ++idx) {
+      final long w = words[idx];
+      rv += Long.bitCount(w & ~((w << 1) | carry));
+      carry = w >>> 63;
+    }
+    return rv;
+  }
+  static Container arrayFromWords(Object owner, long[] words, int card) {
+    final char[] data = new char[card];
+    int n = 0;
+    for(int idx = 0; idx < nWords; ++idx) {
+      long w = words[idx];
+      while(w != 0) {
+	data[n++] = (char)(idx * 64 + Long.numberOfTrailingZeros(w));
+	w &= w - 1;
+      }
+    }
+    return new ArrayContainer(owner, data, card);
+  }
+  static Container runsFromWords(Object owner, long[] words, int nRuns, int card) {
+    final char[] runs = new char[2 * nRuns];
+    int r = 0;
+    int v = nextSetBit(words, 0);
+    while(v >= 0) {
+      int e = v;
+      //Skip to the end of the run a word at a time.
+      while(true) {
+	final int widx = e >>> 6;
+	final long inv = ~words[widx] & (-1L << e);
+	if(inv != 0) {
+	  e = widx * 64 + Long.numberOfTrailingZeros(inv);
+	  break;
+	}
+	e = (widx + 1) * 64;
+	if(e == chunkSize) break;
+      }
+      runs[r++] = (char)v;
+      runs[r++] = (char)(e - v - 1);
+      v = e == chunkSize ? -1 : nextSetBit(words, e);
+    }
+    return new RunContainer(owner, runs, nRuns, card);
+  }
+  /**
+   * Smallest container holding the set bits of words or null if there are none.  words
+   * may become the container's storage.
+   */
+  static Container fromWords(Object owner, long[] words) {
+    final int card = cardinality(words);
+    if(card == 0) return null;
+    final int nRuns = countRuns(words);
+    final int runSize = 4 * nRuns;
+    if(runSize < Math.min(2 * card, 8 * nWords))
+      return runsFromWords(owner, words, nRuns, card);
+    return card <= arrayMax ? arrayFromWords(owner, words, card)
+      : new BitmapContainer(owner, words, card);
+  }
+  /**
+   * Smallest container holding the sorted values data[0,n) or null if n is 0.
+   */
+  static Container fromArray(Object owner, char[] data, int n) {
+    if(n == 0) return null;
+    int nRuns = 1;
+    for(int idx = 1; idx < n; ++idx)
+      if(data[idx] != data[idx-1] + 1) ++nRuns;
+    if(4 * nRuns < Math.min(2 * n, 8 * nWords)) {
+      final char[] runs = new char[2 * nRuns];
+      int r = 0;
+      int s = data[0];
+      for(int idx = 1; idx <= n; ++idx) {
+	if(idx == n || data[idx] != data[idx-1] + 1) {
+	  runs[r++] = (char)s;
+	  runs[r++] = (char)(data[idx-1] - s);
+	  if(idx < n) s = data[idx];
+	}
+      }
+      return new RunContainer(owner, runs, nRuns, n);
+    }
+    if(n <= arrayMax)
+      return new ArrayContainer(owner, data, n);
+    final long[] words = new long[nWords];
+    for(int idx = 0; idx < n; ++idx)
+      words[data[idx] >>> 6] |= 1L << data[idx];
+    return new BitmapContainer(owner, words, n);
+  }
+
+  static final int OR = 0;
+  static final int AND = 1;
+  static final int ANDNOT = 2;
+  static final int XOR = 3;
+
+  static Container or(Object owner, Container a, Container b) {
+    if(a.isFull()) return a;
+    if(b.isFull()) return b;
+    if(a instanceof ArrayContainer && b instanceof ArrayContainer
+       && a.cardinality() + b.cardinality() <= arrayMax) {
+      final ArrayContainer l = (ArrayContainer)a, r = (ArrayContainer)b;
+      final char[] rv = new char[l.n + r.n];
+      int li = 0, ri = 0, n = 0;
+      while(li < l.n && ri < r.n) {
+	final char lv = l.data[li], rvv = r.data[ri];
+	if(lv < rvv) { rv[n++] = lv; ++li; }
+	else if(rvv < lv) { rv[n++] = rvv; ++ri; }
+	else { rv[n++] = lv; ++li; ++ri; }
+      }
+      while(li < l.n) rv[n++] = l.data[li++];
+      while(ri < r.n) rv[n++] = r.data[ri++];
+      return fromArray(owner, rv, n);
+    }
+    final long[] w = a.toWords();
+    b.orInto(w);
+    return fromWords(owner, w);
+  }
+  static Container filter(Object owner, ArrayContainer a, Container b, boolean keep) {
+    final char[] rv = new char[a.n];
+    int n = 0;
+    for(int idx = 0; idx < a.n; ++idx) {
+      final char v = a.data[idx];
+      if(b.contains(v) == keep) rv[n++] = v;
+    }
+    return fromArray(owner, rv, n);
+  }
+  static Container and(Object owner, Container a, Container b) {
+    if(a.isFull()) return b;
+    if(b.isFull()) return a;
+    if(a instanceof ArrayContainer && a.cardinality() <= b.cardinality())
+      return filter(owner, (ArrayContainer)a, b, true);
+    if(b instanceof ArrayContainer)
+      return filter(owner, (ArrayContainer)b, a, true);
+    if(a instanceof ArrayContainer)
+      return filter(owner, (ArrayContainer)a, b, true);
+    final long[] w = a.toWords(), o = b.toWords();
+    for(int idx = 0; idx < nWords; ++idx)
+      w[idx] &= o[idx];
+    return fromWords(owner, w);
+  }
+  static Container andNot(Object owner, Container a, Container b) {
+    if(b.isFull()) return null;
+    if(a instanceof ArrayContainer)
+      return filter(owner, (ArrayContainer)a, b, false);
+    final long[] w = a.toWords(), o = b.toWords();
+    for(int idx = 0; idx < nWords; ++idx)
+      w[idx] &= ~o[idx];
+    return fromWords(owner, w);
+  }
+  static Container xor(Object owner, Container a, Container b) {
+    final long[] w = a.toWords(), o = b.toWords();
+    for(int idx = 0; idx < nWords; ++idx)
+      w[idx] ^= o[idx];
+    return fromWords(owner, w);
+  }
+  static Container apply(int op, Object owner, Container a, Container b, boolean inPlace) {
+    switch(op) {
+    case OR: return inPlace ? a.orInPlace(owner, b) : or(owner, a, b);
+    case AND: return and(owner, a, b);
+    case ANDNOT: return andNot(owner, a, b);
+    default: return xor(owner, a, b);
+    }
+  }
+
+  Object owner = new Object();
+  char[] keys;
+  Container[] containers;
+  int size;
+
+  RoaringBitmap(char[] keys, Container[] containers, int size) {
+    this.keys = keys;
+    this.containers = containers;
+    this.size = size;
+  }
+  public RoaringBitmap() { this(new char[4], new Container[4], 0); }
+
+  static void checkValue(long v) {
+    if(v < 0 || v > maxValue)
+      throw new IllegalArgumentException("Value out of range for unsigned integer: " + String.valueOf(v));
+  }
+  int keyIndex(int key) { return Arrays.binarySearch(keys, 0, size, (char)key); }
+  /**
+   * Hand out this bitmap's containers - none of them are written in place afterwards.
+   */
+  RoaringBitmap share() {
+    owner = new Object();
+    return this;
+  }
+  void insertContainer(int idx, int key, Container c) {
+    if(size == keys.length) {
+      keys = Arrays.copyOf(keys, size * 2);
+      containers = Arrays.copyOf(containers, size * 2);
+    }
+    System.arraycopy(keys, idx, keys, idx + 1, size - idx);
+    System.arraycopy(containers, idx, containers, idx + 1, size - idx);
+    keys[idx] = (char)key;
+    containers[idx] = c;
+    ++size;
+  }
+  void removeContainer(int idx) {
+    System.arraycopy(keys, idx + 1, keys, idx, size - idx - 1);
+    System.arraycopy(containers, idx + 1, containers, idx, size - idx - 1);
+    containers[--size] = null;
+  }
+
+  public boolean addLong(long v) {
+    checkValue(v);
+    final int key = (int)(v >>> 16), lo = (int)(v & 0xFFFF);
+    final int idx = keyIndex(key);
+    if(idx < 0) {
+      insertContainer(-idx - 1, key, new ArrayContainer(owner, new char[] {(char)lo}, 1));
+      return true;
+    }
+    final Container c = containers[idx];
+    final int card = c.cardinality();
+    containers[idx] = c.add(owner, lo);
+    return containers[idx].cardinality() != card;
+  }
+  public boolean add(Object v) { return addLong(Casts.longCast(v)); }
+  public boolean removeLong(long v) {
+    if(v < 0 || v > maxValue) return false;
+    final int idx = keyIndex((int)(v >>> 16));
+    if(idx < 0) return false;
+    final Container c = containers[idx];
+    final int card = c.cardinality();
+    final Container nc = c.remove(owner, (int)(v & 0xFFFF));
+    if(nc == null || nc.cardinality() == 0)
+      removeContainer(idx);
+    else
+      containers[idx] = nc;
+    return card != (nc == null ? 0 : nc.cardinality());
+  }
+  public boolean remove(Object v) {
+    return v instanceof Number && removeLong(Casts.longCast(v));
+  }
+  /**
+   * Add the values in [start, end).
+   */
+  public RoaringBitmap addRange(long start, long end) {
+    if(start >= end) return this;
+    checkValue(start);
+    checkValue(end - 1);
+    for(long chunk = start >>> 16, ec = (end - 1) >>> 16; chunk <= ec; ++chunk) {
+      final long base = chunk << 16;
+      final int s = (int)(Math.max(start, base) - base);
+      final int e = (int)(Math.min(end, base + chunkSize) - base);
+      final RunContainer r = RunContainer.range(owner, s, e);
+      final int idx = keyIndex((int)chunk);
+      if(idx < 0)
+	insertContainer(-idx - 1, (int)chunk, r);
+      else
+	containers[idx] = r.isFull() ? r : containers[idx].orInPlace(owner, r);
+    }
+    return this;
+  }
+  public boolean containsLong(long v) {
+    if(v < 0 || v > maxValue) return false;
+    final int idx = keyIndex((int)(v >>> 16));
+    return idx >= 0 && containers[idx].contains((int)(v & 0xFFFF));
+  }
+  public boolean contains(Object v) {
+    return v instanceof Number && containsLong(Casts.longCast(v));
+  }
+  public long cardinality() {
+    long rv = 0;
+    for(int idx = 0; idx < size; ++idx)
+      rv += containers[idx].cardinality();
+    return rv;
+  }
+  public int size() { return (int)Math.min(Integer.MAX_VALUE, cardinality()); }
+  public boolean isEmpty() { return size == 0; }
+  public void clear() {
+    Arrays.fill(containers, 0, size, null);
+    size = 0;
+  }
+  public long min() {
+    if(size == 0) throw new NoSuchElementException("Bitmap is empty");
+    return ((long)keys[0] << 16) | containers[0].min();
+  }
+  public long max() {
+    if(size == 0) throw new NoSuchElementException("Bitmap is empty");
+    return ((long)keys[size-1] << 16) | containers[size-1].max();
+  }
+  /**
+   * True if every value in [start, end) is in the set.
+   */
+  public boolean containsRange(long start, long end) {
+    if(start >= end) return true;
+    if(start < 0 || end - 1 > maxValue) return false;
+    final long sc = start >>> 16, ec = (end - 1) >>> 16;
+    int idx = keyIndex((int)sc);
+    if(idx < 0 || size - idx < ec - sc + 1) return false;
+    for(long chunk = sc; chunk <= ec; ++chunk, ++idx) {
+      if(keys[idx] != chunk) return false;
+      final long base = chunk << 16;
+      if(!containers[idx].containsRange((int)(Math.max(start, base) - base),
+					 (int)(Math.min(end, base + chunkSize) - base)))
+	return false;
+    }
+    return true;
+  }
+  /**
+   * True if any value in [start, end) is in the set.
+   */
+  public boolean intersectsRange(long start, long end) {
+    start = Math.max(start, 0);
+    end = Math.min(end, maxValue + 1);
+    if(start >= end) return false;
+    final long ec = (end - 1) >>> 16;
+    int idx = keyIndex((int)(start >>> 16));
+    if(idx < 0) idx = -idx - 1;
+    for(; idx < size && keys[idx] <= ec; ++idx) {
+      final long base = (long)keys[idx] << 16;
+      if(containers[idx].intersectsRange((int)(Math.max(start, base) - base),
+					 (int)(Math.min(end, base + chunkSize) - base)))
+	return true;
+    }
+    return false;
+  }
+  /**
+   * Smallest value >= v in the set or -1.
+   */
+  public long nextValue(long v) {
+    v = Math.max(v, 0);
+    if(v > maxValue) return -1;
+    int idx = keyIndex((int)(v >>> 16));
+    if(idx < 0) {
+      idx = -idx - 1;
+      v = 0;
+    } else {
+      v &= 0xFFFF;
+    }
+    for(; idx < size; ++idx, v = 0) {
+      final int lo = containers[idx].next((int)v);
+      if(lo >= 0) return ((long)keys[idx] << 16) | lo;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns a new bitmap with the same values.  The bitmaps share containers until they
+   * are written to.
+   */
+  public RoaringBitmap clone() {
+    share();
+    return new RoaringBitmap(Arrays.copyOf(keys, Math.max(4, size)),
+			     Arrays.copyOf(containers, Math.max(4, size)), size);
+  }
+
+  static RoaringBitmap binaryOp(int op, RoaringBitmap a, RoaringBitmap b, RoaringBitmap dst) {
+    final boolean inPlace = dst == a;
+    final Object owner = dst.owner;
+    //Containers of the inputs may be placed in the result.
+    b.share();
+    if(!inPlace) a.share();
+    final int cap = op == OR || op == XOR ? a.size + b.size : a.size;
+    final char[] keys = new char[Math.max(4, cap)];
+    final Container[] cs = new Container[Math.max(4, cap)];
+    int n = 0, ai = 0, bi = 0;
+    while(ai < a.size || bi < b.size) {
+      final int ak = ai < a.size ? a.keys[ai] : Integer.MAX_VALUE;
+      final int bk = bi < b.size ? b.keys[bi] : Integer.MAX_VALUE;
+      Container c = null;
+      int key;
+      if(ak == bk) {
+	key = ak;
+	c = apply(op, owner, a.containers[ai++], b.containers[bi++], inPlace);
+      } else if(ak < bk) {
+	key = ak;
+	if(op != AND) c = a.containers[ai];
+	++ai;
+      } else {
+	key = bk;
+	if(op == OR || op == XOR) c = b.containers[bi];
+	++bi;
+      }
+      if(c != null && c.cardinality() != 0) {
+	keys[n] = (char)key;
+	cs[n++] = c;
+      }
+    }
+    dst.keys = keys;
+    dst.containers = cs;
+    dst.size = n;
+    return dst;
+  }
+  public static RoaringBitmap union(RoaringBitmap a, RoaringBitmap b) {
+    return binaryOp(OR, a, b, new RoaringBitmap());
+  }
+  public static RoaringBitmap intersection(RoaringBitmap a, RoaringBitmap b) {
+    return binaryOp(AND, a, b, new RoaringBitmap());
+  }
+  public static RoaringBitmap difference(RoaringBitmap a, RoaringBitmap b) {
+    return binaryOp(ANDNOT, a, b, new RoaringBitmap());
+  }
+  public static RoaringBitmap xor(RoaringBitmap a, RoaringBitmap b) {
+    return binaryOp(XOR, a, b, new RoaringBitmap());
+  }
+  public RoaringBitmap orInPlace(RoaringBitmap b) { return binaryOp(OR, this, b, this); }
+  public RoaringBitmap andInPlace(RoaringBitmap b) { return binaryOp(AND, this, b, this); }
+  public RoaringBitmap andNotInPlace(RoaringBitmap b) { return binaryOp(ANDNOT, this, b, this); }
+  public RoaringBitmap xorInPlace(RoaringBitmap b) { return binaryOp(XOR, this, b, this); }
+
+  /**
+   * Union of any number of bitmaps.  Containers sharing a key are combined in one pass into
+   * a single bitmap buffer instead of through intermediate unions.
+   */
+  public static RoaringBitmap unionAll(Iterable<RoaringBitmap> bitmaps) {
+    int total = 0;
+    for(RoaringBitmap b: bitmaps) total += b.size;
+    final Container[] all = new Container[total];
+    //key << 32 | index into all sorts containers by key.
+    final long[] order = new long[total];
+    int n = 0;
+    for(RoaringBitmap b: bitmaps) {
+      b.share();
+      for(int idx = 0; idx < b.size; ++idx, ++n) {
+	all[n] = b.containers[idx];
+	order[n] = ((long)b.keys[idx] << 32) | n;
+      }
+    }
+    Arrays.sort(order);
+    final RoaringBitmap rv = new RoaringBitmap(new char[Math.max(4, total)],
+					       new Container[Math.max(4, total)], 0);
+    for(int sidx = 0; sidx < total; ) {
+      final long key = order[sidx] >>> 32;
+      int eidx = sidx + 1;
+      while(eidx < total && (order[eidx] >>> 32) == key) ++eidx;
+      Container c = all[(int)order[sidx]];
+      if(eidx - sidx > 1) {
+	long[] words = null;
+	for(int idx = sidx; idx < eidx && !c.isFull(); ++idx) {
+	  final Container o = all[(int)order[idx]];
+	  if(o.isFull()) c = o;
+	  else {
+	    if(words == null) words = new long[nWords];
+	    o.orInto(words);
+	  }
+	}
+	if(!c.isFull())
+	  c = fromWords(rv.owner, words);
+      }
+      rv.keys[rv.size] = (char)key;
+      rv.containers[rv.size++] = c;
+      sidx = eidx;
+    }
+    return rv;
+  }
+  /**
+   * Intersection of one or more bitmaps, smallest first with an early exit once the result
+   * is empty.
+   */
+  public static RoaringBitmap intersectAll(Iterable<RoaringBitmap> bitmaps) {
+    final java.util.ArrayList<RoaringBitmap> all = new java.util.ArrayList<RoaringBitmap>();
+    for(RoaringBitmap b: bitmaps) all.add(b);
+    if(all.isEmpty()) return new RoaringBitmap();
+    all.sort((l, r) -> Integer.compare(l.size, r.size));
+    final RoaringBitmap rv = all.get(0).clone();
+    for(int idx = 1; idx < all.size() && rv.size != 0; ++idx)
+      rv.andInPlace(all.get(idx));
+    return rv;
+  }
+
+  /**
+   * Bitmap of a java.util.BitSet's words - BitSet.toLongArray.
+   */
+  public static RoaringBitmap fromBitSetWords(long[] words) {
+    final RoaringBitmap rv = new RoaringBitmap();
+    for(int sidx = 0; sidx < words.length; sidx += nWords) {
+      final long[] w = Arrays.copyOfRange(words, sidx, sidx + nWords);
+      final Container c = fromWords(rv.owner, w);
+      if(c != null)
+	rv.insertContainer(rv.size, sidx / nWords, c);
+    }
+    return rv;
+  }
+
+  static final int magic = 0x48464252;
+  public byte[] serialize() {
+    int len = 8;
+    for(int idx = 0; idx < size; ++idx)
+      len += 3 + containers[idx].serializedSize();
+    final ByteBuffer bb = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+    bb.putInt(magic);
+    bb.putInt(size);
+    for(int idx = 0; idx < size; ++idx) {
+      final Container c = containers[idx];
+      bb.putChar(keys[idx]);
+      bb.put((byte)(c instanceof ArrayContainer ? 0 : c instanceof BitmapContainer ? 1 : 2));
+      c.serialize(bb);
+    }
+    return bb.array();
+  }
+  public static RoaringBitmap deserialize(byte[] data) {
+    final ByteBuffer bb = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    if(data.length < 8 || bb.getInt() != magic)
+      throw new IllegalArgumentException("Data is not a serialized bitmap");
+    final int n = bb.getInt();
+    final RoaringBitmap rv = new RoaringBitmap(new char[Math.max(4, n)],
+					       new Container[Math.max(4, n)], n);
+    for(int idx = 0; idx < n; ++idx) {
+      rv.keys[idx] = bb.getChar();
+      final byte type = bb.get();
+      Container c;
+      if(type == 0) {
+	final int card = bb.getChar() + 1;
+	final char[] d = new char[card];
+	for(int i = 0; i < card; ++i) d[i] = bb.getChar();
+	c = new ArrayContainer(rv.owner, d, card);
+      } else if(type == 1) {
+	final long[] w = new long[nWords];
+	for(int i = 0; i < nWords; ++i) w[i] = bb.getLong();
+	c = new BitmapContainer(rv.owner, w, cardinality(w));
+      } else if(type == 2) {
+	final int nRuns = bb.getChar() + 1;
+	final char[] r = new char[2 * nRuns];
+	int card = 0;
+	for(int i = 0; i < 2 * nRuns; i += 2) {
+	  r[i] = bb.getChar();
+	  r[i+1] = bb.getChar();
+	  card += r[i+1] + 1;
+	}
+	c = new RunContainer(rv.owner, r, nRuns, card);
+      } else {
+	throw new IllegalArgumentException("Unrecognized container type: " + String.valueOf(type));
+      }
+      rv.containers[idx] = c;
+    }
+    return rv;
+  }
+
+  public Object reduce(IFn rfn, Object acc) {
+    final IFn.OLO rf = Transformables.toLongReductionFn(rfn);
+    for(int idx = 0; idx < size; ++idx) {
+      acc = containers[idx].reduce(rf, (long)keys[idx] << 16, acc);
+      if(RT.isReduced(acc))
+	return ((IDeref)acc).deref();
+    }
+    return acc;
+  }
+  @SuppressWarnings("unchecked")
+  public void forEach(Consumer c) {
+    ITypedReduce.super.forEach(c);
+  }
+  public Iterator<Object> iterator() {
+    return new Iterator<Object>() {
+      long nextVal = nextValue(0);
+      public boolean hasNext() { return nextVal >= 0; }
+      public Object next() {
+	if(nextVal < 0) throw new NoSuchElementException();
+	final long rv = nextVal;
+	nextVal = rv == maxValue ? -1 : nextValue(rv + 1);
+	return rv;
+      }
+    };
+  }
+}
@@ -0,0 +1,341 @@
+package ham_fisted;
+
+
+import java.util.Map;
+import java.util.Set;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IMapEntry;
+
+
+/**
+ * Thread safe ham_fisted.HashMap for many writers such as a shared group-by table.  Bins
+ * are guarded by a fixed set of lock stripes chosen by the low bits of the hash - the
+ * table never has fewer bins than stripes so a bin is always covered by exactly one
+ * stripe regardless of resizing.  Element counts are kept per stripe and resizing takes
+ * every stripe.  The table grows when the total count passes the load threshold so keys
+ * crowding one stripe do not grow a mostly empty table.
+ *
+ * Point operations - get, put, compute, computeIfAbsent, merge, remove - are safe from
+ * any thread.  Reductions, iteration and the set operations are intended for after the
+ * concurrent update phase.  persistent! shares the table with the returned
+ * PersistentHashMap without copying.
+ */
+public class StripedHashMap
+  extends HashMap
+  implements MutableMap, IATransientMap {
+  //Pad counts so each stripe's counter sits on its own cache line.
+  static final int PAD = 16;
+  final ReentrantLock[] locks;
+  final int stripeMask;
+  final int stripeShift;
+  final int[] counts;
+
+  public static int defaultStripes() {
+    return IntegerOps.nextPow2(Math.min(1024, 4 * Runtime.getRuntime().availableProcessors()));
+  }
+  public StripedHashMap(IPersistentMap meta, int capacity, int nStripes) {
+    super(0.75f, Math.max(4 * IntegerOps.nextPow2(Math.max(1, nStripes)),
+			  IntegerOps.nextPow2((int)(capacity/0.75f))),
+	  0, null, meta);
+    final int ns = IntegerOps.nextPow2(Math.max(1, nStripes));
+    locks = new ReentrantLock[ns];
+    for(int idx = 0; idx < ns; ++idx)
+      locks[idx] = new ReentrantLock();
+    stripeMask = ns - 1;
+    stripeShift = Integer.numberOfTrailingZeros(ns);
+    counts = new int[ns * PAD];
+  }
+  public StripedHashMap(IPersistentMap meta, int capacity) {
+    this(meta, capacity, defaultStripes());
+  }
+  public StripedHashMap(IPersistentMap meta) {
+    this(meta, 0, defaultStripes());
+  }
+  public StripedHashMap() {
+    this(null);
+  }
+
+  protected void inc(HashNode lf) { ++counts[(lf.hashcode & stripeMask) * PAD]; }
+  protected void dec(HashNode lf) { --counts[(lf.hashcode & stripeMask) * PAD]; }
+  //Resizing happens outside of the stripe locks - see resize.
+  Object checkResize(Object rv) { return rv; }
+
+  final int sumCounts() {
+    final int[] c = counts;
+    final int l = c.length;
+    int rv = 0;
+    for(int idx = 0; idx < l; idx += PAD)
+      rv += c[idx];
+    return rv;
+  }
+  /**
+   * True when the table is over its threshold.  Only stripes over their share of the
+   * threshold sum the counts of every stripe.
+   */
+  final boolean stripeFull(int stripe) {
+    return counts[stripe * PAD] > (threshold >> stripeShift) && sumCounts() >= threshold;
+  }
+  final void lockAll() {
+    for(ReentrantLock l : locks)
+      l.lock();
+  }
+  final void unlockAll() {
+    for(int idx = locks.length - 1; idx >= 0; --idx)
+      locks[idx].unlock();
+  }
+  /**
+   * Double the table if it is still over its threshold once every stripe is held -
+   * another thread may have resized while we waited.  A negative stripe always doubles.
+   */
+  final void resize(int stripe) {
+    lockAll();
+    try {
+      if(stripe < 0 || stripeFull(stripe)) {
+	final int len = sumCounts();
+	length = Math.max(len, threshold);
+	super.checkResize(null);
+	length = len;
+      }
+    } finally {
+      unlockAll();
+    }
+  }
+  final void checkResizeAll() {
+    while(sumCounts() >= threshold)
+      resize(-1);
+  }
+
+  public int size() { return sumCounts(); }
+  public int count() { return sumCounts(); }
+  public boolean isEmpty() { return sumCounts() == 0; }
+  public HashMap shallowClone() {
+    lockAll();
+    try {
+      length = sumCounts();
+      return super.shallowClone();
+    } finally {
+      unlockAll();
+    }
+  }
+  public HashMap clone() {
+    lockAll();
+    try {
+      length = sumCounts();
+      return super.clone();
+    } finally {
+      unlockAll();
+    }
+  }
+  public Object get(Object k) {
+    final ReentrantLock l = locks[hash(k) & stripeMask];
+    l.lock();
+    try {
+      return super.get(k);
+    } finally {
+      l.unlock();
+    }
+  }
+  public Object getOrDefault(Object k, Object dv) {
+    final ReentrantLock l = locks[hash(k) & stripeMask];
+    l.lock();
+    try {
+      return super.getOrDefault(k, dv);
+    } finally {
+      l.unlock();
+    }
+  }
+  public IMapEntry entryAt(Object k) {
+    final ReentrantLock l = locks[hash(k) & stripeMask];
+    l.lock();
+    try {
+      return super.entryAt(k);
+    } finally {
+      l.unlock();
+    }
+  }
+  public boolean containsKey(Object k) {
+    final ReentrantLock l = locks[hash(k) & stripeMask];
+    l.lock();
+    try {
+      return super.containsKey(k);
+    } finally {
+      l.unlock();
+    }
+  }
+  public Object put(Object k, Object v) {
+    final int s = hash(k) & stripeMask;
+    final ReentrantLock l = locks[s];
+    final Object rv;
+    final boolean full;
+    l.lock();
+    try {
+      rv = super.put(k, v);
+      full = stripeFull(s);
+    } finally {
+      l.unlock();
+    }
+    if(full) resize(s);
+    return rv;
+  }
+  public Object remove(Object k) {
+    final ReentrantLock l = locks[hash(k) & stripeMask];
+    l.lock();
+    try {
+      return super.remove(k);
+    } finally {
+      l.unlock();
+    }
+  }
+  public Object compute(Object k, BiFunction bfn) {
+    final int s = hash(k) & stripeMask;
+    final ReentrantLock l = locks[s];
+    final Object rv;
+    final boolean full;
+    l.lock();
+    try {
+      rv = super.compute(k, bfn);
+      full = stripeFull(s);
+    } finally {
+      l.unlock();
+    }
+    if(full) resize(s);
+    return rv;
+  }
+  public Object computeIfAbsent(Object k, Function fn) {
+    final int s = hash(k) & stripeMask;
+    final ReentrantLock l = locks[s];
+    final Object rv;
+    final boolean full;
+    l.lock();
+    try {
+      rv = super.computeIfAbsent(k, fn);
+      full = stripeFull(s);
+    } finally {
+      l.unlock();
+    }
+    if(full) resize(s);
+    return rv;
+  }
+  @SuppressWarnings("unchecked")
+  public Object computeIfPresent(Object k, BiFunction bfn) {
+    return compute(k, new BiFunction() {
+	public Object apply(Object kk, Object v) {
+	  return v == null ? null : bfn.apply(kk, v);
+	}
+      });
+  }
+  @SuppressWarnings("unchecked")
+  public Object merge(Object k, Object v, BiFunction bfn) {
+    return compute(k, new BiFunction() {
+	public Object apply(Object kk, Object ov) {
+	  return ov == null ? v : bfn.apply(ov, v);
+	}
+      });
+  }
+  public void putAll(Map other) {
+    lockAll();
+    try {
+      super.putAll(other);
+    } finally {
+      unlockAll();
+    }
+    checkResizeAll();
+  }
+  public void replaceAll(BiFunction bfn) {
+    lockAll();
+    try {
+      super.replaceAll(bfn);
+    } finally {
+      unlockAll();
+    }
+  }
+  public void clear() {
+    lockAll();
+    try {
+      super.clear();
+    } finally {
+      unlockAll();
+    }
+  }
+  public StripedHashMap union(Map o, BiFunction bfn) {
+    lockAll();
+    try {
+      union(this, o, bfn);
+    } finally {
+      unlockAll();
+    }
+    checkResizeAll();
+    return this;
+  }
+  public StripedHashMap intersection(Map o, BiFunction bfn) {
+    lockAll();
+    try {
+      intersection(this, o, bfn);
+    } finally {
+      unlockAll();
+    }
+    return this;
+  }
+  public StripedHashMap intersection(Set o) {
+    lockAll();
+    try {
+      intersection(this, o);
+    } finally {
+      unlockAll();
+    }
+    return this;
+  }
+  public StripedHashMap difference(Collection o) {
+    lockAll();
+    try {
+      difference(this, o);
+    } finally {
+      unlockAll();
+    }
+    return this;
+  }
+  public StripedHashMap updateValues(BiFunction valueMap) {
+    lockAll();
+    try {
+      updateValues(this, valueMap);
+    } finally {
+      unlockAll();
+    }
+    return this;
+  }
+  public StripedHashMap updateValue(Object k, Function fn) {
+    final int s = hash(k) & stripeMask;
+    final ReentrantLock l = locks[s];
+    final boolean full;
+    l.lock();
+    try {
+      updateValue(this, k, fn);
+      full = stripeFull(s);
+    } finally {
+      l.unlock();
+    }
+    if(full) resize(s);
+    return this;
+  }
+  public StripedHashMap assoc(Object key, Object val) {
+    put(key,val);
+    return this;
+  }
+  public StripedHashMap without(Object key) {
+    remove(key);
+    return this;
+  }
+  public PersistentHashMap persistent() {
+    lockAll();
+    try {
+      length = sumCounts();
+    } finally {
+      unlockAll();
+    }
+    return new PersistentHashMap(this);
+  }
+}
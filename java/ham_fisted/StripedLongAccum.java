@@ -0,0 +1,31 @@
+package ham_fisted;
+
+
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/**
+ * Thread safe LongAccum backed by a LongAdder.  As with StripedSum one instance may be
+ * shared by every partition of a parallel reduction as merging an instance with itself does
+ * nothing.
+ */
+public class StripedLongAccum implements Consumers.IDerefLongConsumer, Reducible {
+  final LongAdder val = new LongAdder();
+  public StripedLongAccum(long v) { val.add(v); }
+  public StripedLongAccum() { this(0); }
+  public void acceptLong(long v) { val.add(v); }
+  public long sum() { return val.sum(); }
+  public long sumThenReset() { return val.sumThenReset(); }
+  public Object deref() { return val.sum(); }
+  public StripedLongAccum reduce(Reducible other) {
+    if(other != this) {
+      if(other instanceof StripedLongAccum)
+	val.add(((StripedLongAccum)other).sum());
+      else
+	val.add(Casts.longCast(((clojure.lang.IDeref)other).deref()));
+    }
+    return this;
+  }
+}
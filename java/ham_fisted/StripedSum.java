@@ -0,0 +1,149 @@
+package ham_fisted;
+
+
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Thread safe compensated double sum.  Updates go to one of several independently locked
+ * cells chosen by thread so concurrent producers rarely contend - a producer that finds its
+ * cell locked moves on to the next free cell.  Each cell keeps Kahan compensated sums exactly
+ * as Sum and deref snapshots all cells into the same {:sum :n-elems} map as Sum.
+ *
+ * One instance may be shared by every partition of a parallel reduction - for example by
+ * passing (constantly s) to double-consumer-preducer - as merging an instance with itself
+ * does nothing.
+ */
+public final class StripedSum implements Consumers.IDerefDoubleConsumer, Reducible
+{
+  @SuppressWarnings("serial")
+  static final class Cell extends ReentrantLock {
+    double d0;
+    double d1;
+    double simpleSum;
+    long nElems;
+    //Keep the sums of neighboring cells on separate cache lines.
+    long p0, p1, p2, p3, p4, p5, p6;
+    void sumWithCompensation(double value) {
+      double tmp = value - d1;
+      double sum = d0;
+      double velvel = sum + tmp;
+      d1 = (velvel - sum) - tmp;
+      d0 = velvel;
+    }
+    Sum toSum() { return new Sum(d0, d1, simpleSum, nElems); }
+  }
+
+  final Cell[] cells;
+  final int mask;
+
+  /**
+   * Cell count is rounded up to a power of two.
+   */
+  public StripedSum(int nCells) {
+    int n = 1;
+    while(n < nCells) n <<= 1;
+    cells = new Cell[n];
+    for(int idx = 0; idx < n; ++idx)
+      cells[idx] = new Cell();
+    mask = n - 1;
+  }
+  public StripedSum() {
+    this(Runtime.getRuntime().availableProcessors() * 2);
+  }
+  static int threadHash() {
+    final long id = Thread.currentThread().getId();
+    return IntegerOps.mixhash((int)(id ^ (id >>> 32)));
+  }
+  Cell lockCell() {
+    final int h = threadHash();
+    for(int idx = 0; idx <= mask; ++idx) {
+      final Cell c = cells[(h + idx) & mask];
+      if(c.tryLock())
+	return c;
+    }
+    final Cell c = cells[h & mask];
+    c.lock();
+    return c;
+  }
+  public void acceptDouble(double v) {
+    final Cell c = lockCell();
+    try {
+      c.sumWithCompensation(v);
+      c.simpleSum += v;
+      c.nElems++;
+    } finally {
+      c.unlock();
+    }
+  }
+  void merge(Sum s) {
+    final double v = s.computeFinalSum();
+    final Cell c = lockCell();
+    try {
+      c.sumWithCompensation(v);
+      c.simpleSum += s.simpleSum;
+      c.nElems += s.nElems;
+    } finally {
+      c.unlock();
+    }
+  }
+  /**
+   * Incorporate data[sidx,eidx).  The range is summed outside of any lock and then added to
+   * one cell.
+   */
+  public void acceptArray(double[] data, int sidx, int eidx, boolean removeNan) {
+    final Sum s = new Sum();
+    s.acceptArray(data, sidx, eidx, removeNan);
+    merge(s);
+  }
+  /**
+   * Sum of all cells at this point in time.
+   */
+  public Sum snapshot() {
+    final Sum rv = new Sum();
+    for(Cell c: cells) {
+      Sum s;
+      c.lock();
+      try {
+	s = c.toSum();
+      } finally {
+	c.unlock();
+      }
+      rv.sumWithCompensation(s.computeFinalSum());
+      rv.simpleSum += s.simpleSum;
+      rv.nElems += s.nElems;
+    }
+    return rv;
+  }
+  /**
+   * Snapshot and clear each cell.  Values added concurrently are either in the result or
+   * remain in this sum.
+   */
+  public Sum snapshotThenReset() {
+    final Sum rv = new Sum();
+    for(Cell c: cells) {
+      Sum s;
+      c.lock();
+      try {
+	s = c.toSum();
+	c.d0 = 0; c.d1 = 0; c.simpleSum = 0; c.nElems = 0;
+      } finally {
+	c.unlock();
+      }
+      rv.sumWithCompensation(s.computeFinalSum());
+      rv.simpleSum += s.simpleSum;
+      rv.nElems += s.nElems;
+    }
+    return rv;
+  }
+  public StripedSum reduce(Reducible other) {
+    if(other != this) {
+      if(other instanceof StripedSum)
+	merge(((StripedSum)other).snapshot());
+      else
+	merge((Sum)other);
+    }
+    return this;
+  }
+  public Object deref() { return snapshot().deref(); }
+}
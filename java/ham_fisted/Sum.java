@@ -63,6 +63,46 @@ public final class Sum implements Consumers.IDerefDoubleConsumer, Reducible
     nElems++;
   }
 
+  /**
+   * Incorporate data[sidx,eidx).  Dense ranges are summed in 4 independent compensated
+   * lanes which are then folded into this sum.
+   */
+  public void acceptArray(double[] data, int sidx, int eidx, boolean removeNan) {
+    double t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+    double c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+    double ss = 0;
+    long n = 0;
+    int i = sidx;
+    if(!removeNan) {
+      for(final int ue = eidx - 3; i < ue; i += 4) {
+	final double v0 = data[i], v1 = data[i+1], v2 = data[i+2], v3 = data[i+3];
+	final double y0 = v0 - c0, y1 = v1 - c1, y2 = v2 - c2, y3 = v3 - c3;
+	final double u0 = t0 + y0, u1 = t1 + y1, u2 = t2 + y2, u3 = t3 + y3;
+	c0 = (u0 - t0) - y0; c1 = (u1 - t1) - y1; c2 = (u2 - t2) - y2; c3 = (u3 - t3) - y3;
+	t0 = u0; t1 = u1; t2 = u2; t3 = u3;
+	ss += (v0 + v1) + (v2 + v3);
+      }
+      n = eidx - sidx;
+    }
+    for(; i < eidx; ++i) {
+      final double v = data[i];
+      if(!removeNan || !Double.isNaN(v)) {
+	final double y = v - c0;
+	final double u = t0 + y;
+	c0 = (u - t0) - y;
+	t0 = u;
+	ss += v;
+	if(removeNan) ++n;
+      }
+    }
+    sumWithCompensation(t0); sumWithCompensation(-c0);
+    sumWithCompensation(t1); sumWithCompensation(-c1);
+    sumWithCompensation(t2); sumWithCompensation(-c2);
+    sumWithCompensation(t3); sumWithCompensation(-c3);
+    simpleSum += ss;
+    nElems += n;
+  }
+
   public void merge(Sum other) {
     final long ne = nElems;
     accept(other.computeFinalSum());
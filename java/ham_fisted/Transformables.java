@@ -295,6 +295,34 @@ public class Transformables {
 	};
       });
     mappingReducer.put(IFnDef.LL.class, mappingReducer.get(IFn.LL.class));
+    mappingReducer.put(IFn.LO.class, (IFn rfn, IFn mapFn)-> {
+	final IFn.LO mfn = (IFn.LO)mapFn;
+	return new IFnDef.OLO() {
+	  public Object invoke() { return rfn.invoke(); }
+	  public Object invoke(Object res) { return rfn.invoke(res); }
+	  public Object invokePrim(Object lhs, long v) {
+	    return rfn.invoke(lhs, mfn.invokePrim(v));
+	  }
+	  public Object applyTo(Object arglist) {
+	    return rfn.invoke(RT.first(arglist), mapFn.applyTo(RT.next(arglist)));
+	  }
+	};
+      });
+    mappingReducer.put(IFnDef.LO.class, mappingReducer.get(IFn.LO.class));
+    mappingReducer.put(IFn.DO.class, (IFn rfn, IFn mapFn)-> {
+	final IFn.DO mfn = (IFn.DO)mapFn;
+	return new IFnDef.ODO() {
+	  public Object invoke() { return rfn.invoke(); }
+	  public Object invoke(Object res) { return rfn.invoke(res); }
+	  public Object invokePrim(Object lhs, double v) {
+	    return rfn.invoke(lhs, mfn.invokePrim(v));
+	  }
+	  public Object applyTo(Object arglist) {
+	    return rfn.invoke(RT.first(arglist), mapFn.applyTo(RT.next(arglist)));
+	  }
+	};
+      });
+    mappingReducer.put(IFnDef.DO.class, mappingReducer.get(IFn.DO.class));
   }
 
   public static IFn typedMapReducer(IFn rfn, IFn mapFn) {
@@ -462,7 +490,8 @@ public class Transformables {
     public Object reduce(IFn rfn, Object acc) {
       final int nLists = iterables.length;
       if(nLists == 1) {
-	return singleMapReduce(iterables[0], rfn, fn, acc);
+	final FusedPipeline p = FusedPipeline.create(this);
+	return p != null ? p.reduce(rfn, acc) : singleMapReduce(iterables[0], rfn, fn, acc);
       } else {
 	final Iterator[] iterators = new Iterator[nLists];
 	for(int idx = 0; idx < nLists; ++idx)
@@ -525,6 +554,9 @@ public class Transformables {
     public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
 				    ParallelOptions options) {
       if(iterables.length == 1) {
+	final FusedPipeline p = FusedPipeline.create(this);
+	if(p != null)
+	  return p.parallelReduction(initValFn, rfn, mergeFn, options);
 	return Reductions.parallelReduction(initValFn, typedMapReducer(rfn, fn), mergeFn,
 					    iterables[0], options);
       } else {
@@ -720,10 +752,16 @@ public class Transformables {
       }
     }
     public Object reduce(final IFn rfn, final Object init) {
+      final FusedPipeline p = FusedPipeline.create(this);
+      if(p != null)
+	return p.reduce(rfn, init);
       return Reductions.serialReduction(typedReducer(rfn,pred), init, src);
     }
     public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
 				    ParallelOptions options) {
+      final FusedPipeline p = FusedPipeline.create(this);
+      if(p != null)
+	return p.parallelReduction(initValFn, rfn, mergeFn, options);
       return Reductions.parallelReduction(initValFn, typedReducer(rfn, pred), mergeFn,
 					  src, options);
     }
@@ -984,9 +1022,15 @@ public class Transformables {
       return new SingleMapList(MapFn.create(fn, nfn), meta, list);
     }
     public Object reduce(IFn rfn, Object init) {
+      final FusedPipeline p = FusedPipeline.create(this);
+      if(p != null)
+	return p.reduce(rfn, init);
       return singleMapReduce(list, rfn, fn, init);
     }
     public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn, ParallelOptions options) {
+      final FusedPipeline p = FusedPipeline.create(this);
+      if(p != null)
+	return p.parallelReduction(initValFn, rfn, mergeFn, options);
       return Reductions.parallelReduction(initValFn, typedMapReducer(rfn, fn), mergeFn,
 					  list, options);
     }
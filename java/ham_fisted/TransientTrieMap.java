@@ -0,0 +1,66 @@
+package ham_fisted;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.Collection;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IObj;
+
+
+/**
+ * Transient hash array mapped trie map.  Nodes created by this transient are
+ * edited in place, nodes shared with the source persistent map are copied on
+ * first write.
+ */
+public class TransientTrieMap
+  extends TrieMap
+  implements IATransientMap, IObj
+{
+  public TransientTrieMap(TrieBase data) {
+    super(data, data.meta);
+  }
+  public TransientTrieMap(TrieBase data, IPersistentMap m) {
+    super(data, m);
+  }
+  public TransientTrieMap conj(Object val) {
+    if(val instanceof Map) {
+      return union((Map)val, BiFunctions.rhsWins);
+    } else {
+      return (TransientTrieMap)IATransientMap.super.conjVal(val);
+    }
+  }
+  public TransientTrieMap assoc(Object key, Object val) {
+    assocNode(key, val);
+    return this;
+  }
+  public TransientTrieMap without(Object key) {
+    dissocNode(key);
+    return this;
+  }
+  public PersistentTrieMap persistent() {
+    return new PersistentTrieMap(this, meta);
+  }
+  public TransientTrieMap withMeta(IPersistentMap m) {
+    return new TransientTrieMap(this, m);
+  }
+  public TransientTrieMap union(Map o, BiFunction bfn) {
+    return (TransientTrieMap)union(this, o, bfn);
+  }
+  public TransientTrieMap intersection(Map o, BiFunction bfn) {
+    return (TransientTrieMap)intersection(this, o, bfn);
+  }
+  public TransientTrieMap intersection(Set o) {
+    return (TransientTrieMap)intersection(this, o);
+  }
+  public TransientTrieMap difference(Collection o) {
+    return (TransientTrieMap)difference(this, o);
+  }
+  public TransientTrieMap updateValues(BiFunction valueMap) {
+    return (TransientTrieMap)updateValues(this, valueMap);
+  }
+  public TransientTrieMap updateValue(Object k, Function fn) {
+    return (TransientTrieMap)updateValue(this, k, fn);
+  }
+}
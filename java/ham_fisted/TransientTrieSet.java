@@ -0,0 +1,26 @@
+package ham_fisted;
+
+import java.util.Set;
+import java.util.Collection;
+
+public class TransientTrieSet extends TrieSet implements IATransientSet {
+  public TransientTrieSet(TrieBase hb) { super(hb, hb.meta); }
+  public TransientTrieSet conj(Object key) {
+    assocNode(key, HashSet.VALUE);
+    return this;
+  }
+  public TransientTrieSet disjoin(Object key) {
+    dissocNode(key);
+    return this;
+  }
+  public PersistentTrieSet persistent() { return new PersistentTrieSet(this, meta); }
+  public TransientTrieSet union(Collection rhs) {
+    return (TransientTrieSet)union(this, rhs);
+  }
+  public TransientTrieSet intersection(Set rhs) {
+    return (TransientTrieSet)intersection(this, rhs);
+  }
+  public TransientTrieSet difference(Set rhs) {
+    return (TransientTrieSet)difference(this, rhs);
+  }
+}
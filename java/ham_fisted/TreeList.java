@@ -37,6 +37,10 @@ public class TreeList extends TreeListBase implements IPersistentVector, IEditab
     final int tlen = tail.length;
     final int newCount = count+1;
     if(tlen == 32) {
+      if(root instanceof RRBNode) {
+	final RRBNode rv = concatNodes(root, shift + 1, tail, 0);
+	return new TreeList(rv, new Object[]{d}, meta, rv.height - 1, newCount);
+      }
       Object rv = shift == 0 ? ((Leaf)root).cons(tail) : ((Branch)root).cons(shift, tail);
       if(rv instanceof Object[]) {
 	return new TreeList(new Branch(null, (Object[])rv), new Object[]{d}, meta, shift+1, newCount);
@@ -56,6 +60,12 @@ public class TreeList extends TreeListBase implements IPersistentVector, IEditab
   }
   public int hashCode() { return hasheq(); }
   public TreeList consAll(Iter data) {
+    if(root instanceof RRBNode) {
+      final MutTreeList rhs = new MutTreeList();
+      for(; data != null; data = data.next())
+	rhs.add(data.get());
+      return concat(rhs.persistent());
+    }
     int tlen = tail.length;
     Object[] newTail = Arrays.copyOf(tail, tailWidth);
     while(data != null && tlen < tailWidth) {
@@ -100,13 +110,15 @@ public class TreeList extends TreeListBase implements IPersistentVector, IEditab
       return cons(obj);
     checkIndex(idx, count);
     int cutoff = count - tail.length;
-    if( idx < cutoff) {
+    if(idx < cutoff && root instanceof RRBNode) {
+      return new TreeList(nodeAssoc(root, shift + 1, idx, obj), tail, meta, shift, count);
+    } else if( idx < cutoff) {
       return new TreeList(shift == 0 ? ((Leaf)root).assocN(null, idx, obj, null)
 			  : ((Branch)root).assocN(null, shift,idx,obj, null),
 			  tail, meta, shift, count);
     } else {
       Object[] newTail = Arrays.copyOf(tail, tail.length);
-      newTail[idx % tailWidth] = obj;
+      newTail[idx - cutoff] = obj;
       return new TreeList(root, newTail, meta, shift, count);
     }
   }
@@ -125,11 +137,18 @@ public class TreeList extends TreeListBase implements IPersistentVector, IEditab
       newRoot = root;
       newShift = shift;
       newTail = Arrays.copyOf(tail, tail.length-1);
+    } else if(root instanceof RRBNode) {
+      final Object[] chunk = lastChunk(root, shift + 1);
+      final Object[] tree = sliceTree(0, count - chunk.length);
+      newTail = Arrays.copyOf(chunk, chunk.length - 1);
+      if(tree == null)
+	return new TreeList(new Leaf(), newTail, meta, 0, count-1);
+      return new TreeList(tree[0], newTail, meta, (Integer)tree[1] - 1, count-1);
     } else {
       SublistResult res = shift == 0 ? ((Leaf)root).pop(null) : ((Branch)root).pop(null, shift);
       newRoot = res.node;
       newTail = Arrays.copyOf(res.tail, tailWidth-1);
-      while(shift > 0) {
+      while(newShift > 0) {
 	Branch newBranch = (Branch)newRoot;
 	if(newBranch.data.length > 1)
 	  break;
@@ -140,6 +159,60 @@ public class TreeList extends TreeListBase implements IPersistentVector, IEditab
     }
     return new TreeList(newRoot, newTail, meta, newShift, count-1);
   }
+  /**
+   * Concatenate other onto this list in O(log n).  Only the nodes along the seam between
+   * the two trees are rebuilt - the result is a relaxed tree sharing the rest of both.
+   */
+  public TreeList concat(TreeListBase other) {
+    if(other.count == 0)
+      return this;
+    if(count == 0)
+      return new TreeList(other, meta);
+    Object node = treeNode();
+    int h = treeHeight();
+    if(tail.length != 0) {
+      if(node == null) {
+	node = tail;
+	h = 0;
+      } else {
+	node = concatNodes(node, h, tail, 0);
+	h = ((RRBNode)node).height;
+      }
+    }
+    final Object otherNode = other.treeNode();
+    if(otherNode != null) {
+      node = node == null ? otherNode : concatNodes(node, h, otherNode, other.treeHeight());
+      h = node == otherNode ? other.treeHeight() : ((RRBNode)node).height;
+    } else if(h == 0) {
+      //Only this list's tail and the other list's tail - rejoin them.
+      final Object[] otherTail = other.validTail();
+      if(tail.length + otherTail.length <= tailWidth) {
+	final Object[] newTail = Arrays.copyOf(tail, tail.length + otherTail.length);
+	System.arraycopy(otherTail, 0, newTail, tail.length, otherTail.length);
+	return new TreeList(new Leaf(), newTail, meta, 0, count + other.count);
+      }
+      node = makeNode(new Object[] { tail }, 1);
+      h = 1;
+    }
+    if(h == 0) {
+      node = makeNode(new Object[] { node }, 1);
+      h = 1;
+    }
+    return new TreeList(node, other.validTail(), meta, h - 1, count + other.count);
+  }
+  /**
+   * Insert other at idx in O(log n).
+   */
+  public TreeList splice(int idx, TreeListBase other) {
+    if(idx < 0 || idx > count)
+      throw new IndexOutOfBoundsException("Index: " + String.valueOf(idx) + " is out of range 0-" + String.valueOf(count));
+    return ((TreeList)subList(0, idx)).concat(other).concat((TreeList)subList(idx, count));
+  }
+  public TreeList insertAt(int idx, Object obj) {
+    if(idx == count)
+      return cons(obj);
+    return splice(idx, new TreeList(new Leaf(), new Object[] { obj }, null, 0, 1));
+  }
   public Object peek() {
     if (count == 0)
       return null;
@@ -511,6 +511,315 @@ public class TreeListBase implements IMutList {
       return new SublistResult(new Branch(owner, newData.toArray()), newTail);
     }
   };
+  /**
+   * Relaxed radix balanced node produced by concatenation and slicing.  Children are
+   * element chunks of up to 32 elements when height is 1 and nodes of height-1 otherwise;
+   * regular Leaf and Branch nodes appear as children unchanged so concatenated trees share
+   * structure with their sources.  sizes holds the cumulative element count through each
+   * child.  Lookups start from the radix guess and scan forward through sizes.
+   */
+  public static class RRBNode implements INode {
+    final int height;
+    final Object[] children;
+    final int[] sizes;
+    public RRBNode(int height, Object[] children, int[] sizes) {
+      this.height = height;
+      this.children = children;
+      this.sizes = sizes;
+    }
+    public int height() { return height; }
+    public int size() { return sizes[sizes.length-1]; }
+    public void forEachRemaining(int shift, int sidx, int eidx, Consumer cc) {
+      nodeForEach(this, height, sidx, eidx, cc);
+    }
+    public Object reduce(int shift, int sidx, int eidx, IFn rfn, Object acc) {
+      return nodeReduce(this, height, sidx, eidx, rfn, acc);
+    }
+  }
+  //Element count of a full regular node of height h.
+  static int fullSize(int h) { return tailWidth << (h * shiftWidth); }
+  static Object[] children(Object node) {
+    if(node instanceof RRBNode) return ((RRBNode)node).children;
+    if(node instanceof Leaf) return ((Leaf)node).data;
+    return ((Branch)node).data;
+  }
+  static int nodeSize(Object node, int h) {
+    if(h == 0) return ((Object[])node).length;
+    if(node instanceof RRBNode) return ((RRBNode)node).size();
+    final Object[] ch = children(node);
+    final int n = ch.length;
+    return n == 0 ? 0 : (n - 1) * fullSize(h-1) + nodeSize(ch[n-1], h-1);
+  }
+  static RRBNode makeNode(Object[] ch, int h) {
+    final int[] sizes = new int[ch.length];
+    int total = 0;
+    for(int idx = 0; idx < ch.length; ++idx) {
+      total += nodeSize(ch[idx], h-1);
+      sizes[idx] = total;
+    }
+    return new RRBNode(h, ch, sizes);
+  }
+  //Index of the child of an RRBNode containing idx.  Children hold at most
+  //fullSize(height-1) elements so the radix guess is a lower bound - the scan from it is
+  //bounded by the child count.  Indexes past the end map to the last child.
+  static int childIndex(RRBNode n, int idx) {
+    final int[] sizes = n.sizes;
+    final int last = sizes.length - 1;
+    final int sh = shiftWidth * n.height;
+    int i = sh < 31 ? Math.min(idx >>> sh, last) : 0;
+    while(i < last && sizes[i] <= idx) ++i;
+    return i;
+  }
+  static Object nodeGet(Object node, int h, int idx) {
+    while(node instanceof RRBNode) {
+      final RRBNode n = (RRBNode)node;
+      final int i = childIndex(n, idx);
+      if(i > 0) idx -= n.sizes[i-1];
+      node = n.children[i];
+      --h;
+    }
+    if(h == 0) return ((Object[])node)[idx];
+    return (h == 1 ? ((Leaf)node).getArray(idx)
+	    : ((Branch)node).getArray(h-1, idx))[idx % tailWidth];
+  }
+  static Object nodeReduce(Object node, int h, int sidx, int eidx, IFn rfn, Object acc) {
+    if(h == 0) {
+      final Object[] c = (Object[])node;
+      for(int idx = sidx; idx < eidx; ++idx) {
+	acc = rfn.invoke(acc, c[idx]);
+	if(RT.isReduced(acc)) return acc;
+      }
+      return acc;
+    }
+    if(!(node instanceof RRBNode))
+      return ((INode)node).reduce(h-1, sidx, eidx, rfn, acc);
+    final RRBNode n = (RRBNode)node;
+    final int[] sizes = n.sizes;
+    for(int i = childIndex(n, sidx); i < sizes.length; ++i) {
+      final int cs = i == 0 ? 0 : sizes[i-1];
+      if(cs >= eidx) break;
+      acc = nodeReduce(n.children[i], h-1, Math.max(sidx, cs) - cs,
+		       Math.min(eidx, sizes[i]) - cs, rfn, acc);
+      if(RT.isReduced(acc)) return acc;
+    }
+    return acc;
+  }
+  @SuppressWarnings("unchecked")
+  static void nodeForEach(Object node, int h, int sidx, int eidx, Consumer cc) {
+    if(h == 0) {
+      final Object[] c = (Object[])node;
+      for(int idx = sidx; idx < eidx; ++idx)
+	cc.accept(c[idx]);
+      return;
+    }
+    if(!(node instanceof RRBNode)) {
+      ((INode)node).forEachRemaining(h-1, sidx, eidx, cc);
+      return;
+    }
+    final RRBNode n = (RRBNode)node;
+    final int[] sizes = n.sizes;
+    for(int i = childIndex(n, sidx); i < sizes.length; ++i) {
+      final int cs = i == 0 ? 0 : sizes[i-1];
+      if(cs >= eidx) break;
+      nodeForEach(n.children[i], h-1, Math.max(sidx, cs) - cs,
+		  Math.min(eidx, sizes[i]) - cs, cc);
+    }
+  }
+  //Copy [sidx, eidx) of node into dst at off.  Regular children are full so their ranges
+  //follow from the radix.
+  static int nodeFill(Object node, int h, int sidx, int eidx, Object[] dst, int off) {
+    if(h == 0) {
+      System.arraycopy(node, sidx, dst, off, eidx - sidx);
+      return off + eidx - sidx;
+    }
+    final Object[] ch = children(node);
+    final int[] sizes = node instanceof RRBNode ? ((RRBNode)node).sizes : null;
+    final int level = fullSize(h-1);
+    for(int i = sizes == null ? sidx / level : childIndex((RRBNode)node, sidx); i < ch.length; ++i) {
+      final int cs = sizes == null ? i * level : i == 0 ? 0 : sizes[i-1];
+      if(cs >= eidx) break;
+      final int ce = sizes == null ? cs + level : sizes[i];
+      off = nodeFill(ch[i], h-1, Math.max(sidx, cs) - cs, Math.min(eidx, ce) - cs, dst, off);
+    }
+    return off;
+  }
+  static Object nodeAssoc(Object node, int h, int idx, Object v) {
+    if(h == 0) {
+      final Object[] c = ((Object[])node).clone();
+      c[idx] = v;
+      return c;
+    }
+    if(node instanceof Leaf)
+      return ((Leaf)node).assocN(null, idx, v, null);
+    if(node instanceof Branch)
+      return ((Branch)node).assocN(null, h-1, idx, v, null);
+    final RRBNode n = (RRBNode)node;
+    final int i = childIndex(n, idx);
+    final Object[] ch = n.children.clone();
+    ch[i] = nodeAssoc(ch[i], h-1, i == 0 ? idx : idx - n.sizes[i-1], v);
+    return new RRBNode(h, ch, n.sizes);
+  }
+  /**
+   * Slice [sidx, eidx) of a node returning a node of the same height.  Only the edge
+   * children are sliced - interior children are shared.
+   */
+  static Object nodeSlice(Object node, int h, int sidx, int eidx) {
+    if(h == 0) {
+      final Object[] c = (Object[])node;
+      return sidx == 0 && eidx == c.length ? c : Arrays.copyOfRange(c, sidx, eidx);
+    }
+    final Object[] ch = children(node);
+    final int[] sizes = node instanceof RRBNode ? ((RRBNode)node).sizes : null;
+    final int level = fullSize(h-1);
+    final int si = sizes == null ? sidx / level : childIndex((RRBNode)node, sidx);
+    final int ei = sizes == null ? (eidx - 1) / level : childIndex((RRBNode)node, eidx - 1);
+    if(sidx == 0 && ei == ch.length - 1 && eidx == (sizes == null ? nodeSize(node, h) : sizes[ei]))
+      return node;
+    final Object[] newCh = new Object[ei - si + 1];
+    for(int i = si; i <= ei; ++i) {
+      final int cs = sizes == null ? i * level : i == 0 ? 0 : sizes[i-1];
+      final int ce = sizes == null ? (i == ch.length - 1 ? cs + nodeSize(ch[i], h-1) : cs + level)
+	: sizes[i];
+      newCh[i - si] = nodeSlice(ch[i], h-1, Math.max(sidx, cs) - cs, Math.min(eidx, ce) - cs);
+    }
+    return makeNode(newCh, h);
+  }
+  //Number of extra nodes a seam may hold beyond the minimum before it is rebalanced.
+  static final int seamExtras = 2;
+  //Children of a node of height h or elements of a chunk.
+  static int slotCount(Object node, int h) {
+    return h == 0 ? ((Object[])node).length : children(node).length;
+  }
+  /**
+   * Rebalance the nodes of height h along a seam.  When there are more than seamExtras
+   * nodes beyond the minimum needed to hold their children, the children of every node
+   * from the first non-full one onward are redistributed into full nodes.  Nodes before
+   * it are full and shared unchanged.  This keeps seams dense so the height of the tree
+   * stays logarithmic under repeated concatenation.
+   */
+  static Object[] rebalance(Object[] ch, int h) {
+    final int n = ch.length;
+    int total = 0;
+    for(int idx = 0; idx < n; ++idx)
+      total += slotCount(ch[idx], h);
+    final int opt = (total + branchWidth - 1) / branchWidth;
+    if(n <= opt + seamExtras)
+      return ch;
+    int first = 0;
+    while(slotCount(ch[first], h) == branchWidth) ++first;
+    int rest = 0;
+    for(int idx = first; idx < n; ++idx)
+      rest += slotCount(ch[idx], h);
+    final Object[] slots = new Object[rest];
+    int off = 0;
+    for(int idx = first; idx < n; ++idx) {
+      final Object[] src = h == 0 ? (Object[])ch[idx] : children(ch[idx]);
+      System.arraycopy(src, 0, slots, off, src.length);
+      off += src.length;
+    }
+    final int nNew = (rest + branchWidth - 1) / branchWidth;
+    final Object[] rv = Arrays.copyOf(ch, first + nNew);
+    for(int idx = 0; idx < nNew; ++idx) {
+      final Object[] group = Arrays.copyOfRange(slots, idx * branchWidth,
+						Math.min(rest, (idx + 1) * branchWidth));
+      rv[first + idx] = h == 0 ? group : makeNode(group, h);
+    }
+    return rv;
+  }
+  //Pack up to 64 children into one or two nodes of height h.
+  static Object[] packNodes(Object[] ch, int h) {
+    ch = rebalance(ch, h-1);
+    if(ch.length <= branchWidth)
+      return new Object[] { makeNode(ch, h) };
+    return new Object[] { makeNode(Arrays.copyOf(ch, branchWidth), h),
+			  makeNode(Arrays.copyOfRange(ch, branchWidth, ch.length), h) };
+  }
+  /**
+   * Join two non-empty nodes returning one or two nodes of height max(ha,hb).  Only the
+   * nodes along the seam are rebuilt.  At each level the seam children are rebalanced
+   * before packing so a seam never holds more than seamExtras nodes beyond the minimum.
+   */
+  static Object[] concatSub(Object a, int ha, Object b, int hb) {
+    if(ha > hb) {
+      final Object[] ca = children(a);
+      final Object[] res = concatSub(ca[ca.length-1], ha-1, b, hb);
+      final Object[] ch = Arrays.copyOf(ca, ca.length - 1 + res.length);
+      System.arraycopy(res, 0, ch, ca.length - 1, res.length);
+      return packNodes(ch, ha);
+    }
+    if(hb > ha) {
+      final Object[] cb = children(b);
+      final Object[] res = concatSub(a, ha, cb[0], hb-1);
+      final Object[] ch = new Object[res.length + cb.length - 1];
+      System.arraycopy(res, 0, ch, 0, res.length);
+      System.arraycopy(cb, 1, ch, res.length, cb.length - 1);
+      return packNodes(ch, hb);
+    }
+    if(ha == 0) {
+      final Object[] ac = (Object[])a;
+      final Object[] bc = (Object[])b;
+      if(ac.length + bc.length > tailWidth)
+	return new Object[] { ac, bc };
+      final Object[] rv = Arrays.copyOf(ac, ac.length + bc.length);
+      System.arraycopy(bc, 0, rv, ac.length, bc.length);
+      return new Object[] { rv };
+    }
+    final Object[] ca = children(a);
+    final Object[] cb = children(b);
+    final Object[] res = concatSub(ca[ca.length-1], ha-1, cb[0], hb-1);
+    final Object[] ch = new Object[ca.length - 1 + res.length + cb.length - 1];
+    System.arraycopy(ca, 0, ch, 0, ca.length - 1);
+    System.arraycopy(res, 0, ch, ca.length - 1, res.length);
+    System.arraycopy(cb, 1, ch, ca.length - 1 + res.length, cb.length - 1);
+    return packNodes(ch, ha);
+  }
+  /**
+   * Concatenate two non-empty nodes returning an RRBNode of height at least 1.
+   */
+  static RRBNode concatNodes(Object a, int ha, Object b, int hb) {
+    final Object[] res = concatSub(a, ha, b, hb);
+    final int h = Math.max(ha, hb);
+    if(h == 0)
+      return makeNode(res, 1);
+    if(res.length != 1)
+      return makeNode(res, h+1);
+    //Collapse single child roots.
+    RRBNode rv = (RRBNode)res[0];
+    while(rv.children.length == 1 && rv.children[0] instanceof RRBNode)
+      rv = (RRBNode)rv.children[0];
+    return rv;
+  }
+  //Rightmost chunk of a non-empty node.
+  static Object[] lastChunk(Object node, int h) {
+    for(; h > 0; --h) {
+      final Object[] ch = children(node);
+      node = ch[ch.length-1];
+    }
+    return (Object[])node;
+  }
+  public boolean isRelaxed() { return root instanceof RRBNode; }
+  /**
+   * The tree part of this list as a node of height shift+1 or null if the tree is empty.
+   */
+  Object treeNode() { return count == nTail() ? null : root; }
+  int treeHeight() { return shift + 1; }
+  /**
+   * Slice the tree part of this list collapsing single child roots.  Returns {node, height}
+   * or null when the slice is empty.
+   */
+  Object[] sliceTree(int sidx, int eidx) {
+    if(sidx >= eidx) return null;
+    Object n = nodeSlice(root, shift + 1, sidx, eidx);
+    int h = shift + 1;
+    while(h > 1) {
+      final Object[] ch = children(n);
+      if(ch.length != 1) break;
+      n = ch[0];
+      --h;
+    }
+    return new Object[] { n, h };
+  }
+
 
   Object[] tail;
   Object root;
@@ -575,6 +884,10 @@ public class TreeListBase implements IMutList {
   }
   public Object get(int idx) {
     checkIndex(idx, count);
+    if(root instanceof RRBNode) {
+      final int cutoff = count - nTail();
+      return idx < cutoff ? nodeGet(root, shift + 1, idx) : tail[idx - cutoff];
+    }
     return getArray(idx)[idx % 32];
   }
   @SuppressWarnings("unchecked")
@@ -609,6 +922,17 @@ public class TreeListBase implements IMutList {
     return reduce(0, count, rfn, acc);
   }
   public Object[] fillArray(int sidx, int eidx, Object[] data) {
+    if(root instanceof RRBNode) {
+      final int cutoff = count - nTail();
+      int off = 0;
+      if(sidx < cutoff)
+	off = nodeFill(root, shift + 1, sidx, Math.min(eidx, cutoff), data, 0);
+      if(eidx > cutoff) {
+	final int ts = Math.max(sidx, cutoff) - cutoff;
+	System.arraycopy(tail, ts, data, off, eidx - cutoff - ts);
+      }
+      return data;
+    }
     Iterator<Object[]> iter = arrayIterator(sidx, eidx);
     int arySidx = sidx - (sidx % tailWidth);
     int writeOff = 0;
@@ -719,45 +1043,23 @@ public class TreeListBase implements IMutList {
   public static Object[] nonNull(Object[] data) {
     return data == null ? emptyObjAry : data;
   }
+  /**
+   * Sublists share all but the edge nodes of the source tree so slicing is O(log n).  The
+   * tree part of the result is relaxed unless the range covers whole regular subtrees.
+   */
   public IMutList subList(int sidx, int eidx) {
     sublistCheck(sidx, eidx, size());
-    int tlen = nTail();
-    int cutoff = count - nTail();
     if(sidx == 0 && eidx == count)
       return this;
     if(sidx == eidx)
       return TreeList.EMPTY;
-    Object[] tailPart = null;
-    if(eidx > cutoff) {
-      int tailSidx = Math.max(sidx, cutoff);
-      tailPart = Arrays.copyOfRange(tail, tailSidx - cutoff, eidx - cutoff);
-    }
-    int newShift = shift;
-    Object newNode = null;
-    Object[] treeTail = null;
-    int offset = sidx % tailWidth;
-    int roundedSidx = sidx - offset;
-    if(sidx < cutoff) {
-      int treeEidx = Math.min(eidx, cutoff);
-      SublistResult treePart = shift==0
-	? ((Leaf)root).subList(roundedSidx, treeEidx)
-	: ((Branch)root).subList(shift, roundedSidx, treeEidx);
-      newNode = treePart.node;
-      treeTail = treePart.tail;
-      while(newShift > 0) {
-	Branch b = (Branch)newNode;
-	if(b.data.length == 1) {
-	  newNode = b.data[0];
-	  newShift--;
-	} else {
-	  break;
-	}
-      }
-    }
-    if(newNode == null)
+    final int cutoff = count - nTail();
+    final Object[] tailPart = eidx > cutoff
+      ? Arrays.copyOfRange(tail, Math.max(sidx, cutoff) - cutoff, eidx - cutoff)
+      : emptyObjAry;
+    final Object[] tree = sliceTree(sidx, Math.min(eidx, cutoff));
+    if(tree == null)
       return new TreeList(new Leaf(), tailPart, meta(), 0, tailPart.length);
-    TreeList newList = new TreeList(newNode, nonNull(tailPart == null ? treeTail : tailPart),
-				    meta(), newShift, eidx-roundedSidx);
-    return SubList.create(offset, newList);
+    return new TreeList(tree[0], tailPart, meta(), (Integer)tree[1] - 1, eidx - sidx);
   }
 }
@@ -0,0 +1,62 @@
+package ham_fisted;
+
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IFn;
+
+
+/**
+ * Hash array mapped trie storage.  Shares hashing, equality and node accounting
+ * with HashBase but stores nodes in a trie of TrieNodes so persistent assoc and
+ * dissoc copy only the path to the changed leaf instead of the whole table.
+ */
+public class TrieBase extends HashBase {
+  static final HashNode[] EMPTY_DATA = new HashNode[0];
+  TrieNode root;
+  public TrieBase(IPersistentMap meta) {
+    super(0.75f, 0, 0, EMPTY_DATA, meta);
+    this.root = new TrieNode(this);
+  }
+  public TrieBase(TrieBase other, IPersistentMap meta) {
+    super(other, meta);
+    this.root = other.root;
+  }
+  final HashNode getNode(Object key) {
+    return TrieNode.getNode(root, this, key, hash(key));
+  }
+  final void assocNode(Object key, Object val) {
+    root = root.assoc(this, 0, key, hash(key), val);
+  }
+  final void dissocNode(Object key) {
+    root = (TrieNode)root.dissoc(this, 0, key, hash(key));
+  }
+  @SuppressWarnings("unchecked")
+  final void mergeNode(Object key, Object val, BiFunction bfn) {
+    final int hc = hash(key);
+    final HashNode e = TrieNode.getNode(root, this, key, hc);
+    if(e != null)
+      root = root.assoc(this, 0, e.k, hc, bfn.apply(e.v, val));
+    else
+      root = root.assoc(this, 0, key, hc, val);
+  }
+  final void mapEntries(BiFunction bfn) {
+    root = (TrieNode)root.mapEntries(this, 0, bfn);
+  }
+  Object reduceNodes(Function<Map.Entry,Object> fn, IFn rfn, Object acc) {
+    final Object[] c = root.children;
+    return TrieNode.unreduce(TrieNode.reduce(c, 0, c.length, fn, rfn, acc));
+  }
+  Iterator nodeIterator(Function<Map.Entry,Object> fn) {
+    final Object[] c = root.children;
+    return new TrieNode.TrieIter(c, 0, c.length, fn);
+  }
+  Spliterator nodeSpliterator(Function<Map.Entry,Object> fn) {
+    final Object[] c = root.children;
+    return new TrieNode.TrieSpliterator(c, 0, c.length, length, fn);
+  }
+}
@@ -0,0 +1,208 @@
+package ham_fisted;
+
+
+import java.util.Map;
+import java.util.Set;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IFn;
+import clojure.lang.IMapEntry;
+import clojure.lang.MapEntry;
+import clojure.lang.IKVReduce;
+
+
+/**
+ * Read only view of a hash array mapped trie map.  Base class of the persistent
+ * and transient trie maps - the static set operations edit rv in place.
+ */
+public class TrieMap extends TrieBase implements IMap, MapSetOps, UpdateValues {
+  public TrieMap(IPersistentMap meta) {
+    super(meta);
+  }
+  public TrieMap(TrieBase other, IPersistentMap meta) {
+    super(other, meta);
+  }
+  public int hashCode() {
+    return hasheq();
+  }
+  public int hasheq() {
+    return CljHash.mapHashcode(this);
+  }
+  public boolean equals(Object o) {
+    return equiv(o);
+  }
+  public boolean equiv(Object o) {
+    return CljHash.mapEquiv(this, o);
+  }
+  public int size() { return this.length; }
+  public boolean isEmpty() { return this.length == 0; }
+  public String toString() {
+    final StringBuilder b =
+      (StringBuilder) reduce(new IFnDef() {
+	  public Object invoke(Object acc, Object v) {
+	    final StringBuilder b = (StringBuilder)acc;
+	    final Map.Entry lf = (Map.Entry)v;
+	    if(b.length() > 2)
+	      b.append(",");
+	    return b.append(lf.getKey())
+	      .append(" ")
+	      .append(lf.getValue());
+	  }
+	}, new StringBuilder().append("{"));
+    return b.append("}").toString();
+  }
+  public Object get(Object key) {
+    final HashNode e = getNode(key);
+    return e != null ? e.v : null;
+  }
+  public Object getOrDefault(Object key, Object dv) {
+    final HashNode e = getNode(key);
+    return e != null ? e.v : dv;
+  }
+  public IMapEntry entryAt(Object key) {
+    final HashNode e = getNode(key);
+    return e != null ? MapEntry.create(e.k, e.v) : null;
+  }
+  public boolean containsKey(Object key) {
+    return getNode(key) != null;
+  }
+  public Object reduce(IFn rfn, Object acc) {
+    return reduceNodes(null, rfn, acc);
+  }
+  public Object kvreduce(IFn rfn, Object acc) {
+    return TrieNode.unreduce(TrieNode.kvreduce(root.children, rfn, acc));
+  }
+  public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				  ParallelOptions options ) {
+    return Reductions.parallelCollectionReduction(initValFn, rfn, mergeFn, this.entrySet(), options);
+  }
+  public Iterator iterator(Function<Map.Entry,Object> leafFn) {
+    return nodeIterator(leafFn);
+  }
+  public Spliterator spliterator(Function<Map.Entry,Object> leafFn) {
+    return nodeSpliterator(leafFn);
+  }
+  public Object remove(Object k) {
+    throw new UnsupportedOperationException();
+  }
+  public Object put(Object key, Object value) {
+    throw new UnsupportedOperationException();
+  }
+  public void putAll(Map m) {
+    throw new UnsupportedOperationException();
+  }
+  public void clear() {
+    throw new UnsupportedOperationException();
+  }
+  public Object compute(Object key, BiFunction bfn) {
+    throw new UnsupportedOperationException();
+  }
+  public Object computeIfAbsent(Object key, Function mappingFunction) {
+    throw new UnsupportedOperationException();
+  }
+  public Object computeIfPresent(Object key, BiFunction remappingFunction) {
+    throw new UnsupportedOperationException();
+  }
+  public Object merge(Object key, Object value, BiFunction remappingFunction) {
+    throw new UnsupportedOperationException();
+  }
+  public void replaceAll(BiFunction function) {
+    throw new UnsupportedOperationException();
+  }
+
+  public static TrieMap union(TrieMap rv, Map o, BiFunction bfn) {
+    if(o instanceof IKVReduce) {
+      ((IKVReduce)o).kvreduce(new IFnDef() {
+	  public Object invoke(Object acc, Object k, Object v) {
+	    rv.mergeNode(k, v, bfn);
+	    return rv;
+	  }
+	}, rv);
+    } else {
+      for(Object ee : o.entrySet()) {
+	final Map.Entry lf = (Map.Entry)ee;
+	rv.mergeNode(lf.getKey(), lf.getValue(), bfn);
+      }
+    }
+    return rv;
+  }
+  public TrieMap union(Map o, BiFunction bfn) {
+    final TransientTrieMap rv = new TransientTrieMap(this);
+    union(rv, o, bfn);
+    return rv.persistent();
+  }
+  @SuppressWarnings("unchecked")
+  public static TrieMap intersection(TrieMap rv, Map o, BiFunction bfn) {
+    rv.mapEntries(new BiFunction() {
+	public Object apply(Object k, Object v) {
+	  final Object ov = o.get(k);
+	  return ov != null ? bfn.apply(v, ov) : null;
+	}
+      });
+    return rv;
+  }
+  public TrieMap intersection(Map o, BiFunction bfn) {
+    final TransientTrieMap rv = new TransientTrieMap(this);
+    intersection(rv, o, bfn);
+    return rv.persistent();
+  }
+  public static TrieMap intersection(TrieMap rv, Set o) {
+    rv.mapEntries(new BiFunction() {
+	public Object apply(Object k, Object v) {
+	  return o.contains(k) ? v : null;
+	}
+      });
+    return rv;
+  }
+  public TrieMap intersection(Set o) {
+    final TransientTrieMap rv = new TransientTrieMap(this);
+    intersection(rv, o);
+    return rv.persistent();
+  }
+  public static TrieMap difference(TrieMap rv, Collection o) {
+    if(o instanceof Set) {
+      rv.mapEntries(new BiFunction() {
+	  public Object apply(Object k, Object v) {
+	    return o.contains(k) ? null : v;
+	  }
+	});
+    } else {
+      for(Object k : o)
+	rv.dissocNode(k);
+    }
+    return rv;
+  }
+  public TrieMap difference(Collection o) {
+    final TransientTrieMap rv = new TransientTrieMap(this);
+    difference(rv, o);
+    return rv.persistent();
+  }
+  public static TrieMap updateValues(TrieMap rv, BiFunction valueMap) {
+    rv.mapEntries(valueMap);
+    return rv;
+  }
+  public TrieMap updateValues(BiFunction valueMap) {
+    final TransientTrieMap rv = new TransientTrieMap(this);
+    updateValues(rv, valueMap);
+    return rv.persistent();
+  }
+  @SuppressWarnings("unchecked")
+  public static TrieMap updateValue(TrieMap rv, Object k, Function fn) {
+    final HashNode e = rv.getNode(k);
+    final Object newv = fn.apply(e != null ? e.v : null);
+    if(newv == null)
+      rv.dissocNode(k);
+    else
+      rv.assocNode(e != null ? e.k : k, newv);
+    return rv;
+  }
+  public TrieMap updateValue(Object k, Function fn) {
+    final TransientTrieMap rv = new TransientTrieMap(this);
+    updateValue(rv, k, fn);
+    return rv.persistent();
+  }
+}
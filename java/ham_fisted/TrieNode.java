@@ -0,0 +1,342 @@
+package ham_fisted;
+
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import clojure.lang.IFn;
+import clojure.lang.IDeref;
+import clojure.lang.RT;
+
+
+/**
+ * Bitmap indexed node of a hash array mapped trie.  Each child slot holds either
+ * another TrieNode or a HashNode chain whose members all share the same full
+ * hashcode.  Nodes whose owner is the editing map are updated in place, all
+ * other nodes are copied on write so persistent versions share structure.
+ */
+final class TrieNode {
+  static final Object[] EMPTY_CHILDREN = new Object[0];
+  // Hashes are 32 bits and we consume 5 bits per level so 7 levels is the max.
+  static final int MAX_DEPTH = 7;
+  final HashBase owner;
+  int bitmap;
+  Object[] children;
+
+  TrieNode(HashBase owner, int bitmap, Object[] children) {
+    this.owner = owner;
+    this.bitmap = bitmap;
+    this.children = children;
+  }
+  TrieNode(HashBase owner) {
+    this(owner, 0, EMPTY_CHILDREN);
+  }
+
+  TrieNode editable(HashBase nowner) {
+    return owner == nowner ? this : new TrieNode(nowner, bitmap, children.clone());
+  }
+
+  static HashNode getNode(TrieNode node, HashBase hb, Object key, int hash) {
+    int shift = 0;
+    while(true) {
+      final int bit = IntegerOps.bitpos(shift, hash);
+      final int bm = node.bitmap;
+      if((bm & bit) == 0) return null;
+      final Object c = node.children[IntegerOps.index(bm, bit)];
+      if(c instanceof TrieNode) {
+	node = (TrieNode)c;
+	shift += 5;
+      } else {
+	HashNode e = (HashNode)c;
+	if(e.hashcode != hash) return null;
+	Object k;
+	for(; e != null && !((k = e.k) == key || hb.equals(k, key)); e = e.nextNode);
+	return e;
+      }
+    }
+  }
+
+  static TrieNode pair(HashBase nowner, int shift, HashNode a, HashNode b) {
+    final int ma = IntegerOps.mask(shift, a.hashcode);
+    final int mb = IntegerOps.mask(shift, b.hashcode);
+    if(ma == mb)
+      return new TrieNode(nowner, 1 << ma, new Object[] { pair(nowner, shift + 5, a, b) });
+    return new TrieNode(nowner, (1 << ma) | (1 << mb),
+			ma < mb ? new Object[] { a, b } : new Object[] { b, a });
+  }
+
+  TrieNode insertChild(HashBase nowner, int bit, int idx, Object child) {
+    final Object[] c = children;
+    final int n = c.length;
+    final Object[] nc = new Object[n+1];
+    System.arraycopy(c, 0, nc, 0, idx);
+    nc[idx] = child;
+    System.arraycopy(c, idx, nc, idx+1, n-idx);
+    if(owner == nowner) {
+      bitmap |= bit;
+      children = nc;
+      return this;
+    }
+    return new TrieNode(nowner, bitmap | bit, nc);
+  }
+
+  TrieNode assoc(HashBase nowner, int shift, Object key, int hash, Object val) {
+    final int bit = IntegerOps.bitpos(shift, hash);
+    final int idx = IntegerOps.index(bitmap, bit);
+    if((bitmap & bit) == 0)
+      return insertChild(nowner, bit, idx, nowner.newNode(key, hash, val));
+    final Object c = children[idx];
+    final Object nc;
+    if(c instanceof TrieNode) {
+      nc = ((TrieNode)c).assoc(nowner, shift + 5, key, hash, val);
+    } else {
+      final HashNode e = (HashNode)c;
+      if(e.hashcode == hash) {
+	HashNode f = e;
+	Object k;
+	for(; f != null && !((k = f.k) == key || nowner.equals(k, key)); f = f.nextNode);
+	if(f != null && f.v == val) return this;
+	// We use f.k here for identity short circuiting in HashNode assoc
+	nc = e.assoc(nowner, f != null ? f.k : key, hash, val);
+      } else {
+	nc = pair(nowner, shift + 5, e, nowner.newNode(key, hash, val));
+      }
+    }
+    if(nc == c) return this;
+    final TrieNode rv = editable(nowner);
+    rv.children[idx] = nc;
+    return rv;
+  }
+
+  Object removeChild(HashBase nowner, int shift, int bit, int idx) {
+    final Object[] c = children;
+    final int n = c.length;
+    if(shift > 0) {
+      if(n == 1) return null;
+      if(n == 2 && c[idx ^ 1] instanceof HashNode) return c[idx ^ 1];
+    }
+    final Object[] nc = new Object[n-1];
+    System.arraycopy(c, 0, nc, 0, idx);
+    System.arraycopy(c, idx+1, nc, idx, n-idx-1);
+    if(owner == nowner) {
+      bitmap ^= bit;
+      children = nc;
+      return this;
+    }
+    return new TrieNode(nowner, bitmap ^ bit, nc);
+  }
+
+  /**
+   * Returns this if nothing changed, a TrieNode, or - below the root - either a lone
+   * HashNode chain that the parent should inline or null if this node is now empty.
+   */
+  Object dissoc(HashBase nowner, int shift, Object key, int hash) {
+    final int bit = IntegerOps.bitpos(shift, hash);
+    if((bitmap & bit) == 0) return this;
+    final int idx = IntegerOps.index(bitmap, bit);
+    final Object c = children[idx];
+    final Object nc;
+    if(c instanceof TrieNode) {
+      nc = ((TrieNode)c).dissoc(nowner, shift + 5, key, hash);
+    } else {
+      final HashNode e = (HashNode)c;
+      if(e.hashcode != hash) return this;
+      nc = e.dissoc(nowner, key);
+    }
+    if(nc == c) return this;
+    if(nc == null) return removeChild(nowner, shift, bit, idx);
+    if(shift > 0 && children.length == 1 && nc instanceof HashNode) return nc;
+    final TrieNode rv = editable(nowner);
+    rv.children[idx] = nc;
+    return rv;
+  }
+
+  @SuppressWarnings("unchecked")
+  static HashNode mapChain(HashBase nowner, HashNode e, BiFunction bfn) {
+    if(e == null) return null;
+    final Object nv = bfn.apply(e.k, e.v);
+    final HashNode next = mapChain(nowner, e.nextNode, bfn);
+    if(nv == null) {
+      nowner.dec(e);
+      return next;
+    }
+    if(nv == e.v && next == e.nextNode) return e;
+    final HashNode rv = new HashNode(nowner, e);
+    rv.v = nv;
+    rv.nextNode = next;
+    return rv;
+  }
+
+  /**
+   * Rebuild the trie replacing each value with bfn(k,v) and removing entries for
+   * which bfn returns null.  Unchanged subtrees are shared with the source.
+   */
+  Object mapEntries(HashBase nowner, int shift, BiFunction bfn) {
+    final Object[] c = children;
+    final int n = c.length;
+    final Object[] nc = new Object[n];
+    int bm = bitmap, nbm = 0, ni = 0;
+    boolean changed = false;
+    for(int idx = 0; idx < n; ++idx) {
+      final int bit = Integer.lowestOneBit(bm);
+      bm ^= bit;
+      final Object o = c[idx];
+      final Object no = o instanceof TrieNode
+	? ((TrieNode)o).mapEntries(nowner, shift + 5, bfn)
+	: mapChain(nowner, (HashNode)o, bfn);
+      changed |= no != o;
+      if(no != null) {
+	nc[ni++] = no;
+	nbm |= bit;
+      }
+    }
+    if(!changed) return this;
+    if(shift > 0) {
+      if(ni == 0) return null;
+      if(ni == 1 && nc[0] instanceof HashNode) return nc[0];
+    }
+    return new TrieNode(nowner, nbm, ni == n ? nc : Arrays.copyOf(nc, ni));
+  }
+
+  static Object reduce(Object[] c, int sidx, int eidx, Function<Map.Entry,Object> fn,
+		       IFn rfn, Object acc) {
+    for(int idx = sidx; idx < eidx; ++idx) {
+      final Object o = c[idx];
+      if(o instanceof TrieNode) {
+	final Object[] cc = ((TrieNode)o).children;
+	acc = reduce(cc, 0, cc.length, fn, rfn, acc);
+	if(RT.isReduced(acc)) return acc;
+      } else {
+	for(HashNode e = (HashNode)o; e != null; e = e.nextNode) {
+	  acc = rfn.invoke(acc, fn == null ? e : fn.apply(e));
+	  if(RT.isReduced(acc)) return acc;
+	}
+      }
+    }
+    return acc;
+  }
+
+  static Object kvreduce(Object[] c, IFn rfn, Object acc) {
+    final int n = c.length;
+    for(int idx = 0; idx < n; ++idx) {
+      final Object o = c[idx];
+      if(o instanceof TrieNode) {
+	acc = kvreduce(((TrieNode)o).children, rfn, acc);
+	if(RT.isReduced(acc)) return acc;
+      } else {
+	for(HashNode e = (HashNode)o; e != null; e = e.nextNode) {
+	  acc = rfn.invoke(acc, e.k, e.v);
+	  if(RT.isReduced(acc)) return acc;
+	}
+      }
+    }
+    return acc;
+  }
+
+  static Object unreduce(Object acc) {
+    return RT.isReduced(acc) ? ((IDeref)acc).deref() : acc;
+  }
+
+  static class TrieIter implements Iterator {
+    final Function<Map.Entry,Object> fn;
+    final Object[][] nodes = new Object[MAX_DEPTH+1][];
+    final int[] idxs = new int[MAX_DEPTH+1];
+    final int rootEnd;
+    int depth;
+    HashNode l;
+    TrieIter(Object[] c, int sidx, int eidx, Function<Map.Entry,Object> fn) {
+      this.fn = fn;
+      this.nodes[0] = c;
+      this.idxs[0] = sidx;
+      this.rootEnd = eidx;
+      this.depth = 0;
+      advance();
+    }
+    void advance() {
+      if(l != null) {
+	l = l.nextNode;
+	if(l != null) return;
+      }
+      while(depth >= 0) {
+	final Object[] c = nodes[depth];
+	final int idx = idxs[depth];
+	if(idx < (depth == 0 ? rootEnd : c.length)) {
+	  idxs[depth] = idx + 1;
+	  final Object o = c[idx];
+	  if(o instanceof TrieNode) {
+	    ++depth;
+	    nodes[depth] = ((TrieNode)o).children;
+	    idxs[depth] = 0;
+	  } else {
+	    l = (HashNode)o;
+	    return;
+	  }
+	} else {
+	  --depth;
+	}
+      }
+    }
+    public boolean hasNext() { return l != null; }
+    public Object next() {
+      final HashNode rv = l;
+      advance();
+      return fn.apply(rv);
+    }
+  }
+
+  /**
+   * Splits across the children of a node and descends into a lone child subtree
+   * when only one slot remains so splits stay balanced by trie structure.
+   */
+  static class TrieSpliterator implements Spliterator, ITypedReduce {
+    final Function<Map.Entry,Object> fn;
+    Object[] c;
+    int sidx;
+    int eidx;
+    long estimateSize;
+    TrieIter iter;
+    TrieSpliterator(Object[] c, int sidx, int eidx, long es, Function<Map.Entry,Object> fn) {
+      this.c = c;
+      this.sidx = sidx;
+      this.eidx = eidx;
+      this.estimateSize = es;
+      this.fn = fn;
+    }
+    public TrieSpliterator trySplit() {
+      if(iter != null) return null;
+      while(eidx - sidx == 1 && c[sidx] instanceof TrieNode) {
+	c = ((TrieNode)c[sidx]).children;
+	sidx = 0;
+	eidx = c.length;
+      }
+      final int nIdxs = eidx - sidx;
+      if(nIdxs > 1) {
+	final int oldIdx = eidx;
+	eidx = sidx + nIdxs/2;
+	final long es = estimateSize;
+	estimateSize = (es * (eidx - sidx)) / nIdxs;
+	return new TrieSpliterator(c, eidx, oldIdx, es - estimateSize, fn);
+      }
+      return null;
+    }
+    public int characteristics() { return Spliterator.DISTINCT | Spliterator.IMMUTABLE; }
+    public long estimateSize() { return estimateSize; }
+    @SuppressWarnings("unchecked")
+    public boolean tryAdvance(Consumer cc) {
+      if(iter == null)
+	iter = new TrieIter(c, sidx, eidx, fn);
+      if(iter.hasNext()) {
+	cc.accept(iter.next());
+	return true;
+      }
+      return false;
+    }
+    public Object reduce(IFn rfn, Object acc) {
+      return unreduce(TrieNode.reduce(c, sidx, eidx, fn, rfn, acc));
+    }
+  }
+}
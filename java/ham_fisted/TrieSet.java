@@ -0,0 +1,109 @@
+package ham_fisted;
+
+
+import java.util.Set;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IFn;
+import clojure.lang.IReduceInit;
+
+
+/**
+ * Read only view of a hash array mapped trie set.  Base class of the persistent
+ * and transient trie sets - the static set operations edit rv in place.
+ */
+public class TrieSet extends TrieBase implements ISet, SetOps {
+  public TrieSet(IPersistentMap meta) {
+    super(meta);
+  }
+  public TrieSet(TrieBase other, IPersistentMap meta) {
+    super(other, meta);
+  }
+  public int hashCode() {
+    return hasheq();
+  }
+  public int hasheq() {
+    return CljHash.setHashcode(this);
+  }
+  public boolean equals(Object o) {
+    return equiv(o);
+  }
+  public boolean equiv(Object o) {
+    return CljHash.setEquiv(this, o);
+  }
+  public int size() { return this.length; }
+  public boolean contains(Object key) {
+    return getNode(key) != null;
+  }
+  public Iterator iterator() {
+    return nodeIterator((e)->e.getKey());
+  }
+  public Spliterator spliterator() {
+    return nodeSpliterator((e)->e.getKey());
+  }
+  public Object reduce(IFn rfn, Object acc) {
+    return reduceNodes((e)->e.getKey(), rfn, acc);
+  }
+  public Object parallelReduction(IFn initValFn, IFn rfn, IFn mergeFn,
+				  ParallelOptions options ) {
+    return Reductions.parallelCollectionReduction(initValFn, rfn, mergeFn, this, options);
+  }
+  public boolean add(Object k) {
+    throw new UnsupportedOperationException();
+  }
+  public boolean remove(Object k) {
+    throw new UnsupportedOperationException();
+  }
+  public void clear() {
+    throw new UnsupportedOperationException();
+  }
+
+  public static TrieSet union(TrieSet rv, Collection rhs) {
+    if(rhs instanceof IReduceInit) {
+      ((IReduceInit)rhs).reduce(new IFnDef() {
+	  public Object invoke(Object acc, Object k) {
+	    rv.assocNode(k, HashSet.VALUE);
+	    return rv;
+	  }
+	}, rv);
+    } else {
+      for(Object k : rhs)
+	rv.assocNode(k, HashSet.VALUE);
+    }
+    return rv;
+  }
+  public TrieSet union(Collection rhs) {
+    final TransientTrieSet rv = new TransientTrieSet(this);
+    union(rv, rhs);
+    return rv.persistent();
+  }
+  public static TrieSet intersection(TrieSet rv, Set rhs) {
+    rv.mapEntries(new BiFunction() {
+	public Object apply(Object k, Object v) {
+	  return rhs.contains(k) ? v : null;
+	}
+      });
+    return rv;
+  }
+  public TrieSet intersection(Set rhs) {
+    final TransientTrieSet rv = new TransientTrieSet(this);
+    intersection(rv, rhs);
+    return rv.persistent();
+  }
+  public static TrieSet difference(TrieSet rv, Set rhs) {
+    rv.mapEntries(new BiFunction() {
+	public Object apply(Object k, Object v) {
+	  return rhs.contains(k) ? null : v;
+	}
+      });
+    return rv;
+  }
+  public TrieSet difference(Set rhs) {
+    final TransientTrieSet rv = new TransientTrieSet(this);
+    difference(rv, rhs);
+    return rv.persistent();
+  }
+}
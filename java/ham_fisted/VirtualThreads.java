@@ -0,0 +1,128 @@
+package ham_fisted;
+
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Executors for io bound work.  On jdk-21+ tasks run on virtual threads; older jdks fall
+ * back to a cached pool of daemon platform threads.  The virtual thread executor is looked
+ * up via reflection so this class compiles and loads on jdk-8.
+ */
+public class VirtualThreads {
+  private VirtualThreads(){}
+
+  static final ExecutorService virtualExecutor = findVirtualExecutor();
+  static volatile ExecutorService fallbackExecutor;
+
+  static ExecutorService findVirtualExecutor() {
+    try {
+      final Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService)m.invoke(null);
+    } catch(Throwable e) {
+      //Missing on jdk < 19 and throws on 19-20 unless preview features are enabled.
+      return null;
+    }
+  }
+
+  /**
+   * True if tasks submitted to executor() run on virtual threads.
+   */
+  public static boolean isAvailable() { return virtualExecutor != null; }
+
+  /**
+   * Unbounded executor that starts a thread per task - virtual threads when available else
+   * a shared cached pool of daemon threads.  Callers must not shut down this executor.
+   */
+  public static ExecutorService executor() {
+    if(virtualExecutor != null)
+      return virtualExecutor;
+    ExecutorService rv = fallbackExecutor;
+    if(rv == null) {
+      synchronized(VirtualThreads.class) {
+	rv = fallbackExecutor;
+	if(rv == null) {
+	  final AtomicLong idx = new AtomicLong();
+	  rv = Executors.newCachedThreadPool(new ThreadFactory() {
+	      public Thread newThread(Runnable r) {
+		final Thread t = new Thread(r, "hamf-io-" + idx.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	      }
+	    });
+	  fallbackExecutor = rv;
+	}
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Executor that runs at most maxConcurrency tasks at once on executor().  Submitting
+   * blocks while maxConcurrency tasks are running so the permits, not a lookahead window,
+   * bound the amount of in-flight work.  Shutting down a bounded executor only stops it
+   * accepting new tasks.
+   */
+  public static ExecutorService bounded(int maxConcurrency) {
+    return new BoundedExecutor(executor(), maxConcurrency);
+  }
+
+  public static class BoundedExecutor extends AbstractExecutorService {
+    final ExecutorService inner;
+    final Semaphore permits;
+    final int maxConcurrency;
+    volatile boolean shutdown;
+    public BoundedExecutor(ExecutorService inner, int maxConcurrency) {
+      if(maxConcurrency < 1)
+	throw new IllegalArgumentException("maxConcurrency must be positive");
+      this.inner = inner;
+      this.maxConcurrency = maxConcurrency;
+      this.permits = new Semaphore(maxConcurrency);
+    }
+    public int maxConcurrency() { return maxConcurrency; }
+    public void execute(final Runnable r) {
+      if(shutdown)
+	throw new RejectedExecutionException("Executor has been shut down");
+      try {
+	permits.acquire();
+      } catch(InterruptedException e) {
+	Thread.currentThread().interrupt();
+	throw new RejectedExecutionException(e);
+      }
+      try {
+	inner.execute(new Runnable() {
+	    public void run() {
+	      try { r.run(); } finally { permits.release(); }
+	    }
+	  });
+      } catch(RuntimeException e) {
+	permits.release();
+	throw e;
+      }
+    }
+    public void shutdown() { shutdown = true; }
+    public List<Runnable> shutdownNow() {
+      shutdown = true;
+      return java.util.Collections.emptyList();
+    }
+    public boolean isShutdown() { return shutdown; }
+    public boolean isTerminated() {
+      return shutdown && permits.availablePermits() == maxConcurrency;
+    }
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      if(!permits.tryAcquire(maxConcurrency, timeout, unit))
+	return false;
+      permits.release(maxConcurrency);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package ham_fisted.jmh;
+
+
+import java.util.concurrent.TimeUnit;
+import clojure.java.api.Clojure;
+import clojure.lang.IFn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JMH entry points for the benchmark bodies and states defined in ham-fisted.jmh.  Method
+ * names are test_impl so results group the same way as results/*.edn.  Return values are
+ * consumed by jmh so the work cannot be elided.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class Benchmarks {
+  static {
+    Clojure.var("clojure.core", "require").invoke(Clojure.read("ham-fisted.jmh"));
+  }
+  static IFn fn(String name) { return Clojure.var("ham-fisted.jmh", name); }
+
+  static final IFn longKeysFn = fn("long-keys");
+  static final IFn longDataFn = fn("long-data");
+  static final IFn doubleDataFn = fn("double-data");
+  static final IFn hamfHashmapFn = fn("hamf-hashmap");
+  static final IFn javaHashmapFn = fn("java-hashmap");
+  static final IFn treeListFn = fn("tree-list");
+  static final IFn bloomFilterFn = fn("bloom-filter");
+  static final IFn parallelOptionsFn = fn("parallel-options");
+
+  static final IFn hamfHashmapPut = fn("hamf-hashmap-put");
+  static final IFn javaHashmapPut = fn("java-hashmap-put");
+  static final IFn longHashmapPut = fn("long-hashmap-put");
+  static final IFn hashmapGet = fn("hashmap-get");
+  static final IFn hamfPersistentAssoc = fn("hamf-persistent-assoc");
+  static final IFn cljPersistentAssoc = fn("clj-persistent-assoc");
+  static final IFn treeListConj = fn("tree-list-conj");
+  static final IFn mutTreeListAdd = fn("mut-tree-list-add");
+  static final IFn cljVectorConj = fn("clj-vector-conj");
+  static final IFn listNth = fn("list-nth");
+  static final IFn doubleReduction = fn("double-reduction");
+  static final IFn longReduction = fn("long-reduction");
+  static final IFn doubleSum = fn("double-sum");
+  static final IFn parallelReduction = fn("parallel-reduction");
+  static final IFn groupByReduce = fn("group-by-reduce");
+  static final IFn bloomInsert = fn("bloom-insert");
+  static final IFn bloomFind = fn("bloom-find");
+
+  @Param({"100", "10000", "1000000"})
+  public long n;
+
+  Object longKeys;
+  Object longData;
+  Object doubleData;
+  Object hamfHashmap;
+  Object javaHashmap;
+  Object treeList;
+  Object bloomFilter;
+  Object parallelOptions;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    longKeys = longKeysFn.invoke(n);
+    longData = longDataFn.invoke(n);
+    doubleData = doubleDataFn.invoke(n);
+    hamfHashmap = hamfHashmapFn.invoke(longKeys);
+    javaHashmap = javaHashmapFn.invoke(longKeys);
+    treeList = treeListFn.invoke(n);
+    bloomFilter = bloomFilterFn.invoke(longKeys);
+    parallelOptions = parallelOptionsFn.invoke();
+  }
+
+  @Benchmark public Object hashmapPut_hamf() { return hamfHashmapPut.invoke(longKeys); }
+  @Benchmark public Object hashmapPut_java() { return javaHashmapPut.invoke(longKeys); }
+  @Benchmark public Object hashmapPut_hamfLong() { return longHashmapPut.invoke(longKeys); }
+  @Benchmark public Object hashmapGet_hamf() { return hashmapGet.invoke(hamfHashmap, longKeys); }
+  @Benchmark public Object hashmapGet_java() { return hashmapGet.invoke(javaHashmap, longKeys); }
+  @Benchmark public Object persistentAssoc_hamf() { return hamfPersistentAssoc.invoke(longKeys); }
+  @Benchmark public Object persistentAssoc_clj() { return cljPersistentAssoc.invoke(longKeys); }
+  @Benchmark public Object vectorConj_hamf() { return treeListConj.invoke(n); }
+  @Benchmark public Object vectorConj_hamfMut() { return mutTreeListAdd.invoke(n); }
+  @Benchmark public Object vectorConj_clj() { return cljVectorConj.invoke(n); }
+  @Benchmark public Object vectorNth_hamf() { return listNth.invoke(treeList); }
+  @Benchmark public Object typedReduction_double() { return doubleReduction.invoke(doubleData); }
+  @Benchmark public Object typedReduction_long() { return longReduction.invoke(longData); }
+  @Benchmark public Object typedReduction_sum() { return doubleSum.invoke(doubleData); }
+  @Benchmark public Object parallelReduction_hamf() {
+    return parallelReduction.invoke(parallelOptions, longData);
+  }
+  @Benchmark public Object groupByReduce_hamf() { return groupByReduce.invoke(longData); }
+  @Benchmark public Object bloomFilter_insert() { return bloomInsert.invoke(longKeys); }
+  @Benchmark public Object bloomFilter_find() { return bloomFind.invoke(bloomFilter, longKeys); }
+}
@@ -0,0 +1,222 @@
+(ns ham-fisted.jmh
+  "JMH benchmarks.  The functions below build the benchmark states and are the measured
+  bodies - jmh/java/ham_fisted/jmh/Benchmarks.java holds the jmh annotated entry points
+  that call them.
+
+  Run with `scripts/jmh` - arguments are passed to jmh so for instance `scripts/jmh -p n=100`
+  restricts the run to one size.  Results are written to results/ in the same shape as the
+  perftest results - a vector of maps of
+  `{impl {:mean-μs :variance-μs :alloc-bytes} :n-elems :test :numeric?}` - with the
+  allocation per operation taken from the gc profiler."
+  (:require [ham-fisted.api :as hamf]
+            [ham-fisted.function :as hamf-fn]
+            [ham-fisted.reduce :as hamf-rf]
+            [ham-fisted.bloom-filter :as bf]
+            [clojure.java.io :as io]
+            [clojure.java.shell :as sh]
+            [clojure.string :as str])
+  (:import [java.util HashMap Map Random List]
+           [clojure.lang PersistentHashMap]
+           [ham_fisted IMutList MutTreeList TreeList BlockSplitBloomFilter ParallelOptions]
+           [org.openjdk.jmh.runner Runner]
+           [org.openjdk.jmh.runner.options OptionsBuilder CommandLineOptions]
+           [org.openjdk.jmh.profile GCProfiler]
+           [org.openjdk.jmh.results RunResult Result])
+  (:gen-class))
+
+
+(set! *warn-on-reflection* true)
+(set! *unchecked-math* :warn-on-boxed)
+
+
+;;States - called once per trial by jmh.
+
+(defn long-keys
+  "Random boxed longs so every map implementation sees the same keys."
+  ^IMutList [^long n]
+  (let [r (Random. 7)
+        rv (hamf/object-array-list n)]
+    (dotimes [_ n] (.add rv (.nextLong r)))
+    rv))
+
+(defn double-data
+  ^IMutList [^long n]
+  (let [r (Random. 7)
+        rv (hamf/double-array-list n)]
+    (dotimes [_ n] (.addDouble rv (.nextDouble r)))
+    rv))
+
+(defn long-data
+  ^IMutList [^long n]
+  (hamf/long-array-list (hamf/range n)))
+
+(defn hamf-hashmap
+  ^Map [keys]
+  (let [m (hamf/mut-map)]
+    (run! #(.put m % %) keys)
+    m))
+
+(defn java-hashmap
+  ^Map [keys]
+  (let [m (HashMap.)]
+    (run! #(.put m % %) keys)
+    m))
+
+(defn tree-list
+  ^List [^long n]
+  (hamf/immut-list (hamf/range n)))
+
+(defn bloom-filter
+  ^BlockSplitBloomFilter [keys]
+  (let [bf (bf/bloom-filter (count keys) 0.01)]
+    (run! #(bf/insert-hash! bf (long %)) keys)
+    bf))
+
+(defn parallel-options
+  ^ParallelOptions []
+  (hamf-rf/options->parallel-options {:min-n 1000}))
+
+
+;;Benchmarks - the return value is consumed by jmh so the work cannot be elided.
+
+(defn- put-all
+  [^Map m keys]
+  (reduce (fn [^Map m k] (.put m k k) m) m keys))
+
+(defn hamf-hashmap-put [keys] (put-all (hamf/mut-map) keys))
+(defn java-hashmap-put [keys] (put-all (HashMap.) keys))
+(defn long-hashmap-put [keys] (put-all (hamf/mut-long-hashtable-map) keys))
+
+(defn hashmap-get
+  ^long [^Map m keys]
+  (long (reduce (fn [^long acc k] (if (.get m k) (unchecked-inc acc) acc)) 0 keys)))
+
+(defn- assoc-all
+  [m keys]
+  (reduce (fn [m k] (assoc m k k)) m keys))
+
+(defn hamf-persistent-assoc [keys] (assoc-all hamf/empty-map keys))
+(defn clj-persistent-assoc [keys] (assoc-all PersistentHashMap/EMPTY keys))
+
+(defn tree-list-conj
+  [^long n]
+  (reduce conj TreeList/EMPTY (hamf/range n)))
+
+(defn mut-tree-list-add
+  [^long n]
+  (reduce (fn [^MutTreeList l v] (.add l v) l) (MutTreeList.) (hamf/range n)))
+
+(defn clj-vector-conj
+  [^long n]
+  (reduce conj [] (hamf/range n)))
+
+(defn list-nth
+  ^long [^List l]
+  (let [n (.size l)]
+    (loop [idx 0
+           acc 0]
+      (if (< idx n)
+        (recur (unchecked-inc idx) (+ acc (long (.get l idx))))
+        acc))))
+
+(defn double-reduction
+  ^double [data]
+  (double (reduce (hamf-fn/double-binary-operator a b (+ a b)) 0.0 data)))
+
+(defn long-reduction
+  ^long [data]
+  (long (reduce (hamf-fn/long-binary-operator a b (+ a b)) 0 data)))
+
+(defn double-sum
+  ^double [data]
+  (hamf/sum data))
+
+(defn parallel-reduction
+  ^long [^ParallelOptions options data]
+  (long (hamf-rf/preduce (constantly 0)
+                         (hamf-fn/long-binary-operator a b (+ a b))
+                         (hamf-fn/long-binary-operator a b (+ a b))
+                         options data)))
+
+(defn group-by-reduce
+  [data]
+  (hamf/group-by-reduce #(rem (long %) 127) (constantly 0)
+                        (hamf-fn/long-binary-operator a b (+ a b))
+                        (hamf-fn/long-binary-operator a b (+ a b))
+                        data))
+
+(defn bloom-insert
+  [keys]
+  (let [bf (bf/bloom-filter (count keys) 0.01)]
+    (reduce (fn [bf k] (bf/insert-hash! bf (long k))) bf keys)))
+
+(defn bloom-find
+  ^long [^BlockSplitBloomFilter bf keys]
+  (long (reduce (fn [^long acc k] (if (.findHash bf (long k)) (unchecked-inc acc) acc)) 0 keys)))
+
+
+;;Runner
+
+(defn- git-sha
+  []
+  (let [{:keys [exit out]} (sh/sh "git" "rev-parse" "--short" "HEAD")]
+    (if (== 0 (long exit)) (str/trim out) "unknown")))
+
+(defn- ->us
+  "Convert a jmh score in unit to microseconds."
+  ^double [score unit]
+  (let [score (double score)]
+    (case (first (str/split (str unit) #"/"))
+      "ns" (* score 1e-3)
+      "us" score
+      "ms" (* score 1e3)
+      "s" (* score 1e6)
+      score)))
+
+(defn- kebab
+  [^String s]
+  (keyword (str/lower-case (str/replace s #"([a-z0-9])([A-Z])" "$1-$2"))))
+
+(defn jmh->results
+  "Convert jmh run results into the results/*.edn layout.  Benchmark methods are named
+  `test_impl` and every result of a test with the same `n` param is grouped into one map."
+  [results]
+  (->> results
+       (map (fn [^RunResult rr]
+              (let [params (.getParams rr)
+                    agg (.getAggregatedResult rr)
+                    ^Result primary (.getPrimaryResult agg)
+                    ^Result alloc (some (fn [[k v]] (when (str/ends-with? k "gc.alloc.rate.norm") v))
+                                        (.getSecondaryResults agg))
+                    mname (last (str/split (.getBenchmark params) #"\."))
+                    [test impl] (str/split mname #"_" 2)
+                    unit (.getScoreUnit primary)
+                    err (->us (let [e (.getScoreError primary)] (if (Double/isNaN e) 0.0 e)) unit)]
+                {:test (kebab test)
+                 :impl (kebab impl)
+                 :n-elems (Long/parseLong (.getParam params "n"))
+                 :result {:mean-μs (->us (.getScore primary) unit)
+                          ;;99.9% confidence interval -> approximate variance
+                          :variance-μs (let [sd (/ err 3.29)] (* sd sd))
+                          :alloc-bytes (when alloc (.getScore alloc))}})))
+       (group-by (juxt :test :n-elems))
+       (map (fn [[[test n-elems] results]]
+              (reduce (fn [acc r] (assoc acc (:impl r) (:result r)))
+                      {:n-elems n-elems :test test :numeric? true}
+                      results)))
+       (sort-by (juxt (comp name :test) :n-elems))
+       (vec)))
+
+(defn -main
+  [& args]
+  (let [opts (-> (OptionsBuilder.)
+                 (.parent (CommandLineOptions. (into-array String args)))
+                 (.include "ham_fisted.jmh.Benchmarks")
+                 (.addProfiler GCProfiler)
+                 (.build))
+        results (.run (Runner. opts))
+        fname (str "results/jmh-" (git-sha) "-jdk-" (System/getProperty "java.version") ".edn")]
+    (io/make-parents fname)
+    (spit fname (pr-str (jmh->results results)))
+    (println "Results stored to:" fname)
+    (shutdown-agents)))
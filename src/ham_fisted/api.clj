@@ -67,7 +67,14 @@
             IFnDef$OLLO IFnDef$LongPredicate IFnDef$DoublePredicate IFnDef$Predicate
             Consumers$IncConsumer Reductions$IndexedDoubleAccum Reductions$IndexedLongAccum
             Reductions$IndexedAccum MutableMap IAMapEntry MapForward TypedNth
-            TreeList MutTreeList]
+            TreeList MutTreeList LongTreeList DoubleTreeList PersistentTrieMap PersistentTrieSet
+            LongLongHashMap LongDoubleHashMap StripedHashMap BiFunctions OpenHashMap
+            PerfectHashMap PerfectLongHashMap LongHashMap
+            BufferLists$LongBufferList BufferLists$DoubleBufferList LongIndexedList
+            BigArrayLists$LongBigArrayList BigArrayLists$DoubleBigArrayList
+            ExternalSort ExternalSort$SortedRuns ArraySection ArrayKernels ChunkedLines
+            ColumnGroupBy ColumnGroupBy$Agg StripedSum StripedLongAccum BoundedLinkedHashMap
+            HashBase]
            [ham_fisted.alists ByteArrayList ShortArrayList CharArrayList FloatArrayList
             BooleanArrayList]
            [clojure.lang ITransientAssociative2 ITransientCollection Indexed
@@ -173,6 +180,10 @@
        :doc "Constant persistent empty map"} empty-map PersistentHashMap/EMPTY)
 (def ^{:tag PersistentHashSet
        :doc "Constant persistent empty set"} empty-set PersistentHashSet/EMPTY)
+(def ^{:tag PersistentTrieMap
+       :doc "Constant persistent empty hash-array-mapped-trie map"} empty-trie-map PersistentTrieMap/EMPTY)
+(def ^{:tag PersistentTrieSet
+       :doc "Constant persistent empty hash-array-mapped-trie set"} empty-trie-set PersistentTrieSet/EMPTY)
 (def ^{:tag ArrayImmutList
        :doc "Constant persistent empty vec"} empty-vec ArrayImmutList/EMPTY)
 
@@ -390,6 +401,76 @@
   (^UnsharedHashMap [xform options data] (mut-hashtable-map xform options data)))
 
 
+(defn mut-long-long-map
+  "Create a mutable open-addressing map of long keys to long values.  Keys and values are
+  stored in flat primitive arrays - use `.getLong`, `.putLong` and `.accPlusLong` to
+  avoid boxing.  kvreduce with a function hinted `[acc ^long k ^long v]` reduces over the
+  primitive pairs directly.  Supports the java.util.Map interface and conj!/assoc!, values
+  are cast to long.  `persistent!` copies into a persistent long hash map."
+  (^LongLongHashMap [] (LongLongHashMap.))
+  (^LongLongHashMap [data] (mut-long-long-map nil data))
+  (^LongLongHashMap [xform data]
+   (cond
+     (number? data)
+     (LongLongHashMap. nil (int data))
+     (and (nil? xform) (instance? Map data))
+     (doto (LongLongHashMap. nil (.size ^Map data))
+       (.putAll data))
+     (nil? xform)
+     (into (LongLongHashMap.) data)
+     :else
+     (into (LongLongHashMap.) xform data))))
+
+
+(defn mut-open-map
+  "Create a mutable open-addressing map with object keys.  Hashes, keys and values are
+  stored in parallel arrays so lookups do not chase per-entry nodes and map entries are
+  only created when something asks for them - kvreduce and reductions over `keys` or `vals`
+  read the arrays directly.  Supports the java.util.Map interface, conj!/assoc! and the
+  map-union family of functions.  `persistent!` copies into a persistent hash map.
+
+  Options:
+
+  * `:hash-provider` - ham_fisted.HashProvider used for hashing and equality.  Defaults
+  to the same provider as `mut-map`."
+  (^OpenHashMap [] (OpenHashMap.))
+  (^OpenHashMap [data] (mut-open-map nil nil data))
+  (^OpenHashMap [xform data] (mut-open-map xform nil data))
+  (^OpenHashMap [xform options data]
+   (let [hp (get options :hash-provider)]
+     (cond
+       (number? data)
+       (OpenHashMap. hp nil (int data))
+       (and (nil? xform) (instance? Map data))
+       (doto (OpenHashMap. hp nil (.size ^Map data))
+         (.putAll data))
+       (nil? xform)
+       (into (OpenHashMap. hp nil 0) data)
+       :else
+       (into (OpenHashMap. hp nil 0) xform data)))))
+
+
+(defn mut-long-double-map
+  "Create a mutable open-addressing map of long keys to double values.  Keys and values
+  are stored in flat primitive arrays - use `.getDouble`, `.putDouble` and
+  `.accPlusDouble` to avoid boxing.  kvreduce with a function hinted
+  `[acc ^long k ^double v]` reduces over the primitive pairs directly.  Supports the
+  java.util.Map interface and conj!/assoc!, values are cast to double."
+  (^LongDoubleHashMap [] (LongDoubleHashMap.))
+  (^LongDoubleHashMap [data] (mut-long-double-map nil data))
+  (^LongDoubleHashMap [xform data]
+   (cond
+     (number? data)
+     (LongDoubleHashMap. nil (int data))
+     (and (nil? xform) (instance? Map data))
+     (doto (LongDoubleHashMap. nil (.size ^Map data))
+       (.putAll data))
+     (nil? xform)
+     (into (LongDoubleHashMap.) data)
+     :else
+     (into (LongDoubleHashMap.) xform data))))
+
+
 (defn mut-long-map
   "Create a mutable implementation of java.util.Map specialized to long keys.  This object
   efficiently implements ITransient map so you can use assoc! and persistent! on it but you can additionally use
@@ -397,11 +478,39 @@
   replaceAll and merge.  Attempting to store any non-numeric value will result in an exception.
 
   If data is an object array it is treated as a flat key-value list which is distinctly
-  different than how conj! treats object arrays.  You have been warned."
+  different than how conj! treats object arrays.  You have been warned.
+
+  Options:
+
+  * `:value-type` - `:long` or `:double` return a primitive open-addressing map - see
+  [[mut-long-long-map]] and [[mut-long-double-map]].  Defaults to boxed object values."
   (^UnsharedLongHashMap [] (mut-long-hashtable-map))
   (^UnsharedLongHashMap [data] (mut-long-hashtable-map data))
   (^UnsharedLongHashMap [xform data] (mut-long-hashtable-map xform data))
-  (^UnsharedLongHashMap [xform options data] (mut-long-hashtable-map xform options data)))
+  (^Map [xform options data]
+   (case (get options :value-type)
+     :long (mut-long-long-map xform data)
+     :double (mut-long-double-map xform data)
+     (mut-long-hashtable-map xform options data))))
+
+
+(defn mut-concurrent-map
+  "Create a thread safe hamf hashmap with lock striped bins.  get, put, compute,
+  computeIfAbsent, merge and remove may be called from many threads at once - reductions
+  and iteration should wait until the updates are finished.  `persistent!` shares the
+  table with the resulting persistent hash map without copying.
+
+  Used by [[group-by-reduce]] and [[frequencies]] when passed `{:shared-map? true}`."
+  (^StripedHashMap [] (StripedHashMap.))
+  (^StripedHashMap [data]
+   (cond
+     (number? data)
+     (StripedHashMap. nil (int data))
+     (instance? Map data)
+     (doto (StripedHashMap. nil (.size ^Map data))
+       (.putAll data))
+     :else
+     (into (StripedHashMap.) data))))
 
 
 (defn constant-countable?
@@ -451,6 +560,79 @@ ham_fisted.PersistentHashMap
        (persistent!))))
 
 
+(defn immut-trie-map
+  "Create a persistent map backed by a hash array mapped trie.  Single-key assoc and
+  dissoc copy only the path to the changed leaf so this map is a better fit than
+  [[immut-map]] when the map is large and is updated one key at a time.  Bulk
+  operations such as [[map-union]] work through a transient and return a new trie map.
+
+  If data is an object array it is treated as a flat key-value list which is distinctly
+  different than how conj! treats object arrays.  You have been warned."
+  (^PersistentTrieMap [] empty-trie-map)
+  (^PersistentTrieMap [data]
+   (if (instance? obj-ary-cls data)
+     (let [^objects data data
+           n (alength data)]
+       (when-not (== 0 (rem n 2))
+         (throw (RuntimeException. "Data length not evenly divisible by 2")))
+       (loop [idx 0
+              m (transient empty-trie-map)]
+         (if (< idx n)
+           (recur (+ idx 2) (assoc! m (aget data idx) (aget data (unchecked-inc idx))))
+           (persistent! m))))
+     (into empty-trie-map data))))
+
+
+(defn perfect-map
+  "Create a read only persistent map backed by a minimal perfect hash.  Building the map is
+  slower than [[immut-map]] but `get` is one hash, one table lookup and one key
+  comparison with no bucket chains - a good fit for dictionaries built once and then read
+  from hot loops.  assoc and dissoc copy into a persistent hash map.
+
+  Options:
+
+  * `:hash-provider` - ham_fisted.HashProvider used for hashing and equality.  Defaults to
+  the same provider as [[immut-map]]."
+  (^PerfectHashMap [data] (perfect-map nil data))
+  (^PerfectHashMap [options data]
+   (PerfectHashMap. ^HashProvider (get options :hash-provider)
+                    (if (instance? Map data) data (mut-map data))
+                    nil)))
+
+
+(defn perfect-long-map
+  "Create a read only persistent map of long keys backed by a minimal perfect hash.  See
+  [[perfect-map]].  Maps with numeric values can be saved with [[write-perfect-long-map]]
+  and loaded with [[mmap-perfect-long-map]]."
+  ^PerfectLongHashMap [data]
+  (PerfectLongHashMap. (if (instance? Map data) data (mut-map data))))
+
+
+(defn freeze
+  "Freeze a map into a perfect hash map for fast reads - long keyed hamf maps become a
+  [[perfect-long-map]] and everything else a [[perfect-map]]."
+  [data]
+  (if (or (instance? LongHashMap data) (instance? LongLongHashMap data)
+          (instance? LongDoubleHashMap data))
+    (perfect-long-map data)
+    (perfect-map data)))
+
+
+(defn write-perfect-long-map
+  "Write a [[perfect-long-map]] with numeric values to a file in its compact serialized
+  form.  Values are stored as longs unless any value is a float or double."
+  [^PerfectLongHashMap m path]
+  (.writeTo m (str path))
+  path)
+
+
+(defn mmap-perfect-long-map
+  "Memory map a file written by [[write-perfect-long-map]].  The key and displacement
+  tables are copied out of the mapping in bulk so loading does not rebuild the hash."
+  ^PerfectLongHashMap [path]
+  (PerfectLongHashMap/mmap (str path) nil))
+
+
 (defn hash-map
   "Drop-in replacement to Clojure's hash-map function."
   ([] empty-map)
@@ -557,6 +739,30 @@ ham_fisted.PersistentHashMap
        (tduce nil (mut-map-rf (constantly rv)) data)))))
 
 
+(defn bounded-linked-hashmap
+  "Access ordered [[linked-hashmap]] holding at most max-size entries - reads and writes
+  make an entry most recently used and inserting past max-size evicts the least recently
+  used entry.  Not thread safe; meant for caches confined to one thread.
+
+  Options:
+
+  * `:admission` - `:lru` (default) always keeps the new entry.  `:lfu` tracks key frequency
+     in a small count-min sketch and keeps the new entry only if its key has been used more
+     often than the least recently used entry's key (TinyLFU).
+  * `:eviction-fn` - Function of [k v] called after an entry is evicted."
+  (^BoundedLinkedHashMap [max-size] (bounded-linked-hashmap max-size nil))
+  (^BoundedLinkedHashMap [max-size options]
+   (let [eviction-fn (get options :eviction-fn)]
+     (BoundedLinkedHashMap. (int max-size)
+                            (case (get options :admission :lru)
+                              :lru false
+                              :lfu true)
+                            (when eviction-fn
+                              (reify BiConsumer
+                                (accept [this k v] (eviction-fn k v))))
+                            nil))))
+
+
 (defn java-concurrent-hashmap
   "Create a java concurrent hashmap which is still the fastest possible way to solve a
   few concurrent problems."
@@ -597,6 +803,14 @@ ham_fisted.PersistentHashMap
   (^PersistentHashSet [options data] (into empty-set data)))
 
 
+(defn immut-trie-set
+  "Create a persistent set backed by a hash array mapped trie.  conj and disj copy only
+  the path to the changed leaf.  This object supports conversion to transients via
+  `transient`."
+  (^PersistentTrieSet [] empty-trie-set)
+  (^PersistentTrieSet [data] (into empty-trie-set data)))
+
+
 (defn java-hashset
   "Create a java hashset which is still the fastest possible way to solve a few problems."
   (^java.util.HashSet [] (java.util.HashSet.))
@@ -843,13 +1057,46 @@ ham_fisted.PersistentHashMap
     (set-union-fallback s1 s2)))
 
 
+(def ^:private parallel-union-min-n 100000)
+
+
+(defn- parallel-union-maps
+  "Union maps into a new [[mut-map]] in parallel when maps are all hamf hashtable maps with
+  at least `:union-min-n` (default 100000) combined entries.  Returns nil otherwise."
+  [bfn maps options]
+  (let [^List maps (if (instance? List maps) maps (vec maps))]
+    (when (and (> (.size maps) 1)
+               (not (impl/in-fork-join-task?))
+               (every? #(and (instance? ham_fisted.HashMap %)
+                             (not (instance? ham_fisted.LinkedHashMap %)))
+                       maps))
+      (let [popts (options->parallel-options options)]
+        (when (and (> (.-parallelism popts) 1)
+                   (>= (long (reduce (fn [^long acc ^Map m] (+ acc (.size m))) 0 maps))
+                       (long (get options :union-min-n parallel-union-min-n))))
+          (ham_fisted.HashMap/parallelUnion (mut-map) (clojure.core/into-array HashBase maps)
+                                 (->bi-function bfn) popts))))))
+
+
 (defn union-reduce-maps
   "Do an efficient union reduction across many maps using bfn to update values.
   If the first map is mutable the union is done mutably into the first map and it is
-  returned."
-  ([bfn maps]
-   (let [bfn (->bi-function bfn)]
-     (-> (reduce #(map-union bfn %1 %2) maps)
+  returned.
+
+  When the first map is persistent and every map is a hamf hashtable map the union is done
+  in parallel with each task merging a disjoint slice of the hash buckets of all maps.
+
+  Options are passed to [[ham-fisted.reduce/options->parallel-options]] and additionally:
+
+  * `:union-min-n` - Minimum combined size of the maps before the union is parallelized.
+     Defaults to 100000."
+  ([bfn maps] (union-reduce-maps bfn maps nil))
+  ([bfn maps options]
+   (let [bfn (->bi-function bfn)
+         maps (vec maps)]
+     (-> (or (when-not (mutable-map? (first maps))
+               (parallel-union-maps bfn maps options))
+             (reduce #(map-union bfn %1 %2) maps))
          (persistent!)))))
 
 
@@ -1082,6 +1329,11 @@ ham_fisted.PersistentHashMap
   pmap in that it uses the ForkJoinPool/commonPool for parallelism as opposed to the
   agent pool - this makes it compose with pgroups and dtype-next's parallelism system.
 
+  Elements are mapped in batches sized from the observed time per element so cheap map-fns
+  are not dominated by task overhead.  Within a fork-join task (for instance a
+  [[ham-fisted.reduce/preduce]] rfn) batches are forked and joined so nested pmaps still
+  run in parallel.
+
     Before using this primitive please see if [[ham-fisted.reduce/preduce]] will work.
 
   Is guaranteed to *not* trigger the need for `shutdown-agents`."
@@ -1105,7 +1357,7 @@ ham_fisted.PersistentHashMap
 (defn pmap-opts
   "[[pmap]] but takes an extra option map as the *first* argument.  This is useful if you,
    for instance, want to control exactly the parallel options arguments such as
-  `:n-lookahead`.  See docs for [[ham-fisted.reduce/options->parallel-options]]."
+  `:n-lookahead` or `:max-batch-size` - the largest number of elements mapped in one task.  See docs for [[ham-fisted.reduce/options->parallel-options]]."
   [opts map-fn & sequences]
   (impl/pmap (hamf-rf/options->parallel-options opts) map-fn sequences))
 
@@ -1119,6 +1371,19 @@ ham_fisted.PersistentHashMap
                                                  :n-lookahead n-lookahead}) map-fn sequences))
 
 
+(defn pmap-virtual
+  "pmap for io bound tasks where each element is mapped on its own virtual thread with at most
+  max-concurrency elements in flight - for example thousands of concurrent file reads or
+  requests.  On jdks without virtual threads this falls back to daemon platform threads.
+  See [[ham-fisted.reduce/options->parallel-options]] `:pool :virtual` to use the same
+  executor with other options."
+  [max-concurrency map-fn & sequences]
+  (impl/pmap (hamf-rf/options->parallel-options {:pool :virtual
+                                                 :max-concurrency max-concurrency
+                                                 :max-batch-size 1})
+             map-fn sequences))
+
+
 (defn persistent!
   "If object is an ITransientCollection, call clojure.core/persistent!.  Else return
   collection."
@@ -1150,25 +1415,42 @@ ham_fisted.PersistentHashMap
               l r))))
 
 (defn freq-reducer
-  "Return a hamf parallel reducer that performs a frequencies operation."
+  "Return a hamf parallel reducer that performs a frequencies operation.  If `:map-fn`
+  returns a [[mut-long-long-map]] counts are accumulated in place as primitive longs and
+  no finalization is required.  With `:shared-map?` every thread counts into one
+  [[mut-concurrent-map]] so there is no merge phase - the reducer is then only valid
+  for a single reduction."
   ([options]
-   (let [map-fn (get options :map-fn mut-map)
+   (let [shared? (get options :shared-map?)
+         map-fn (if shared?
+                  (let [m (mut-concurrent-map)] (constantly m))
+                  (get options :map-fn mut-map))
          cfn (function _v (Consumers$IncConsumer.))
          sk? (get options :skip-finalize?)
          fin-bfn (when-not sk? (bi-function k v (deref v)))]
      (reify
        protocols/Reducer
        (->init-val-fn [this] map-fn)
-       (->rfn [this] (fn [acc v]
-                       (.inc ^Consumers$IncConsumer (.computeIfAbsent ^Map acc v cfn))
-                       acc))
+       (->rfn [this] (if shared?
+                       (fn [acc v]
+                         (.compute ^Map acc v BiFunctions/incBiFn)
+                         acc)
+                       (fn [acc v]
+                         (if (instance? LongLongHashMap acc)
+                           (.accPlusLong ^LongLongHashMap acc (long v) 1)
+                           (.inc ^Consumers$IncConsumer (.computeIfAbsent ^Map acc v cfn)))
+                         acc)))
        protocols/ParallelReducer
-       (->merge-fn [this] #(map-union hamf-rf/reducible-merge %1 %2))
+       (->merge-fn [this] (fn [l r]
+                            (if (instance? LongLongHashMap l)
+                              (.accPlusLong ^LongLongHashMap l ^LongLongHashMap r)
+                              (map-union hamf-rf/reducible-merge l r))))
        protocols/Finalize
        (finalize [this v]
-         (if sk?
-           v
-           (update-values v fin-bfn))))))
+         (cond
+           (or sk? (instance? LongLongHashMap v)) v
+           shared? (persistent! v)
+           :else (update-values v fin-bfn))))))
   ([] (freq-reducer nil)))
 
 (def ^:private nil-freq-reducer (freq-reducer nil))
@@ -1176,7 +1458,14 @@ ham_fisted.PersistentHashMap
                                                               :ordered? true}))
 
 (defn frequencies
-  "Faster implementation of clojure.core/frequencies."
+  "Faster implementation of clojure.core/frequencies.
+
+  Options are passed to [[preduce]] along with:
+
+  * `:map-fn` - Function returning the map to count into - defaults to [[mut-map]].  Use
+     [[mut-long-long-map]] when counting longs to store the counts unboxed.
+  * `:shared-map?` - Count into a single [[mut-concurrent-map]] shared by all threads
+     avoiding the merge of per-thread maps.  Useful when there are many distinct values."
   ([coll] (frequencies nil coll))
   ([options coll]
    (preduce-reducer (if options (freq-reducer options) nil-freq-reducer)
@@ -1269,7 +1558,12 @@ nil
      get those via the undocumented function memo-stats.
   * `:eviction-fn - Function that receives 3 arguments, [args v cause], when a value is
      evicted.  Causes the keywords `:collected :expired :explicit :replaced and :size`.  See
-     [caffeine documentation](https://www.javadoc.io/static/com.github.ben-manes.caffeine/caffeine/2.9.3/com/github/benmanes/caffeine/cache/RemovalCause.html) for cause definitions."
+     [caffeine documentation](https://www.javadoc.io/static/com.github.ben-manes.caffeine/caffeine/2.9.3/com/github/benmanes/caffeine/cache/RemovalCause.html) for cause definitions.
+  * `:cache-impl` - `:caffeine` (default) or `:lru` or `:lfu` to back the memoized fn with a
+     [[bounded-linked-hashmap]] of `:max-size` (required) entries with the matching admission.
+     These avoid the caffeine cache's per entry and maintenance overhead but are *not* thread
+     safe so the memoized fn must be confined to one thread.  Only `:max-size` and
+     `:eviction-fn` apply; evictions have the cause `:size`."
   ([memo-fn] (memoize memo-fn nil))
   ([memo-fn {:keys [write-ttl-ms
                     access-ttl-ms
@@ -1277,51 +1571,77 @@ nil
                     weak-values?
                     max-size
                     record-stats?
-                    eviction-fn] :as options}]
-   (let [^LoadingCache cache (hamf-caffeine/cache
-                              (assoc options :load-fn
-                                     (fn [args]
-                                       (Box.
-                                        (case (count args)
-                                          0 (memo-fn)
-                                          1 (memo-fn (args 0))
-                                          2 (memo-fn (args 0) (args 1))
-                                          3 (memo-fn (args 0) (args 1) (args 2))
-                                          (.applyTo ^IFn memo-fn (seq args)))))))]
+                    eviction-fn
+                    cache-impl] :as options}]
+   (let [load-fn (fn [args]
+                   (Box.
+                    (case (count args)
+                      0 (memo-fn)
+                      1 (memo-fn (args 0))
+                      2 (memo-fn (args 0) (args 1))
+                      3 (memo-fn (args 0) (args 1) (args 2))
+                      (.applyTo ^IFn memo-fn (seq args)))))
+         [cache ^IFn cache-get]
+         (case (or cache-impl :caffeine)
+           :caffeine
+           (let [^LoadingCache cache (hamf-caffeine/cache (assoc options :load-fn load-fn))]
+             [cache (fn [args] (.get cache args))])
+           (:lru :lfu)
+           (let [_ (when-not max-size
+                     (throw (RuntimeException. (str "memoize :cache-impl " cache-impl
+                                                    " requires :max-size"))))
+                 ^Map cache (bounded-linked-hashmap
+                             max-size {:admission cache-impl
+                                       :eviction-fn (when eviction-fn
+                                                      (fn [args ^Box v]
+                                                        (eviction-fn args (.-val v) :size)))})]
+             [cache (fn [args]
+                      (if-let [v (.get cache args)]
+                        v
+                        ;;Load outside of the map so memo-fn may recurse into the memoized fn.
+                        (let [v (load-fn args)]
+                          (.put cache args v)
+                          v)))]))]
      (-> (fn
-           ([] (.val ^Box (.get cache [])))
-           ([a] (.val ^Box (.get cache [a])))
-           ([a b] (.val ^Box (.get cache [a b])))
-           ([a b c] (.val ^Box (.get cache [a b c])))
+           ([] (.val ^Box (cache-get [])))
+           ([a] (.val ^Box (cache-get [a])))
+           ([a b] (.val ^Box (cache-get [a b])))
+           ([a b c] (.val ^Box (cache-get [a b c])))
            ([a b c & args] (let [^IMutList obj-ary (mut-list)]
                              (.add obj-ary a)
                              (.add obj-ary b)
                              (.add obj-ary c)
                              (.addAllReducible obj-ary args)
-                             (.val ^Box (.get cache (persistent! obj-ary))))))
+                             (.val ^Box (cache-get (persistent! obj-ary))))))
          (with-meta {:cache cache})))))
 
 
 (defn clear-memoized-fn!
   "Clear a memoized function backing store."
   [memoized-fn]
-  (if-let [map (get (meta memoized-fn) :cache)]
-    (hamf-caffeine/invalidate-all! map)
-    (throw (Exception. (str "Arg is not a memoized fn - " memoized-fn))))
+  (let [cache (get (meta memoized-fn) :cache)]
+    (cond
+      (instance? Cache cache) (hamf-caffeine/invalidate-all! cache)
+      (instance? Map cache) (.clear ^Map cache)
+      :else (throw (Exception. (str "Arg is not a memoized fn - " memoized-fn)))))
   memoized-fn)
 
 
 (defn memoize-cache-as-map
   "Return the memoize backing store as an implementation of java.util.Map."
   ^Map [memoized-fn]
-  (when-let [^Cache cache (get (meta memoized-fn) :cache)]
-    (.asMap cache)))
+  (let [cache (get (meta memoized-fn) :cache)]
+    (if (instance? Cache cache)
+      (.asMap ^Cache cache)
+      cache)))
 
 
 (defn evict-memoized-call
   [memo-fn fn-args]
-  (when-let [cache (memoize-cache-as-map memo-fn)]
-    (hamf-caffeine/invalidate! cache (vec fn-args))))
+  (let [cache (get (meta memo-fn) :cache)]
+    (cond
+      (instance? Cache cache) (hamf-caffeine/invalidate! cache (vec fn-args))
+      (instance? Map cache) (doto ^Map cache (.remove (vec fn-args))))))
 
 
 (defn ^:no-doc memo-stats
@@ -1368,10 +1688,19 @@ nil
     - `mut-map` - Fast merge, fast update, in-place immutable conversion via `persistent!`.
     - `java-hashmap` - fast merge, fast update, just a simple java.util.HashMap-based reduction.
     - `#(LinkedHashMap.)` - When used with options {:ordered? true} the result keys will be
-       in order *and* the result values will be reduced in order."
+       in order *and* the result values will be reduced in order.
+    - `mut-long-long-map`, `mut-long-double-map` - long keys and numeric reduction values
+       stored unboxed in flat arrays.
+  * `:shared-map?` - Reduce every thread into one [[mut-concurrent-map]] so no merge is
+    required.  Best for high cardinality keys where merging per-thread maps dominates.
+    The result is the table itself converted via `persistent!` with no copy.
+  * `:union-min-n` - Per-thread maps are merged pairwise in place until their combined size
+    reaches this, larger maps are unioned in parallel.  Defaults to 100000."
   ([key-fn init-val-fn rfn merge-fn options coll]
    (let [has-map-fn? (get :map-fn options)
-         map-fn (get options :map-fn mut-map)
+         map-fn (if (get options :shared-map?)
+                  (let [m (mut-concurrent-map)] (constantly m))
+                  (get options :map-fn mut-map))
          merge-bifn (->bi-function merge-fn)
          rfn (cond
                (or (= identity key-fn) (nil? key-fn))
@@ -1402,12 +1731,40 @@ nil
                  ;;new value to the reducer otherwise.
                  (.compute l (key-fn v) (bi-function k acc (rfn (or acc (init-val-fn)) v)))
                  l))]
-     (cond-> (preduce map-fn rfn #(mut-map-union! merge-bifn %1 %2)
-                      (merge {:min-n 1000} options)
-                      coll)
-       ;;In the case where no map-fn was passed in we return a persistent hash map.
-       (not has-map-fn?)
-       (persistent!))))
+     (if (or (contains? options :map-fn) (get options :shared-map?)
+             (get options :unmerged-result?))
+       (cond-> (preduce map-fn rfn #(mut-map-union! merge-bifn %1 %2)
+                        (merge {:min-n 1000} options)
+                        coll)
+         ;;In the case where no map-fn was passed in we return a persistent hash map.
+         (not has-map-fn?)
+         (persistent!))
+       ;;Small per-thread maps are merged pairwise in place.  Once they are large they are
+       ;;gathered in order - at most parallelism of them, later maps are merged in place
+       ;;into the last one - and unioned in one pass so large results are merged in
+       ;;parallel.
+       (let [min-n (long (get options :union-min-n parallel-union-min-n))
+             max-maps (max 2 (.-parallelism (options->parallel-options options)))
+             rv (preduce map-fn rfn
+                         (fn [l r]
+                           (if (and (instance? Map l) (instance? Map r)
+                                    (< (+ (.size ^Map l) (.size ^Map r)) min-n))
+                             (mut-map-union! merge-bifn l r)
+                             (reduce (fn [^List acc m]
+                                       (if (< (.size acc) max-maps)
+                                         (doto acc (.add m))
+                                         (let [lidx (dec (.size acc))]
+                                           (.set acc lidx (mut-map-union! merge-bifn (.get acc lidx) m))
+                                           acc)))
+                                     (if (instance? Map l) (doto (ArrayList.) (.add l)) l)
+                                     (if (instance? Map r) [r] r))))
+                         (merge {:min-n 1000} options)
+                         coll)]
+         (persistent!
+          (if (instance? Map rv)
+            rv
+            (or (parallel-union-maps merge-bifn rv options)
+                (reduce #(.union ^MapSetOps %1 %2 merge-bifn) rv))))))))
   ([key-fn init-val-fn rfn merge-fn coll]
    (group-by-reduce key-fn init-val-fn rfn merge-fn nil coll)))
 
@@ -1535,14 +1892,26 @@ nil
 
 
 (defn splice
-  "Splice v2 into v1 at idx.  Returns a persistent vector."
+  "Splice v2 into v1 at idx.  Returns a persistent vector.  When v1 is a persistent
+  hamf vector the splice is O(log n) and shares structure with v1."
   [v1 idx v2]
-  (let [retval (mut-list)
-        v1 (->collection v1)]
-    (.addAll retval (subvec v1 0 idx))
-    (.addAll retval (->collection v2))
-    (.addAll retval (subvec v1 idx))
-    (persistent! retval)))
+  (if (instance? TreeList v1)
+    (.splice ^TreeList v1 (int idx) (if (instance? TreeList v2) v2 (persistent! (mut-list v2))))
+    (let [retval (mut-list)
+          v1 (->collection v1)]
+      (.addAll retval (subvec v1 0 idx))
+      (.addAll retval (->collection v2))
+      (.addAll retval (subvec v1 idx))
+      (persistent! retval))))
+
+
+(defn insert-at
+  "Insert val into v at idx returning a persistent vector.  O(log n) for persistent hamf
+  vectors."
+  [v idx val]
+  (if (instance? TreeList v)
+    (.insertAt ^TreeList v (int idx) val)
+    (splice v idx [val])))
 
 
 (defn empty?
@@ -1568,13 +1937,22 @@ nil
            args)))
 
 (defn apply-concatv
+  "Concatenate a sequence of collections into a [[mut-list]].  When every collection is a
+  persistent vector they are concatenated in O(log n) and the result is the transient of the
+  concatenated vector."
   [data]
-  (reduce (fn [^IMutList v data]
-            (when data
-              (.addAllReducible v data))
-            v)
-          (mut-list)
-          data))
+  ;;data is walked twice so one-shot reducibles are realized first.
+  (let [^List data (if (instance? List data) data (mut-list data))]
+    (if (and (not (.isEmpty data))
+             (every? #(instance? TreeList %) data))
+      (.asTransient ^TreeList (reduce (fn [^TreeList v data] (.concat v data))
+                                      TreeList/EMPTY data))
+      (reduce (fn [^IMutList v data]
+                (when data
+                  (.addAllReducible v data))
+                v)
+              (mut-list)
+              data))))
 
 (defn concatv
   "non-lazily concat a set of items returning a persistent vector.  "
@@ -1584,12 +1962,17 @@ nil
    (cond
      (nil? v1) (vec v2)
      (nil? v2) (vec v1)
+     (and (instance? TreeList v1) (instance? TreeList v2)) (.concat ^TreeList v1 v2)
      :else
      (-> (concat-reducible (mut-list) v1 v2)
          (persistent!))))
   ([v1 v2 & args]
-   (-> (concat-reducible (mut-list) v1 v2 args)
-       (persistent!))))
+   (if (and (instance? TreeList v1) (instance? TreeList v2)
+            (every? #(or (nil? %) (instance? TreeList %)) args))
+     (reduce (fn [^TreeList v data] (if data (.concat v data) v))
+             (.concat ^TreeList v1 v2) args)
+     (-> (concat-reducible (mut-list) v1 v2 args)
+         (persistent!)))))
 
 
 (defn concata
@@ -1816,22 +2199,27 @@ ham-fisted.api> (binary-search data 1.1 nil)
   "Sort a collection of data returning an array of indexes.  The collection must be
   random access and the return value is an integer array of indexes which will read the
   input data in sorted order.  Faster implementations are provided when the collection
-  is an integer, long, or double array.  See also [[reindex]]."
+  is an integer, long, or double array.  See also [[reindex]].
+
+  Long indexed lists such as [[long-big-array-list]] return a long indexed list of
+  long indexes."
   ([comp coll]
-   (let [^List coll (if (instance? RandomAccess coll)
-                      coll
-                      (let [coll (->collection coll)]
-                        (if (instance? RandomAccess coll)
-                          coll
-                          (object-array-list coll))))]
-     (->
-      (if (instance? IMutList coll)
-        (.sortIndirect ^IMutList coll (when comp (->comparator comp)))
-        (let [idata (iarange (.size coll))
-              idx-comp (ArrayLists/intIndexComparator coll comp)]
-          (IntArrays/parallelQuickSort idata ^IntComparator idx-comp)
-          idata))
-      (->collection))))
+   (if (instance? LongIndexedList coll)
+     (.sortIndirect ^LongIndexedList coll (when comp (->comparator comp)))
+     (let [^List coll (if (instance? RandomAccess coll)
+                        coll
+                        (let [coll (->collection coll)]
+                          (if (instance? RandomAccess coll)
+                            coll
+                            (object-array-list coll))))]
+       (->
+        (if (instance? IMutList coll)
+          (.sortIndirect ^IMutList coll (when comp (->comparator comp)))
+          (let [idata (iarange (.size coll))
+                idx-comp (ArrayLists/intIndexComparator coll comp)]
+            (IntArrays/parallelQuickSort idata ^IntComparator idx-comp)
+            idata))
+        (->collection)))))
   ([coll]
    (argsort hamf-fn/comp-nan-last coll)))
 
@@ -2043,6 +2431,15 @@ ham-fisted.api> (binary-search data 1.1 nil)
   ([data] `(ArrayLists/toList (long-array ~data))))
 
 
+(defn immut-long-list
+  "Create a persistent vector of longs.  Leaves are long arrays so getLong, conj, assoc and
+  primitive reductions do not box.  transient returns a MutLongTreeList."
+  (^LongTreeList [] LongTreeList/EMPTY)
+  (^LongTreeList [data]
+   (let [^longs data (long-array data)]
+     (LongTreeList/create data 0 (alength data) nil))))
+
+
 (defn float-array-list
   (^IMutList [] (FloatArrayList. (clojure.core/float-array 4) 0 nil))
   (^IMutList [data]
@@ -2086,6 +2483,84 @@ ham-fisted.api> (binary-search data 1.1 nil)
        (.addAllReducible (->reducible cap-or-data))))))
 
 
+(defn off-heap-long-array-list
+  "A growable long array list stored in direct (off heap) memory in chunks of 2^27
+  elements.  Supports the same reductions, fills, sorts and parallel reductions as
+  [[long-array-list]] but the data is not on the java heap."
+  (^IMutList [] (BufferLists$LongBufferList.))
+  (^IMutList [cap-or-data]
+   (if (number? cap-or-data)
+     (BufferLists$LongBufferList. (int cap-or-data))
+     (doto (BufferLists$LongBufferList.)
+       (.addAllReducible (->reducible cap-or-data))))))
+
+
+(defn off-heap-double-array-list
+  "A growable double array list stored in direct (off heap) memory.  See
+  [[off-heap-long-array-list]]."
+  (^IMutList [] (BufferLists$DoubleBufferList.))
+  (^IMutList [cap-or-data]
+   (if (number? cap-or-data)
+     (BufferLists$DoubleBufferList. (int cap-or-data))
+     (doto (BufferLists$DoubleBufferList.)
+       (.addAllReducible (->reducible cap-or-data))))))
+
+
+(defn mmap-long-array-list
+  "Memory map a file of native byte order longs as a fixed size long list.  The data stays
+  in the file - reductions, [[argsort]] and [[preduce]] read it through the mapping.
+
+  Options:
+
+  * `:read-only?` - map the file read only.  Defaults to false.
+  * `:n-elems` - number of elements.  When provided the file is created or extended to
+    hold n-elems longs.  Defaults to the size of the file."
+  (^IMutList [path] (mmap-long-array-list path nil))
+  (^IMutList [path options]
+   (BufferLists$LongBufferList/mmap (str path) (boolean (get options :read-only?))
+                                    (long (get options :n-elems -1)) nil)))
+
+
+(defn mmap-double-array-list
+  "Memory map a file of native byte order doubles as a fixed size double list.  See
+  [[mmap-long-array-list]] for options."
+  (^IMutList [path] (mmap-double-array-list path nil))
+  (^IMutList [path options]
+   (BufferLists$DoubleBufferList/mmap (str path) (boolean (get options :read-only?))
+                                      (long (get options :n-elems -1)) nil)))
+
+
+(defn long-big-array-list
+  "A growable long list indexed by long integers that can hold more than 2^31 elements.
+  The result is not a java.util.List but it is reducible, [[preduce]] splits it by long
+  index ranges and [[argsort]] returns a long-indexed list of indexes.  Use [[lsize]] and
+  `(.getLong l idx)` for access."
+  (^LongIndexedList [] (BigArrayLists$LongBigArrayList.))
+  (^LongIndexedList [cap-or-data]
+   (if (number? cap-or-data)
+     (BigArrayLists$LongBigArrayList. (long cap-or-data))
+     (doto (BigArrayLists$LongBigArrayList.)
+       (.addAllReducible (->reducible cap-or-data))))))
+
+
+(defn double-big-array-list
+  "A growable double list indexed by long integers.  See [[long-big-array-list]]."
+  (^LongIndexedList [] (BigArrayLists$DoubleBigArrayList.))
+  (^LongIndexedList [cap-or-data]
+   (if (number? cap-or-data)
+     (BigArrayLists$DoubleBigArrayList. (long cap-or-data))
+     (doto (BigArrayLists$DoubleBigArrayList.)
+       (.addAllReducible (->reducible cap-or-data))))))
+
+
+(defn lsize
+  "Number of elements in a long indexed list or a counted collection as a long."
+  ^long [coll]
+  (if (instance? LongIndexedList coll)
+    (.lsize ^LongIndexedList coll)
+    (count coll)))
+
+
 (def dbl-ary-cls (Class/forName "[D"))
 
 
@@ -2116,6 +2591,16 @@ ham-fisted.api> (binary-search data 1.1 nil)
 
 
 
+(defn immut-double-list
+  "Create a persistent vector of doubles.  Leaves are double arrays so getDouble, conj,
+  assoc and primitive reductions do not box.  transient returns a MutDoubleTreeList."
+  (^DoubleTreeList [] DoubleTreeList/EMPTY)
+  (^DoubleTreeList [data]
+   (let [^doubles data (double-array data)]
+     (DoubleTreeList/create data 0 (alength data) nil))))
+
+
+
 (defn object-array-list
   "An array list that is as fast as java.util.ArrayList for add,get, etc but includes
   many accelerated operations such as fill and an accelerated addAll when the src data
@@ -2211,12 +2696,28 @@ ham-fisted.api> (binary-search data 1.1 nil)
   (ovec (filter pred coll)))
 
 
+(def ^:private long-ary-cls (Class/forName "[J"))
+
+
+(defn- array-section
+  "Dense array section backing coll when coll is a primitive array or array list of
+  ary-cls.  Used to route reductions to the ArrayKernels."
+  ^ArraySection [coll ary-cls]
+  (let [coll (if (instance? ary-cls coll) (->collection coll) coll)]
+    (when (instance? ArrayLists$ArrayOwner coll)
+      (let [sec (.getArraySection ^ArrayLists$ArrayOwner coll)]
+        (when (and sec (instance? ary-cls (.-array sec)))
+          sec)))))
+
+
 (defn sum-fast
   "Fast simple double summation.  Does not do any nan checking or summation
   compensation."
   ^double [coll]
-  ;;Using raw reduce call as opposed to reduce-reducer to avoid protocol dispatch for small N
-  @(reduce double-consumer-accumulator (Sum$SimpleSum.) coll))
+  (if-let [sec (array-section coll dbl-ary-cls)]
+    (ArrayKernels/sum ^doubles (.-array sec) (.-sidx sec) (.-eidx sec))
+    ;;Using raw reduce call as opposed to reduce-reducer to avoid protocol dispatch for small N
+    @(reduce double-consumer-accumulator (Sum$SimpleSum.) coll)))
 
 (defn ^:no-doc apply-nan-strategy
   [options coll]
@@ -2230,13 +2731,29 @@ ham-fisted.api> (binary-search data 1.1 nil)
                     coll)))
 
 
+(defn- array-sum
+  ^Sum [options ^ArraySection sec]
+  (let [^doubles data (.-array sec)
+        sidx (.-sidx sec)
+        remove-nan? (identical? :remove (get options :nan-strategy :remove))]
+    (->> (pgroups (.size sec)
+                  (fn [^long s ^long e]
+                    (doto (Sum.)
+                      (.acceptArray data (+ sidx s) (+ sidx e) remove-nan?)))
+                  (merge {:min-n 100000} options))
+         (reduce (fn [^Sum l ^Sum r] (.merge l r) l)))))
+
+
 (defn sum-stable-nelems
   "Stable sum returning map of {:sum :n-elems}. See options for [[sum]]."
   ([coll] (sum-stable-nelems nil coll))
   ([options coll]
-   (->> (->reducible coll)
-        (apply-nan-strategy options)
-        (preduce-reducer (Sum.) options))))
+   (if-let [sec (when-not (identical? :exception (get options :nan-strategy))
+                  (array-section coll dbl-ary-cls))]
+     @(array-sum options sec)
+     (->> (->reducible coll)
+          (apply-nan-strategy options)
+          (preduce-reducer (Sum.) options)))))
 
 
 (defn sum
@@ -2251,6 +2768,34 @@ ham-fisted.api> (binary-search data 1.1 nil)
   (^double [options coll]
    (get (sum-stable-nelems options coll) :sum)))
 
+(defn striped-sum
+  "Thread safe compensated double sum that many threads may add to concurrently - for
+  instance from [[pmap]] results or [[pgroups]] bodies.  Deref returns the same
+  `{:sum :n-elems}` map as [[sum-stable-nelems]].  One instance may be shared across a
+  parallel reduction as merging a striped sum with itself does nothing:
+
+```clojure
+user> (let [s (hamf/striped-sum)]
+        (dorun (hamf/pgroups 1000 (fn [^long sidx ^long eidx]
+                                    (dotimes [idx (- eidx sidx)] (.accept s (double (+ sidx idx)))))))
+        @s)
+{:sum 499500.0, :n-elems 1000}
+user> (let [s (hamf/striped-sum)]
+        (hamf-rf/preduce-reducer (hamf-rf/double-consumer-preducer (constantly s)) (hamf/range 1000)))
+{:sum 499500.0, :n-elems 1000}
+```"
+  (^StripedSum [] (StripedSum.))
+  (^StripedSum [n-cells] (StripedSum. (int n-cells))))
+
+
+(defn striped-long-accum
+  "Thread safe long accumulator backed by a java.util.concurrent.atomic.LongAdder.  As with
+  [[striped-sum]] one instance may be shared across a parallel reduction and deref returns
+  the current sum."
+  (^StripedLongAccum [] (StripedLongAccum.))
+  (^StripedLongAccum [init-val] (StripedLongAccum. (long init-val))))
+
+
 (defn- long-summary-sum
   ^long [^LongSummaryStatistics lstats]
   (.getSum lstats))
@@ -2258,21 +2803,31 @@ ham-fisted.api> (binary-search data 1.1 nil)
 (defn lsum
   "Simple summation that returns a long integer."
   ^long [data]
-  (let [lv (long-array 1)]
-    (reduce (fn [_ ^long v] (let [_ (aset lv 0 (+ (aget lv 0) v))]) nil)
-            nil
-            data)
-    (aget lv 0)))
+  (if-let [sec (array-section data long-ary-cls)]
+    (ArrayKernels/sum ^longs (.-array sec) (.-sidx sec) (.-eidx sec))
+    (let [lv (long-array 1)]
+      (reduce (fn [_ ^long v] (let [_ (aset lv 0 (+ (aget lv 0) v))]) nil)
+              nil
+              data)
+      (aget lv 0))))
 
 (defn lsummary
   "Summary statistics {:mean :max :min :n-elems :sum} in long space"
   [data]
-  (let [^LongSummaryStatistics lstats (reduce long-consumer-accumulator (LongSummaryStatistics.) data)]
-    {:max (.getMax lstats)
-     :min (.getMin lstats)
-     :n-elems (.getCount lstats)
-     :mean (.getAverage lstats)
-     :sum (.getSum lstats)}))
+  (if-let [sec (array-section data long-ary-cls)]
+    (let [^longs rv (ArrayKernels/summary ^longs (.-array sec) (.-sidx sec) (.-eidx sec))
+          n (long (.size sec))]
+      {:max (aget rv 1)
+       :min (aget rv 0)
+       :n-elems n
+       :mean (if (pos? n) (/ (double (aget rv 2)) n) 0.0)
+       :sum (aget rv 2)})
+    (let [^LongSummaryStatistics lstats (reduce long-consumer-accumulator (LongSummaryStatistics.) data)]
+      {:max (.getMax lstats)
+       :min (.getMin lstats)
+       :n-elems (.getCount lstats)
+       :mean (.getAverage lstats)
+       :sum (.getSum lstats)})))
 
 (defn mean
   "Return the mean of the collection.  Returns double/NaN for empty collections.
@@ -2287,12 +2842,72 @@ ham-fisted.api> (binary-search data 1.1 nil)
 (defn dsummary
   "Summary statistics {:mean :max :min :n-elems :sum} in double space"
   [data]
-  (let [^DoubleSummaryStatistics lstats (reduce double-consumer-accumulator (DoubleSummaryStatistics.) data)]
-    {:max (.getMax lstats)
-     :min (.getMin lstats)
-     :n-elems (.getCount lstats)
-     :mean (.getAverage lstats)
-     :sum (.getSum lstats)}))
+  (if-let [sec (array-section data dbl-ary-cls)]
+    (let [^doubles rv (ArrayKernels/summary ^doubles (.-array sec) (.-sidx sec) (.-eidx sec))
+          n (long (.size sec))]
+      {:max (aget rv 1)
+       :min (aget rv 0)
+       :n-elems n
+       :mean (if (pos? n) (/ (aget rv 2) n) 0.0)
+       :sum (aget rv 2)})
+    (let [^DoubleSummaryStatistics lstats (reduce double-consumer-accumulator (DoubleSummaryStatistics.) data)]
+      {:max (.getMax lstats)
+       :min (.getMin lstats)
+       :n-elems (.getCount lstats)
+       :mean (.getAverage lstats)
+       :sum (.getSum lstats)})))
+
+
+(defn- column-section
+  ^ArraySection [col]
+  (or (array-section col long-ary-cls)
+      (array-section col dbl-ary-cls)
+      (let [^doubles d (double-array col)]
+        (ArraySection. d 0 (alength d)))))
+
+
+(defn group-by-columnar
+  "Group the rows of a primitive key column and aggregate value columns per group without
+  boxing.  Keys are an int or long array or array list - other collections are converted to
+  a long array.  Small key ranges accumulate directly into arrays indexed by key, larger
+  ranges map keys to slots through a primitive hash map.  Large inputs are reduced in
+  parallel and only the accumulators of stolen ranges are merged.
+
+  aggs is a map of result name to aggregate, one of `[:sum col]`, `[:mean col]`,
+  `[:min col]`, `[:max col]` or `[:count]`.  Value columns must be the same length as the
+  key column; long arrays and array lists aggregate in long space, other columns as doubles.
+  Sums of doubles are compensated as [[sum]].
+
+  Returns a map of `:key` to the ascending distinct keys as a long list along with each
+  aggregate name to a primitive list of results in key order.
+
+  Options are the same as [[preduce]] with `:min-n` defaulting to 10000.
+
+```clojure
+user> (hamf/group-by-columnar (long-array [1 2 1 3]) {:total [:sum (double-array [1 2 3 4])]
+                                                      :n [:count]})
+{:key [1 2 3], :total [4.0 2.0 4.0], :n [2 1 1]}
+```"
+  ([keys aggs] (group-by-columnar keys aggs nil))
+  ([keys aggs options]
+   (let [ksec (or (array-section keys long-ary-cls)
+                  (array-section keys int-ary-cls)
+                  (let [^longs k (long-array keys)]
+                    (ArraySection. k 0 (alength k))))
+         names (vec (clojure.core/keys aggs))
+         agg-ary (->> names
+                      (map (fn [nm]
+                             (let [[op col] (get aggs nm)]
+                               (ColumnGroupBy/agg (name op)
+                                                  (when-not (= :count op)
+                                                    (column-section col))))))
+                      (into-array ColumnGroupBy$Agg))
+         ^objects rv (ColumnGroupBy/groupBy ksec agg-ary (options->parallel-options
+                                                          (merge {:min-n 10000} options)))]
+     (persistent!
+      (reduce-kv (fn [m idx nm] (assoc! m nm (aget rv (inc (long idx)))))
+                 (transient {:key (aget rv 0)})
+                 names)))))
 
 
 (defn first
@@ -2731,6 +3346,48 @@ ham-fisted.api> (binary-search data 1.1 nil)
                 rv))))))))
 
 
+(defn chunked-lines
+  "Return a closeable, reducible iterable of the lines of a file or stream read in large byte
+  blocks that end on a newline.  Unlike [[lines]] parallel reductions such as [[preduce]],
+  [[group-by-reduce]] and [[frequencies]] decode and reduce whole blocks on worker threads -
+  files are split by byte range while streams are read on the calling thread.  Reductions
+  through lznc map/filter chains run their map and filter functions on the worker threads.
+
+  Lines end with \\n or \\r\\n.
+
+  Options:
+
+  * `:block-size` - Bytes per block, defaults to 1MB.  Lines longer than a block grow it.
+  * `:charset` - Charset or charset name, defaults to UTF-8.  The charset must encode newline
+     as a single byte.
+  * `:char-sequence?` - When true lines are CharSequence views over the decoded block instead
+     of Strings.
+
+  Example:
+
+```clojure
+(with-open [ld (hamf/chunked-lines fname)]
+  (hamf/frequencies (lznc/map #(first (.split ^String % \",\")) ld)))
+```"
+  (^ChunkedLines [src] (chunked-lines src nil))
+  (^ChunkedLines [src options]
+   (let [charset (get options :charset)
+         charset (if (string? charset) (java.nio.charset.Charset/forName charset) charset)
+         block-size (int (get options :block-size ChunkedLines/defaultBlockSize))
+         char-seq? (boolean (get options :char-sequence?))
+         ^java.nio.file.Path path (cond
+                                    (string? src) (.toPath (java.io.File. ^String src))
+                                    (instance? java.io.File src) (.toPath ^java.io.File src)
+                                    (instance? java.nio.file.Path src) src)]
+     (if path
+       (ChunkedLines. (java.nio.channels.FileChannel/open
+                       path (into-array java.nio.file.OpenOption
+                                        [java.nio.file.StandardOpenOption/READ]))
+                      ^java.nio.charset.Charset charset block-size char-seq?)
+       (ChunkedLines. (clojure.java.io/input-stream src)
+                      ^java.nio.charset.Charset charset block-size char-seq?)))))
+
+
 (defn linear-merge-iterable
   "Create an N-way merge iterable using cmp to order the merge of provided iterables.
   If a predicate pred is provided the iterable itself will filter out values for which
@@ -2752,3 +3409,50 @@ ham-fisted.api> (binary-search data 1.1 nil)
   if the last value is filtered out -- the hasNext method doesn't check if the next value
   passes the predicate."
   [cmp iterables] (iterator/merge-iterable cmp iterables))
+
+
+(defn external-sort
+  "Sort data that may not fit in memory.  Data is gathered into runs of `:chunk-size`
+  elements, each run is sorted in parallel on the pool and spilled to a temp file and the
+  result is a merge of the runs.  Data that fits in one run is sorted in memory.
+
+  Returns an iterable that is also java.lang.AutoCloseable - each iteration re-reads the
+  runs and closing the result deletes them so use with `with-open`.
+
+  Options:
+
+  * `:chunk-size` - Max number of elements per run.  Defaults to 1000000.  Peak memory is
+    roughly `(* (inc parallelism) chunk-size)` elements.
+  * `:datatype` - One of `:int64`, `:float64` or `:object`.  Long and double runs are
+    stored as raw 8 byte values, objects via java serialization.  Defaults to the
+    contained type of typed containers else `:object`.
+  * `:tmp-dir` - Directory for the run files.  Defaults to java.io.tmpdir.
+  * `:pool`, `:parallelism` - See [[ham-fisted.reduce/options->parallel-options]].  Up to
+    parallelism runs are sorted concurrently.
+
+```clojure
+ham-fisted.api> (with-open [s (external-sort compare {:chunk-size 1000} (shuffle (range 10000)))]
+                  (= (range 10000) (vec s)))
+true
+```"
+  (^ExternalSort$SortedRuns [coll] (external-sort hamf-fn/comp-nan-last nil coll))
+  (^ExternalSort$SortedRuns [comp coll] (external-sort comp nil coll))
+  (^ExternalSort$SortedRuns [comp options coll]
+   (let [coll (->collection coll)
+         dtype (get options :datatype
+                    (if (instance? TypedList coll)
+                      (let [ct (.containedType ^TypedList coll)]
+                        (cond
+                          (#{Long/TYPE Integer/TYPE Short/TYPE Byte/TYPE} ct) :int64
+                          (#{Double/TYPE Float/TYPE} ct) :float64
+                          :else :object))
+                      :object))]
+     (ExternalSort/sort (when comp (->comparator comp))
+                        (case dtype
+                          :int64 ExternalSort/INT64
+                          :float64 ExternalSort/FLOAT64
+                          :object ExternalSort/OBJECT)
+                        (int (get options :chunk-size 1000000))
+                        (when-let [d (get options :tmp-dir)] (java.io.File. (str d)))
+                        (options->parallel-options options)
+                        coll))))
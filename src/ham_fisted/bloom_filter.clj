@@ -1,9 +1,12 @@
 (ns ham-fisted.bloom-filter
-  "Simple fast bloom filter based on apache parquet BlockSplitBloomFilter."
+  "Simple fast bloom filter based on apache parquet BlockSplitBloomFilter.  Thread safe,
+  scalable and counting variants share the same hashing so they work with the same
+  predicates and insert functions."
   (:require [ham-fisted.protocols :as hamf-proto]
             [ham-fisted.function :as hamf-fn]
             [ham-fisted.defprotocol :refer [extend extend-type extend-protocol]])
-  (:import [ham_fisted BlockSplitBloomFilter]
+  (:import [ham_fisted BlockSplitBloomFilter IBloomFilter BloomFilters$ConcurrentBloomFilter
+            BloomFilters$ScalableBloomFilter BloomFilters$CountingBloomFilter]
            [java.util UUID]
            [java.time Instant]
            [clojure.lang IFn$OL])
@@ -60,37 +63,87 @@
   [n f]
   (BlockSplitBloomFilter. (quot (BlockSplitBloomFilter/optimalNumOfBits n f) 8)))
 
+(defn concurrent-bloom-filter
+  "Create a bloom filter that many threads may insert into at once - for instance as the
+  shared accumulator of a parallel reduction.  Same sizing and arguments as [[bloom-filter]]."
+  [n f]
+  (BloomFilters$ConcurrentBloomFilter. (quot (BlockSplitBloomFilter/optimalNumOfBits n f) 8)))
+
+(defn scalable-bloom-filter
+  "Create a bloom filter that grows as values are added.  Once n distinct values have been
+  added a new filter is chained on holding `:growth` times as many values at `:tightening`
+  times the false positive rate so the overall false positive rate stays below f.
+
+  Options:
+
+  * `:growth` - Capacity multiplier for each new filter.  Defaults to 2.0.
+  * `:tightening` - False positive rate multiplier for each new filter.  Defaults to 0.5."
+  ([n f] (scalable-bloom-filter n f nil))
+  ([n f options]
+   (BloomFilters$ScalableBloomFilter. (long n) (double f)
+                                      (double (get options :growth 2.0))
+                                      (double (get options :tightening 0.5)))))
+
+(defn counting-bloom-filter
+  "Create a bloom filter that supports removal - see [[remove-hash!]].  Uses 4 times the
+  memory of [[bloom-filter]]."
+  [n f]
+  (BloomFilters$CountingBloomFilter. (quot (BlockSplitBloomFilter/optimalNumOfBits n f) 8)))
+
 (defn insert-hash!
-  ^BlockSplitBloomFilter [^BlockSplitBloomFilter bf ^long hc]
+  ^IBloomFilter [^IBloomFilter bf ^long hc]
   (.insertHash bf hc)
   bf)
 
+(defn remove-hash!
+  "Remove a hash from a counting bloom filter."
+  ^BloomFilters$CountingBloomFilter [^BloomFilters$CountingBloomFilter bf ^long hc]
+  (.removeHash bf hc)
+  bf)
+
 (defn make-long-hash-predicate
-  [^BlockSplitBloomFilter bf]
+  [^IBloomFilter bf]
   (hamf-fn/long-predicate hs (.findHash bf hs)))
 
 (defn make-obj-predicate
-  [^BlockSplitBloomFilter bf]
+  [^IBloomFilter bf]
   (hamf-fn/predicate hs (.findHash bf (hash-obj hs))))
 
 (defn contains?
-  [^BlockSplitBloomFilter bf obj]
+  [^IBloomFilter bf obj]
   (.findHash bf (hash-obj obj)))
 
 (defn insert-obj
-  ^BlockSplitBloomFilter [bf o]
+  ^IBloomFilter [bf o]
   (if (instance? Long o)
     (insert-hash! bf (long o))
     (insert-hash! bf (BlockSplitBloomFilter/hash (serialize->bytes o)))))
 
+(defn remove-obj
+  "Remove an object from a counting bloom filter."
+  ^BloomFilters$CountingBloomFilter [bf o]
+  (remove-hash! bf (hash-obj o)))
+
 (defn bitset-size
   "Return the length of the byte array underlying this bitset"
-  ^long [^BlockSplitBloomFilter fb]
-  (.getBitsetSize fb))
+  ^long [fb]
+  (cond
+    (instance? BlockSplitBloomFilter fb) (.getBitsetSize ^BlockSplitBloomFilter fb)
+    (instance? BloomFilters$ConcurrentBloomFilter fb) (.getBitsetSize ^BloomFilters$ConcurrentBloomFilter fb)
+    (instance? BloomFilters$ScalableBloomFilter fb) (.getBitsetSize ^BloomFilters$ScalableBloomFilter fb)
+    :else (.getBitsetSize ^BloomFilters$CountingBloomFilter fb)))
 
 (defn bloom-filter->byte-array
-  ^bytes [^BlockSplitBloomFilter bf]
-  (.bitset bf))
+  "Return the bitset of a bloom filter, concurrent bloom filter or counting bloom filter.
+  The bitset of a counting filter has a bit set for each non-zero counter.  Scalable
+  filters chain several bitsets and are not supported."
+  ^bytes [bf]
+  (cond
+    (instance? BlockSplitBloomFilter bf) (.bitset ^BlockSplitBloomFilter bf)
+    (instance? BloomFilters$ConcurrentBloomFilter bf) (.bitset ^BloomFilters$ConcurrentBloomFilter bf)
+    (instance? BloomFilters$CountingBloomFilter bf) (.bitset ^BloomFilters$CountingBloomFilter bf)
+    :else
+    (throw (IllegalArgumentException. (str "Bloom filter has no single bitset: " (type bf))))))
 
 (defn byte-array->bloom-filter
   ^BlockSplitBloomFilter [^bytes data]
@@ -110,7 +163,7 @@
        (BlockSplitBloomFilter/hash bdata)))))
 
 (defn add-uuids!
-  ^BlockSplitBloomFilter [bf val-seq]
+  ^IBloomFilter [bf val-seq]
   (let [^IFn$OL hasher (make-uuid-hasher)]
     (reduce (fn [bf v]
               (if (instance? UUID v)
@@ -120,7 +173,7 @@
             val-seq)))
 
 (defn make-uuid-pred
-  [^BlockSplitBloomFilter bf]
+  [^IBloomFilter bf]
   (let [hasher (make-uuid-hasher)]
     (fn [uuid]
       (.findHash bf (.invokePrim ^IFn$OL hasher uuid)))))
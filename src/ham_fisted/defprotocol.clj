@@ -24,10 +24,16 @@
   overhead.
 
   Additional call overhead above and beyond a normal fn invocation in an arm mac is `-6ns` - the time
-  for `.getClass` call into single concurrent hash map lookup."
+  for `.getClass` call into single concurrent hash map lookup.
+
+  Each protocol method keeps a small polymorphic inline cache of the last few classes it dispatched
+  on so monomorphic and lightly polymorphic call sites avoid the hash map lookup entirely.  Methods
+  that see more than 4 classes skip the inline cache and use the hash map lookup directly.  Extending
+  a protocol bumps a version stamp that invalidates cached lookups instead of clearing them and
+  lookups never take the extension lock."
   (:refer-clojure :exclude [defprotocol extend extend-type extend-protocol extends? satisfies?
                             find-protocol-method find-protocol-impl extenders])
-  (:import [ham_fisted MethodImplCache Casts]
+  (:import [ham_fisted MethodImplCache MethodImplCache$CallSite Casts]
            [java.util Map]))
 
 (set! *warn-on-reflection* true)
@@ -85,19 +91,23 @@
                      (str "method " (.sym ^clojure.lang.Var v) " of protocol " (.sym ^clojure.lang.Var p))
                      (str "function " (.sym ^clojure.lang.Var v)))))))))
 
+(defn- no-impl-error
+  [target ^MethodImplCache cache ns protocol]
+  (IllegalArgumentException. (format
+                              "No implementation of method: %s of protocol: #'%s/%s found for class: %s"
+                              (.-methodk cache)
+                              ns
+                              protocol
+                              (if-let [c (class target)]
+                                (.getName ^Class c)
+                                "nil"))))
+
 (defn ^:no-doc find-fn
   [target ^MethodImplCache cache ns protocol]
   (let [rv (.findFnFor cache (class target))]
     (if-not (nil? rv)
       rv
-      (throw (IllegalArgumentException. (format
-                                         "No implementation of method: %s of protocol: #'%s/%s found for class: %s"
-                                         (.-methodk cache)
-                                         ns
-                                         protocol
-                                         (if-let [c (class target)]
-                                           (.getName ^Class c)
-                                           "nil")))))))
+      (throw (no-impl-error target cache ns protocol)))))
 
 ;;Instance check is already taken care of
 (defn ^:no-doc find-fn-via-metadata
@@ -106,6 +116,19 @@
     f
     (find-fn target cache ns protocol)))
 
+(defn ^:no-doc find-site-fn
+  [target ^MethodImplCache$CallSite site ns protocol]
+  (let [rv (.findFnFor site (class target))]
+    (if-not (nil? rv)
+      rv
+      (throw (no-impl-error target (.-cache site) ns protocol)))))
+
+(defn ^:no-doc find-site-fn-via-metadata
+  [target ns-method site ns protocol]
+  (if-let [f (get (meta target) ns-method)]
+    f
+    (find-site-fn target site ns protocol)))
+
 (defn ^:no-doc fn-tag-for-tags
   [arg-tags]
   (-> (apply str "clojure.lang.IFn$" (map (fn [arg-tag]
@@ -191,7 +214,8 @@
                                        (~mname
                                         ~@(rest args))))))
                               arglists))
-                    `(let [~'cache (ham_fisted.MethodImplCache. ~methodk ~ns-methodk ~iname ~iface-sym)]
+                    `(let [~'cache (ham_fisted.MethodImplCache. ~methodk ~ns-methodk ~iname ~iface-sym)
+                           ~'hamf-call-site (ham_fisted.MethodImplCache$CallSite. ~'cache)]
                        (def ~(with-meta cache-sym
                                {:private true
                                 :tag 'ham_fisted.MethodImplCache})
@@ -210,13 +234,13 @@
                                                   '.invokePrim)
                                         target (first args)
                                         find-data (if (:extend-via-metadata opts)
-                                                    `(find-fn-via-metadata ~target
-                                                                           ~ns-methodk
-                                                                           ~'cache
-                                                                           ~(list 'quote (.-name *ns*))
-                                                                           ~(list 'quote name))
-                                                    `(find-fn ~target ~'cache ~(list 'quote (.-name *ns*))
-                                                              ~(list 'quote name)))]
+                                                    `(find-site-fn-via-metadata ~target
+                                                                                ~ns-methodk
+                                                                                ~'hamf-call-site
+                                                                                ~(list 'quote (.-name *ns*))
+                                                                                ~(list 'quote name))
+                                                    `(find-site-fn ~target ~'hamf-call-site ~(list 'quote (.-name *ns*))
+                                                                   ~(list 'quote name)))]
                                     `(~args
                                       ~(if invoker
                                          `(let [~(with-meta 'ff {:tag (fn-tag-for-tags arg-tags)}) ~find-data]
@@ -3,7 +3,8 @@
   package objects."
   (:import [ham_fisted IFnDef$ODO IFnDef$OOO IFnDef$OO IFnDef$OL IFnDef$LongPredicate
             IFnDef$DoublePredicate IFnDef$DD IFnDef$LL IFnDef IFnDef$LD IFnDef$DL IFnDef$OD
-            IFnDef$LO Casts IFnDef$Predicate IFnDef$LLL IFnDef$DDD]
+            IFnDef$LO Casts IFnDef$Predicate IFnDef$LLL IFnDef$DDD
+            RadixSort$NaturalOrder]
            [java.util.function BiFunction BiConsumer Function DoublePredicate LongPredicate Predicate
             Consumer LongConsumer DoubleConsumer LongBinaryOperator DoubleBinaryOperator
             BiPredicate]
@@ -286,6 +287,8 @@
 (def ^{:doc "A comparator that sorts null, NAN last, natural order"}
   comp-nan-last
   (reify
+    ;;Typed lists may sort with radix sort when given this comparator.
+    RadixSort$NaturalOrder
     Comparator
     (^int compare [this ^Object l ^Object r]
      (cond
@@ -8,13 +8,14 @@
             [ham-fisted.print :refer [implement-tostring-print]])
   (:import [java.util.concurrent ForkJoinPool ForkJoinTask ArrayBlockingQueue Future
             TimeUnit ConcurrentHashMap]
+           [java.util.concurrent.atomic AtomicLong]
            [clojure.lang MapEntry Box]
            [java.util Iterator Set Map RandomAccess Spliterator BitSet Collection
-            Iterator ArrayDeque]
+            Iterator ArrayDeque NoSuchElementException]
            [java.util.function Supplier]
            [ham_fisted ParallelOptions ITypedReduce IFnDef
             ICollectionDef ArrayLists$ObjectArrayList Reductions$ReduceConsumer
-            Reductions Transformables IFnDef$OLO ArrayLists StringCollection]
+            Reductions Transformables IFnDef$OLO ArrayLists StringCollection ForkJoinPatterns]
            [clojure.lang IteratorSeq IReduceInit PersistentHashMap IFn$OLO IFn$ODO Seqable
             IReduce PersistentList]
            [java.util.logging Logger Level])
@@ -156,62 +157,109 @@
   ([n-elems body-fn]
    (pgroups n-elems body-fn nil)))
 
-(defn- lookahead-iterable
-  ^Iterable [^Iterator submissions ^long n-ahead deref?]
-  (let [queue (ArrayDeque. n-ahead)
-        ;;in the pmap context this immediately launches all lookahead threads
-        ;;and does no further work.
-        _ (loop [idx 0]
-            (when (and (.hasNext submissions)
-                       (< idx n-ahead))
-              (.push queue (.next submissions))
-              (recur (inc idx))))
-        update! (fn []
-                  (let [nn (if-not (.isEmpty queue)
-                             (.removeLast queue)
-                             ::finish)]
-                    (if (.hasNext submissions)
-                      (.push queue (.next submissions))
-                      (.push queue ::finish))
-                    (if (identical? nn ::finish)
-                      nn
-                      (if deref?
-                        (.get ^Future nn)
-                        nn))))]
-    (-> (hamf-iter/once-iterable #(not (identical? % ::finish)) update!)
-        (hamf-iter/seq-iterable))))
+(def ^:private ^{:tag 'long} pmap-target-batch-ns
+  "Target run time of a pmap batch - long enough to amortize the cost of a task."
+  100000)
+
+
+(defn- pmap-batch-size
+  "Batch size from the observed per-element time of completed batches.  Until a batch has
+  completed each batch holds a single element so slow map-fns still get full parallelism."
+  ^long [^AtomicLong batch-ns ^AtomicLong batch-n ^long max-batch-size]
+  (let [n (.get batch-n)]
+    (if (== 0 n)
+      1
+      (let [elem-ns (max 1 (quot (.get batch-ns) n))]
+        (max 1 (min max-batch-size (quot pmap-target-batch-ns elem-ns)))))))
+
+
+(defn- pmap-next-batch
+  "Remove the next batch to consume - the oldest when ordered, else the first completed
+  batch falling back to the oldest."
+  ^Future [^ArrayDeque pending ordered?]
+  (if ordered?
+    (.removeFirst pending)
+    (let [iter (.iterator pending)]
+      (loop []
+        (if (.hasNext iter)
+          (let [^Future f (.next iter)]
+            (if (.isDone f)
+              (do (.remove iter) f)
+              (recur)))
+          (.removeFirst pending))))))
+
+
+(deftype ^:private PMapIterator [^Iterator input submit! ^ArrayDeque pending ordered?
+                                 ^:unsynchronized-mutable ^objects current
+                                 ^:unsynchronized-mutable ^long cidx]
+  Iterator
+  (hasNext [this]
+    (loop []
+      (cond
+        (< cidx (alength current)) true
+        (.isEmpty pending) false
+        :else
+        (let [^Future f (pmap-next-batch pending ordered?)]
+          (when (.hasNext input) (.add pending (submit!)))
+          (set! current (.get f))
+          (set! cidx 0)
+          (recur)))))
+  (next [this]
+    (when-not (.hasNext this)
+      (throw (NoSuchElementException.)))
+    (let [rv (aget current cidx)]
+      (set! cidx (unchecked-inc cidx))
+      rv)))
+
 
 (defn pmap
+  "Parallel map.  Elements are mapped in batches sized so each batch runs for roughly
+  100μs bounded by the maxBatchSize of options.  When called from
+  within a fork-join task batches are forked into the current pool and joined so nested
+  parallelism composes instead of degrading to a serial map.  Unordered maps return batches
+  in the order they complete."
   [^ParallelOptions options map-fn sequences]
-  (if (in-fork-join-task?)
-    (apply map map-fn sequences)
-    (let [pool (.-pool options)
-          ;;In this case we want a caching sequence - so we call 'seq' on a lazy noncaching
-          ;;map
-          queue (options->queue options)
-          submit-fn
-          (if (.-ordered options)
-            (case (count sequences)
-              1 (fn [arg] (.submit pool ^Callable (fn [] (map-fn arg))))
-              2 (fn [a1 a2] (.submit pool ^Callable (fn [] (map-fn a1 a2))))
-              3 (fn [a1 a2 a3] (.submit pool ^Callable (fn [] (map-fn a1 a2 a3))))
-              (fn [& args]
-                (.submit pool ^Callable (fn [] (apply map-fn args)))))
-            (case (count sequences)
-              1 (fn [arg] (.submit pool ^Callable (fn [] (queue-put! queue (map-fn arg) (.-putTimeoutMs options)))))
-              2 (fn [a1 a2] (.submit pool ^Callable (fn [] (queue-put! queue (map-fn a1 a2) (.-putTimeoutMs options)))))
-              3 (fn [a1 a2 a3] (.submit pool ^Callable (fn [] (queue-put! queue (map-fn a1 a2 a3) (.-putTimeoutMs options)))))
-              (fn [& args]
-                (.submit pool ^Callable (fn [] (queue-put! queue (apply map-fn args) (.-putTimeoutMs options)))))))
-
-          submissions (.iterator ^Iterable (apply map submit-fn sequences))
-          n-ahead (n-lookahead options)]
-      (if (.-ordered options)
-        ;;lazy noncaching map - the future itself does the caching for us.
-        (lookahead-iterable submissions n-ahead true)
-        (iter-queue->seq
-         (.iterator ^Iterable (lookahead-iterable submissions n-ahead false))
-         queue)))))
+  (let [pool (.-pool options)
+        fork? (and (in-fork-join-task?) (instance? ForkJoinPool pool))
+        ordered? (.-ordered options)
+        max-batch-size (max 1 (.-maxBatchSize options))
+        ^Iterator input (if (== 1 (count sequences))
+                          (or (hamf-iter/->iterator (first sequences))
+                              (.iterator PersistentList/EMPTY))
+                          (.iterator ^Iterable (apply map vector sequences)))
+        map-fn (if (== 1 (count sequences))
+                 map-fn
+                 (fn [args] (apply map-fn args)))
+        batch-ns (AtomicLong.)
+        batch-n (AtomicLong.)
+        submit! (fn []
+                  (let [n (pmap-batch-size batch-ns batch-n max-batch-size)
+                        batch (ArrayLists$ObjectArrayList.)
+                        _ (loop [idx 0]
+                            (when (and (< idx n) (.hasNext input))
+                              (.add batch (.next input))
+                              (recur (unchecked-inc idx))))
+                        task (fn []
+                               (let [start (System/nanoTime)
+                                     n (.size batch)
+                                     rv (object-array n)]
+                                 (dotimes [idx n]
+                                   (aset rv idx (map-fn (.get batch idx))))
+                                 (.addAndGet batch-ns (- (System/nanoTime) start))
+                                 (.addAndGet batch-n n)
+                                 rv))]
+                    (if fork?
+                      (.fork (ForkJoinTask/adapt ^Callable task))
+                      (.submit pool ^Callable task))))
+        pending (ArrayDeque.)
+        n-ahead (n-lookahead options)]
+    ;;Launch the lookahead batches immediately
+    (loop [idx 0]
+      (when (and (< idx n-ahead) (.hasNext input))
+        (.add pending (submit!))
+        (recur (unchecked-inc idx))))
+    (let [iter (PMapIterator. input submit! pending ordered? (object-array 0) 0)]
+      (hamf-iter/seq-iterable (reify Iterable (iterator [this] iter))))))
 
 
 (defn- split-spliterator
@@ -239,7 +287,9 @@
       @c)))
 
 
-(defn parallel-spliterator-reduce
+(defn- submit-spliterator-reduce
+  "Split to a fixed depth and submit each split to the pool.  Used for pools that are not
+  fork-join pools and for unmerged results."
   [initValFn rfn mergeFn ^Spliterator s ^ParallelOptions options]
   (let [pool (.-pool options)
         ;;I just want enough splits so that there is decent granularity as compared
@@ -270,6 +320,14 @@
          (Reductions/iterableMerge options mergeFn))))
 
 
+(defn parallel-spliterator-reduce
+  [initValFn rfn mergeFn ^Spliterator s ^ParallelOptions options]
+  (if (and (instance? ForkJoinPool (.-pool options))
+           (not (.-unmergedResult options)))
+    (ForkJoinPatterns/spliteratorReduce initValFn rfn mergeFn s options)
+    (submit-spliterator-reduce initValFn rfn mergeFn s options)))
+
+
 (defn- bitset-reduce
   ([^BitSet coll rfn acc]
    (let [^IFn$OLO rfn (Transformables/toLongReductionFn rfn)]
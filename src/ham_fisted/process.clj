@@ -1,6 +1,7 @@
 (ns ham-fisted.process
   (:require [ham-fisted.iterator :as hamf-iter]
-            [ham-fisted.reduce :as hamf-rf]))
+            [ham-fisted.reduce :as hamf-rf])
+  (:import [ham_fisted VirtualThreads]))
 
 (defn stream->strings
   ([input] (stream->strings input 256 (java.nio.charset.Charset/defaultCharset)))
@@ -78,6 +79,8 @@
   * cmd-line string command line.
   * stdout-hdrl, stderr-hdlr - transduce-style rf functions that receive each string read from stdout
     and stderr respectively.
+  * virtual-threads? - drain stdout and stderr on virtual threads (daemon platform threads before
+    jdk-21) instead of futures - useful when launching many processes at once.
 
   Returns `{:keys [^java.lang.ProcessHandle proc-hdl wait-or-kill]}`:
 
@@ -101,7 +104,7 @@ ham-fisted.process> (keys result)
 (:out :err)
 ```"
   ([cmd-line] (launch cmd-line {}))
-  ([^String cmd-line {:keys [stdout-hdlr stderr-hdlr print-cmd-line?]
+  ([^String cmd-line {:keys [stdout-hdlr stderr-hdlr print-cmd-line? virtual-threads?]
                       :or {print-cmd-line? true}}]
    (when print-cmd-line? (println "launch-process:" cmd-line))
    (let [proc (.exec (Runtime/getRuntime) cmd-line)
@@ -112,8 +115,11 @@ ham-fisted.process> (keys result)
          _ (.close (.getOutputStream proc))
          stdout (.getInputStream proc)
          stderr (.getErrorStream proc)
-         out (future (hamf-rf/reduce-reducer stdout-hdlr (stream->strings stdout)))
-         err (future (hamf-rf/reduce-reducer stderr-hdlr (stream->strings stderr)))
+         drain (if virtual-threads?
+                 #(.submit (VirtualThreads/executor) ^Callable %)
+                 future-call)
+         out (drain #(hamf-rf/reduce-reducer stdout-hdlr (stream->strings stdout)))
+         err (drain #(hamf-rf/reduce-reducer stderr-hdlr (stream->strings stderr)))
          cleanup (fn [close?]
                    (when close?
                      ;;close the streams to force termination as the process hasn't exited
@@ -6,8 +6,9 @@
             [ham-fisted.function :refer [bi-function]])
   (:import [ham_fisted ParallelOptions ParallelOptions$CatParallelism Reductions
             Transformables Reducible IFnDef$OOO IFnDef$OLOO
-            IFnDef$ODO IFnDef$OLO IFnDef$DDD IFnDef$LLL Sum Sum$SimpleSum Reductions$IndexedAccum
-            Reductions$IndexedLongAccum Reductions$IndexedDoubleAccum IFnDef$OLLO IFnDef$OLDO]
+            IFnDef$ODO IFnDef$OLO IFnDef$DDD IFnDef$LLL Sum Sum$SimpleSum StripedSum Reductions$IndexedAccum
+            Reductions$IndexedLongAccum Reductions$IndexedDoubleAccum IFnDef$OLLO IFnDef$OLDO
+            VirtualThreads]
            [clojure.lang IFn$DO IFn$LO IFn$OLO IFn$DDD IFn$LLL]
            [java.util Map]
            [java.util.function DoubleConsumer LongConsumer Consumer]
@@ -29,7 +30,11 @@
 
   Options:
 
-  * `:pool` - supply the forkjoinpool to use.
+  * `:pool` - supply the forkjoinpool to use.  `:virtual` runs each task on a virtual thread
+     (a daemon platform thread before jdk-21) with at most `:max-concurrency` tasks running at
+     once - meant for io-bound work.
+  * `:max-concurrency` - Bound on concurrently running tasks when `:pool` is `:virtual`.
+     Defaults to 256 and is also the default parallelism and lookahead.
   * `:max-batch-size` - Defaults to 64000, used for index-based  parallel pathways to control
      the number size of each parallelized batch.
   * `:ordered?` - When true process inputs and provide results in order.
@@ -55,21 +60,27 @@
     (ParallelOptions.)
     :else
     (let [^Map options (or options {})
-          ^Executor pool (.getOrDefault options :pool (ForkJoinPool/commonPool))]
+          virtual? (identical? :virtual (.get options :pool))
+          max-concurrency (long (.getOrDefault options :max-concurrency 256))
+          ^Executor pool (if virtual?
+                           (VirtualThreads/bounded max-concurrency)
+                           (.getOrDefault options :pool (ForkJoinPool/commonPool)))]
       (ParallelOptions. (.getOrDefault options :min-n 1000)
                         (.getOrDefault options :max-batch-size 64000)
                         (boolean (.getOrDefault options :ordered? true))
                         pool
                         (.getOrDefault options :parallelism
-                                       (if (instance? ForkJoinPool pool)
+                                       (cond
+                                         virtual? max-concurrency
+                                         (instance? ForkJoinPool pool)
                                          (.getParallelism ^ForkJoinPool pool)
-                                         1))
+                                         :else 1))
                         (case (.getOrDefault options :cat-parallelism :seq-wise)
                           :seq-wise ParallelOptions$CatParallelism/SEQWISE
                           :elem-wise ParallelOptions$CatParallelism/ELEMWISE)
                         (.getOrDefault options :put-timeout-ms 5000)
                         (.getOrDefault options :unmerged-result? false)
-                        (.getOrDefault options :n-lookahead -1)))))
+                        (.getOrDefault options :n-lookahead (if virtual? max-concurrency -1))))))
 
 
 (defn preduce
@@ -673,6 +684,7 @@ user> (hamf-rf/preduce-reducer
 
 (bind-double-consumer-reducer! #(Sum.))
 (bind-double-consumer-reducer! #(Sum$SimpleSum.))
+(bind-double-consumer-reducer! #(StripedSum.))
 
 
 (defn double-consumer-reducer
@@ -6,7 +6,7 @@
             [ham-fisted.impl]
             [ham-fisted.language :as hamf-language]
             [ham-fisted.defprotocol :refer [extend extend-type extend-protocol]])
-  (:import [ham_fisted UnsharedHashSet PersistentHashSet Ranges$LongRange IMutList]
+  (:import [ham_fisted UnsharedHashSet PersistentHashSet Ranges$LongRange IMutList RoaringBitmap]
            [java.util BitSet Set Map Collection]
            [java.util.concurrent ConcurrentHashMap]
            [clojure.lang APersistentSet])
@@ -16,7 +16,7 @@
 (set! *warn-on-reflection* true)
 
 
-(declare unique bitset)
+(declare unique bitset roaring-bitmap)
 
 
 (defn- set-add-all
@@ -94,9 +94,18 @@
            rstart (.-start data)
            rend (.-end data)
            step (.-step data)]
-       (if (== 1 step)
+       (cond
+         (== 1 step)
          (doto (BitSet.)
            (.set (unchecked-int rstart) (unchecked-int rend)))
+         (pos? step)
+         (let [bs (BitSet.)]
+           (loop [v rstart]
+             (when (< v rend)
+               (.set bs (unchecked-int v))
+               (recur (+ v step))))
+           bs)
+         :else
          (reduce->range data)))
      :else
      (reduce->range data)))
@@ -105,6 +114,42 @@
      (.set (unchecked-int start) (unchecked-int end)))))
 
 
+(defn roaring-bitmap
+  "Create a compressed bitmap of unsigned 32 bit integers.  Sparse, dense and clustered
+  ranges of values are stored as sorted arrays, bitmaps or runs per 65536 values so large,
+  sparse id sets take space proportional to their values instead of their range.  Supports
+  the same set and bitset operations as [[bitset]] - set operations share unchanged storage
+  with their inputs instead of copying it.  The two argument version adds the range
+  [start, end)."
+  (^RoaringBitmap [] (RoaringBitmap.))
+  (^RoaringBitmap [data]
+   (cond
+     (instance? RoaringBitmap data)
+     data
+     (instance? BitSet data)
+     (RoaringBitmap/fromBitSetWords (.toLongArray ^BitSet data))
+     (and (instance? Ranges$LongRange data) (== 1 (.-step ^Ranges$LongRange data)))
+     (doto (RoaringBitmap.)
+       (.addRange (.-start ^Ranges$LongRange data) (.-end ^Ranges$LongRange data)))
+     :else
+     (unique {:set-constructor roaring-bitmap} data)))
+  (^RoaringBitmap [^long start ^long end]
+   (doto (RoaringBitmap.)
+     (.addRange start end))))
+
+
+(defn roaring-bitmap->bytes
+  "Serialize a roaring bitmap to a compact byte array."
+  ^bytes [^RoaringBitmap bm]
+  (.serialize bm))
+
+
+(defn bytes->roaring-bitmap
+  "Deserialize a roaring bitmap from [[roaring-bitmap->bytes]]."
+  ^RoaringBitmap [^bytes data]
+  (RoaringBitmap/deserialize data))
+
+
 
 (extend-protocol hamf-proto/SetOps
   Object
@@ -122,7 +167,7 @@
   (set? [l] true)
   (union [l r]
     (let [^BitSet l (.clone l)]
-      (.or ^BitSet (.clone l) (bitset r))
+      (.or l (bitset r))
       l))
   (difference [l r]
     (let [^BitSet l (.clone l)]
@@ -138,6 +183,15 @@
       l))
   (contains-fn [l]
     (hamf-fn/long-predicate v (.get l (unchecked-int v))))
+  (cardinality [l] (.cardinality l))
+  RoaringBitmap
+  (set? [l] true)
+  (union [l r] (RoaringBitmap/union l (roaring-bitmap r)))
+  (difference [l r] (RoaringBitmap/difference l (roaring-bitmap r)))
+  (intersection [l r] (RoaringBitmap/intersection l (roaring-bitmap r)))
+  (xor [l r] (RoaringBitmap/xor l (roaring-bitmap r)))
+  (contains-fn [l]
+    (hamf-fn/long-predicate v (.containsLong l v)))
   (cardinality [l] (.cardinality l)))
 
 
@@ -146,12 +200,19 @@
   (reduce-union [l data]
     (reduce hamf-proto/union l data))
   (reduce-intersection [l data]
-    (reduce hamf-proto/intersection l data)))
+    (reduce hamf-proto/intersection l data))
+  RoaringBitmap
+  (reduce-union [l data]
+    (RoaringBitmap/unionAll (into [l] (clojure.core/map roaring-bitmap) data)))
+  (reduce-intersection [l data]
+    (RoaringBitmap/intersectAll (into [l] (clojure.core/map roaring-bitmap) data))))
 
 
 (extend-protocol hamf-proto/PAdd
   BitSet
-  (add-fn [c] (hamf-rf/long-accumulator b v (.set ^BitSet b (unchecked-int v)) b)))
+  (add-fn [c] (hamf-rf/long-accumulator b v (.set ^BitSet b (unchecked-int v)) b))
+  RoaringBitmap
+  (add-fn [c] (hamf-rf/long-accumulator b v (.addLong ^RoaringBitmap b v) b)))
 
 
 (extend-protocol hamf-proto/BitSet
@@ -178,7 +239,13 @@
   (min-set-value [item]
     (.nextSetBit item 0))
   (max-set-value [item]
-    (.previousSetBit item Integer/MAX_VALUE)))
+    (.previousSetBit item Integer/MAX_VALUE))
+  RoaringBitmap
+  (bitset? [item] true)
+  (contains-range? [item sidx eidx] (.containsRange item (long sidx) (long eidx)))
+  (intersects-range? [item sidx eidx] (.intersectsRange item (long sidx) (long eidx)))
+  (min-set-value [item] (.min item))
+  (max-set-value [item] (.max item)))
 
 
 (defn union
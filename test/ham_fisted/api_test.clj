@@ -1,5 +1,6 @@
 (ns ham-fisted.api-test
   (:require [clojure.test :refer [deftest is]]
+            [clojure.set]
             [ham-fisted.api :as hamf]
             [ham-fisted.alists :as alists]
             [ham-fisted.reduce :as hamf-rf]
@@ -10,7 +11,7 @@
   (:import [java.util BitSet]
            [java.util.function Consumer DoubleConsumer LongConsumer]
            [clojure.lang IDeref]
-           [ham_fisted Reducible]))
+           [ham_fisted Reducible RadixSort ArrayKernels]))
 
 
 
@@ -310,6 +311,380 @@
 (deftest seq-iterable-not-counted
   (is (not (counted? (hamf-iter/wrap-iter (.iterator (range)))))))
 
+(deftest off-heap-array-lists
+  (let [data (shuffle (range 10000))
+        ll (hamf/off-heap-long-array-list data)
+        dl (hamf/off-heap-double-array-list (map double data))]
+    (is (= data ll))
+    (is (= (hamf/lsum data) (hamf/lsum ll)))
+    (is (= (hamf/dsummary data) (hamf/dsummary dl)))
+    (is (= (hamf/argsort data) (hamf/argsort ll) (hamf/argsort dl)))
+    (is (= (reduce + (subvec data 100 2000))
+           (hamf-rf/preduce (constantly 0) + + {:min-n 100} (.subList ll 100 2000))))
+    (.add ll 0 -1)
+    (.remove ll 10)
+    (is (= (concat [-1] (take 9 data) (drop 10 data)) ll))
+    (let [f (java.io.File/createTempFile "hamf" ".bin")]
+      (try
+        (let [ml (hamf/mmap-long-array-list f {:n-elems 100})]
+          (.fillRangeReducible ml 0 (range 100))
+          (is (= (range 100) (hamf/mmap-long-array-list f {:read-only? true})))
+          (is (= 4950 (hamf/lsum ml))))
+        (finally
+          (.delete f))))))
+
+(deftest big-array-lists
+  (let [data (shuffle (range 100000))
+        ll (hamf/long-big-array-list data)
+        dl (hamf/double-big-array-list data)]
+    (is (= 100000 (hamf/lsize ll) (hamf/lsize dl)))
+    (is (= data (vec ll)))
+    (is (= (hamf/lsum data) (hamf/lsum ll)))
+    (is (== (hamf/sum data) (hamf/sum dl)))
+    (is (= (reduce + (subvec data 100 20000))
+           (hamf-rf/preduce (constantly 0) + + {:min-n 100} (.subList ll 100 20000))))
+    (is (= (vec (hamf/argsort data)) (vec (hamf/argsort ll)) (vec (hamf/argsort dl))))
+    (.setLong ll 10 -1)
+    (is (= -1 (.getLong ll 10)))))
+
+(deftest radix-sort
+  (let [data (double-array (concat [##NaN -0.0 0.0 ##-Inf ##Inf]
+                                   (map #(- (double %) 5000.5) (shuffle (range 10000)))))
+        expected (doto (aclone data) (java.util.Arrays/sort))
+        ldata (long-array (shuffle (range -5000 5000)))
+        popts (hamf-rf/options->parallel-options {:min-n 100 :parallelism 4})
+        ;;Arrays/equals treats NaN as equal to NaN
+        d= (fn [a b] (java.util.Arrays/equals (double-array a) (double-array b)))]
+    (is (d= expected (hamf/sort data)))
+    (is (d= expected (hamf/reindex data (hamf/argsort data))))
+    (is (d= expected (hamf/sort (float-array data))))
+    (is (= (range -5000 5000) (hamf/sort ldata) (hamf/sort (int-array ldata))))
+    (is (= (range -5000 5000) (hamf/reindex ldata (hamf/argsort (int-array ldata)))))
+    (is (d= expected (doto (aclone data) (RadixSort/sort 0 (alength data) popts))))
+    (is (d= expected (hamf/reindex data (RadixSort/argsort data 0 (alength data) popts))))
+    (is (= (range -5000 5000) (hamf/reindex ldata (RadixSort/argsort ldata 0 (alength ldata) popts))))
+    ;;radix argsort is stable
+    (is (= [1 3 0 2 4] (vec (hamf/argsort (long-array [2 1 2 1 3])))))
+    (is (Double/isNaN (first (hamf/sort hamf-fn/comp-nan-first data))))))
+
+(deftest array-kernels
+  (let [data (hamf/double-array (map #(- (double %) 500.25) (shuffle (range 1003))))
+        dl (hamf/double-array-list data)
+        ldata (hamf/long-array (shuffle (range -500 503)))
+        ;;same data without an array backing
+        dseq (seq data)
+        lseq (seq ldata)]
+    (is (== (hamf/sum dseq) (hamf/sum data) (hamf/sum dl)))
+    (is (== (hamf/sum dseq) (hamf/sum {:min-n 10 :batch-size 100} data)))
+    (is (< (Math/abs (- (hamf/sum-fast dseq) (hamf/sum-fast data))) 1e-9))
+    (is (== (hamf/mean dseq) (hamf/mean (.subList dl 0 1003))))
+    (is (= (hamf/dsummary dseq) (hamf/dsummary data)))
+    (is (= (hamf/dsummary []) (hamf/dsummary (double-array 0))))
+    (is (= (hamf/lsummary lseq) (hamf/lsummary ldata)))
+    (is (= (hamf/lsummary []) (hamf/lsummary (long-array 0))))
+    (is (= (hamf/lsum lseq) (hamf/lsum ldata) (hamf/lsum (hamf/long-array-list ldata))))
+    (let [nan-data (double-array [1 2 ##NaN 4 5])]
+      (is (= {:sum 12.0 :n-elems 4} (hamf/sum-stable-nelems nan-data)))
+      (is (Double/isNaN (hamf/sum {:nan-strategy :keep} nan-data)))
+      (is (thrown? Exception (hamf/sum {:nan-strategy :exception} nan-data))))
+    (is (== (reduce + (map * data data)) (ArrayKernels/dot data 0 data 0 (alength data))))
+    (let [mv (ArrayKernels/meanVariance data 0 (alength data))
+          m (hamf/mean data)]
+      (is (== m (aget mv 0)))
+      (is (< (Math/abs (- (aget mv 1)
+                          (/ (reduce + (map #(let [d (- (double %) m)] (* d d)) data))
+                             (dec (alength data)))))
+             1e-6)))))
+
+
+(deftest external-sort
+  (let [data (shuffle (range 10000))
+        opts {:chunk-size 1000 :min-n 100}]
+    (with-open [s (hamf/external-sort compare opts data)]
+      (is (= 10 (.nRuns s)))
+      (is (= (range 10000) (vec s)))
+      ;;iterable may be read repeatedly until closed
+      (is (= (range 10000) (vec s))))
+    (with-open [s (hamf/external-sort nil opts (hamf/long-array data))]
+      (is (= (range 10000) (vec s))))
+    (with-open [s (hamf/external-sort nil opts (hamf/double-array (conj data ##NaN)))]
+      (is (= (map double (range 10000)) (vec (butlast s))))
+      (is (Double/isNaN (last s))))
+    (with-open [s (hamf/external-sort #(compare %2 %1) opts (map str data))]
+      (is (= (reverse (sort (map str data))) (vec s))))
+    (with-open [s (hamf/external-sort compare opts (range 10))]
+      (is (= 0 (.nRuns s)))
+      (is (= (range 10) (vec s))))))
+
+(deftest chunked-lines
+  (let [data (mapv #(str "line-" % "," (mod % 7) (when (zero? (mod % 97)) (apply str (repeat 300 "x"))))
+                   (range 5000))
+        text (str (apply str (interpose "\r\n" (take 10 data))) "\n"
+                  (apply str (interpose "\n" (drop 10 data))))
+        f (java.io.File/createTempFile "chunked-lines" ".txt")
+        opts {:block-size 256 :min-n 10}
+        group-count (fn [ld]
+                      (hamf/group-by-reduce #(subs % (inc (.indexOf ^String % ","))
+                                                   (inc (inc (.indexOf ^String % ","))))
+                                            (constantly 0) (fn [^long acc _] (inc acc)) +
+                                            opts ld))
+        expected (group-count data)]
+    (try
+      (spit f text)
+      (with-open [ld (hamf/chunked-lines f opts)]
+        (is (= data (vec ld)))
+        (is (= data (reduce conj [] ld)))
+        (is (= expected (group-count ld)))
+        (is (= (count data) (hamf-rf/preduce (constantly 0) (fn [^long acc _] (inc acc)) + opts ld)))
+        (is (= (take 3 data) (reduce (fn [acc l] (if (== 3 (count acc)) (reduced acc) (conj acc l)))
+                                     [] ld))))
+      (with-open [ld (hamf/chunked-lines (.getPath f) (assoc opts :char-sequence? true))]
+        (is (instance? CharSequence (first ld)))
+        (is (= data (mapv str ld)))
+        (is (= expected (group-count (lznc/map str ld)))))
+      (with-open [ld (hamf/chunked-lines (java.io.ByteArrayInputStream. (.getBytes ^String text "UTF-8"))
+                                         opts)]
+        (is (= expected (group-count ld))))
+      (with-open [ld (hamf/chunked-lines (java.io.ByteArrayInputStream. (.getBytes ^String text "UTF-8"))
+                                         opts)]
+        (is (= data (vec ld))))
+      (finally
+        (.delete f)))))
+
+
+(deftest bounded-linked-hashmap
+  (let [evicted (java.util.ArrayList.)
+        m (hamf/bounded-linked-hashmap 3 {:eviction-fn (fn [k v] (.add evicted [k v]))})]
+    (doseq [k [:a :b :c]] (.put m k (name k)))
+    (is (= "a" (.get m :a)))
+    (.put m :d "d")
+    (is (= [[:b "b"]] (vec evicted)))
+    (is (= [:c :a :d] (vec (keys m))))
+    (.put m :c "cc")
+    (.computeIfAbsent m :e (hamf-fn/function k "e"))
+    (is (= [:d :c :e] (vec (keys m))))
+    (is (= 3 (count m)))
+    (is (= [[:b "b"] [:a "a"]] (vec evicted))))
+  ;;A scan of one-off keys does not flush frequently used keys.
+  (let [m (hamf/bounded-linked-hashmap 10 {:admission :lfu})]
+    (dotimes [_ 5] (doseq [k (range 10)] (.put m k k) (.get m k)))
+    (doseq [k (range 100 200)] (when-not (.get m k) (.put m k k)))
+    (is (= (set (range 10)) (set (keys m))))
+    (is (= 10 (count m))))
+  ;;A miss followed by a put counts once so the new key is not more frequent than the victim.
+  (let [m (hamf/bounded-linked-hashmap 2 {:admission :lfu})]
+    (.put m :a 1)
+    (.put m :b 2)
+    (when-not (.get m :c) (.put m :c 3))
+    (is (= #{:a :b} (set (keys m)))))
+  (doseq [impl [:lru :lfu]]
+    (let [n-calls (java.util.concurrent.atomic.AtomicLong.)
+          evicted (java.util.ArrayList.)
+          f (hamf/memoize (fn [a b] (.incrementAndGet n-calls) (when (odd? a) (+ a b)))
+                          {:cache-impl impl :max-size 4
+                           :eviction-fn (fn [args v cause] (.add evicted [args v cause]))})]
+      (is (= [nil 2 nil 4] (mapv #(f % 1) (range 4))))
+      (is (= [nil 2 nil 4] (mapv #(f % 1) (range 4))))
+      (is (= 4 (.get n-calls)))
+      (is (= 4 (count (hamf/memoize-cache-as-map f))))
+      (hamf/evict-memoized-call f [1 1])
+      (is (= 2 (f 1 1)))
+      (is (= 5 (.get n-calls)))
+      (dotimes [idx 20] (f (+ 100 idx) 1))
+      (is (<= (count (hamf/memoize-cache-as-map f)) 4))
+      (is (every? #(= :size (nth % 2)) evicted))
+      (hamf/clear-memoized-fn! f)
+      (is (= 0 (count (hamf/memoize-cache-as-map f))))))
+  (is (thrown? Exception (hamf/memoize + {:cache-impl :lru}))))
+
+
+(deftest roaring-bitmap
+  (let [rnd (java.util.Random. 42)
+        ;;sparse, dense and clustered values in the hundreds of millions
+        rand-set (fn []
+                   (set (concat (repeatedly 3000 #(+ 300000000 (.nextInt rnd 100000000)))
+                                (repeatedly 8000 #(+ 400000000 (.nextInt rnd 65536)))
+                                (range 500000000 (+ 500000000 (.nextInt rnd 200000)))
+                                [0 65535 65536 4294967295])))
+        sets (vec (repeatedly 4 rand-set))
+        bms (mapv hamf-set/roaring-bitmap sets)
+        [a b] sets
+        [ba bb] bms]
+    (is (every? true? (map = sets bms)))
+    (is (= (count a) (hamf-set/cardinality ba)))
+    (is (= (sort a) (vec ba)))
+    (is (= (sort a) (vec (reduce conj [] ba))))
+    (is (= (clojure.set/union a b) (hamf-set/union ba bb)))
+    (is (= (clojure.set/intersection a b) (hamf-set/intersection ba bb)))
+    (is (= (clojure.set/difference a b) (hamf-set/difference ba bb)))
+    (is (= (clojure.set/union (clojure.set/difference a b) (clojure.set/difference b a))
+           (hamf-set/xor ba bb)))
+    ;;inputs are unchanged by set operations and later additions
+    (let [u (hamf-set/union ba bb)]
+      (.addLong u 7)
+      (.addRange u 1000 200000)
+      (is (= a ba))
+      (is (= b bb))
+      (is (= (.orInPlace (hamf-set/roaring-bitmap a) bb) (clojure.set/union a b))))
+    (is (= (apply clojure.set/union sets) (apply hamf-set/reduce-union bms)))
+    (is (= (apply clojure.set/intersection sets) (apply hamf-set/reduce-intersection bms)))
+    (is (= (clojure.set/union a #{1 2 3}) (hamf-set/union ba #{1 2 3})))
+    (is (= (apply min a) (hamf-set/min-set-value ba)))
+    (is (= (apply max a) (hamf-set/max-set-value ba)))
+    (is (hamf-set/contains-range? ba 500000000 500000010))
+    (is (not (hamf-set/contains-range? ba 499999999 500000010)))
+    (is (hamf-set/intersects-range? ba 499999000 500000001))
+    (is (not (hamf-set/intersects-range? ba 1 65535)))
+    (let [cf (hamf-set/contains-fn ba)]
+      (is (every? cf a))
+      (is (not (cf 65534))))
+    (is (= (set (range 10 300000 3)) (hamf-set/roaring-bitmap (hamf/range 10 300000 3))))
+    (is (= (set (range 10 300000)) (hamf-set/roaring-bitmap 10 300000)))
+    (is (= (set (range 10 300000)) (hamf-set/roaring-bitmap (hamf-set/bitset 10 300000))))
+    (is (= "{1, 3, 5}" (str (hamf-set/bitset (hamf/range 1 7 2)))))
+    (is (= "{1, 2, 3}" (str (hamf-set/union (hamf-set/bitset [1 2]) (hamf-set/bitset [3])))))
+    (is (= 99997 (count (hamf/range 10 300000 3)) (count (hamf/range 300000 10 -3))))
+    (is (= 4611686018427387904
+           (.-nElems (ham_fisted.Ranges$LongRange. 0 Long/MAX_VALUE 2 nil))
+           (.-nElems (ham_fisted.Ranges$LongRange. 0 Long/MIN_VALUE -2 nil))))
+    (is (= (dec Long/MAX_VALUE)
+           (.lgetLong (ham_fisted.Ranges$LongRange. 0 Long/MAX_VALUE 2 nil) 4611686018427387903)))
+    (doseq [bm bms]
+      (is (= bm (hamf-set/bytes->roaring-bitmap (hamf-set/roaring-bitmap->bytes bm)))))
+    (is (< (alength (hamf-set/roaring-bitmap->bytes (hamf-set/roaring-bitmap 0 100000000))) 20000))
+    (let [bm (hamf-set/roaring-bitmap (range 0 10000))]
+      (doseq [v (range 0 10000 2)] (.remove bm v))
+      (is (= (set (range 1 10000 2)) bm)))
+    ;;Adding every other value to a run fragments it - the container becomes a bitmap.
+    (let [bm (hamf-set/roaring-bitmap 0 1000)]
+      (doseq [v (range 1001 65536 2)] (.addLong bm v))
+      (is (= (into (set (range 0 1000)) (range 1001 65536 2)) bm))
+      (is (< (alength (hamf-set/roaring-bitmap->bytes bm)) 9000)))
+    (is (thrown? Exception (hamf-set/roaring-bitmap [-1])))))
+
+
+(deftest group-by-columnar
+  (let [n 50000
+        vals (double-array (map #(* 0.5 (double %)) (range n)))
+        lvals (long-array (map #(- (long (mod (* 31 (long %)) 1000)) 500) (range n)))
+        expected (fn [^longs ks]
+                   (let [groups (group-by #(aget ks (long %)) (range n))
+                         gkeys (sort (keys groups))
+                         agg (fn [f] (mapv #(f (get groups %)) gkeys))]
+                     {:key (vec gkeys)
+                      :sum (agg #(reduce + (map (fn [idx] (aget vals (long idx))) %)))
+                      :n (agg count)
+                      :lmin (agg #(apply min (map (fn [idx] (aget lvals (long idx))) %)))
+                      :lmax (agg #(apply max (map (fn [idx] (aget lvals (long idx))) %)))}))
+        aggs {:sum [:sum vals] :mean [:mean vals] :n [:count]
+              :lmin [:min lvals] :lmax [:max lvals] :dmax [:max vals]}
+        close? (fn [a b] (every? true? (map #(< (Math/abs (- (double %1) (double %2))) 1e-6) a b)))
+        check (fn [ks]
+                (let [exp (expected ks)]
+                  (doseq [opts [nil {:min-n 100}]]
+                    (let [rv (hamf/group-by-columnar ks aggs opts)]
+                      (is (= (exp :key) (rv :key)))
+                      (is (= (exp :n) (rv :n)))
+                      (is (= (exp :lmin) (rv :lmin)))
+                      (is (= (exp :lmax) (rv :lmax)))
+                      (is (close? (exp :sum) (rv :sum)))
+                      (is (close? (map / (exp :sum) (exp :n)) (rv :mean)))
+                      (is (every? true? (map >= (rv :dmax) (rv :mean))))))))]
+    ;;dense key range
+    (check (long-array (map #(mod (* 7 (long %)) 113) (range n))))
+    ;;hashed key range
+    (check (long-array (map #(* 1000003 (- (long (mod (* 13 (long %)) 997)) 400)) (range n))))
+    (is (= [1 2 3] (:key (hamf/group-by-columnar (int-array [3 1 2 1]) {:n [:count]}))))
+    (is (= [1.5 1.0 2.0] (:n (hamf/group-by-columnar [3 1 2 1] {:n [:mean (long-array [2 1 1 2])]}))))
+    (is (thrown? Exception (hamf/group-by-columnar [1 2] {:s [:sum [1.0]]})))))
+
+
+(deftest fused-map-filter-pipeline
+  (let [data (hamf/long-array (range 10000))
+        vdata (vec (range 10000))
+        expected (->> (range 10000)
+                      (map #(* % 3))
+                      (filter even?)
+                      (map #(+ % 0.5))
+                      (filter #(> % 10.0))
+                      (map #(long (* % 2.0)))
+                      (vec))
+        typed (fn [coll]
+                (->> coll
+                     (lznc/map (fn ^long [^long x] (* x 3)))
+                     (lznc/filter (fn [^long x] (even? x)))
+                     (lznc/map (fn ^double [^long x] (+ x 0.5)))
+                     (lznc/filter (hamf-fn/double-predicate x (> x 10.0)))
+                     (lznc/map (fn ^long [^double x] (long (* x 2.0))))))
+        untyped (fn [coll]
+                  (->> coll
+                       (lznc/map #(* % 3))
+                       (lznc/filter even?)
+                       (lznc/map #(+ % 0.5))
+                       (lznc/filter #(> % 10.0))
+                       (lznc/map #(long (* % 2.0)))))]
+    (doseq [p [(typed data) (typed vdata) (untyped data) (untyped vdata)]]
+      (is (= expected (reduce conj [] p)))
+      (is (= (reduce + expected) (hamf/lsum p)))
+      (is (= (reduce + expected) (hamf-rf/preduce (constantly 0) + + {:min-n 100} p)))
+      (is (= (take 5 expected) (reduce (fn [acc v]
+                                         (if (== 5 (count acc))
+                                           (reduced acc)
+                                           (conj acc v)))
+                                       [] p)))
+      (is (= expected (vec p)))))
+  ;;Primitive map stages compose without losing their types
+  (is (= [10.0 16.0 22.0]
+         (->> (hamf/long-array [1 2 3])
+              (lznc/map (fn ^long [^long x] (* x 2)))
+              (lznc/map (fn ^double [^long x] (+ x 0.5)))
+              (lznc/map (fn ^long [^double x] (long (* x 3))))
+              (lznc/map (fn ^double [^long x] (+ x 2.0)))
+              (lznc/map (fn [x] (+ x 1.0)))
+              (reduce conj []))))
+  (is (= [2 4 6]
+         (->> [1.0 2.0 3.0]
+              (lznc/map (fn ^double [x] (* (double x) 2.0)))
+              (lznc/map (fn ^long [^double x] (long x)))
+              (lznc/map (fn [^long x] x))
+              (reduce conj [])))))
+
+(deftest parallel-map-union
+  (let [pool (java.util.concurrent.ForkJoinPool. 4)
+        options {:pool pool :union-min-n 10}
+        ;;Overlapping key ranges with vector values record the order of the merges.
+        maps (mapv (fn [i]
+                     (hamf/immut-map (map (fn [j] [(+ (* i 3000) j) [i]]) (range 5000))))
+                   (range 4))
+        expected (apply merge-with into (map #(into {} %) maps))]
+    (try
+      (is (= expected (hamf/union-reduce-maps into maps options)))
+      (is (= expected (hamf/union-reduce-maps into maps)))
+      (is (= [0 1] (get (hamf/union-reduce-maps into maps options) 3000)))
+      ;;Every key is present in every input so each sum combines all of them.
+      (let [rv (hamf/union-reduce-maps + (repeat 6 (hamf/immut-map (map (fn [j] [j 1]) (range 50000))))
+                                       options)]
+        (is (= 50000 (count rv)))
+        (is (every? #(= 6 %) (vals rv))))
+      ;;Mostly disjoint inputs grow the table past the largest input's capacity.
+      (let [maps (mapv (fn [i] (hamf/immut-map (map (fn [j] [(+ (* i 15000) j) 1]) (range 20000))))
+                       (range 8))
+            rv (hamf/union-reduce-maps + maps options)]
+        (is (= (+ (* 7 15000) 20000) (count rv)))
+        (is (= 2 (get rv 15000)))
+        (is (= 1 (get rv 0))))
+      (let [gopts (assoc options :min-n 10)
+            ;;A vector so preduce splits the data and the partial maps are merged.
+            data (vec (range 200000))]
+        (is (= (hamf/group-by-reduce #(rem % 7919) (constantly 0) + + nil data)
+               (hamf/group-by-reduce #(rem % 7919) (constantly 0) + + gopts data)))
+        (is (= (frequencies (map #(rem % 7919) data))
+               (hamf/group-by-reduce #(rem % 7919) (constantly 0) (fn [acc _] (inc acc)) +
+                                     gopts data))))
+      (finally
+        (.shutdown pool)))))
+
+
 (comment
 
   (do
@@ -1,7 +1,10 @@
 (ns ham-fisted.bloom-filter-test
   (:require [ham-fisted.bloom-filter :as hamf-bf]
+            [ham-fisted.api]
+            [ham-fisted.reduce :as hamf-rf]
             [clojure.test :refer [deftest is]])
-  (:import [java.util UUID]))
+  (:import [java.util UUID]
+           [ham_fisted BloomFilters$ScalableBloomFilter]))
 
 
 
@@ -26,3 +29,50 @@
                                  uuids))]
       (is (< false-pos 2000))
       (is (== M true-pos)))))
+
+
+(defn- false-positives
+  ^long [pred ^long n]
+  (reduce (fn [^long eax _]
+            (if (pred (UUID/randomUUID))
+              (inc eax)
+              eax))
+          0
+          (range n)))
+
+
+(deftest concurrent-test
+  (let [M (long 1e5)
+        uuids (vec (repeatedly M #(UUID/randomUUID)))
+        bf (hamf-bf/concurrent-bloom-filter M 0.01)
+        pred (hamf-bf/make-obj-predicate bf)]
+    ;;One filter shared across all threads - no merge step
+    (hamf-rf/preduce (constantly bf) hamf-bf/insert-obj (fn [l r] l) {:min-n 1000} uuids)
+    (is (every? pred uuids))
+    (is (< (false-positives pred M) 2000))
+    (is (= (vec (hamf-bf/bloom-filter->byte-array (reduce hamf-bf/insert-obj (hamf-bf/bloom-filter M 0.01) uuids)))
+           (vec (hamf-bf/bloom-filter->byte-array bf))))))
+
+
+(deftest scalable-test
+  (let [M (long 1e5)
+        uuids (vec (repeatedly M #(UUID/randomUUID)))
+        bf (reduce hamf-bf/insert-obj (hamf-bf/scalable-bloom-filter 1000 0.01) uuids)
+        pred (hamf-bf/make-obj-predicate bf)]
+    (is (< 1 (.numFilters ^BloomFilters$ScalableBloomFilter bf)))
+    (is (every? pred uuids))
+    (is (< (false-positives pred M) 1000))
+    (is (thrown? IllegalArgumentException (hamf-bf/bloom-filter->byte-array bf)))))
+
+
+(deftest counting-test
+  (let [M (long 1e4)
+        uuids (vec (repeatedly M #(UUID/randomUUID)))
+        bf (reduce hamf-bf/insert-obj (hamf-bf/counting-bloom-filter M 0.01) uuids)
+        pred (hamf-bf/make-obj-predicate bf)]
+    (is (every? pred uuids))
+    (is (= (vec (hamf-bf/bloom-filter->byte-array (reduce hamf-bf/insert-obj (hamf-bf/bloom-filter M 0.01) uuids)))
+           (vec (hamf-bf/bloom-filter->byte-array bf))))
+    (reduce hamf-bf/remove-obj bf (take 5000 uuids))
+    (is (every? pred (drop 5000 uuids)))
+    (is (< (count (filter pred (take 5000 uuids))) 100))))
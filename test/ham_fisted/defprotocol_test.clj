@@ -390,6 +390,50 @@
   (is (instance? clojure.lang.IFn$OLLO -sub-buffer-iface)))
 
 
+(defprotocol InlineCached
+  (cached-kind [v]))
+
+(extend-type Object
+  InlineCached
+  (cached-kind [v] :object))
+
+(deftest inline-cache-invalidation
+  (is (= :object (cached-kind "a")))
+  (is (= :object (cached-kind 1)))
+  (extend-type String
+    InlineCached
+    (cached-kind [v] :string))
+  (is (= :string (cached-kind "a")))
+  (is (= :object (cached-kind 1)))
+  ;;More classes than the inline cache holds fall back to the shared lookup cache
+  (is (= [:string :object :object :object :object :object :object]
+         (mapv cached-kind ["a" 1 1.0 :k 'sym [] {}])))
+  (extend-type Number
+    InlineCached
+    (cached-kind [v] :number))
+  (is (= [:string :number :number :object :object :object :object]
+         (mapv cached-kind ["a" 1 1.0 :k 'sym [] {}])))
+  (is (= [:number :string] (hamf/pmap cached-kind [1 "a"])))
+  (is (thrown? IllegalArgumentException (cached-kind nil)))
+  (extend nil InlineCached {:cached-kind (constantly :nil)})
+  (is (= :nil (cached-kind nil)))
+  ;;A site that overflows its entries goes straight to the shared lookup cache until the
+  ;;next extend.
+  (let [cache (ham_fisted.MethodImplCache. :k :ns/k java.util.RandomAccess :iface)
+        site (ham_fisted.MethodImplCache$CallSite. cache)
+        classes [String Long Double clojure.lang.Keyword clojure.lang.Symbol]]
+    (.extend cache Object :object)
+    (.extend cache String :string)
+    (is (= [:string :object :object :object] (mapv #(.findFnFor site %) (take 4 classes))))
+    (is (not (.isMegamorphic site)))
+    (is (= [:string :object :object :object :object] (mapv #(.findFnFor site %) classes)))
+    (is (.isMegamorphic site))
+    (is (= :string (.findFnFor site String)))
+    (.extend cache Long :long)
+    (is (= :long (.findFnFor site Long)))
+    (is (not (.isMegamorphic site)))))
+
+
 (comment
   (require '[criterium.core :as crit])
   ;;Single threaded calls show very little difference if any:
@@ -309,6 +309,238 @@
     (is (= (* 2 hhn-sum) (reduce + (vals df2))))))
 
 
+(deftype CollidingKey [v]
+  Object
+  (hashCode [_] 42)
+  (equals [_ o] (and (instance? CollidingKey o) (= v (.-v ^CollidingKey o)))))
+
+
+(deftest trie-map-assoc-dissoc
+  (let [n-elems 10000
+        data (shuffle (concat (range n-elems) (map #(CollidingKey. %) (range 10))))
+        dissoc-vals (take (quot n-elems 10) data)
+        alldata (reduce #(assoc %1 %2 %2) api/empty-trie-map data)
+        disdata (reduce dissoc alldata dissoc-vals)
+        cljdata (reduce #(assoc %1 %2 %2) {} data)]
+    (is (instance? ham_fisted.PersistentTrieMap alldata))
+    (is (= (count cljdata) (count alldata)))
+    (is (= cljdata alldata))
+    (is (= alldata cljdata))
+    (is (= (hash cljdata) (hash alldata)))
+    (is (= (apply dissoc cljdata dissoc-vals) disdata))
+    ;;structural sharing must leave the original untouched
+    (is (= cljdata alldata))
+    (is (= (CollidingKey. 3) (get alldata (CollidingKey. 3))))
+    (is (identical? alldata (assoc alldata 1 1)))
+    (is (identical? alldata (dissoc alldata -1)))
+    (is (= 0 (count (reduce dissoc alldata data))))
+    (is (= (reduce + (range n-elems))
+           (hamf-rf/preduce (constantly 0)
+                            (fn [acc e] (if (number? (key e)) (+ acc (key e)) acc))
+                            + {:min-n 10} alldata)))
+    (testing "transient"
+      (let [t (transient alldata)
+            _ (reduce #(assoc! %1 %2 :a) t (range 100))
+            _ (reduce dissoc! t (range 100 200))
+            m (persistent! t)]
+        (is (= cljdata alldata))
+        (is (= (- (count alldata) 100) (count m)))
+        (is (= :a (m 10)))
+        (is (= (api/immut-trie-map (api/obj-ary :a 1 :b 2)) {:a 1 :b 2}))))))
+
+
+(deftest trie-map-set-ops
+  (let [n-elems 1000
+        src-data (vec (distinct (repeatedly n-elems #(rand-int 100000000))))
+        lhs (api/immut-trie-map (map-indexed #(vector %2 %1) (take 600 src-data)))
+        rhs (api/immut-trie-map (map-indexed #(vector %2 %1) (drop 400 src-data)))
+        bfn (reify BiFunction (apply [this a b] (+ a b)))
+        clhs (into {} lhs)
+        crhs (into {} rhs)]
+    (is (= (merge-with + clhs crhs) (api/map-union bfn lhs rhs)))
+    (is (instance? ham_fisted.PersistentTrieMap (api/map-union bfn lhs rhs)))
+    (is (= (select-keys (merge-with + clhs crhs) (set/intersection (set (keys clhs)) (set (keys crhs))))
+           (.intersection lhs rhs bfn)))
+    (is (= (apply dissoc clhs (keys crhs)) (.difference lhs rhs)))
+    (is (= (update-vals clhs inc) (.updateValues lhs (reify BiFunction (apply [this k v] (inc v))))))
+    (is (= clhs (into {} lhs)))
+    (testing "sets"
+      (let [ls (api/immut-trie-set (keys clhs))
+            rs (api/immut-trie-set (keys crhs))]
+        (is (= (set (keys clhs)) ls))
+        (is (= (set/union (set (keys clhs)) (set (keys crhs))) (api/union ls rs)))
+        (is (= (set/intersection (set (keys clhs)) (set (keys crhs))) (api/intersection ls rs)))
+        (is (= (set/difference (set (keys clhs)) (set (keys crhs))) (api/difference ls rs)))
+        (is (= (dec (count ls)) (count (disj ls (first ls)))))
+        (is (= (count ls) (count (conj ls (first ls)))))))))
+
+
+(deftest long-primitive-maps
+  (let [n-elems 10000
+        ks (repeatedly n-elems #(- (rand-int 2000) 1000))
+        m (api/mut-long-long-map)
+        dm (api/mut-long-double-map)
+        cm (reduce (fn [acc k]
+                     (.accPlusLong ^ham_fisted.LongLongHashMap m k 2)
+                     (.accPlusDouble ^ham_fisted.LongDoubleHashMap dm k 0.5)
+                     (update acc k (fnil + 0) 2))
+                   {} (cons 0 ks))
+        rm-keys (take 300 (keys cm))
+        _ (doseq [k rm-keys]
+            (.removeLong ^ham_fisted.LongLongHashMap m k)
+            (.remove ^Map dm k))
+        cm (apply dissoc cm rm-keys)]
+    (is (= cm m))
+    (is (= (count cm) (count m) (count dm)))
+    (is (= (update-vals cm #(* 0.25 (double %))) dm))
+    (is (= (reduce + (vals cm))
+           (reduce-kv (fn [^long acc ^long k ^long v] (+ acc v)) 0 m)))
+    (is (== -1 (.getLong ^ham_fisted.LongLongHashMap m (first rm-keys) -1)))
+    (is (nil? (get m :a)))
+    (is (= {1 2 3 4} (api/mut-long-map nil {:value-type :long} [[1 2] [3 4]])))
+    (is (instance? ham_fisted.LongDoubleHashMap
+                   (api/mut-long-map nil {:value-type :double} [[1 2] [3 4]])))
+    (is (= {1 3} (persistent! (api/mut-long-long-map {1 3}))))
+    (is (= (frequencies ks)
+           (api/frequencies {:map-fn api/mut-long-long-map :min-n 100} ks)))
+    (is (= (update-vals (group-by even? ks) #(reduce + %))
+           (api/group-by-reduce even? (constantly 0) + + {:min-n 100} ks)))
+    (is (= (update-vals (group-by #(rem % 10) ks) #(reduce + %))
+           (api/group-by-reduce #(rem % 10) (constantly 0) + +
+                                {:min-n 100 :map-fn api/mut-long-long-map} ks)))))
+
+
+(deftest open-addressing-map
+  (let [n-elems 10000
+        ks (repeatedly n-elems #(rand-int 2000))
+        m (api/mut-open-map)
+        bfn (reify BiFunction (apply [this a b] (+ (long a) (long b))))
+        cm (reduce (fn [acc k]
+                     (.merge ^Map m k 1 bfn)
+                     (update acc k (fnil + 0) 1))
+                   {} (concat [nil :a "b"] ks))
+        rm-keys (take 300 (keys cm))
+        _ (doseq [k rm-keys] (.remove ^Map m k))
+        cm (apply dissoc cm rm-keys)]
+    (is (= cm m))
+    (is (= (count cm) (count m)))
+    (is (= (set (keys cm)) (set (keys m))))
+    (is (= (reduce + (vals cm)) (reduce + (vals m))))
+    (is (= (reduce + (vals cm)) (reduce-kv (fn [acc k v] (+ acc v)) 0 m)))
+    (is (= (reduce + (vals cm))
+           (hamf-rf/preduce (constantly 0) + + {:min-n 10} (vals m))))
+    (is (= (count cm) (count (api/vec (api/keys m)))))
+    (is (every? #(contains? m %) (keys cm)))
+    (is (nil? (get m (first rm-keys))))
+    (is (= cm (persistent! (api/mut-open-map cm))))
+    (is (= (update-vals cm inc) (api/update-values (api/mut-open-map cm) (fn [k v] (inc v)))))
+    (is (= (frequencies ks)
+           (api/frequencies {:map-fn api/mut-open-map :min-n 100} ks)))
+    (let [lhs (api/mut-open-map {1 1 2 2 3 3})]
+      (is (= {1 1 2 4 3 6 4 4} (api/map-union + lhs {2 2 3 3 4 4})))
+      (is (= {2 8 4 6} (api/map-intersection + (api/mut-open-map {2 4 4 2}) lhs)))
+      (is (= {1 1 3 6} (api/difference lhs {2 2 4 4})))
+      (is (= {1 nil} (api/intersection (api/mut-open-map {1 nil 5 5}) #{1}))))))
+
+
+(deftest open-addressing-map-parallel-streams
+  (let [m (api/mut-open-map (map (fn [i] [i (* 2 i)]) (range 100000)))
+        pool (ForkJoinPool. 4)
+        run-stream #(.get (.submit pool ^Callable (fn [] (.collect (.parallelStream ^Collection (%1 m))
+                                                                    (java.util.stream.Collectors/toList)))))]
+    (try
+      ;;Split halves keep mapping entries to keys and values.
+      (is (every? #(instance? Long %) (run-stream #(.keySet ^Map %))))
+      (is (every? #(instance? Long %) (run-stream #(.values ^Map %))))
+      (is (= (set (range 100000)) (set (run-stream #(.keySet ^Map %)))))
+      (is (= (* 2 (reduce + (range 100000))) (reduce + (run-stream #(.values ^Map %)))))
+      (finally
+        (.shutdown pool))))
+  ;;Sequential keys cluster in the low slots - splits still divide them evenly.
+  (let [m (api/mut-open-map (map (fn [i] [i i]) (range 1000)))
+        ^java.util.Spliterator s (.spliterator (.values ^Map m))
+        rhs (.trySplit s)]
+    (is (some? rhs))
+    (let [lc (atom 0) rc (atom 0)]
+      (.forEachRemaining s (reify java.util.function.Consumer (accept [_ _] (swap! lc inc))))
+      (.forEachRemaining rhs (reify java.util.function.Consumer (accept [_ _] (swap! rc inc))))
+      (is (= 1000 (+ @lc @rc)))
+      (is (< 300 @lc 700)))))
+
+
+(deftest perfect-hash-maps
+  (let [data (into {} (map (fn [i] [(keyword (str "k" i)) i])) (range 5000))
+        pm (api/perfect-map data)
+        colliding (api/perfect-map {:hash-provider (reify ham_fisted.HashProvider
+                                                    (hash [this k] (rem (hash k) 7)))}
+                                   data)
+        lm (api/freeze (api/mut-long-hashtable-map (map (fn [i] [(* i 31) (* i 2)])) (range 5000)))
+        dm (api/perfect-long-map {1 1.5 -7 2.5 Long/MAX_VALUE 3.0})]
+    (is (= data pm))
+    (is (= data colliding))
+    (is (instance? ham_fisted.PerfectLongHashMap lm))
+    (is (every? #(= (data %) (pm %) (colliding %)) (keys data)))
+    (is (nil? (pm :missing)))
+    (is (nil? (colliding :missing)))
+    (is (= 5000 (count lm)))
+    (is (every? #(== (* 2 %) (long (lm (* % 31)))) (range 5000)))
+    (is (nil? (lm 1)))
+    (is (= (reduce + (vals data)) (reduce + (vals pm))
+           (hamf-rf/preduce (constantly 0) + + {:min-n 10} (vals pm))))
+    (is (= (assoc data :a 1) (assoc pm :a 1)))
+    (is (= {} (api/perfect-map {})))
+    ;;1.5 and 1 are the same long key.
+    (is (thrown? IllegalArgumentException (api/perfect-long-map {1.5 :a 1 :b})))
+    (is (thrown? IllegalArgumentException (ham_fisted.PerfectHash/build (long-array [3 5 3]))))
+    (let [f (java.io.File/createTempFile "perfect" ".bin")]
+      (try
+        (api/write-perfect-long-map lm f)
+        (is (= lm (api/mmap-perfect-long-map f)))
+        (api/write-perfect-long-map dm f)
+        (is (= dm (api/mmap-perfect-long-map f)))
+        (finally (.delete f))))))
+
+
+(deftype StripeKey [^long k]
+  clojure.lang.IHashEq
+  ;;Every hash is a multiple of the largest stripe count so all keys share a stripe.
+  (hasheq [_] (unchecked-int (* k 1024)))
+  Object
+  (hashCode [_] (unchecked-int (* k 1024)))
+  (equals [_ o] (and (instance? StripeKey o) (== k (.-k ^StripeKey o)))))
+
+
+(deftest striped-concurrent-map
+  (let [n-elems 100000
+        m (api/mut-concurrent-map)
+        bfn (reify BiFunction (apply [this k v] (if v (inc (long v)) 1)))
+        futs (mapv (fn [_]
+                     (future (dotimes [idx n-elems]
+                               (.compute ^Map m (rem idx 5000) bfn))))
+                   (range 4))
+        _ (run! deref futs)
+        pm (persistent! m)]
+    (is (= 5000 (count pm)))
+    (is (instance? PersistentHashMap pm))
+    (is (every? #(== 80 (long %)) (vals pm)))
+    (is (= (assoc pm :a 1) (assoc (into {} pm) :a 1))))
+  ;;Keys crowding one stripe grow the table by the total count, like a serial map.
+  (let [m (api/mut-concurrent-map)
+        hm (api/mut-map)]
+    (dotimes [idx 2000]
+      (.put ^Map m (StripeKey. idx) idx)
+      (.put ^Map hm (StripeKey. idx) idx))
+    (is (= 2000 (count m)))
+    (is (= (.capacity ^ham_fisted.HashMap hm) (.capacity ^ham_fisted.HashMap m)))
+    (is (= 1999 (get m (StripeKey. 1999)))))
+  (let [data (vec (repeatedly 100000 #(rand-int 20000)))]
+    (is (= (frequencies data)
+           (api/frequencies {:shared-map? true :min-n 100} data)))
+    (is (= (update-vals (group-by #(rem % 1000) data) #(reduce + %))
+           (api/group-by-reduce #(rem % 1000) (constantly 0) + +
+                                {:shared-map? true :min-n 100} data)))))
+
+
 (def union-data
   {:java-hashmap {:construct-fn java-hashmap
                   :merge-fn api/map-union-java-hashmap
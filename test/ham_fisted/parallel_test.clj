@@ -4,7 +4,7 @@
             [ham-fisted.mut-map :as hamf-map]
             [ham-fisted.lazy-noncaching :as lznc]
             [clojure.test :refer [deftest is]])
-  (:import [ham_fisted Sum]))
+  (:import [ham_fisted Sum StripedSum StripedLongAccum]))
 
 
 (deftest spliterator-preduce
@@ -51,3 +51,116 @@
 (deftest custom-pmap-pool
   (let [p (java.util.concurrent.Executors/newCachedThreadPool)]
     (is (= 5050.0 (api/sum (api/pmap-opts {:n-lookahead 2 :pool p :min-n 0} #(do #_(println (.getName (Thread/currentThread))) (+ % 1)) (range 100)))))))
+
+
+(deftest batched-pmap
+  (let [data (range 100000)]
+    (is (= (mapv inc data) (vec (api/pmap inc data))))
+    (is (= (mapv + data data) (vec (api/pmap + data data))))
+    (is (= (mapv inc data) (api/sort (api/upmap inc data))))
+    (is (= (mapv inc data) (vec (api/pmap-opts {:max-batch-size 1} inc data))))))
+
+
+(deftest nested-pmap
+  ;;pmap within a fork-join task forks its batches rather than running serially
+  (let [pool (java.util.concurrent.ForkJoinPool. 4)
+        rv (.get (.submit pool ^Callable
+                          (fn []
+                            [(api/in-fork-join-task?)
+                             (vec (api/pmap inc (range 10000)))
+                             (api/sort (api/upmap inc (range 10000)))])))]
+    (is (true? (first rv)))
+    (is (= (api/range 1 10001) (nth rv 1)))
+    (is (= (api/range 1 10001) (nth rv 2)))
+    (.shutdown pool)))
+
+
+(deftest virtual-pmap
+  (is (= (api/range 1 1001) (vec (api/pmap-virtual 16 inc (range 1000)))))
+  (is (= [] (vec (api/pmap-virtual 16 inc []))))
+  (let [running (java.util.concurrent.atomic.AtomicLong.)
+        peak (atom 0)]
+    (is (= 200 (count (vec (api/pmap-virtual 4 (fn [v]
+                                                  (let [n (.incrementAndGet running)]
+                                                    (swap! peak max n)
+                                                    (Thread/sleep 1)
+                                                    (.decrementAndGet running)
+                                                    v))
+                                             (range 200))))))
+    (is (<= (long @peak) 4)))
+  (is (thrown-with-msg? Exception #"Error!!"
+                        (doall (api/pmap-virtual 8 (fn [^long v]
+                                                     (when (== v 7) (throw (Exception. "Error!!")))
+                                                     v)
+                                                 (range 20))))))
+
+
+(defn- spliterator-count
+  ^long [^java.util.Spliterator s]
+  (let [c (java.util.concurrent.atomic.AtomicLong.)]
+    (.forEachRemaining s (reify java.util.function.Consumer
+                           (accept [_ v] (.incrementAndGet c))))
+    (.get c)))
+
+
+(deftest balanced-hashtable-splits
+  ;;Leave only entries from the start of the table so bucket range halving would
+  ;;put nearly all elements in one split.
+  (let [^java.util.Map m (api/mut-map (lznc/map #(api/vector % %) (range 100000)))
+        kept (set (take 1000 (api/keys m)))]
+    (doseq [k (vec (api/keys m))]
+      (when-not (kept k) (.remove m k)))
+    (let [lhs (.spliterator ^java.util.Collection (hamf-map/keyset m))
+          rhs (.trySplit lhs)
+          nl (spliterator-count lhs)
+          nr (spliterator-count rhs)]
+      (is (== 1000 (+ nl nr)))
+      (is (< 300 nl 700)))
+    (is (= (reduce + kept)
+           (hamf-rf/preduce (constantly 0) + + {:min-n 10} (hamf-map/keyset m))))))
+
+
+(deftest forkjoin-spliterator-reduce
+  (let [data (java.util.ArrayList. ^java.util.Collection (range 100000))
+        opts {:min-n 10}]
+    ;;Ordered spliterators are merged in order.
+    (is (= (range 100000)
+           (hamf-rf/preduce api/object-array-list
+                            (fn [^java.util.List l v] (.add l v) l)
+                            (fn [^java.util.List l ^java.util.List r] (.addAll l r) l)
+                            opts data)))
+    (is (= 4999950000 (hamf-rf/preduce (constantly 0) + + opts (java.util.HashSet. data))))
+    (is (= 4999950000 (reduce + (hamf-rf/preduce (constantly 0) + +
+                                                 (assoc opts :unmerged-result? true)
+                                                 (java.util.HashSet. data)))))))
+
+
+(deftest striped-accumulators
+  (let [s (api/striped-sum)
+        l (api/striped-long-accum)
+        n 100000]
+    (dorun (api/pgroups n (fn [^long sidx ^long eidx]
+                            (loop [idx sidx]
+                              (when (< idx eidx)
+                                (.accept s (double idx))
+                                (.accept l idx)
+                                (recur (inc idx)))))
+                        {:min-n 100}))
+    (dorun (api/pmap (fn [^long idx] (.accept s 0.5) (.accept l 1)) (range 1000)))
+    (is (= {:sum (+ 4999950000.0 500.0) :n-elems (+ n 1000)} @s))
+    (is (= (+ 4999950000 1000) @l))
+    (is (= {:sum (+ 4999950000.0 500.0) :n-elems (+ n 1000)} @(.snapshotThenReset s)))
+    (is (= {:sum 0.0 :n-elems 0} @s))
+    (is (= (+ 4999950000 1000) (.sumThenReset l)))
+    ;;One instance shared by every partition is never merged with itself.
+    (is (= {:sum 4999950000.0 :n-elems n}
+           (hamf-rf/preduce-reducer (hamf-rf/double-consumer-preducer (constantly s))
+                                    {:min-n 100} (api/range n))))
+    (is (= 4999950000
+           (hamf-rf/preduce-reducer (hamf-rf/consumer-reducer (constantly l))
+                                    {:min-n 100} (api/range n))))
+    ;;Independent instances per partition merge as Sum does.
+    (is (= {:sum 4999950000.0 :n-elems n}
+           (hamf-rf/preduce-reducer (StripedSum. 2) {:min-n 100} (api/range n))))
+    (is (= {:sum 45.0 :n-elems 10}
+           @(doto (StripedSum.) (.acceptArray (double-array (range 10)) 0 10 false))))))
@@ -3,7 +3,7 @@
             [clj-memory-meter.core :as mm]
             [ham-fisted.api :as hamf]
             [ham-fisted.lazy-noncaching :as lznc])
-  (:import [ham_fisted MutList ImmutList MutTreeList TreeList]
+  (:import [ham_fisted MutList ImmutList MutTreeList TreeList LongTreeList DoubleTreeList]
            [java.util List ArrayList Collections]))
 
 
@@ -62,6 +62,8 @@
    :float-list-vec {:convert-fn float :vec-fn (comp hamf/->random-access hamf/float-array-list)}
    :double-vec {:convert-fn double :vec-fn (fn ([] (hamf/dvec)) ([data] (hamf/dvec data)))}
    :double-list-vec {:convert-fn double :vec-fn hamf/double-array-list}
+   :long-tree-vec {:convert-fn identity :vec-fn hamf/immut-long-list}
+   :double-tree-vec {:convert-fn double :vec-fn hamf/immut-double-list}
    })
 
 
@@ -331,6 +333,97 @@
            (* 1 (mm/measure t :bytes true))))))
 
 
+
+(deftest relaxed-concat-slice
+  (let [r (java.util.Random. 42)
+        rnd (fn [n] (if (pos? n) (.nextInt r (int n)) 0))]
+    (loop [idx 0 t (TreeList.) ref []]
+      (when (< idx 500)
+        (let [n (count ref)
+              [t ref op]
+              (case (int (rnd 7))
+                0 (let [d (range (rnd 2000))]
+                    [(hamf/concatv t (persistent! (hamf/mut-list d))) (into ref d) :concat])
+                1 (let [a (rnd (inc n)) b (rnd (inc n))]
+                    [(hamf/subvec t (min a b) (max a b)) (subvec ref (min a b) (max a b)) :subvec])
+                2 (let [d (range (rnd 100))] [(into t d) (into ref d) :conj])
+                3 (if (pos? n) [(pop t) (pop ref) :pop] [t ref :pop])
+                4 (if (pos? n)
+                    (let [i (rnd n)] [(assoc t i :x) (assoc ref i :x) :assoc])
+                    [t ref :assoc])
+                5 (let [i (rnd (inc n))]
+                    [(hamf/insert-at t i :ins)
+                     (-> (subvec ref 0 i) (conj :ins) (into (subvec ref i))) :insert-at])
+                6 (let [i (rnd (inc n)) d (range (rnd 300))]
+                    [(hamf/splice t i d)
+                     (-> (subvec ref 0 i) (into d) (into (subvec ref i))) :splice]))]
+          (is (instance? TreeList t) op)
+          (is (= ref t) op)
+          (is (= ref (vec (.toArray ^List t))) op)
+          (is (= ref (reduce conj [] t)) op)
+          (is (= (conj ref :y) (persistent! (conj! (transient t) :y))) op)
+          (recur (inc idx) t ref)))))
+  (let [parts (mapv #(persistent! (hamf/mut-list (hamf/range %))) (hamf/range 1000))
+        t (hamf/apply-concatv parts)]
+    (is (= (vec (apply concat parts)) t))
+    (is (= (vec (apply concat parts)) (persistent! t))))
+  ;;One-shot reducibles are only walked once.
+  (let [walked (atom 0)
+        parts (reify clojure.lang.IReduceInit
+                (reduce [_ rfn init]
+                  (when (> (swap! walked inc) 1) (throw (Exception. "Reduced twice")))
+                  (reduce rfn init [(hamf/vec [0 1]) (hamf/vec [2 3])])))]
+    (is (= [0 1 2 3] (hamf/apply-concatv parts))))
+  (is (instance? MutTreeList (hamf/apply-concatv [(hamf/vec [0 1]) (hamf/vec [2 3])])))
+  (is (instance? MutTreeList (hamf/apply-concatv [])))
+  (is (= [] (hamf/apply-concatv nil))))
+
+
+(deftest repeated-middle-insert
+  ;;Seams are rebalanced so repeated splices keep the tree shallow.
+  (let [t (reduce (fn [v i] (hamf/insert-at v (quot (count v) 2) i)) (hamf/vec []) (range 20000))
+        ref (reduce (fn [v i] (let [m (quot (count v) 2)]
+                                (-> (subvec v 0 m) (conj i) (into (subvec v m)))))
+                    [] (range 2000))]
+    (is (= 20000 (count t)))
+    (is (<= (.shift ^TreeList t) 2))
+    (is (= (set (range 20000)) (set t)))
+    (is (every? #(= (nth t %) (.get ^List t (int %))) (range 0 20000 7)))
+    (is (= ref (reduce (fn [v i] (hamf/insert-at v (quot (count v) 2) i)) (hamf/vec []) (range 2000)))))
+  (let [t (reduce (fn [v i] (hamf/splice v (quot (count v) 3) (hamf/range i (+ i 5))))
+                  (hamf/vec []) (range 0 20000 5))]
+    (is (= 20000 (count t)))
+    (is (<= (.shift ^TreeList t) 2))
+    (is (= (set (range 20000)) (set t)))))
+
+
+(deftest primitive-tree-lists
+  (let [n 10000
+        lv (hamf/immut-long-list (hamf/range n))
+        dv (hamf/immut-double-list (hamf/range n))]
+    (is (instance? LongTreeList (conj lv 1)))
+    (is (instance? DoubleTreeList (assoc dv 10 1.5)))
+    (is (= (vec (range n)) lv))
+    (is (= (hamf/mapv double (range n)) dv))
+    (is (= (reduce + 0 (range n)) (reduce + 0 lv)))
+    (is (== (reduce + 0 (range n)) (hamf/sum dv)))
+    (is (= (vec (range (- n 40))) (nth (iterate pop lv) 40)))
+    (is (= -1 (.getLong ^LongTreeList (assoc lv 5000 -1) 5000)))
+    ;;earlier versions are unaffected
+    (is (= 5000 (.getLong ^LongTreeList lv 5000)))
+    (is (= (vec (range (+ n 100)))
+           (persistent! (reduce conj! (transient lv) (range n (+ n 100))))))
+    (let [t (transient dv)
+          _ (dotimes [_ 100] (pop! t))
+          _ (assoc! t 10 -1.0)
+          p (persistent! t)]
+      (is (= (- n 100) (count p)))
+      (is (== -1.0 (nth p 10)))
+      (is (== 10.0 (nth dv 10)))
+      (is (= n (count dv))))
+    (is (java.util.Arrays/equals (hamf/long-array (range n)) (.toLongArray ^LongTreeList lv)))
+    (is (java.util.Arrays/equals (hamf/double-array (range n)) (.toDoubleArray ^DoubleTreeList dv)))))
+
 (comment
   (def vec-fn (get-in vec-fns [:api-mut-sublist :vec-fn]))
   (def data (hamf/shuffle (hamf/range 100)))